@@ -0,0 +1,33 @@
+package com.infochimps.wukong.storm.benchmarks;
+
+import java.util.List;
+
+import org.openjdk.jmh.infra.Blackhole;
+
+import storm.trident.operation.TridentCollector;
+
+/**
+ * A TridentCollector which hands everything emitted to a JMH
+ * Blackhole so the work which produced it cannot be optimized away.
+ */
+public class BlackholeCollector implements TridentCollector {
+
+    private Blackhole blackhole;
+    public  long      emitted;
+
+    public BlackholeCollector(Blackhole blackhole) {
+	this.blackhole = blackhole;
+    }
+
+    @Override
+    public void emit(List<Object> values) {
+	emitted++;
+	blackhole.consume(values);
+    }
+
+    @Override
+    public void reportError(Throwable t) {
+	throw new RuntimeException(t);
+    }
+    
+}
@@ -0,0 +1,56 @@
+package com.infochimps.wukong.storm.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.infochimps.wukong.storm.Builder;
+import com.infochimps.wukong.storm.DataflowBuilder;
+import com.infochimps.wukong.storm.SpoutBuilder;
+
+/**
+ * Measures the configuration lookups made by the builders, which
+ * read (and on first use, default) Java system properties.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class BuilderBenchmark {
+
+    private Builder         builder;
+    private DataflowBuilder dataflowBuilder;
+
+    @Setup
+    public void setup() {
+	System.setProperty(DataflowBuilder.DATAFLOW_NAME, "benchmark");
+	builder         = new Builder();
+	dataflowBuilder = new DataflowBuilder(new SpoutBuilder());
+    }
+
+    @Benchmark
+    public String prop() {
+	return builder.prop(DataflowBuilder.DATAFLOW_NAME);
+    }
+
+    @Benchmark
+    public String propWithDefault() {
+	return builder.prop(Builder.ZOOKEEPER_HOSTS, Builder.DEFAULT_ZOOKEEPER_HOSTS);
+    }
+
+    @Benchmark
+    public int parsedProp() {
+	return dataflowBuilder.dataflowParallelism();
+    }
+
+    @Benchmark
+    public Object kafkaHosts() {
+	return builder.kafkaHosts();
+    }
+    
+}
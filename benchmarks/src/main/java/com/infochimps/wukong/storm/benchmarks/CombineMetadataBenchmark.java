@@ -0,0 +1,52 @@
+package com.infochimps.wukong.storm.benchmarks;
+
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import backtype.storm.tuple.Fields;
+
+import storm.trident.tuple.TridentTuple;
+
+import com.infochimps.wukong.storm.TopologyBuilder;
+import com.infochimps.wukong.storm.Tuples;
+
+/**
+ * Measures the stage which joins the fields emitted by a blob spout
+ * into the single "str" field read by the dataflow.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class CombineMetadataBenchmark {
+
+    @Param({"100", "1000"})
+    public int length;
+
+    private TopologyBuilder.CombineMetadata combine;
+    private TridentTuple                    tuple;
+    private BlackholeCollector              collector;
+
+    @Setup
+    public void setup(Blackhole blackhole) {
+	combine   = new TopologyBuilder.CombineMetadata();
+	combine.prepare(new HashMap(), null);
+	tuple     = Tuples.of(new Fields("content", "metadata", "linenumber"), Tuples.record(0, length), "s3://bucket/path/to/blob-00001.gz", 12345);
+	collector = new BlackholeCollector(blackhole);
+    }
+
+    @Benchmark
+    public void combine() {
+	combine.execute(tuple, collector);
+    }
+    
+}
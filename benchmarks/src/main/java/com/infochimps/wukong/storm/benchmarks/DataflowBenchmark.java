@@ -0,0 +1,108 @@
+package com.infochimps.wukong.storm.benchmarks;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import storm.trident.tuple.TridentTuple;
+
+import com.infochimps.storm.wukong.WuFunction;
+
+import com.infochimps.wukong.storm.DataflowBuilder;
+import com.infochimps.wukong.storm.Tuples;
+import com.infochimps.wukong.storm.dataflow.DataflowProtocol;
+import com.infochimps.wukong.storm.dataflow.LengthPrefixedProtocol;
+import com.infochimps.wukong.storm.dataflow.LineFrameProtocol;
+import com.infochimps.wukong.storm.dataflow.StubBolt;
+import com.infochimps.wukong.storm.dataflow.SubprocessPool;
+import com.infochimps.wukong.storm.dataflow.WuBatchAggregator;
+
+/**
+ * Measures the cost of moving records through a dataflow subprocess
+ * and back, with StubBolt standing in for `wu-bolt`.
+ *
+ * Each invocation sends one Trident batch of RECORDS records, so the
+ * reported operations are records.  The <code>mode</code> picks the
+ * path through the bolt:
+ *
+ * <ul>
+ *   <li><code>function</code>: WuFunction, one round trip per record</li>
+ *   <li><code>batch</code>: WuBatchAggregator with LineFrameProtocol</li>
+ *   <li><code>length</code>: WuBatchAggregator with LengthPrefixedProtocol</li>
+ * </ul>
+ *
+ * The <code>processes</code> parameter sizes the SubprocessPool and
+ * has no effect on the <code>function</code> mode.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class DataflowBenchmark {
+
+    public static final int RECORDS = 1000;
+
+    @Param({"function", "batch", "length"})
+    public String mode;
+
+    @Param({"100"})
+    public int length;
+
+    @Param({"1", "2"})
+    public int processes;
+
+    private List<TridentTuple> records;
+    private BlackholeCollector collector;
+    private WuFunction         function;
+    private WuBatchAggregator  aggregator;
+
+    @Setup
+    public void setup(Blackhole blackhole) {
+	records   = Tuples.records(RECORDS, length);
+	collector = new BlackholeCollector(blackhole);
+	String directory = System.getProperty("user.dir");
+	if (mode.equals("function")) {
+	    System.setProperty(DataflowBuilder.BOLT_COMMAND, StubBolt.command("line"));
+	    function = new WuFunction("benchmark", directory, "development");
+	    function.prepare(new HashMap(), null);
+	} else {
+	    DataflowProtocol protocol = (mode.equals("length") ? new LengthPrefixedProtocol() : new LineFrameProtocol());
+	    aggregator = new WuBatchAggregator("benchmark", StubBolt.command(mode), directory, "development", 0, protocol, processes, 2, SubprocessPool.ROUND_ROBIN, SubprocessPool.EXEC, false);
+	    aggregator.prepare(new HashMap(), null);
+	}
+    }
+
+    @TearDown
+    public void tearDown() {
+	if (function   != null) { function.cleanup();   }
+	if (aggregator != null) { aggregator.cleanup(); }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RECORDS)
+    public void batch() {
+	if (function != null) {
+	    for (TridentTuple record : records) {
+		function.execute(record, collector);
+	    }
+	} else {
+	    WuBatchAggregator.Frames frames = aggregator.init(null, collector);
+	    for (TridentTuple record : records) {
+		aggregator.aggregate(frames, record, collector);
+	    }
+	    aggregator.complete(frames, collector);
+	}
+    }
+
+}
@@ -0,0 +1,79 @@
+package com.infochimps.wukong.storm.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import kafka.message.Message;
+
+import storm.trident.tuple.TridentTuple;
+
+import com.infochimps.wukong.storm.Tuples;
+import com.infochimps.wukong.storm.state.KafkaState;
+
+/**
+ * Measures how the Kafka state groups a partition's batch of output
+ * records into message sets, with a stand-in for the producer which
+ * hands each message set to a Blackhole instead of a broker.
+ *
+ * Each invocation sends one batch of RECORDS records, so the
+ * reported operations are records.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class KafkaStateBenchmark {
+
+    public static final int RECORDS = 1000;
+
+    @Param({"100", "1000"})
+    public int length;
+
+    @Param({"1", "200"})
+    public int batchMessages;
+
+    private List<TridentTuple> records;
+    private KafkaState         state;
+    private KafkaState.Updater updater;
+
+    private static class LocalKafkaState extends KafkaState {
+
+	private Blackhole blackhole;
+
+	public LocalKafkaState(int batchMessages, Blackhole blackhole) {
+	    super("benchmark", batchMessages, 1000000, null);
+	    this.blackhole = blackhole;
+	}
+
+	@Override
+	protected void sendMessageSet(List<Message> messages) {
+	    blackhole.consume(messages);
+	}
+    }
+
+    @Setup
+    public void setup(Blackhole blackhole) {
+	records = Tuples.records(RECORDS, length);
+	state   = new LocalKafkaState(batchMessages, blackhole);
+	updater = new KafkaState.Updater();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RECORDS)
+    public void batch() {
+	state.beginCommit(1L);
+	updater.updateState(state, records, null);
+	state.commit(1L);
+    }
+
+}
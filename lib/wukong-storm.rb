@@ -16,6 +16,9 @@ module Wukong
       when 'wu-bolt'
         settings.define :run,                description: 'Name of the processor or dataflow to use. Defaults to basename of the given path', flag: 'r'
         settings.define :delimiter,          description: 'Emitted as a single record to mark the end of the batch ', default: 'X', flag: 't'
+        settings.define :batch,              description: 'Read frames of records, each preceded by a record count, and reply with per-record output counts', type: :boolean, default: false
+        settings.define :framing,            description: 'How records within a frame are delimited, one of: line, length.  Implies --batch when length', default: 'line'
+        settings.define :zygote,             description: 'Load the dataflow and then fork a child to process records over each connection requested on $stdin', type: :boolean, default: false
       when 'wu-storm'
         settings.define :name,               wukong_storm: true, description: "Name for the launched topology"
         settings.define :command_prefix,     wukong_storm: true, description: "Prefix to insert before all Wukong commands"
@@ -25,6 +28,22 @@ module Wukong
         settings.define :rm,                 wukong_storm: true, description: "Will kill any running topology of the same name before launching", type: :boolean, default: false
         settings.define :delimiter,          wukong_storm: true, description: "Batch delimiter to use with wu-bolt"
         settings.define :parallelism,        wukong_storm: true, description: "Parallelism hint for wu-bolt", default: 1
+        settings.define :batch,              wukong_storm: true, description: "Send records to wu-bolt in frames rather than one at a time", type: :boolean, default: false
+        settings.define :batch_size,         wukong_storm: true, description: "Maximum number of records in a frame sent to wu-bolt.  0 sends each Trident batch as a single frame", type: Integer, default: 0
+        settings.define :framing,            wukong_storm: true, description: "How records within a frame sent to wu-bolt are delimited, one of: line, length.  Length framing allows records containing newlines", default: 'line'
+        settings.define :partition_by,       wukong_storm: true, description: "Send all records with the same key to the same wu-bolt, keying them by one of: column, json, regex"
+        settings.define :partition_key,      wukong_storm: true, description: "The key for --partition_by: a tab-separated column number counting from 1, a dot-separated JSON field path, or a regular expression whose first group is the key"
+        settings.define :stages,             wukong_storm: true, description: "Comma-separated dataflows to run after this one, each as NAME[:PARALLELISM[:REPARTITION]] where REPARTITION is one of: shuffle, none"
+        settings.define :dataflow_mode,      wukong_storm: true, description: "How to run the dataflow, one of: subprocess, embedded.  Embedded runs the dataflow in Ruby runtimes within each Storm worker", default: 'subprocess'
+        settings.define :runtimes,           wukong_storm: true, description: "Number of embedded Ruby runtimes shared by the executors of each Storm worker", type: Integer, default: 1
+        settings.define :processes,          wukong_storm: true, description: "Number of wu-bolt processes run by each executor when sending frames", type: Integer, default: 1
+        settings.define :pipeline,           wukong_storm: true, description: "Maximum number of frames in flight to each wu-bolt process at once", type: Integer, default: 2
+        settings.define :reply_timeout,      wukong_storm: true, description: "Milliseconds a wu-bolt process may take to reply to a frame before it is relaunched and the batch replayed", type: Integer, default: 60_000
+        settings.define :dispatch,           wukong_storm: true, description: "How frames are assigned to wu-bolt processes, one of: round_robin, least_outstanding", default: 'round_robin'
+        settings.define :replay_cache,       wukong_storm: true, description: "Cache the outputs of each record so replayed batches skip wu-bolt, in one of: memory, file.  Only for dataflows whose outputs depend on nothing but each record"
+        settings.define :replay_cache_size,  wukong_storm: true, description: "Bytes of outputs cached by each Storm worker with --replay_cache", type: Integer
+        settings.define :replay_cache_dir,   wukong_storm: true, description: "Directory on each Storm worker in which to create the cache file with --replay_cache=file"
+        settings.define :zygote,             wukong_storm: true, description: "Fork wu-bolt processes from a zygote in each Storm worker which has already loaded the dataflow, rather than booting each one", type: :boolean, default: false
 
         settings.define :input,              wukong_storm: true, description: "Input URI for the topology.  The scheme of the URI determines the type of spout."
         settings.define :input_parallelism,  wukong_storm: true, description: "Parallelism (number of simultaneous threads) reading input.  Only used by some spouts.", default: 1
@@ -35,13 +54,60 @@ module Wukong
         settings.define :resume,             wukong_storm: true, description: "Start reading from where the topology left off.  This is the default behavior.", type: :boolean, default: true
         
         settings.define :kafka_partitions,   wukong_storm: true, description: "Number of Kafka partitions on the input topic", default: 1
-        settings.define :kafka_batch,        wukong_storm: true, description: "Batch size when reading from input topic (bytes)", default: 1_048_576
+        settings.define :discover_partitions, wukong_storm: true, description: "Discover the Kafka brokers and partitions of the input topic from Zookeeper, picking up new partitions as the topic grows.  Ignores --kafka_partitions", type: :boolean, default: false
+        settings.define :partition_refresh,  wukong_storm: true, description: "Seconds between reads of Kafka partition metadata from Zookeeper when using --discover_partitions", type: Integer
+        settings.define :kafka_batch,        wukong_storm: true, description: "Batch size when reading from input topic (bytes).  The starting size with --adaptive_batch", default: 1_048_576
+        settings.define :raw,                wukong_storm: true, description: "Pass input messages through to the dataflow and the output as raw bytes rather than decoding them.  Requires --batch, --framing=length, or --dataflow_mode=embedded", type: :boolean, default: false
+        settings.define :adaptive_batch,     wukong_storm: true, description: "Grow each input partition's batches while it is behind and shrink them while batches are slow or small", type: :boolean, default: false
+        settings.define :kafka_batch_min,    wukong_storm: true, description: "Smallest batch size when reading from input topic with --adaptive_batch (bytes)", type: Integer
+        settings.define :kafka_batch_max,    wukong_storm: true, description: "Largest batch size when reading from input topic with --adaptive_batch (bytes)", type: Integer
+        settings.define :batch_latency,      wukong_storm: true, description: "Milliseconds between batches from an input partition above which --adaptive_batch shrinks them", type: Integer
+
+        settings.define :adaptive_pending,   wukong_storm: true, description: "Adapt the number of batches in flight to keep batch latency near --pending_latency, rather than fixing it with topology.max.spout.pending", type: :boolean, default: false
+        settings.define :pending_min,        wukong_storm: true, description: "Fewest batches in flight with --adaptive_pending", type: Integer
+        settings.define :pending_max,        wukong_storm: true, description: "Most batches in flight with --adaptive_pending", type: Integer
+        settings.define :pending_latency,    wukong_storm: true, description: "Target milliseconds from the start of a batch to its commit with --adaptive_pending", type: Integer
+
+        settings.define :template,           wukong_storm: true, description: "Template for each record generated by synthetic:// input.  {{time}} is replaced by the emit time in milliseconds, {{seq}} by a sequence number, and {{pad}} by filler up to --record_size"
+        settings.define :templates,          wukong_storm: true, description: "Local file of templates, one per line, used in turn by synthetic:// input instead of --template"
+        settings.define :synthetic_rate,     wukong_storm: true, description: "Records per second generated by synthetic:// input, 0 for as fast as the topology will take them", type: Integer
+        settings.define :record_size,        wukong_storm: true, description: "Bytes to pad each record generated by synthetic:// input to", type: Integer
+        settings.define :synthetic_batch,    wukong_storm: true, description: "Number of records each spout task generates in each batch with synthetic:// input", type: Integer
+        settings.define :stamp_by,           wukong_storm: true, description: "Where to find the {{time}} stamp in each output record to measure end-to-end latency with synthetic:// input, one of: none, column, json, regex"
+        settings.define :stamp_key,          wukong_storm: true, description: "The column number, JSON field path, or regular expression locating the stamp for --stamp_by"
 
         settings.define :aws_key,            wukong_storm: true, description: "AWS access key. (Required for S3 input)"
         settings.define :aws_secret,         wukong_storm: true, description: "AWS secret key. (Required for S3 input)"
         settings.define :aws_region,         wukong_storm: true, description: "AWS region, one of: us-east-1, us-west-[1,2], eu-west-1, ap-southeast-[1,2], ap-northeast-1, sa-east-1.  (Required for S3 input)", default: 'us-east-1'
+        settings.define :recordizer,         wukong_storm: true, description: "How blob input is turned into records, one of: wukong, fused.  Fused joins each line with its metadata as it is read, skipping a separate stage", default: 'wukong'
+        settings.define :blob_partitions,    wukong_storm: true, description: "Number of partitions to hash blob input into, spread across the spout tasks.  Must not change while resuming.  Only used with --recordizer=fused", type: Integer, default: 16
+        settings.define :blob_index,         wukong_storm: true, description: "Local directory on each Storm worker in which to keep an index of blob input, so it needn't be listed again on restart.  Only used with --recordizer=fused"
+        settings.define :input_compression,  wukong_storm: true, description: "How blob input is compressed, one of: auto, none, gzip, bzip2, zstd.  Auto detects it from each blob's extension or first bytes.  Only used with --recordizer=fused", default: 'auto'
+        settings.define :prefetch,           wukong_storm: true, description: "Number of S3 objects to download in the background ahead of the one being read, 0 to read each as it is needed.  Only used with --recordizer=fused", type: Integer, default: 2
         
         settings.define :output,             wukong_storm: true, description: "Output URI for the topology.  The schee of the URI determines the type of state used."
+        settings.define :segment_size,       wukong_storm: true, description: "Size of each log segment in bytes when writing to file:// output", type: Integer, default: 134_217_728
+        settings.define :output_batch,       wukong_storm: true, description: "Maximum number of messages sent to the output topic together", type: Integer, default: 200
+        settings.define :output_batch_bytes, wukong_storm: true, description: "Maximum number of bytes sent to the output topic together", type: Integer, default: 1_000_000
+        settings.define :compression,        wukong_storm: true, description: "Compression codec for output sent to Kafka, one of: none, gzip, snappy", default: 'none'
+
+        settings.define :calibrate,          wukong_storm: true, description: "Size the topology by running the dataflow locally against a sample of its input before launching it", type: :boolean, default: false
+        settings.define :sample,             wukong_storm: true, description: "Local file of sample input records, one per line, to calibrate with"
+        settings.define :sample_records,     wukong_storm: true, description: "Maximum number of sample records to calibrate with", type: Integer, default: 1000
+        settings.define :target_rate,        wukong_storm: true, description: "Target throughput of the topology in records per second, used when calibrating", type: Integer
+        settings.define :headroom,           wukong_storm: true, description: "Factor by which to over-provision the dataflow when calibrating", type: Float, default: 1.5
+        settings.define :worker_cores,       wukong_storm: true, description: "Cores available to each Storm worker, used when calibrating", type: Integer
+        settings.define :calibrate_timeout,  wukong_storm: true, description: "Milliseconds each pass over the sample may take before calibration fails", type: Integer, default: 120_000
+
+        settings.define :local,              wukong_storm: true, description: "Run the topology in a local cluster instead of submitting it, then print its throughput, batch latency, and per-stage totals.  Kafka output is discarded", type: :boolean, default: false
+        settings.define :local_duration,     wukong_storm: true, description: "Seconds to run the topology for with --local", type: Integer, default: 60
+        settings.define :local_records,      wukong_storm: true, description: "Stop a --local run early once this many records have reached the output", type: Integer
+        settings.define :local_input,        wukong_storm: true, description: "Local file whose lines are replayed, over and over, in place of the Kafka input topic with --local"
+        settings.define :local_batch_size,   wukong_storm: true, description: "Number of lines in each batch replayed from --local_input", type: Integer
+
+        settings.define :metrics,            wukong_storm: true, description: "Where to report the throughput and latency of each stage, one of: none, logging, file", default: 'none'
+        settings.define :metrics_file,       wukong_storm: true, description: "Path on each Storm worker to write metrics to when using --metrics=file"
+        settings.define :metrics_interval,   wukong_storm: true, description: "Seconds between reports of metrics", type: Integer
         
         settings.define :debug,              wukong_storm: true, storm: true, description: 'topology.debug'
         settings.define :optimize,           wukong_storm: true, storm: true, description: 'topology.optimize'
@@ -74,3 +140,4 @@ end
 
 require 'wukong-storm/storm_runner'
 require 'wukong-storm/bolt_runner'
+require 'wukong-storm/embedded_driver'
@@ -4,6 +4,19 @@ module Wukong
     # Modifies the behavior of Wukong::Local::StdioDriver by appending
     # a batch delimiter after each set of output records, including
     # when there are 0 output records or if an error occurs.
+    #
+    # When the `batch` setting is true, input instead arrives in
+    # frames: a line holding the number of records N followed by N
+    # records.  The reply to a frame is a line holding the number of
+    # output records generated by each input record, separated by
+    # spaces, followed by all the output records.  Each frame is
+    # answered with a single write and a single flush.
+    #
+    # When the `framing` setting is `length`, frames are binary: the
+    # number of records, the per-record output counts, and the length
+    # of each record are all 4-byte, big-endian integers and each
+    # record is preceded by its length.  Records may then contain
+    # newlines.
     class BoltDriver < Local::StdioDriver
       
       include Logging
@@ -17,6 +30,9 @@ module Wukong
       def initialize(label, settings)
         super(label, settings)
         @output = []
+        @counts = []
+        @input  = String.new
+        @offset = 0
       end
 
       # Do *not* sync $stdout as in the StdioDriver.
@@ -35,8 +51,80 @@ module Wukong
       #
       # @param [String] line
       def receive_line line
-        super(line)
-        write_output
+        if settings[:batch]
+          receive_framed_line(line)
+        else
+          super(line)
+          write_output
+        end
+      end
+
+      # Called by EventMachine framework with each chunk of data read
+      # from $stdin.
+      #
+      # Relies on StdioDriver to split lines unless the `framing`
+      # setting is `length`, in which case length-prefixed records
+      # are read out of the data instead.
+      #
+      # @param [String] data
+      def receive_data data
+        return super(data) unless length_framing?
+        @input << data.force_encoding(Encoding::BINARY)
+        while read_length_prefixed
+          write_frame if @counts.size == @frame_size
+        end
+        @input  = @input.byteslice(@offset..-1)
+        @offset = 0
+      end
+
+      # Called for each line of input when the `batch` setting is
+      # true.
+      #
+      # The first line of a frame is the number of records in the
+      # frame.  Each following line is a record, which is sent
+      # through the dataflow and the number of output records it
+      # generated is noted.  Once all records in the frame have been
+      # received, the whole frame of output is written.
+      #
+      # @param [String] line
+      #
+      # @see #write_frame
+      def receive_framed_line line
+        if @frame_size.nil?
+          @frame_size = line.to_i
+        else
+          receive_framed_record(line)
+        end
+        write_frame if @counts.size == @frame_size
+      end
+
+      # Read either the record count of a new frame or the next
+      # record of the current frame out of the buffered input.
+      #
+      # @return [true, false] whether a count or record was read
+      def read_length_prefixed
+        return false if @input.bytesize < @offset + 4
+        length = @input.byteslice(@offset, 4).unpack('N').first
+        if @frame_size.nil?
+          @frame_size = length
+          @offset    += 4
+        else
+          return false if @input.bytesize < @offset + 4 + length
+          record   = @input.byteslice(@offset + 4, length).force_encoding(Encoding::UTF_8)
+          @offset += 4 + length
+          receive_framed_record(record)
+        end
+        true
+      end
+
+      # Sends a record within a frame through the dataflow, noting
+      # how many output records it generated.
+      #
+      # @param [String] record
+      def receive_framed_record record
+        before = @output.size
+        send_through_dataflow(record)
+        @counts << (@output.size - before)
       end
 
       #
@@ -76,6 +164,54 @@ module Wukong
         @output.clear
       end
 
+      # Writes a frame of output records, preceded by the
+      # per-input-record output counts, in a single write.
+      #
+      # $stdout is flushed after the write and accumulated outputs
+      # and counts are cleared.
+      #
+      # @see #receive_framed_line
+      # @see #read_length_prefixed
+      def write_frame
+        $stdout.write(length_framing? ? length_prefixed_frame : line_frame)
+        $stdout.flush
+        @output.clear
+        @counts.clear
+        @frame_size = nil
+      end
+
+      # A newline-delimited frame of output records preceded by a line
+      # of per-input-record output counts.
+      #
+      # @return [String]
+      def line_frame
+        frame = @counts.join(' ') << "\n"
+        @output.each do |record|
+          frame << record.to_s << "\n"
+        end
+        frame
+      end
+
+      # A frame of length-prefixed output records preceded by the
+      # per-input-record output counts.
+      #
+      # @return [String]
+      def length_prefixed_frame
+        frame = @counts.pack('N*')
+        @output.each do |record|
+          bytes = record.to_s.dup.force_encoding(Encoding::BINARY)
+          frame << [bytes.bytesize].pack('N') << bytes
+        end
+        frame
+      end
+
+      # Are records length-prefixed rather than newline-delimited?
+      #
+      # @return [true, false]
+      def length_framing?
+        settings[:framing].to_s == 'length'
+      end
+
     end
   end
 end
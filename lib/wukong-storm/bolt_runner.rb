@@ -1,4 +1,5 @@
 require_relative('bolt_driver')
+require_relative('zygote')
 
 module Wukong
   module Storm
@@ -32,12 +33,35 @@ module Wukong
         If there is ever a suppressed error in pricessing, or a
         skipped record for any reason, wu-bolt will still output the
         batch terminator.
+
+        With --batch, wu-bolt instead reads frames of records, each
+        preceded by a line with the number of records in the frame,
+        and replies with a line of per-record output counts followed
+        by all the output records
+
+          $ printf "2\nadds a\nterminator\n" | wu-bolt tokenizer.rb --batch
+          2 1
+          adds
+          a
+          terminator
+
+        With --zygote, wu-bolt loads the dataflow and then, rather
+        than reading records, forks a child on request for each
+        connection a Storm worker wants to send records over.  Each
+        child speaks whichever protocol the other options choose.
       EOF
 
       # :nodoc:
       def driver
         BoltDriver
       end
+
+      # Run the dataflow over $stdin and $stdout, or, with the
+      # `zygote` setting, in each child forked by a Zygote.
+      def run
+        return super() unless settings[:zygote]
+        Zygote.new { super() }.serve
+      end
       
     end
   end
@@ -0,0 +1,85 @@
+require 'shellwords'
+
+module Wukong
+  module Storm
+
+    # Drives a dataflow within the same process, one frame of records
+    # at a time, rather than over $stdin and $stdout.
+    #
+    # Used by Ruby runtimes embedded within a Storm worker when the
+    # topology is launched with `--dataflow_mode=embedded`.
+    class EmbeddedDriver
+
+      include DriverMethods
+      include Logging
+
+      # Construct a driver from the same command-line that would be
+      # used to launch wu-bolt.
+      #
+      # Everything up to and including `wu-bolt` is ignored.  Any
+      # remaining Ruby files are loaded and the dataflow is named
+      # by either the `--run` option or the basename of the first
+      # file.
+      #
+      # @param [String] command_line
+      # @return [EmbeddedDriver]
+      def self.from_command_line command_line
+        argv = Shellwords.split(command_line.to_s)
+        argv = argv.drop(argv.index('wu-bolt') + 1) if argv.include?('wu-bolt')
+        settings = parse_settings(argv)
+        settings.rest.each do |path|
+          load File.expand_path(path) if File.exist?(path)
+        end
+        label = settings[:run] || File.basename(settings.rest.first.to_s, '.rb')
+        new(label.to_sym, settings)
+      end
+
+      # Parse the given arguments into settings for wu-bolt.
+      #
+      # @param [Array<String>] argv
+      # @return [Configliere::Param]
+      def self.parse_settings argv
+        original_argv = ARGV.dup
+        ARGV.replace(argv)
+        Configliere::Param.new.tap do |settings|
+          settings.use(:commandline)
+          Wukong::Storm.configure(settings, 'wu-bolt')
+          settings.resolve!
+        end
+      ensure
+        ARGV.replace(original_argv)
+      end
+
+      # Construct and set up the dataflow with the given `label`.
+      #
+      # @param [Symbol] label
+      # @param [Configliere::Param] settings
+      def initialize(label, settings)
+        @label    = label
+        @settings = settings
+        @output   = []
+        @dataflow = construct_dataflow(label, settings)
+        setup_dataflow
+      end
+
+      # Send each record in the given frame through the dataflow.
+      #
+      # @param [Enumerable<String>] records
+      # @return [Array<Array<String>>] the output records of each input record, in order
+      def process_frame records
+        records.map do |record|
+          send_through_dataflow(record)
+          @output.slice!(0..-1)
+        end
+      end
+
+      # Store each output record rather than writing it anywhere.
+      #
+      # @param [Object] record
+      def process record
+        @output << record.to_s
+      end
+      
+    end
+  end
+end
@@ -41,7 +41,14 @@ module Wukong
       #
       # @return [true, false]
       def kafka_input?
-        ! blob_input?
+        ! (blob_input? || synthetic_input?)
+      end
+
+      # Does this topology generate its own input?
+      #
+      # @return [true, false]
+      def synthetic_input?
+        input_uri.scheme == 'synthetic'
       end
       
       # Does this topology read from a filesystem?
@@ -77,7 +84,15 @@ module Wukong
       #
       # @return [true, false]
       def kafka_output?
-        true                    # only option right now
+        ! file_output?
+      end
+
+      # Does this topology write to append logs on the local
+      # filesystem of each worker?
+      #
+      # @return [true, false]
+      def file_output?
+        output_uri.scheme == 'file'
       end
 
       #
@@ -113,7 +128,16 @@ module Wukong
       # @return [String]
       def wu_bolt_commandline
         return settings[:bolt_command] if settings[:bolt_command]
-        [settings[:command_prefix], 'wu-bolt', dataflow_name, non_wukong_storm_params_string].compact.map(&:to_s).reject(&:empty?).join(' ')
+        stage_commandline(dataflow_name)
+      end
+
+      # Generates the commandline that will be used to launch wu-bolt
+      # for the dataflow with the given name.
+      #
+      # @param [String] name
+      # @return [String]
+      def stage_commandline name
+        [settings[:command_prefix], 'wu-bolt', name, wu_bolt_protocol_params_string, non_wukong_storm_params_string].compact.map(&:to_s).reject(&:empty?).join(' ')
       end
 
       # Return the path to the `storm` program.
@@ -170,7 +194,7 @@ module Wukong
       #
       # @return [Array<String>]
       def storm_topology_options
-        (services_options + topology_options + spout_options + dataflow_options + state_options).reject do |pair|
+        (services_options + topology_options + spout_options + dataflow_options + state_options + calibration_options + local_options + metrics_options).reject do |pair|
           key, value = pair
           value.nil? || value.to_s.strip.empty?
         end.map { |pair|  java_option(*pair) }.sort
@@ -205,9 +229,24 @@ module Wukong
         case
         when blob_input?
           blob_spout_options + (s3_input? ? s3_spout_options : file_spout_options)
+        when synthetic_input?
+          synthetic_spout_options
         else
           kafka_spout_options
-        end
+        end + pending_options
+      end
+
+      # Return Java `-D` option key-value pairs related to how many
+      # batches the spout keeps in flight.
+      #
+      # @return [Array<Array>] an Array of key-value pairs
+      def pending_options
+        [
+         ["wukong.input.pending_mode",       (settings[:adaptive_pending] ? 'adaptive' : 'fixed')],
+         ["wukong.input.pending_min",        settings[:pending_min]],
+         ["wukong.input.pending_max",        settings[:pending_max]],
+         ["wukong.input.pending_latency_ms", settings[:pending_latency]],
+        ]
       end
 
       # Return Java `-D` option key-value pairs related to the
@@ -216,7 +255,12 @@ module Wukong
       # @return [Array<Array>] an Array of key-value pairs
       def blob_spout_options
         [
-         ["wukong.input.type", "blob"],
+         ["wukong.input.type",              "blob"],
+         ["wukong.input.blob.recordizer",   settings[:recordizer]],
+         ["wukong.input.blob.compression",  settings[:input_compression]],
+         ["wukong.input.blob.partitions",   settings[:blob_partitions]],
+         ["wukong.input.blob.index",        settings[:blob_index]],
+         ["wukong.input.parallelism",       settings[:input_parallelism]],
         ].tap do |so|
           so << ["wukong.input.blob.marker",       settings[:offset]] if settings[:offset]
           so << case
@@ -243,7 +287,8 @@ module Wukong
          ["wukong.input.blob.s3_bucket",    input_uri.host],
          ["wukong.input.blob.aws_key",      settings[:aws_key]],
          ["wukong.input.blob.aws_secret",   settings[:aws_secret]],
-         ["wukong.input.blob.s3_endpoint",  s3_endpoint]
+         ["wukong.input.blob.s3_endpoint",  s3_endpoint],
+         ["wukong.input.blob.prefetch",     settings[:prefetch]],
         ]
       end
 
@@ -277,6 +322,24 @@ module Wukong
         ]
       end
 
+      # Return Java `-D` option key-value pairs related to the
+      # topology's spout if it is generating records.
+      #
+      # @return [Array<Array>] an Array of key-value pairs
+      def synthetic_spout_options
+        [
+         ["wukong.input.type",                  "synthetic"],
+         ["wukong.input.synthetic.template",    settings[:template]],
+         ["wukong.input.synthetic.sample",      (File.expand_path(settings[:templates]) if settings[:templates])],
+         ["wukong.input.synthetic.rate",        settings[:synthetic_rate]],
+         ["wukong.input.synthetic.record_size", settings[:record_size]],
+         ["wukong.input.synthetic.batch_size",  settings[:synthetic_batch]],
+         ["wukong.input.synthetic.stamp_by",    settings[:stamp_by]],
+         ["wukong.input.synthetic.stamp_key",   settings[:stamp_key]],
+         ["wukong.input.parallelism",           settings[:input_parallelism]],
+        ]
+      end
+
       # Return Java `-D` option key-value pairs related to the
       # topology's spout if it is reading from Kafka.
       #
@@ -287,6 +350,13 @@ module Wukong
          ["wukong.input.kafka.topic",       settings[:input]],
          ["wukong.input.kafka.partitions",  settings[:kafka_partitions]],
          ["wukong.input.kafka.batch",       settings[:kafka_batch]],
+         ["wukong.input.kafka.discovery",   (settings[:discover_partitions] ? 'zookeeper' : 'static')],
+         ["wukong.input.kafka.refresh_secs", settings[:partition_refresh]],
+         ["wukong.input.kafka.raw",         settings[:raw]],
+         ["wukong.input.kafka.batch_mode",  (settings[:adaptive_batch] ? 'adaptive' : 'fixed')],
+         ["wukong.input.kafka.batch_min",   settings[:kafka_batch_min]],
+         ["wukong.input.kafka.batch_max",   settings[:kafka_batch_max]],
+         ["wukong.input.kafka.batch_latency_ms", settings[:batch_latency]],
          
          ["wukong.input.parallelism",       settings[:input_parallelism]],
          case
@@ -316,27 +386,183 @@ module Wukong
          ["wukong.parallelism",       settings[:parallelism]],
         ].tap do |opts|
           opts << ["wukong.environment", settings[:environment]] if settings[:environment]
+          if settings[:batch]
+            opts << ["wukong.dataflow.batch",      true]
+            opts << ["wukong.dataflow.batch_size", settings[:batch_size]]
+          end
+          opts << ["wukong.dataflow.framing", settings[:framing]] if length_framing?
+          opts.concat(framed_dataflow_options)               if settings[:batch] || length_framing?
+          opts.concat(embedded_dataflow_options)             if embedded_dataflow?
+          opts << ["wukong.dataflow.launch", 'zygote']       if settings[:zygote] && !embedded_dataflow?
+          opts.concat(replay_cache_options)                  if settings[:replay_cache]
+          opts.concat(stage_options)                         if settings[:stages]
+          if settings[:partition_by]
+            opts << ["wukong.dataflow.partition_by",  settings[:partition_by]]
+            opts << ["wukong.dataflow.partition_key", settings[:partition_key]]
+          end
+        end
+      end
+
+      # The later stages of a chain of dataflows, parsed from the
+      # `--stages` option.  Each is a Hash with a `:name` and
+      # optionally a `:parallelism` and a `:repartition`.
+      #
+      # @return [Array<Hash>]
+      def stages
+        settings[:stages].to_s.split(',').map(&:strip).reject(&:empty?).map do |stage|
+          name, parallelism, repartition = stage.split(':').map { |part| part.empty? ? nil : part }
+          { name: name, parallelism: parallelism, repartition: repartition }
+        end
+      end
+
+      # Return Java `-D` option key-value pairs describing the later
+      # stages of a chain of dataflows.  The dataflow given as the
+      # first argument is stage 1.
+      #
+      # @return [Array<Array>] an Array of key-value pairs
+      def stage_options
+        [["wukong.dataflow.stages", stages.size + 1]].tap do |opts|
+          stages.each_with_index do |stage, index|
+            prefix = "wukong.dataflow.stage.#{index + 2}"
+            opts << ["#{prefix}.name",        stage[:name]]
+            opts << ["#{prefix}.command",     stage_commandline(stage[:name])]
+            opts << ["#{prefix}.parallelism", stage[:parallelism]] if stage[:parallelism]
+            opts << ["#{prefix}.repartition", stage[:repartition]] if stage[:repartition]
+          end
+        end
+      end
+
+      # Does the dataflow run within Ruby runtimes embedded in each
+      # Storm worker rather than as a wu-bolt subprocess?
+      #
+      # @return [true, false]
+      def embedded_dataflow?
+        settings[:dataflow_mode].to_s == 'embedded'
+      end
+
+      # Return Java `-D` option key-value pairs related to running
+      # the dataflow within embedded Ruby runtimes.
+      #
+      # @return [Array<Array>] an Array of key-value pairs
+      def embedded_dataflow_options
+        [
+         ["wukong.dataflow.mode",     'embedded'],
+         ["wukong.dataflow.runtimes", settings[:runtimes]],
+        ]
+      end
+
+      # Return Java `-D` option key-value pairs related to the pool of
+      # wu-bolt processes run by each executor when sending frames.
+      #
+      # @return [Array<Array>] an Array of key-value pairs
+      def framed_dataflow_options
+        [
+         ["wukong.dataflow.processes",        settings[:processes]],
+         ["wukong.dataflow.pipeline",         settings[:pipeline]],
+         ["wukong.dataflow.reply_timeout_ms", settings[:reply_timeout]],
+         ["wukong.dataflow.dispatch",         settings[:dispatch]],
+        ]
+      end
+
+      # Return Java `-D` option key-value pairs related to caching the
+      # outputs of each record for replayed batches.
+      #
+      # @return [Array<Array>] an Array of key-value pairs
+      def replay_cache_options
+        [["wukong.dataflow.cache", settings[:replay_cache]]].tap do |opts|
+          opts << ["wukong.dataflow.cache_size",      settings[:replay_cache_size]] if settings[:replay_cache_size]
+          opts << ["wukong.dataflow.cache_directory", settings[:replay_cache_dir]]  if settings[:replay_cache_dir]
         end
       end
 
+      # Return Java `-D` option key-value pairs related to sizing the
+      # topology by running its dataflow locally against a sample of
+      # its input before submitting it.
+      #
+      # @return [Array<Array>] an Array of key-value pairs
+      def calibration_options
+        return [] unless settings[:calibrate]
+        [
+         ["wukong.calibrate",              true],
+         ["wukong.calibrate.sample",       (File.expand_path(settings[:sample]) if settings[:sample])],
+         ["wukong.calibrate.records",      settings[:sample_records]],
+         ["wukong.calibrate.target",       settings[:target_rate]],
+         ["wukong.calibrate.headroom",     settings[:headroom]],
+         ["wukong.calibrate.worker_cores", settings[:worker_cores]],
+         ["wukong.calibrate.timeout_ms",   settings[:calibrate_timeout]],
+        ]
+      end
+
+      # Return Java `-D` option key-value pairs related to running the
+      # topology in a local cluster to measure its throughput.
+      #
+      # @return [Array<Array>] an Array of key-value pairs
+      def local_options
+        return [] unless settings[:local]
+        [
+         ["wukong.local",               true],
+         ["wukong.local.duration_secs", settings[:local_duration]],
+         ["wukong.local.records",       settings[:local_records]],
+         ["wukong.local.input",         (File.expand_path(settings[:local_input]) if settings[:local_input])],
+         ["wukong.local.batch_size",    settings[:local_batch_size]],
+        ]
+      end
+
+      # Is a local file standing in for the Kafka input topic?
+      #
+      # @return [true, false]
+      def local_input?
+        settings[:local] && kafka_input? && settings[:local_input]
+      end
+
+      # Return Java `-D` option key-value pairs related to reporting
+      # the metrics of each stage of the topology.
+      #
+      # @return [Array<Array>] an Array of key-value pairs
+      def metrics_options
+        [
+         ["wukong.metrics.consumer",                   settings[:metrics]],
+         ["wukong.metrics.file",                       settings[:metrics_file]],
+         ["topology.builtin.metrics.bucket.size.secs", settings[:metrics_interval]],
+        ]
+      end
+
       # Return Java `-D` option key-value pairs related to the final
       # state used by the topology.
       #
       # @return [Array<Array>] an Array of key-value pairs
       def state_options
         case
+        when file_output?
+          file_state_options
         when kafka_output?
           kafka_state_options
         end
       end
 
+      # Return Java `-D` option key-value pairs related to the final
+      # state used by the topology when it is writing to append logs
+      # on the local filesystem.
+      #
+      # @return [Array<Array>] an Array of key-value pairs
+      def file_state_options
+        [
+         ["wukong.output.type",              "file"],
+         ["wukong.output.file.path",         output_uri.path],
+         ["wukong.output.file.segment_size", settings[:segment_size]],
+        ]
+      end
+
       # Return Java `-D` option key-value pairs related to the final
       # state used by the topology when it is writing to Kafka.
       #
       # @return [Array<Array>] an Array of key-value pairs
       def kafka_state_options
         [
-         ["wukong.output.kafka.topic", settings[:output]],
+         ["wukong.output.kafka.topic",          settings[:output]],
+         ["wukong.output.kafka.batch_messages", settings[:output_batch]],
+         ["wukong.output.kafka.batch_bytes",    settings[:output_batch_bytes]],
+         ["wukong.output.kafka.compression",    settings[:compression]],
         ]
       end
 
@@ -369,6 +595,25 @@ module Wukong
         settings
       end
 
+      # Return a String of the params which tell wu-bolt which
+      # protocol to speak with the Storm bolt.
+      #
+      # @return [String]
+      def wu_bolt_protocol_params_string
+        case
+        when length_framing? then '--framing=length'
+        when settings[:batch] then '--batch'
+        end
+      end
+
+      # Does the dataflow exchange length-prefixed records with
+      # wu-bolt?
+      #
+      # @return [true, false]
+      def length_framing?
+        settings[:framing].to_s == 'length'
+      end
+
       # Return a String stripped of any `wu-storm`-specific params but
       # still including any other params.
       #
@@ -52,7 +52,7 @@ For a complete list of options try `wu storm --help`.
       EOF
 
       def kill_first?
-        settings[:rm]
+        settings[:rm] && !settings[:local]
       end
 
       def validate
@@ -68,7 +68,41 @@ For a complete list of options try `wu storm --help`.
         if kafka_input? || kafka_output?
           raise Error.new("Must provide a list of comma-separated Kafka hosts")          if settings[:kafka_hosts].nil? || settings[:kafka_hosts].empty?
         end
+
+        if settings[:partition_by]
+          raise Error.new("Must provide a --partition_key when using --partition_by")  if settings[:partition_key].nil? || settings[:partition_key].to_s.empty?
+          raise Error.new("--partition_by must be one of: column, json, regex")        unless %w[column json regex].include?(settings[:partition_by].to_s)
+        end
+
+        if settings[:zygote] && settings[:bolt_command]
+          raise Error.new("Cannot use --zygote with an explicit --bolt_command, which may not be wu-bolt")
+        end
+
+        if settings[:replay_cache]
+          raise Error.new("--replay_cache must be one of: memory, file")                    unless %w[memory file].include?(settings[:replay_cache].to_s)
+          raise Error.new("Cannot use --replay_cache with --dataflow_mode=embedded")        if embedded_dataflow?
+          raise Error.new("Must provide a positive --replay_cache_size")                    if settings[:replay_cache_size] && settings[:replay_cache_size].to_i <= 0
+        end
+
+        if kafka_input? && settings[:raw]
+          raise Error.new("Must use --batch, --framing=length, or --dataflow_mode=embedded with --raw") unless settings[:batch] || length_framing? || embedded_dataflow?
+        end
         
+        if synthetic_input?
+          raise Error.new("No such --templates file <#{settings[:templates]}>")                      if settings[:templates] && !File.exist?(settings[:templates])
+          raise Error.new("--stamp_by must be one of: none, column, json, regex")                   if settings[:stamp_by] && !%w[none column json regex].include?(settings[:stamp_by].to_s)
+        end
+
+        if settings[:local]
+          raise Error.new("Must provide a positive --local_duration to run locally for") if settings[:local_duration].nil? || settings[:local_duration].to_i <= 0
+          raise Error.new("No such --local_input file <#{settings[:local_input]}>")       if settings[:local_input] && !File.exist?(settings[:local_input])
+        end
+
+        if settings[:calibrate]
+          raise Error.new("Must provide a --sample file of input records to calibrate with") if settings[:sample].nil? || !File.exist?(settings[:sample])
+          raise Error.new("Must provide a positive --target_rate to calibrate for")           if settings[:target_rate].nil? || settings[:target_rate].to_i <= 0
+        end
+
         if s3_input?
           raise Error.new("Must provide an S3 bucket and path")                     if input_uri.path.nil?        || input_uri.path.empty?
           raise Error.new("Must provide an AWS access key (settings[:aws_key])")    if settings[:aws_key].nil?    || settings[:aws_key].empty?
@@ -95,15 +129,20 @@ For a complete list of options try `wu storm --help`.
       def log_topology_structure_and_settings
         log.info("Using Zookeeper at <#{settings[:zookeeper_hosts]}>")
         
-        log.info("Reading from Kafka <#{settings[:kafka_hosts]}/#{settings[:input]}>") if kafka_input?
+        log.info("Running locally for <#{settings[:local_duration]}> seconds")         if settings[:local]
+        log.info("Replaying local file <#{settings[:local_input]}>")                    if local_input?
+        log.info("Reading from Kafka <#{settings[:kafka_hosts]}/#{settings[:input]}>") if kafka_input? && !local_input?
         log.info("Reading from filesystem at <#{settings[:input]}>")                   if blob_input?
-        log.info("Writing to Kafka <#{settings[:kafka_hosts]}/#{settings[:output]}>")  if kafka_output?
+        log.info("Generating synthetic input")                                         if synthetic_input?
+        log.info("Discarding output")                                                  if kafka_output? && settings[:local]
+        log.info("Writing to Kafka <#{settings[:kafka_hosts]}/#{settings[:output]}>")  if kafka_output? && !settings[:local]
+        log.info("Writing to local append logs at <#{settings[:output]}>")            if file_output?
 
         log.info("Dry run:") if settings[:dry_run]
       end
       
       def setup_run
-        return unless kafka_input?
+        return unless kafka_input? && !local_input?
         topic      = settings[:input]
         host, port = kafka_host_and_port
         log.info("Ensuring input topic <#{topic}> exists on Kafka broker <#{host}:#{port}>")
@@ -0,0 +1,88 @@
+require 'socket'
+
+module Wukong
+  module Storm
+
+    # Serves a Storm worker as a zygote: a wu-bolt process which has
+    # already booted Ruby and loaded its dataflow and which forks
+    # children that start processing records immediately.
+    #
+    # Requests arrive on $stdin, one per line:
+    #
+    #   fork PORT TOKEN  # fork a child which connects to PORT on the loopback interface, replying with its PID
+    #   kill PID         # terminate the given child
+    #
+    # Each child first writes TOKEN and a newline to its connection,
+    # proving to the worker that the connection is its own, then
+    # reopens $stdin and $stdout onto the connection and runs exactly
+    # as wu-bolt would, so it speaks the same protocol.  Children
+    # share the zygote's $stderr.
+    #
+    # The zygote exits when $stdin is closed.
+    class Zygote
+
+      include Logging
+
+      # Create a new zygote which runs the given block in each child
+      # it forks.
+      #
+      # @yield runs the dataflow over $stdin and $stdout
+      def initialize &child
+        @child = child
+      end
+
+      # Serve requests until $stdin is closed.
+      def serve
+        log.info("Zygote ready to fork children")
+        $stdin.each_line do |line|
+          command, argument, token = line.split
+          case command
+          when 'fork' then reply(fork_child(argument.to_i, token))
+          when 'kill' then kill_child(argument.to_i)
+          else
+            log.warn("Ignoring unknown zygote request <#{line.chomp}>")
+          end
+        end
+      end
+
+      # Fork a child which connects to the given port and presents
+      # the given token.
+      #
+      # The child is detached so it's reaped when it exits.
+      #
+      # @param [Integer] port
+      # @param [String] token
+      # @return [Integer] the child's PID
+      def fork_child port, token
+        pid = fork do
+          socket = TCPSocket.new('127.0.0.1', port)
+          socket.setsockopt(Socket::IPPROTO_TCP, Socket::TCP_NODELAY, 1)
+          socket.write("#{token}\n")
+          $stdin.reopen(socket)
+          $stdout.reopen(socket)
+          socket.close
+          @child.call
+        end
+        Process.detach(pid)
+        pid
+      end
+
+      # Terminate the given child if it's still running.
+      #
+      # @param [Integer] pid
+      def kill_child pid
+        Process.kill('TERM', pid)
+      rescue Errno::ESRCH
+      end
+
+      # Write a single line of reply.
+      #
+      # @param [Object] value
+      def reply value
+        $stdout.write("#{value}\n")
+        $stdout.flush
+      end
+
+    end
+  end
+end
@@ -41,6 +41,56 @@ describe Wukong::Storm::BoltDriver do
       end
       
     end
+
+    context "#receive_line hook from EventMachine in batch mode" do
+      let(:frame) { %w[2 hello world] }
+      before do
+        settings[:batch] = true
+        $stdout.stub(:write)
+      end
+      it "waits for the whole frame before writing anything" do
+        $stdout.should_not_receive(:write)
+        frame[0..1].each { |line| driver.receive_line(line) }
+      end
+      it "passes each record in the frame to the #send_through_dataflow method" do
+        driver.should_receive(:send_through_dataflow).with('hello')
+        driver.should_receive(:send_through_dataflow).with('world')
+        frame.each { |line| driver.receive_line(line) }
+      end
+      it "writes the per-record output counts and all output records in a single write" do
+        $stdout.should_receive(:write).with("1 1\nhello\nworld\n").once
+        frame.each { |line| driver.receive_line(line) }
+      end
+      it "flushes once per frame" do
+        $stdout.should_receive(:flush).once
+        frame.each { |line| driver.receive_line(line) }
+      end
+      it "replies to an empty frame" do
+        $stdout.should_receive(:write).with("\n")
+        driver.receive_line('0')
+      end
+    end
+
+    context "#receive_data hook from EventMachine with length framing" do
+      let(:frame) { [2, 11].pack('N*') + "hello\nthere" + [5].pack('N') + "world" }
+      before do
+        settings[:framing] = 'length'
+        $stdout.stub(:write)
+      end
+      it "passes each length-prefixed record, newlines and all, to the #send_through_dataflow method" do
+        driver.should_receive(:send_through_dataflow).with("hello\nthere")
+        driver.should_receive(:send_through_dataflow).with('world')
+        driver.receive_data(frame)
+      end
+      it "handles frames split across several reads" do
+        driver.should_receive(:send_through_dataflow).twice
+        frame.each_char.each_slice(3) { |chunk| driver.receive_data(chunk.join) }
+      end
+      it "writes the per-record output counts and all length-prefixed output records in a single write" do
+        $stdout.should_receive(:write).with([1, 1, 11].pack('N*') + "hello\nthere" + [5].pack('N') + "world").once
+        driver.receive_data(frame)
+      end
+    end
   end
 
 end
@@ -0,0 +1,40 @@
+require 'spec_helper'
+
+describe Wukong::Storm::EmbeddedDriver do
+
+  let(:examples) { File.expand_path('../../support/examples.rb', __FILE__) }
+
+  describe "constructing from a wu-bolt command-line" do
+    it "ignores everything up to and including wu-bolt" do
+      described_class.from_command_line("bundle exec wu-bolt #{examples} --run=simple").should be_a(described_class)
+    end
+    it "names the dataflow by the --run option" do
+      described_class.from_command_line("wu-bolt #{examples} --run=multi").process_frame(['foo']).should == [%w[foo foo foo]]
+    end
+  end
+
+  describe "processing a frame of records" do
+    context "with a simple processor" do
+      subject { described_class.from_command_line("wu-bolt #{examples} --run=simple") }
+      it "returns the output records of each input record, in order" do
+        subject.process_frame(%w[foo bar]).should == [['foo'], ['bar']]
+      end
+    end
+    context "with a skipped processor" do
+      subject { described_class.from_command_line("wu-bolt #{examples} --run=skipped") }
+      it "returns no output records for each input record" do
+        subject.process_frame(%w[foo bar]).should == [[], []]
+      end
+    end
+    context "with a flow" do
+      subject { described_class.from_command_line("wu-bolt #{examples} --run=flow") }
+      it "returns the output records of each input record" do
+        subject.process_frame(['{"foo":"bar"}']).should == [['I raised the bar']]
+      end
+    end
+    it "handles an empty frame" do
+      described_class.from_command_line("wu-bolt #{examples} --run=simple").process_frame([]).should == []
+    end
+  end
+  
+end
@@ -93,6 +93,12 @@ describe Wukong::Storm::StormInvocation do
       its(:storm_launch_commandline) { should match(/\wukong\.input\.kafka\.partitions.*1/)  }
       its(:storm_launch_commandline) { should match(/\wukong\.input\.kafka\.batch.*1048576/) }
       its(:storm_launch_commandline) { should match(/\wukong\.input\.parallelism.*1/)        }
+      its(:storm_launch_commandline) { should match(/\wukong\.input\.kafka\.discovery=static/) }
+      context "when setting --discover_partitions" do
+        subject { storm_runner('identity', '--input=foo', '--output=bar', '--discover_partitions', '--partition_refresh=30') }
+        its(:storm_launch_commandline) { should match(/\wukong\.input\.kafka\.discovery=zookeeper/) }
+        its(:storm_launch_commandline) { should match(/\wukong\.input\.kafka\.refresh_secs=30/)    }
+      end
       context "when setting --kafka_partitions" do
         subject { storm_runner('identity', '--input=foo', '--output=bar', '--kafka_partitions=10') }
         its(:storm_launch_commandline) { should match(/\wukong\.input\.kafka\.partitions.*10/)  }
@@ -101,6 +107,17 @@ describe Wukong::Storm::StormInvocation do
         subject { storm_runner('identity', '--input=foo', '--output=bar', '--kafka_batch=100') }
         its(:storm_launch_commandline) { should match(/\wukong\.input\.kafka\.batch.*10/) }
       end
+      context "when setting --raw" do
+        subject { storm_runner('identity', '--input=foo', '--output=bar', '--raw', '--batch') }
+        its(:storm_launch_commandline) { should match(/\wukong\.input\.kafka\.raw=true/) }
+      end
+      context "when setting --adaptive_batch" do
+        subject { storm_runner('identity', '--input=foo', '--output=bar', '--adaptive_batch', '--kafka_batch_min=1000', '--kafka_batch_max=100000', '--batch_latency=500') }
+        its(:storm_launch_commandline) { should match(/\wukong\.input\.kafka\.batch_mode=adaptive/)    }
+        its(:storm_launch_commandline) { should match(/\wukong\.input\.kafka\.batch_min=1000/)         }
+        its(:storm_launch_commandline) { should match(/\wukong\.input\.kafka\.batch_max=100000/)       }
+        its(:storm_launch_commandline) { should match(/\wukong\.input\.kafka\.batch_latency_ms=500/)   }
+      end
       context "when setting --input_parallelism" do
         subject { storm_runner('identity', '--input=foo', '--output=bar', '--input_parallelism=10') }
         its(:storm_launch_commandline) { should match(/\wukong\.input\.parallelism.*10/) }
@@ -125,6 +142,8 @@ describe Wukong::Storm::StormInvocation do
         its(:storm_launch_commandline) { should match(/\wukong\.input\.blob\.type.*file/)       }
         its(:storm_launch_commandline) { should match(/\wukong\.input\.blob\.path.*\/foo\/bar/) }
         its(:storm_launch_commandline) { should match(/\wukong\.input\.blob\.start.*RESUME/)    }
+        its(:storm_launch_commandline) { should match(/\wukong\.input\.blob\.recordizer.*wukong/) }
+        its(:storm_launch_commandline) { should match(/\wukong\.input\.blob\.compression=auto/) }
         context "when setting --from_beginning" do
           subject { storm_runner('identity', '--input=file:///foo/bar', '--output=baz', '--from_beginning')    }
           its(:storm_launch_commandline) { should match(/\wukong\.input\.blob\.start.*EARLIEST/) }
@@ -138,6 +157,23 @@ describe Wukong::Storm::StormInvocation do
           its(:storm_launch_commandline) { should match(/\wukong\.input\.blob\.start.*EXPLICIT/) }
           its(:storm_launch_commandline) { should match(/\wukong\.input\.blob\.marker.*bing-1/)  }
         end
+        context "when setting --recordizer" do
+          subject { storm_runner('identity', '--input=file:///foo/bar', '--output=baz', '--recordizer=fused')    }
+          its(:storm_launch_commandline) { should match(/\wukong\.input\.blob\.recordizer.*fused/) }
+        end
+        context "when setting --blob_partitions" do
+          subject { storm_runner('identity', '--input=file:///foo/bar', '--output=baz', '--recordizer=fused', '--input_parallelism=4', '--blob_partitions=8')    }
+          its(:storm_launch_commandline) { should match(/\wukong\.input\.parallelism=4/) }
+          its(:storm_launch_commandline) { should match(/\wukong\.input\.blob\.partitions=8/) }
+        end
+        context "when setting --blob_index" do
+          subject { storm_runner('identity', '--input=file:///foo/bar', '--output=baz', '--recordizer=fused', '--blob_index=/var/lib/storm/wukong-index')    }
+          its(:storm_launch_commandline) { should match(/\wukong\.input\.blob\.index=\/var\/lib\/storm\/wukong-index/) }
+        end
+        context "when setting --input_compression" do
+          subject { storm_runner('identity', '--input=file:///foo/bar', '--output=baz', '--input_compression=bzip2')    }
+          its(:storm_launch_commandline) { should match(/\wukong\.input\.blob\.compression=bzip2/) }
+        end
       end
       context "when reading from S3" do
         subject { storm_runner('identity', '--input=s3://foo/bar', '--output=baz', '--aws_key=key', '--aws_secret=secret') }
@@ -149,6 +185,11 @@ describe Wukong::Storm::StormInvocation do
         its(:storm_launch_commandline) { should match(/\wukong\.input\.blob\.s3_bucket.*foo/)     }
         its(:storm_launch_commandline) { should match(/\wukong\.input\.blob\.path.*bar/)          }
         its(:storm_launch_commandline) { should match(/\wukong\.input\.blob\.start.*RESUME/)      }
+        its(:storm_launch_commandline) { should match(/\wukong\.input\.blob\.prefetch=2/)         }
+        context "when setting --prefetch" do
+          subject { storm_runner('identity', '--input=s3://foo/bar', '--output=baz', '--aws_key=key', '--aws_secret=secret', '--prefetch=0') }
+          its(:storm_launch_commandline) { should match(/\wukong\.input\.blob\.prefetch=0/) }
+        end
         context "when setting --from_beginning" do
           subject { storm_runner('identity', '--input=s3://foo/bar', '--output=baz', '--aws_key=key', '--aws_secret=secret', '--from_beginning') }
           its(:storm_launch_commandline) { should match(/\wukong\.input\.blob\.start.*EARLIEST/) }
@@ -168,6 +209,37 @@ describe Wukong::Storm::StormInvocation do
         end
       end
     end
+    context "by default" do
+      subject { storm_runner('identity', '--input=foo', '--output=bar') }
+      its(:storm_launch_commandline)   { should match(/wukong\.input\.pending_mode=fixed/) }
+    end
+    context "when setting --adaptive_pending" do
+      subject { storm_runner('identity', '--input=foo', '--output=bar', '--adaptive_pending', '--pending_min=2', '--pending_max=32', '--pending_latency=3000') }
+      its(:storm_launch_commandline)   { should match(/wukong\.input\.pending_mode=adaptive/) }
+      its(:storm_launch_commandline)   { should match(/wukong\.input\.pending_min=2/) }
+      its(:storm_launch_commandline)   { should match(/wukong\.input\.pending_max=32/) }
+      its(:storm_launch_commandline)   { should match(/wukong\.input\.pending_latency_ms=3000/) }
+    end
+    context "when generating synthetic input" do
+      subject { storm_runner('identity', '--input=synthetic://', '--output=bar') }
+      its(:storm_launch_commandline)   { should match(/wukong\.input\.type.*synthetic/) }
+      its(:storm_launch_commandline)   { should_not match(/wukong\.input\.kafka/) }
+      context "when setting --templates" do
+        subject { storm_runner('identity', '--input=synthetic://', '--output=bar', "--templates=#{__FILE__}") }
+        its(:storm_launch_commandline) { should match(/wukong\.input\.synthetic\.sample=.*storm_invocation_spec\.rb/) }
+      end
+      context "when setting --synthetic_rate, --record_size, and --synthetic_batch" do
+        subject { storm_runner('identity', '--input=synthetic://', '--output=bar', '--synthetic_rate=50000', '--record_size=512', '--synthetic_batch=200') }
+        its(:storm_launch_commandline) { should match(/wukong\.input\.synthetic\.rate=50000/) }
+        its(:storm_launch_commandline) { should match(/wukong\.input\.synthetic\.record_size=512/) }
+        its(:storm_launch_commandline) { should match(/wukong\.input\.synthetic\.batch_size=200/) }
+      end
+      context "when setting --stamp_by and --stamp_key" do
+        subject { storm_runner('identity', '--input=synthetic://', '--output=bar', '--stamp_by=json', '--stamp_key=meta.sent_at') }
+        its(:storm_launch_commandline) { should match(/wukong\.input\.synthetic\.stamp_by=json/) }
+        its(:storm_launch_commandline) { should match(/wukong\.input\.synthetic\.stamp_key=meta\.sent_at/) }
+      end
+    end
   end
 
   describe "dataflow options" do
@@ -192,12 +264,156 @@ describe Wukong::Storm::StormInvocation do
       subject { storm_runner('identity', '--input=foo', '--output=bar', '--parallelism=10') }
       its(:storm_launch_commandline)   { should match(/wukong\.parallelism.*10/) }
     end
+    context "when setting --stages" do
+      subject { storm_runner('identity', '--input=foo', '--output=bar', '--stages=enrich:16,format::none') }
+      its(:storm_launch_commandline)   { should match(/wukong\.dataflow\.stages=3/) }
+      its(:storm_launch_commandline)   { should match(/wukong\.dataflow\.stage\.2\.name=enrich/) }
+      its(:storm_launch_commandline)   { should match(/wukong\.dataflow\.stage\.2\.command=wu-bolt\\ enrich/) }
+      its(:storm_launch_commandline)   { should match(/wukong\.dataflow\.stage\.2\.parallelism=16/) }
+      its(:storm_launch_commandline)   { should match(/wukong\.dataflow\.stage\.3\.name=format/) }
+      its(:storm_launch_commandline)   { should match(/wukong\.dataflow\.stage\.3\.repartition=none/) }
+      its(:storm_launch_commandline)   { should_not match(/wukong\.dataflow\.stage\.3\.parallelism/) }
+    end
+    context "when setting --partition_by and --partition_key" do
+      subject { storm_runner('identity', '--input=foo', '--output=bar', '--partition_by=json', '--partition_key=user.id') }
+      its(:storm_launch_commandline)   { should match(/wukong\.dataflow\.partition_by=json/)     }
+      its(:storm_launch_commandline)   { should match(/wukong\.dataflow\.partition_key=user\.id/) }
+    end
+    context "by default" do
+      its(:storm_launch_commandline)     { should_not match(/wukong\.dataflow\.partition_by/) }
+      its(:storm_launch_commandline)     { should_not match(/wukong\.dataflow\.stages/) }
+      its(:storm_launch_commandline)     { should_not match(/wukong\.dataflow\.batch/) }
+      its(:storm_launch_commandline)     { should_not match(/wukong\.dataflow\.processes/) }
+      its(:storm_launch_commandline)     { should_not match(/wukong\.dataflow\.mode/) }
+      its(:storm_launch_commandline)     { should_not match(/wukong\.dataflow\.launch/) }
+      its(:storm_launch_commandline)     { should_not match(/wukong\.dataflow\.cache/) }
+      its(:wu_bolt_commandline)          { should_not match(/--batch/) }
+    end
+    context "when setting --batch" do
+      subject { storm_runner('identity', '--input=foo', '--output=bar', '--batch') }
+      its(:storm_launch_commandline)   { should match(/wukong\.dataflow\.batch=true/) }
+      its(:storm_launch_commandline)   { should match(/wukong\.dataflow\.batch_size=0/) }
+      its(:wu_bolt_commandline)        { should match(/wu-bolt identity --batch/) }
+      context "and --batch_size" do
+        subject { storm_runner('identity', '--input=foo', '--output=bar', '--batch', '--batch_size=500') }
+        its(:storm_launch_commandline)   { should match(/wukong\.dataflow\.batch_size=500/) }
+      end
+      its(:storm_launch_commandline)   { should match(/wukong\.dataflow\.processes=1/) }
+      its(:storm_launch_commandline)   { should match(/wukong\.dataflow\.pipeline=2/) }
+      its(:storm_launch_commandline)   { should match(/wukong\.dataflow\.reply_timeout_ms=60000/) }
+      its(:storm_launch_commandline)   { should match(/wukong\.dataflow\.dispatch=round_robin/) }
+      context "and --processes, --pipeline, --reply_timeout, and --dispatch" do
+        subject { storm_runner('identity', '--input=foo', '--output=bar', '--batch', '--processes=4', '--pipeline=8', '--reply_timeout=5000', '--dispatch=least_outstanding') }
+        its(:storm_launch_commandline)   { should match(/wukong\.dataflow\.processes=4/) }
+        its(:storm_launch_commandline)   { should match(/wukong\.dataflow\.pipeline=8/) }
+        its(:storm_launch_commandline)   { should match(/wukong\.dataflow\.reply_timeout_ms=5000/) }
+        its(:storm_launch_commandline)   { should match(/wukong\.dataflow\.dispatch=least_outstanding/) }
+      end
+    end
+    context "when setting --dataflow_mode=embedded" do
+      subject { storm_runner('identity', '--input=foo', '--output=bar', '--dataflow_mode=embedded', '--runtimes=3') }
+      its(:storm_launch_commandline)   { should match(/wukong\.dataflow\.mode=embedded/) }
+      its(:storm_launch_commandline)   { should match(/wukong\.dataflow\.runtimes=3/) }
+      its(:storm_launch_commandline)   { should match(/wukong\.command.*wu-bolt.*identity/) }
+    end
+    context "when setting --zygote" do
+      subject { storm_runner('identity', '--input=foo', '--output=bar', '--zygote') }
+      its(:storm_launch_commandline)   { should match(/wukong\.dataflow\.launch=zygote/) }
+      its(:wu_bolt_commandline)        { should_not match(/--zygote/) }
+      context "and --dataflow_mode=embedded" do
+        subject { storm_runner('identity', '--input=foo', '--output=bar', '--zygote', '--dataflow_mode=embedded') }
+        its(:storm_launch_commandline) { should_not match(/wukong\.dataflow\.launch/) }
+      end
+    end
+    context "when setting --replay_cache" do
+      subject { storm_runner('identity', '--input=foo', '--output=bar', '--replay_cache=file') }
+      its(:storm_launch_commandline)   { should match(/wukong\.dataflow\.cache=file/) }
+      its(:storm_launch_commandline)   { should_not match(/wukong\.dataflow\.cache_size/) }
+      context "and --replay_cache_size and --replay_cache_dir" do
+        subject { storm_runner('identity', '--input=foo', '--output=bar', '--replay_cache=file', '--replay_cache_size=1048576', '--replay_cache_dir=/mnt/cache') }
+        its(:storm_launch_commandline) { should match(/wukong\.dataflow\.cache_size=1048576/) }
+        its(:storm_launch_commandline) { should match(/wukong\.dataflow\.cache_directory=\/mnt\/cache/) }
+      end
+    end
+    context "when setting --framing=length" do
+      subject { storm_runner('identity', '--input=foo', '--output=bar', '--framing=length') }
+      its(:storm_launch_commandline)   { should match(/wukong\.dataflow\.framing=length/) }
+      its(:wu_bolt_commandline)        { should match(/wu-bolt identity --framing=length/) }
+    end
+  end
+
+  describe "calibration options" do
+    context "by default" do
+      subject { storm_runner('identity', '--input=foo', '--output=bar') }
+      its(:storm_launch_commandline)   { should_not match(/wukong\.calibrate/) }
+    end
+    context "when setting --calibrate" do
+      subject { storm_runner('identity', '--input=foo', '--output=bar', '--calibrate', "--sample=#{__FILE__}", '--target_rate=10000', '--worker_cores=8') }
+      its(:storm_launch_commandline)   { should match(/wukong\.calibrate=true/) }
+      its(:storm_launch_commandline)   { should match(/wukong\.calibrate\.sample=.*storm_invocation_spec\.rb/) }
+      its(:storm_launch_commandline)   { should match(/wukong\.calibrate\.records=1000/) }
+      its(:storm_launch_commandline)   { should match(/wukong\.calibrate\.target=10000/) }
+      its(:storm_launch_commandline)   { should match(/wukong\.calibrate\.headroom=1\.5/) }
+      its(:storm_launch_commandline)   { should match(/wukong\.calibrate\.worker_cores=8/) }
+      its(:storm_launch_commandline)   { should match(/wukong\.calibrate\.timeout_ms=120000/) }
+    end
+  end
+
+  describe "local options" do
+    context "by default" do
+      subject { storm_runner('identity', '--input=foo', '--output=bar') }
+      its(:storm_launch_commandline)   { should_not match(/wukong\.local/) }
+    end
+    context "when setting --local" do
+      subject { storm_runner('identity', '--input=foo', '--output=bar', '--local', "--local_input=#{__FILE__}", '--local_records=100000', '--local_batch_size=500') }
+      its(:storm_launch_commandline)   { should match(/wukong\.local=true/) }
+      its(:storm_launch_commandline)   { should match(/wukong\.local\.duration_secs=60/) }
+      its(:storm_launch_commandline)   { should match(/wukong\.local\.records=100000/) }
+      its(:storm_launch_commandline)   { should match(/wukong\.local\.input=.*storm_invocation_spec\.rb/) }
+      its(:storm_launch_commandline)   { should match(/wukong\.local\.batch_size=500/) }
+    end
+  end
+
+  describe "metrics options" do
+    context "by default" do
+      subject { storm_runner('identity', '--input=foo', '--output=bar') }
+      its(:storm_launch_commandline)   { should match(/wukong\.metrics\.consumer=none/) }
+      its(:storm_launch_commandline)   { should_not match(/wukong\.metrics\.file/) }
+      its(:storm_launch_commandline)   { should_not match(/topology\.builtin\.metrics\.bucket\.size\.secs/) }
+    end
+    context "when setting --metrics=file" do
+      subject { storm_runner('identity', '--input=foo', '--output=bar', '--metrics=file', '--metrics_file=/var/log/storm/wukong-metrics.log', '--metrics_interval=10') }
+      its(:storm_launch_commandline)   { should match(/wukong\.metrics\.consumer=file/) }
+      its(:storm_launch_commandline)   { should match(/wukong\.metrics\.file=\/var\/log\/storm\/wukong-metrics\.log/) }
+      its(:storm_launch_commandline)   { should match(/topology\.builtin\.metrics\.bucket\.size\.secs=10/) }
+    end
   end
 
   describe "state options" do
     context "when writing to Kafka" do
       subject { storm_runner('identity', '--input=foo', '--output=bar') }
       its(:storm_launch_commandline)   { should match(/wukong\.output\.kafka\.topic.*bar/) }
+      its(:storm_launch_commandline)   { should match(/wukong\.output\.kafka\.batch_messages=200/) }
+      its(:storm_launch_commandline)   { should match(/wukong\.output\.kafka\.batch_bytes=1000000/) }
+      its(:storm_launch_commandline)   { should match(/wukong\.output\.kafka\.compression=none/) }
+      context "when setting --output_batch, --output_batch_bytes, and --compression" do
+        subject { storm_runner('identity', '--input=foo', '--output=bar', '--output_batch=1000', '--output_batch_bytes=500000', '--compression=snappy') }
+        its(:storm_launch_commandline) { should match(/wukong\.output\.kafka\.batch_messages=1000/) }
+        its(:storm_launch_commandline) { should match(/wukong\.output\.kafka\.batch_bytes=500000/) }
+        its(:storm_launch_commandline) { should match(/wukong\.output\.kafka\.compression=snappy/) }
+      end
+    end
+    context "when writing to a local filesystem" do
+      subject { storm_runner('identity', '--input=foo', '--output=file:///data/out') }
+      its(:kafka_output?)              { should be_false }
+      its(:file_output?)               { should be_true  }
+      its(:storm_launch_commandline)   { should match(/wukong\.output\.type.*file/) }
+      its(:storm_launch_commandline)   { should match(/wukong\.output\.file\.path.*\/data\/out/) }
+      its(:storm_launch_commandline)   { should match(/wukong\.output\.file\.segment_size.*134217728/) }
+      context "when setting --segment_size" do
+        subject { storm_runner('identity', '--input=foo', '--output=file:///data/out', '--segment_size=1024') }
+        its(:storm_launch_commandline) { should match(/wukong\.output\.file\.segment_size.*1024/) }
+      end
     end
   end
   
@@ -28,6 +28,30 @@ describe Wukong::Storm::StormRunner do
       it "raises an error when --kafka_hosts is empty or missing" do
         expect { storm_runner('identity', '--input=foo', '--output=bar', '--kafka_hosts=') }.to raise_error(Wukong::Error, /kafka.*host/i)
       end
+
+      it "raises an error when --partition_by is used without --partition_key" do
+        expect { storm_runner('identity', '--input=foo', '--output=bar', '--partition_by=json') }.to raise_error(Wukong::Error, /partition_key/i)
+      end
+
+      it "raises an error on an unknown --partition_by" do
+        expect { storm_runner('identity', '--input=foo', '--output=bar', '--partition_by=xml', '--partition_key=id') }.to raise_error(Wukong::Error, /partition_by/i)
+      end
+
+      it "raises an error when --raw is used without framing" do
+        expect { storm_runner('identity', '--input=foo', '--output=bar', '--raw') }.to raise_error(Wukong::Error, /raw/i)
+      end
+
+      it "raises an error on an unknown --replay_cache" do
+        expect { storm_runner('identity', '--input=foo', '--output=bar', '--replay_cache=disk') }.to raise_error(Wukong::Error, /replay_cache/i)
+      end
+
+      it "raises an error when --replay_cache is used with embedded dataflows" do
+        expect { storm_runner('identity', '--input=foo', '--output=bar', '--replay_cache=memory', '--dataflow_mode=embedded') }.to raise_error(Wukong::Error, /replay_cache/i)
+      end
+
+      it "raises an error when --zygote is used with an explicit --bolt_command" do
+        expect { storm_runner('identity', '--input=foo', '--output=bar', '--zygote', '--bolt_command=my_bolt') }.to raise_error(Wukong::Error, /zygote/i)
+      end
     end
 
     context "reading from S3 and writing to Kafka" do
@@ -47,6 +71,36 @@ describe Wukong::Storm::StormRunner do
       end
       
     end
+
+    context "calibrating" do
+      it "raises an error without a sample file" do
+        expect { storm_runner('identity', '--input=foo', '--output=bar', '--calibrate', '--target_rate=1000') }.to raise_error(Wukong::Error, /sample/i)
+      end
+
+      it "raises an error without a target rate" do
+        expect { storm_runner('identity', '--input=foo', '--output=bar', '--calibrate', "--sample=#{__FILE__}") }.to raise_error(Wukong::Error, /target_rate/i)
+      end
+    end
+
+    context "generating synthetic input" do
+      it "raises an error on a missing templates file" do
+        expect { storm_runner('identity', '--input=synthetic://', '--output=bar', '--templates=/no/such/file') }.to raise_error(Wukong::Error, /templates/i)
+      end
+
+      it "raises an error on an invalid --stamp_by" do
+        expect { storm_runner('identity', '--input=synthetic://', '--output=bar', '--stamp_by=xml') }.to raise_error(Wukong::Error, /stamp_by/i)
+      end
+    end
+
+    context "running locally" do
+      it "raises an error without a positive duration" do
+        expect { storm_runner('identity', '--input=foo', '--output=bar', '--local', '--local_duration=0') }.to raise_error(Wukong::Error, /local_duration/i)
+      end
+
+      it "raises an error on a missing input file" do
+        expect { storm_runner('identity', '--input=foo', '--output=bar', '--local', '--local_input=/no/such/file') }.to raise_error(Wukong::Error, /local_input/i)
+      end
+    end
   end
 
   describe "setting up for a topology about to be launched" do
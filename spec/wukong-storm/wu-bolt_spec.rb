@@ -51,4 +51,34 @@ describe 'wu-bolt' do
     it           { should exit_with(0)                                    }
     it           { should have_stdout("foo\nX\nbar\nX\nbaz\nX\n")   }
   end  
+
+  context 'in batch mode' do
+    context 'with a duplicating processor' do
+      let(:input)  { "2\nfoo\nbar"                                       }
+      subject      { wu_bolt(examples, '--run=multi', '--batch') < input  }
+      it           { should exit_with(0)                                    }
+      it           { should have_stdout("3 3\nfoo\nfoo\nfoo\nbar\nbar\nbar\n") }
+    end
+
+    context 'with a skipped processor' do
+      let(:input)  { "2\nfoo\nbar"                                         }
+      subject      { wu_bolt(examples, '--run=skipped', '--batch') < input }
+      it           { should exit_with(0)                                    }
+      it           { should have_stdout("0 0\n")                            }
+    end
+
+    context 'with multiple frames' do
+      let(:input)  { "1\nfoo\n2\nbar\nbaz"                                }
+      subject      { wu_bolt(examples, '--run=simple', '--batch') < input  }
+      it           { should exit_with(0)                                    }
+      it           { should have_stdout("1\nfoo\n1 1\nbar\nbaz\n")          }
+    end
+  end
+
+  context 'with length framing' do
+    let(:input)    { [2, 7].pack('N*') + "foo\nbar" + [3].pack('N') + "baz" }
+    subject        { wu_bolt(examples, '--run=simple', '--framing=length') < input }
+    it             { should exit_with(0)                                    }
+    it             { should have_stdout([1, 1, 7].pack('N*') + "foo\nbar" + [3].pack('N') + "baz") }
+  end
 end
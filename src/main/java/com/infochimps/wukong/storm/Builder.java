@@ -39,6 +39,12 @@ public class Builder {
 	return kh;
     }
     
+    public static String LOCAL				= "wukong.local";
+    public static String DEFAULT_LOCAL			= "false";
+    public Boolean isLocal() {
+	return Boolean.parseBoolean(prop(LOCAL, DEFAULT_LOCAL));
+    }
+
     public String prop(String key, String defaultValue) {
 	if (System.getProperty(key) == null) {
 	    System.setProperty(key, defaultValue);
@@ -0,0 +1,305 @@
+package com.infochimps.wukong.storm;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.log4j.Logger;
+
+import backtype.storm.Config;
+
+import com.infochimps.wukong.storm.dataflow.DataflowProtocol;
+import com.infochimps.wukong.storm.dataflow.DelimitedProtocol;
+import com.infochimps.wukong.storm.dataflow.EmbeddedRuntime;
+import com.infochimps.wukong.storm.dataflow.Subprocess;
+
+/**
+ * Sizes a topology by running its dataflow locally against a sample
+ * of its input before it is submitted.
+ *
+ * The dataflow is run exactly as a bolt would run it: the same
+ * command, the same framing, and the same frame size.  After one
+ * pass over the sample to warm it up, a second, timed pass measures
+ * the records per second a single process (or embedded runtime) can
+ * handle and the latency of each frame.  From these and a target
+ * throughput it chooses:
+ *
+ * <ul>
+ *   <li><code>wukong.parallelism</code>: enough executors to handle the target throughput with some headroom</li>
+ *   <li><code>topology.workers</code>: enough workers to give each dataflow process a core</li>
+ *   <li><code>topology.max.spout.pending</code>: enough batches in flight to sustain the target throughput given how long each batch takes, by Little's law</li>
+ * </ul>
+ *
+ * The chosen values replace any which were already set.
+ *
+ * Each pass must finish within CALIBRATION_TIMEOUT, so a dataflow
+ * which hangs or swallows its input fails calibration rather than
+ * blocking the launch forever.
+ */
+public class Calibrator extends Builder {
+
+    static Logger LOG = Logger.getLogger(Calibrator.class);
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private SpoutBuilder    spoutBuilder;
+    private DataflowBuilder dataflowBuilder;
+
+    public Calibrator() {
+	this.spoutBuilder    = new SpoutBuilder();
+	this.dataflowBuilder = new DataflowBuilder(spoutBuilder);
+    }
+
+    @Override
+    public Boolean valid() {
+	if (!enabled()) { return true; }
+	if (samplePath() == null || !new File(samplePath()).isFile()) {
+	    LOG.error("Must set a local file of sample input records using the " + CALIBRATION_SAMPLE + " property when using " + CALIBRATE);
+	    return false;
+	}
+	if (targetRate() <= 0) {
+	    LOG.error("Must set a positive target throughput in records per second using the " + CALIBRATION_TARGET + " property when using " + CALIBRATE);
+	    return false;
+	}
+	if (dataflowBuilder.boltCommand() == null) {
+	    LOG.error("Must set a command-line using the " + DataflowBuilder.BOLT_COMMAND + " property when using " + CALIBRATE);
+	    return false;
+	}
+	if (timeout() <= 0) {
+	    LOG.error("Must set a positive number of milliseconds using the " + CALIBRATION_TIMEOUT + " property when using " + CALIBRATE);
+	    return false;
+	}
+	return true;
+    }
+
+    @Override
+    public void logInfo() {
+	if (!enabled()) { return; }
+	LOG.info("CALIBRATION: Sizing topology for " + targetRate() + " records/sec from up to " + sampleRecords() + " records in " + samplePath());
+    }
+
+    public static String usage() {
+	String s = "CALIBRATION OPTIONS\n"
+	    + "\n"
+	    + "The topology can be sized before it is submitted by running its dataflow\n"
+	    + "locally against a sample of its input.  This sets " + DataflowBuilder.DATAFLOW_PARALLELISM + ",\n"
+	    + Config.TOPOLOGY_WORKERS + ", and " + Config.TOPOLOGY_MAX_SPOUT_PENDING + ".\n"
+	    + "\n"
+	    + "  " + String.format("%10s", CALIBRATE) + "  Calibrate before submitting (Default: " + DEFAULT_CALIBRATE + ")\n"
+	    + "  " + String.format("%10s", CALIBRATION_SAMPLE) + "  Local file of sample records, one per line, as the dataflow receives them (Required)\n"
+	    + "  " + String.format("%10s", CALIBRATION_RECORDS) + "  Maximum number of sample records to use (Default: " + DEFAULT_CALIBRATION_RECORDS + ")\n"
+	    + "  " + String.format("%10s", CALIBRATION_TARGET) + "  Target throughput of the topology in records per second (Required)\n"
+	    + "  " + String.format("%10s", CALIBRATION_HEADROOM) + "  Factor by which to over-provision the dataflow (Default: " + DEFAULT_CALIBRATION_HEADROOM + ")\n"
+	    + "  " + String.format("%10s", CALIBRATION_WORKER_CORES) + "  Cores available to each worker (Default: cores on this machine)\n"
+	    + "  " + String.format("%10s", CALIBRATION_BATCH_RECORDS) + "  Records in each Trident batch (Default: estimated from the spout)\n"
+	    + "  " + String.format("%10s", CALIBRATION_OVERHEAD) + "  Milliseconds each batch spends outside the dataflow (Default: " + DEFAULT_CALIBRATION_OVERHEAD + ")\n"
+	    + "  " + String.format("%10s", CALIBRATION_TIMEOUT) + "  Milliseconds each pass over the sample may take before calibration fails (Default: " + DEFAULT_CALIBRATION_TIMEOUT + ")\n";
+	return s;
+    }
+
+    public void calibrate() throws IOException {
+	List<byte[]> sample = readSample();
+	if (sample.isEmpty()) {
+	    throw new IOException("No sample records in " + samplePath());
+	}
+	int frameSize = calibrationFrameSize(sample.size());
+	run(sample, frameSize);
+	long   elapsed          = run(sample, frameSize);
+	int    frames           = (sample.size() + frameSize - 1) / frameSize;
+	double recordsPerSecond = sample.size() / (elapsed / 1e9);
+	double frameLatency     = (elapsed / 1e9) / frames;
+	LOG.info(String.format("CALIBRATION: Each dataflow process handles %.1f records/sec (%.3f ms/record) in frames of %d records taking %.3f ms each", recordsPerSecond, 1000.0 / recordsPerSecond, frameSize, frameLatency * 1000));
+
+	int    concurrency  = executorConcurrency();
+	int    parallelism  = Math.max(1, (int) Math.ceil(targetRate() * headroom() / (recordsPerSecond * concurrency)));
+	int    workers      = Math.max(1, (int) Math.ceil((double) (parallelism * concurrency) / workerCores()));
+	int    batchRecords = batchRecords(sample);
+	double batchLatency = (batchRecords / (recordsPerSecond * concurrency * parallelism)) + frameLatency + (overhead() / 1000.0);
+	int    pending      = Math.max(1, (int) Math.ceil(targetRate() * batchLatency / batchRecords));
+	LOG.info(String.format("CALIBRATION: Batches of %d records take %.3f ms so %d must be in flight to reach %d records/sec", batchRecords, batchLatency * 1000, pending, targetRate()));
+
+	setCalibrated(DataflowBuilder.DATAFLOW_PARALLELISM, parallelism);
+	setCalibrated(Config.TOPOLOGY_WORKERS,              workers);
+	setCalibrated(Config.TOPOLOGY_MAX_SPOUT_PENDING,    pending);
+    }
+
+    // Returns the nanoseconds taken to pass the sample through the
+    // dataflow in frames of the given size.
+    private long run(final List<byte[]> sample, final int frameSize) throws IOException {
+	if (dataflowBuilder.isEmbedded()) {
+	    return runEmbedded(sample, frameSize);
+	}
+	final DataflowProtocol protocol   = (dataflowBuilder.framed() ? dataflowBuilder.dataflowProtocol() : new DelimitedProtocol());
+	final Subprocess       subprocess = new Subprocess(dataflowBuilder.boltCommand(), dataflowBuilder.subprocessDirectory(), dataflowBuilder.dataflowEnv());
+	subprocess.start();
+	try {
+	    return withinTimeout(sample.size(), new Callable<Long>() {
+		    public Long call() throws IOException {
+			long start = System.nanoTime();
+			for (int i = 0; i < sample.size(); i += frameSize) {
+			    subprocess.roundTrip(protocol, sample.subList(i, Math.min(i + frameSize, sample.size())));
+			}
+			return System.nanoTime() - start;
+		    }
+		});
+	} finally {
+	    subprocess.stop();
+	}
+    }
+
+    private long runEmbedded(List<byte[]> sample, final int frameSize) throws IOException {
+	final List<String> records = new ArrayList<String>(sample.size());
+	for (byte[] record : sample) {
+	    records.add(new String(record, UTF8));
+	}
+	final EmbeddedRuntime runtime = new EmbeddedRuntime(dataflowBuilder.boltCommand(), dataflowBuilder.subprocessDirectory(), dataflowBuilder.dataflowEnv());
+	runtime.start();
+	try {
+	    return withinTimeout(records.size(), new Callable<Long>() {
+		    public Long call() {
+			long start = System.nanoTime();
+			for (int i = 0; i < records.size(); i += frameSize) {
+			    runtime.process(records.subList(i, Math.min(i + frameSize, records.size())));
+			}
+			return System.nanoTime() - start;
+		    }
+		});
+	} finally {
+	    runtime.stop();
+	}
+    }
+
+    // Runs a pass on its own thread and gives up on it after
+    // CALIBRATION_TIMEOUT.  The caller then stops the dataflow, which
+    // unblocks the abandoned pass.
+    private long withinTimeout(int records, Callable<Long> pass) throws IOException {
+	FutureTask<Long> task   = new FutureTask<Long>(pass);
+	Thread           thread = new Thread(task, "wukong-calibration");
+	thread.setDaemon(true);
+	thread.start();
+	try {
+	    return task.get(timeout(), TimeUnit.MILLISECONDS);
+	} catch (TimeoutException e) {
+	    task.cancel(true);
+	    throw new IOException("Dataflow <" + dataflowBuilder.boltCommand() + "> did not process " + records + " sample records within " + timeout() + " ms.  Check that it emits output for its input or raise " + CALIBRATION_TIMEOUT);
+	} catch (InterruptedException e) {
+	    task.cancel(true);
+	    Thread.currentThread().interrupt();
+	    throw new IOException("Interrupted calibrating dataflow <" + dataflowBuilder.boltCommand() + ">", e);
+	} catch (ExecutionException e) {
+	    Throwable cause = e.getCause();
+	    if (cause instanceof IOException)      { throw (IOException) cause; }
+	    if (cause instanceof RuntimeException) { throw (RuntimeException) cause; }
+	    throw new IOException("Could not calibrate dataflow <" + dataflowBuilder.boltCommand() + ">", cause);
+	}
+    }
+
+    private List<byte[]> readSample() throws IOException {
+	List<byte[]>   sample = new ArrayList<byte[]>();
+	BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(samplePath()), UTF8));
+	try {
+	    String line;
+	    while (sample.size() < sampleRecords() && (line = reader.readLine()) != null) {
+		sample.add(line.getBytes(UTF8));
+	    }
+	} finally {
+	    reader.close();
+	}
+	return sample;
+    }
+
+    // Records are sent to the dataflow one at a time unless it is
+    // framed or embedded, in which case a frame size of 0 means a
+    // whole Trident batch, approximated here by the whole sample.
+    private int calibrationFrameSize(int sampleSize) {
+	if (!(dataflowBuilder.framed() || dataflowBuilder.isEmbedded())) { return 1; }
+	int frameSize = dataflowBuilder.frameSize();
+	return (frameSize > 0 ? Math.min(frameSize, sampleSize) : sampleSize);
+    }
+
+    // The number of dataflow processes each executor keeps busy.
+    private int executorConcurrency() {
+	return (dataflowBuilder.framed() && !dataflowBuilder.isEmbedded()) ? dataflowBuilder.dataflowProcesses() : 1;
+    }
+
+    // Each Kafka partition contributes up to a fetch's worth of bytes
+    // to every batch.  Blob spouts emit a blob per batch, which the
+    // sample stands in for.  Batch spouts emit a fixed number of
+    // records per task.
+    private int batchRecords(List<byte[]> sample) {
+	if (prop(CALIBRATION_BATCH_RECORDS) != null) {
+	    return Integer.parseInt(prop(CALIBRATION_BATCH_RECORDS));
+	}
+	if (spoutBuilder.isBlobSpout()) { return sample.size(); }
+	if (spoutBuilder.isBatchSpout()) { return (int) spoutBuilder.batchSpoutRecords(); }
+	long bytes = 0;
+	for (byte[] record : sample) {
+	    bytes += record.length + 1;
+	}
+	long batchBytes = (long) spoutBuilder.kafkaInputPartitions() * spoutBuilder.kafkaInputBatchSize();
+	return (int) Math.max(1, batchBytes / Math.max(1, bytes / sample.size()));
+    }
+
+    private void setCalibrated(String key, int value) {
+	LOG.info("CALIBRATION: Setting " + key + " to " + value);
+	System.setProperty(key, Integer.toString(value));
+    }
+
+    public static String CALIBRATE         = "wukong.calibrate";
+    public static String DEFAULT_CALIBRATE = "false";
+    public Boolean enabled() {
+	return Boolean.parseBoolean(prop(CALIBRATE, DEFAULT_CALIBRATE));
+    }
+
+    public static String CALIBRATION_SAMPLE = "wukong.calibrate.sample";
+    public String samplePath() {
+	return prop(CALIBRATION_SAMPLE);
+    }
+
+    public static String CALIBRATION_RECORDS         = "wukong.calibrate.records";
+    public static String DEFAULT_CALIBRATION_RECORDS = "1000";
+    public int sampleRecords() {
+	return Integer.parseInt(prop(CALIBRATION_RECORDS, DEFAULT_CALIBRATION_RECORDS));
+    }
+
+    public static String CALIBRATION_TARGET = "wukong.calibrate.target";
+    public int targetRate() {
+	return (prop(CALIBRATION_TARGET) == null ? 0 : Integer.parseInt(prop(CALIBRATION_TARGET)));
+    }
+
+    public static String CALIBRATION_HEADROOM         = "wukong.calibrate.headroom";
+    public static String DEFAULT_CALIBRATION_HEADROOM = "1.5";
+    public double headroom() {
+	return Double.parseDouble(prop(CALIBRATION_HEADROOM, DEFAULT_CALIBRATION_HEADROOM));
+    }
+
+    public static String CALIBRATION_WORKER_CORES = "wukong.calibrate.worker_cores";
+    public int workerCores() {
+	return Integer.parseInt(prop(CALIBRATION_WORKER_CORES, Integer.toString(Runtime.getRuntime().availableProcessors())));
+    }
+
+    public static String CALIBRATION_BATCH_RECORDS = "wukong.calibrate.batch_records";
+
+    public static String CALIBRATION_OVERHEAD         = "wukong.calibrate.overhead_ms";
+    public static String DEFAULT_CALIBRATION_OVERHEAD = "100";
+    public int overhead() {
+	return Integer.parseInt(prop(CALIBRATION_OVERHEAD, DEFAULT_CALIBRATION_OVERHEAD));
+    }
+
+    public static String CALIBRATION_TIMEOUT         = "wukong.calibrate.timeout_ms";
+    public static String DEFAULT_CALIBRATION_TIMEOUT = "120000";
+    public int timeout() {
+	return Integer.parseInt(prop(CALIBRATION_TIMEOUT, DEFAULT_CALIBRATION_TIMEOUT));
+    }
+
+}
@@ -1,9 +1,28 @@
 package com.infochimps.wukong.storm;
 
+import java.util.Arrays;
+import java.util.List;
+
 import org.apache.log4j.Logger;
 
 import com.infochimps.storm.wukong.WuFunction;
 
+import com.infochimps.wukong.storm.dataflow.DataflowProtocol;
+import com.infochimps.wukong.storm.dataflow.DelimitedProtocol;
+import com.infochimps.wukong.storm.dataflow.LengthPrefixedProtocol;
+import com.infochimps.wukong.storm.dataflow.LineFrameProtocol;
+import com.infochimps.wukong.storm.dataflow.MeteredFunction;
+import com.infochimps.wukong.storm.dataflow.ReplayCache;
+import com.infochimps.wukong.storm.dataflow.SubprocessPool;
+import com.infochimps.wukong.storm.dataflow.WuBatchAggregator;
+import com.infochimps.wukong.storm.dataflow.WuEmbeddedAggregator;
+
+import com.infochimps.wukong.storm.partition.ColumnKeyExtractor;
+import com.infochimps.wukong.storm.partition.JsonKeyExtractor;
+import com.infochimps.wukong.storm.partition.KeyExtractor;
+import com.infochimps.wukong.storm.partition.PartitionKey;
+import com.infochimps.wukong.storm.partition.RegexKeyExtractor;
+
 public class DataflowBuilder extends Builder {
 
     static Logger LOG = Logger.getLogger(DataflowBuilder.class);
@@ -20,12 +39,68 @@ public class DataflowBuilder extends Builder {
 	    LOG.error("Must set a dataflow name using the " + DATAFLOW_NAME + " property");
 	    return false;
 	};
+	if ((framed() || isEmbedded() || isZygote() || isCached()) && boltCommand() == null) {
+	    LOG.error("Must set a command-line using the " + BOLT_COMMAND + " property when using " + DATAFLOW_BATCH + ", " + DATAFLOW_FRAMING + ", " + DATAFLOW_MODE + ", " + DATAFLOW_LAUNCH + ", or " + DATAFLOW_CACHE);
+	    return false;
+	}
+	if (isCached() && isEmbedded()) {
+	    LOG.error("Cannot use " + DATAFLOW_CACHE + " with " + DATAFLOW_MODE + "=" + EMBEDDED_MODE);
+	    return false;
+	}
+	if (isEmbedded() && !jrubyAvailable()) {
+	    LOG.error("Must build the topology jar with the 'embedded' Maven profile (mvn -P embedded package) to use " + DATAFLOW_MODE + "=" + EMBEDDED_MODE);
+	    return false;
+	}
+	if (isCached() && (cacheSize() <= 0 || cacheSize() > Integer.MAX_VALUE)) {
+	    LOG.error("Must set " + DATAFLOW_CACHE_SIZE + " to a positive number of bytes no more than " + Integer.MAX_VALUE);
+	    return false;
+	}
+	if (spoutBuilder.isRawKafkaInput() && !(framed() || isEmbedded())) {
+	    LOG.error("Must set " + DATAFLOW_BATCH + " or " + DATAFLOW_FRAMING + "=" + LENGTH_FRAMING + " when using " + SpoutBuilder.KAFKA_INPUT_RAW);
+	    return false;
+	}
+	if (dataflowReplyTimeout() <= 0) {
+	    LOG.error("Must set " + DATAFLOW_REPLY_TIMEOUT + " to a positive number of milliseconds");
+	    return false;
+	}
+	if (isPartitionedByKey() && partitionKey() == null) {
+	    LOG.error("Must set a key using the " + PARTITION_KEY + " property when using " + PARTITION_BY + "=" + partitionBy());
+	    return false;
+	}
+	if (partitionBy().equals(COLUMN_PARTITION) && !partitionKey().matches("[1-9][0-9]*")) {
+	    LOG.error("Must set " + PARTITION_KEY + " to a column number, counting from 1, when using " + PARTITION_BY + "=" + COLUMN_PARTITION);
+	    return false;
+	}
+	for (int stage = 2; stage <= dataflowStages(); stage++) {
+	    if (stageName(stage) == null || stageCommand(stage) == null) {
+		LOG.error("Must set a dataflow name and a command-line for stage " + stage + " using the " + stageProperty(stage, STAGE_NAME) + " and " + stageProperty(stage, STAGE_COMMAND) + " properties");
+		return false;
+	    }
+	}
 	return true;
     }
 
     @Override
     public void logInfo() {
 	LOG.info("DATAFLOW: Launching Wukong dataflow <" + dataflowName() + "> with parallelism " + dataflowParallelism() + " in environment <" + dataflowEnv() + ">" );
+	if (isEmbedded()) {
+	    LOG.info("DATAFLOW: Running the dataflow in up to " + dataflowRuntimes() + " embedded Ruby runtime(s) per worker in frames of " + (embeddedFrameSize() > 0 ? "at most " + embeddedFrameSize() + " records" : "whole Trident batches"));
+	} else if (framed()) {
+	    LOG.info("DATAFLOW: Sending records to the dataflow using " + dataflowFraming() + " framing in frames of " + (frameSize() > 0 ? "at most " + frameSize() + " records" : "whole Trident batches"));
+	    LOG.info("DATAFLOW: Running " + dataflowProcesses() + " subprocess(es) per executor with up to " + dataflowPipelineDepth() + " frame(s) in flight each, dispatching by " + dataflowDispatch() + " and waiting up to " + dataflowReplyTimeout() + " ms for each reply");
+	}
+	if (isZygote() && !isEmbedded()) {
+	    LOG.info("DATAFLOW: Forking subprocesses from a zygote in each worker which has already loaded the dataflow");
+	}
+	if (isCached()) {
+	    LOG.info("DATAFLOW: Caching up to " + cacheSize() + " bytes of dataflow outputs in " + (dataflowCache().equals(ReplayCache.FILE) ? "a file in " + cacheDirectory() : "memory") + " in each worker for replayed batches");
+	}
+	if (isPartitionedByKey()) {
+	    LOG.info("DATAFLOW: Partitioning records by the " + partitionBy() + " key <" + partitionKey() + ">");
+	}
+	for (int stage = 2; stage <= dataflowStages(); stage++) {
+	    LOG.info("DATAFLOW: Then stage " + stage + ", dataflow <" + stageName(stage) + "> with parallelism " + stageParallelism(stage) + (stageRepartition(stage).equals(SHUFFLE_REPARTITION) ? " after shuffling" : " in the same executors"));
+	}
     }
 
     public static String usage() {
@@ -37,12 +112,104 @@ public class DataflowBuilder extends Builder {
 	    + "  " + String.format("%10s", DATAFLOW_ENV) + "  Wukong environment (Default: " + DEFAULT_DATAFLOW_ENV + ")\n"
 	    + "  " + String.format("%10s", BOLT_COMMAND) + "  The command-line to execute within a Storm bolt (Required)\n"
 	    + "  " + String.format("%10s", DATAFLOW_DIRECTORY) + "  The directory within which to execute the command-line (Default: " + DEFAULT_DATAFLOW_DIRECTORY + ")\n"
-	    + "  " + String.format("%10s", DATAFLOW_PARALLELISM) + "  Parallelism hint for Wukong dataflow Trident function (Default: same as --input_parallelism)\n";
+	    + "  " + String.format("%10s", DATAFLOW_PARALLELISM) + "  Parallelism hint for Wukong dataflow Trident function (Default: same as --input_parallelism)\n"
+	    + "  " + String.format("%10s", DATAFLOW_MODE) + "  How to run the dataflow, one of: " + SUBPROCESS_MODE + " or " + EMBEDDED_MODE + ".  The '" + EMBEDDED_MODE + "' mode loads the dataflow named by the command-line into Ruby runtimes embedded in each worker (Default: " + DEFAULT_DATAFLOW_MODE + ")\n"
+	    + "  " + String.format("%10s", DATAFLOW_RUNTIMES) + "  Number of embedded Ruby runtimes shared by the executors of each worker (Default: " + DEFAULT_DATAFLOW_RUNTIMES + ")\n"
+	    + "  " + String.format("%10s", DATAFLOW_BATCH) + "  Send records to the command-line in frames rather than one at a time.  The command must speak the `wu-bolt --batch` protocol (Default: " + DEFAULT_DATAFLOW_BATCH + ")\n"
+	    + "  " + String.format("%10s", DATAFLOW_BATCH_SIZE) + "  Maximum number of records in a frame, 0 sends each Trident batch as a single frame (Default: " + DEFAULT_DATAFLOW_BATCH_SIZE + ")\n"
+	    + "  " + String.format("%10s", DATAFLOW_FRAMING) + "  How records in a frame are delimited, one of: " + LINE_FRAMING + " or " + LENGTH_FRAMING + ".  The '" + LENGTH_FRAMING + "' framing length-prefixes each record so records may contain newlines.  The command must speak the `wu-bolt --framing` protocol (Default: " + DEFAULT_DATAFLOW_FRAMING + ")\n"
+	    + "  " + String.format("%10s", DATAFLOW_PROCESSES) + "  Number of subprocesses run by each executor when sending frames (Default: " + DEFAULT_DATAFLOW_PROCESSES + ")\n"
+	    + "  " + String.format("%10s", DATAFLOW_PIPELINE) + "  Maximum number of frames in flight to each subprocess at once (Default: " + DEFAULT_DATAFLOW_PIPELINE + ")\n"
+	    + "  " + String.format("%10s", DATAFLOW_REPLY_TIMEOUT) + "  Milliseconds a subprocess may take to reply to a frame before it is relaunched and the batch replayed (Default: " + DEFAULT_DATAFLOW_REPLY_TIMEOUT + ")\n"
+	    + "  " + String.format("%10s", DATAFLOW_DISPATCH) + "  How frames are assigned to subprocesses, one of: " + SubprocessPool.ROUND_ROBIN + " or " + SubprocessPool.LEAST_OUTSTANDING + " (Default: " + DEFAULT_DATAFLOW_DISPATCH + ")\n"
+	    + "  " + String.format("%10s", DATAFLOW_LAUNCH) + "  How subprocesses are started, one of: " + SubprocessPool.EXEC + " or " + SubprocessPool.ZYGOTE + ".  The '" + SubprocessPool.ZYGOTE + "' launch forks each subprocess from a `wu-bolt --zygote` process in each worker which has already loaded the dataflow.  The command must be `wu-bolt` (Default: " + DEFAULT_DATAFLOW_LAUNCH + ")\n"
+	    + "  " + String.format("%10s", DATAFLOW_CACHE) + "  Where to cache the outputs of each record for replayed batches, one of: " + NO_CACHE + ", " + ReplayCache.MEMORY + " (off the heap), or " + ReplayCache.FILE + " (a memory-mapped file).  Only for dataflows whose outputs depend on nothing but each record (Default: " + DEFAULT_DATAFLOW_CACHE + ")\n"
+	    + "  " + String.format("%10s", DATAFLOW_CACHE_SIZE) + "  Bytes of outputs cached in each worker, the least recently used being evicted first (Default: " + DEFAULT_DATAFLOW_CACHE_SIZE + ")\n"
+	    + "  " + String.format("%10s", DATAFLOW_CACHE_DIRECTORY) + "  The directory in which to create the cache file (Default: " + DEFAULT_DATAFLOW_CACHE_DIRECTORY + ")\n"
+	    + "  " + String.format("%10s", PARTITION_BY) + "  How to key records so that each key always goes to the same dataflow executor, one of: " + NO_PARTITION + ", " + COLUMN_PARTITION + " (a tab-separated column), " + JSON_PARTITION + " (a field of a JSON object), or " + REGEX_PARTITION + " (the first group matched by a regular expression) (Default: " + DEFAULT_PARTITION_BY + ")\n"
+	    + "  " + String.format("%10s", PARTITION_KEY) + "  The key to partition by: a column number counting from 1, a dot-separated JSON field path, or a regular expression\n"
+	    + "  " + String.format("%10s", DATAFLOW_STAGES) + "  Number of dataflows chained one after the other.  The first is configured by the options above, each later stage N by the options below (Default: " + DEFAULT_DATAFLOW_STAGES + ")\n"
+	    + "\n"
+	    + "The following options apply to each later stage N of a chain, where N is 2 or more.  Stages run in the same mode and framing as the first:\n"
+	    + "\n"
+	    + "  " + String.format("%10s", stageProperty("N", STAGE_NAME)) + "  Name of the stage's Wukong dataflow (Required)\n"
+	    + "  " + String.format("%10s", stageProperty("N", STAGE_COMMAND)) + "  The command-line to execute for the stage (Required)\n"
+	    + "  " + String.format("%10s", stageProperty("N", STAGE_PARALLELISM)) + "  Parallelism hint for the stage (Default: same as " + DATAFLOW_PARALLELISM + ")\n"
+	    + "  " + String.format("%10s", stageProperty("N", STAGE_REPARTITION)) + "  How the previous stage's output reaches this one, one of: " + SHUFFLE_REPARTITION + " (spread evenly over this stage's executors) or " + NO_REPARTITION + " (run in the previous stage's executors, with the larger of their parallelisms) (Default: " + DEFAULT_STAGE_REPARTITION + ")\n";
 	return s;
     }
     
-    public WuFunction dataflow() {
-	return new WuFunction(dataflowName(), subprocessDirectory(), dataflowEnv());
+    public MeteredFunction dataflow() {
+	return new MeteredFunction(stageMetricsName(1), new WuFunction(dataflowName(), subprocessDirectory(), dataflowEnv()));
+    }
+
+    public WuBatchAggregator batchDataflow() {
+	return batchDataflow(1);
+    }
+
+    // WuFunction only runs the command in BOLT_COMMAND, and always
+    // launches it itself, so unframed later stages, and unframed
+    // dataflows forked from a zygote or cached, speak the same
+    // record-at-a-time protocol through a WuBatchAggregator instead, a
+    // whole Trident batch at a time.
+    public WuBatchAggregator batchDataflow(int stage) {
+	WuBatchAggregator aggregator;
+	if (framed()) {
+	    aggregator = new WuBatchAggregator(stageMetricsName(stage), stageCommand(stage), subprocessDirectory(), dataflowEnv(), frameSize(), dataflowProtocol(), dataflowProcesses(), dataflowPipelineDepth(), dataflowDispatch(), dataflowLaunch(), spoutBuilder.isRawKafkaInput());
+	} else {
+	    aggregator = new WuBatchAggregator(stageMetricsName(stage), stageCommand(stage), subprocessDirectory(), dataflowEnv(), 0, new DelimitedProtocol(), 1, dataflowPipelineDepth(), dataflowDispatch(), dataflowLaunch(), spoutBuilder.isRawKafkaInput());
+	}
+	aggregator.withReplyTimeout(dataflowReplyTimeout());
+	if (isCached()) {
+	    aggregator.withReplayCache(dataflowCache(), cacheDirectory(), (int) cacheSize());
+	}
+	return aggregator;
+    }
+
+    public PartitionKey partitionKeyFunction() {
+	return new PartitionKey(keyExtractor());
+    }
+
+    private KeyExtractor keyExtractor() {
+	if (partitionBy().equals(COLUMN_PARTITION)) {
+	    return new ColumnKeyExtractor(Integer.parseInt(partitionKey()));
+	} else if (partitionBy().equals(JSON_PARTITION)) {
+	    return new JsonKeyExtractor(partitionKey());
+	} else {
+	    return new RegexKeyExtractor(partitionKey());
+	}
+    }
+
+    public WuEmbeddedAggregator embeddedDataflow() {
+	return embeddedDataflow(1);
+    }
+
+    public WuEmbeddedAggregator embeddedDataflow(int stage) {
+	return new WuEmbeddedAggregator(stageMetricsName(stage), stageCommand(stage), subprocessDirectory(), dataflowEnv(), embeddedFrameSize(), dataflowRuntimes());
+    }
+
+    public DataflowProtocol dataflowProtocol() {
+	if (isLengthFramed()) {
+	    return new LengthPrefixedProtocol();
+	} else {
+	    return new LineFrameProtocol();
+	}
+    }
+
+    // Does the dataflow run as a WuBatchAggregator?  Length framing
+    // without batching sends one record per frame.
+    public Boolean framed() {
+	return (batched() || isLengthFramed());
+    }
+
+    public int frameSize() {
+	return batched() ? dataflowBatchSize() : 1;
+    }
+
+    // Borrowing a runtime costs the same whatever the frame holds, so
+    // embedded dataflows take whole batches unless told otherwise.
+    public int embeddedFrameSize() {
+	return batched() ? dataflowBatchSize() : 0;
     }
 
     public static String DATAFLOW_DIRECTORY             = "wukong.directory";
@@ -56,9 +223,12 @@ public class DataflowBuilder extends Builder {
 	return prop(DATAFLOW_NAME);
     }
 
-    // This is actually used directly by WuFunction but it's listed
-    // here for completeness since it is set by the Ruby code.
+    // This is used directly by WuFunction but it's also passed to
+    // the WuBatchAggregator when running in batch mode.
     public static String BOLT_COMMAND                   = "wukong.command";
+    public String boltCommand() {
+	return prop(BOLT_COMMAND);
+    }
 
     public static String DATAFLOW_ENV			= "wukong.environment";
     public static String DEFAULT_DATAFLOW_ENV	        = "development";
@@ -70,5 +240,216 @@ public class DataflowBuilder extends Builder {
     public int dataflowParallelism() {
 	return Integer.parseInt(prop(DATAFLOW_PARALLELISM, Integer.toString(spoutBuilder.inputParallelism())));
     }
+
+    public static String DATAFLOW_MODE			= "wukong.dataflow.mode";
+    public static String SUBPROCESS_MODE		= "subprocess";
+    public static String EMBEDDED_MODE			= "embedded";
+    public static String DEFAULT_DATAFLOW_MODE		= SUBPROCESS_MODE;
+    public String dataflowMode() {
+	if (prop(DATAFLOW_MODE, DEFAULT_DATAFLOW_MODE).equals(EMBEDDED_MODE)) {
+	    return EMBEDDED_MODE;
+	} else {
+	    return SUBPROCESS_MODE;
+	}
+    }
+
+    public Boolean isEmbedded() {
+	return dataflowMode().equals(EMBEDDED_MODE);
+    }
+
+    // JRuby is only bundled into the topology jar by the 'embedded'
+    // profile, see pom.xml.
+    private boolean jrubyAvailable() {
+	try {
+	    Class.forName("org.jruby.embed.ScriptingContainer");
+	    return true;
+	} catch (ClassNotFoundException e) {
+	    return false;
+	}
+    }
+
+    public static String DATAFLOW_RUNTIMES		= "wukong.dataflow.runtimes";
+    public static String DEFAULT_DATAFLOW_RUNTIMES	= "1";
+    public int dataflowRuntimes() {
+	return Integer.parseInt(prop(DATAFLOW_RUNTIMES, DEFAULT_DATAFLOW_RUNTIMES));
+    }
+
+    public static String DATAFLOW_BATCH			= "wukong.dataflow.batch";
+    public static String DEFAULT_DATAFLOW_BATCH		= "false";
+    public Boolean batched() {
+	return Boolean.parseBoolean(prop(DATAFLOW_BATCH, DEFAULT_DATAFLOW_BATCH));
+    }
+
+    public static String DATAFLOW_BATCH_SIZE		= "wukong.dataflow.batch_size";
+    public static String DEFAULT_DATAFLOW_BATCH_SIZE	= "0";
+    public int dataflowBatchSize() {
+	return Integer.parseInt(prop(DATAFLOW_BATCH_SIZE, DEFAULT_DATAFLOW_BATCH_SIZE));
+    }
+
+    public static String DATAFLOW_FRAMING		= "wukong.dataflow.framing";
+    public static String LINE_FRAMING			= "line";
+    public static String LENGTH_FRAMING			= "length";
+    public static String DEFAULT_DATAFLOW_FRAMING	= LINE_FRAMING;
+    public String dataflowFraming() {
+	if (prop(DATAFLOW_FRAMING, DEFAULT_DATAFLOW_FRAMING).equals(LENGTH_FRAMING)) {
+	    return LENGTH_FRAMING;
+	} else {
+	    return LINE_FRAMING;
+	}
+    }
+
+    public Boolean isLengthFramed() {
+	return dataflowFraming().equals(LENGTH_FRAMING);
+    }
+
+    public static String DATAFLOW_PROCESSES		= "wukong.dataflow.processes";
+    public static String DEFAULT_DATAFLOW_PROCESSES	= "1";
+    public int dataflowProcesses() {
+	return Integer.parseInt(prop(DATAFLOW_PROCESSES, DEFAULT_DATAFLOW_PROCESSES));
+    }
+
+    public static String DATAFLOW_PIPELINE		= "wukong.dataflow.pipeline";
+    public static String DEFAULT_DATAFLOW_PIPELINE	= "2";
+    public int dataflowPipelineDepth() {
+	return Integer.parseInt(prop(DATAFLOW_PIPELINE, DEFAULT_DATAFLOW_PIPELINE));
+    }
+
+    public static String DATAFLOW_REPLY_TIMEOUT		= "wukong.dataflow.reply_timeout_ms";
+    public static String DEFAULT_DATAFLOW_REPLY_TIMEOUT	= "60000";
+    public int dataflowReplyTimeout() {
+	return Integer.parseInt(prop(DATAFLOW_REPLY_TIMEOUT, DEFAULT_DATAFLOW_REPLY_TIMEOUT));
+    }
+
+    public static String DATAFLOW_DISPATCH		= "wukong.dataflow.dispatch";
+    public static String DEFAULT_DATAFLOW_DISPATCH	= SubprocessPool.ROUND_ROBIN;
+    public String dataflowDispatch() {
+	if (prop(DATAFLOW_DISPATCH, DEFAULT_DATAFLOW_DISPATCH).equals(SubprocessPool.LEAST_OUTSTANDING)) {
+	    return SubprocessPool.LEAST_OUTSTANDING;
+	} else {
+	    return SubprocessPool.ROUND_ROBIN;
+	}
+    }
+
+    public static String DATAFLOW_LAUNCH		= "wukong.dataflow.launch";
+    public static String DEFAULT_DATAFLOW_LAUNCH	= SubprocessPool.EXEC;
+    public String dataflowLaunch() {
+	if (prop(DATAFLOW_LAUNCH, DEFAULT_DATAFLOW_LAUNCH).equals(SubprocessPool.ZYGOTE)) {
+	    return SubprocessPool.ZYGOTE;
+	} else {
+	    return SubprocessPool.EXEC;
+	}
+    }
+
+    public Boolean isZygote() {
+	return dataflowLaunch().equals(SubprocessPool.ZYGOTE);
+    }
+
+    public static String DATAFLOW_CACHE			= "wukong.dataflow.cache";
+    public static String NO_CACHE			= "none";
+    public static String DEFAULT_DATAFLOW_CACHE		= NO_CACHE;
+    public String dataflowCache() {
+	String cache = prop(DATAFLOW_CACHE, DEFAULT_DATAFLOW_CACHE);
+	if (cache.equals(ReplayCache.MEMORY) || cache.equals(ReplayCache.FILE)) {
+	    return cache;
+	} else {
+	    return NO_CACHE;
+	}
+    }
+
+    public Boolean isCached() {
+	return !dataflowCache().equals(NO_CACHE);
+    }
+
+    public static String DATAFLOW_CACHE_SIZE		= "wukong.dataflow.cache_size";
+    public static String DEFAULT_DATAFLOW_CACHE_SIZE	= "268435456";
+    public long cacheSize() {
+	return Long.parseLong(prop(DATAFLOW_CACHE_SIZE, DEFAULT_DATAFLOW_CACHE_SIZE));
+    }
+
+    public static String DATAFLOW_CACHE_DIRECTORY	= "wukong.dataflow.cache_directory";
+    public static String DEFAULT_DATAFLOW_CACHE_DIRECTORY = System.getProperty("java.io.tmpdir");
+    public String cacheDirectory() {
+	return prop(DATAFLOW_CACHE_DIRECTORY, DEFAULT_DATAFLOW_CACHE_DIRECTORY);
+    }
+
+    public static String PARTITION_BY			= "wukong.dataflow.partition_by";
+    public static String NO_PARTITION			= "none";
+    public static String COLUMN_PARTITION		= "column";
+    public static String JSON_PARTITION			= "json";
+    public static String REGEX_PARTITION		= "regex";
+    public static String DEFAULT_PARTITION_BY		= NO_PARTITION;
+    public String partitionBy() {
+	String partitionBy = prop(PARTITION_BY, DEFAULT_PARTITION_BY);
+	if (partitionBy.equals(COLUMN_PARTITION) || partitionBy.equals(JSON_PARTITION) || partitionBy.equals(REGEX_PARTITION)) {
+	    return partitionBy;
+	} else {
+	    return NO_PARTITION;
+	}
+    }
+
+    public Boolean isPartitionedByKey() {
+	return !partitionBy().equals(NO_PARTITION);
+    }
+
+    public static String PARTITION_KEY			= "wukong.dataflow.partition_key";
+    public String partitionKey() {
+	return prop(PARTITION_KEY);
+    }
+
+    public static String DATAFLOW_STAGES		= "wukong.dataflow.stages";
+    public static String DEFAULT_DATAFLOW_STAGES	= "1";
+    public int dataflowStages() {
+	return Integer.parseInt(prop(DATAFLOW_STAGES, DEFAULT_DATAFLOW_STAGES));
+    }
+
+    // Stage 1 is the dataflow configured by the options above, each
+    // later stage by its own wukong.dataflow.stage.N.* properties.
+    public static String STAGE_NAME			= "name";
+    public static String STAGE_COMMAND			= "command";
+    public static String STAGE_PARALLELISM		= "parallelism";
+    public static String STAGE_REPARTITION		= "repartition";
+    public static String stageProperty(Object stage, String option) {
+	return "wukong.dataflow.stage." + stage + "." + option;
+    }
+
+    public String stageName(int stage) {
+	return (stage == 1) ? dataflowName() : prop(stageProperty(stage, STAGE_NAME));
+    }
+
+    public String stageCommand(int stage) {
+	return (stage == 1) ? boltCommand() : prop(stageProperty(stage, STAGE_COMMAND));
+    }
+
+    // Stages without repartitioning run in the same bolt, where every
+    // metric must have a different name, so each stage's metrics are
+    // named for its dataflow: wukong.NAME and wukong.NAME.latency.  A
+    // name already used by an earlier stage, or by another part of the
+    // topology, gets the stage number appended.
+    private static final List<String> RESERVED_METRICS = Arrays.asList("spout", "combine", "state", "dataflow");
+
+    public String stageMetricsName(int stage) {
+	String name = stageName(stage);
+	boolean taken = RESERVED_METRICS.contains(name);
+	for (int earlier = 1; earlier < stage; earlier++) {
+	    if (name.equals(stageName(earlier))) { taken = true; }
+	}
+	return taken ? name + "_" + stage : name;
+    }
+
+    public int stageParallelism(int stage) {
+	if (stage == 1) { return dataflowParallelism(); }
+	return Integer.parseInt(prop(stageProperty(stage, STAGE_PARALLELISM), Integer.toString(dataflowParallelism())));
+    }
+
+    public static String SHUFFLE_REPARTITION		= "shuffle";
+    public static String NO_REPARTITION			= "none";
+    public static String DEFAULT_STAGE_REPARTITION	= SHUFFLE_REPARTITION;
+    public String stageRepartition(int stage) {
+	if (prop(stageProperty(stage, STAGE_REPARTITION), DEFAULT_STAGE_REPARTITION).equals(NO_REPARTITION)) {
+	    return NO_REPARTITION;
+	} else {
+	    return SHUFFLE_REPARTITION;
+	}
+    }
     
 }
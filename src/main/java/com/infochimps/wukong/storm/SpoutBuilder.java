@@ -1,12 +1,25 @@
 package com.infochimps.wukong.storm;
 
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
 import java.lang.IllegalArgumentException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 import org.apache.log4j.Logger;
 
+import backtype.storm.Config;
 import backtype.storm.spout.SchemeAsMultiScheme;
 
+import storm.trident.spout.BatchSpoutExecutor;
+import storm.trident.spout.IBatchSpout;
 import storm.trident.spout.IOpaquePartitionedTridentSpout;
+import storm.trident.spout.ITridentSpout;
+import storm.trident.spout.OpaquePartitionedTridentSpoutExecutor;
 
 import storm.kafka.KafkaConfig;
 import storm.kafka.StringScheme;
@@ -20,18 +33,48 @@ import com.infochimps.storm.trident.spout.IBlobStore;
 import com.infochimps.storm.trident.spout.S3BlobStore;
 import com.infochimps.storm.trident.spout.FileBlobStore;
 
+import com.infochimps.wukong.storm.metrics.EndToEndLatency;
+import com.infochimps.wukong.storm.partition.ColumnKeyExtractor;
+import com.infochimps.wukong.storm.partition.JsonKeyExtractor;
+import com.infochimps.wukong.storm.partition.RegexKeyExtractor;
+import com.infochimps.wukong.storm.spout.AdaptiveKafkaSpout;
+import com.infochimps.wukong.storm.spout.AdaptivePendingSpout;
+import com.infochimps.wukong.storm.spout.BlobSpout;
+import com.infochimps.wukong.storm.spout.BlobStore;
+import com.infochimps.wukong.storm.spout.BytesScheme;
+import com.infochimps.wukong.storm.spout.Compression;
+import com.infochimps.wukong.storm.spout.FusedRecordizer;
+import com.infochimps.wukong.storm.spout.IndexedBlobStore;
+import com.infochimps.wukong.storm.spout.LocalFileSpout;
+import com.infochimps.wukong.storm.spout.SyntheticSpout;
+import com.infochimps.wukong.storm.spout.TimedSpout;
+
 public class SpoutBuilder extends Builder {
 
     static Logger LOG = Logger.getLogger(SpoutBuilder.class);
 
     @Override
     public Boolean valid() {
-	if (spoutType().equals(KAFKA_SPOUT_TYPE)) {
+	if (spoutType().equals(KAFKA_SPOUT_TYPE) && !isLocalStandIn()) {
 	    if (kafkaInputTopic() == null) {
 		LOG.error("Must set an input topic name using the " + KAFKA_INPUT_TOPIC + " property when using a Kafka spout");
 		return false;
 	    };    
 	}
+	if (isAdaptivePending() && (pendingMin() < 1 || pendingMax() < pendingMin())) {
+	    LOG.error("Must set " + PENDING_MIN + " to at least 1 and " + PENDING_MAX + " to at least " + PENDING_MIN + " when using " + PENDING_MODE + "=" + ADAPTIVE_PENDING);
+	    return false;
+	}
+	if (isSyntheticSpout()) {
+	    if (syntheticSample() != null && !new File(syntheticSample()).canRead()) {
+		LOG.error("Cannot read the sample file " + syntheticSample() + " given by the " + SYNTHETIC_SAMPLE + " property");
+		return false;
+	    }
+	    if (syntheticStampBy().equals(COLUMN_STAMP) && !syntheticStampKey().matches("[1-9][0-9]*")) {
+		LOG.error("Must set " + SYNTHETIC_STAMP_KEY + " to a column number, counting from 1, when using " + SYNTHETIC_STAMP_BY + "=" + COLUMN_STAMP);
+		return false;
+	    }
+	}
 	if (spoutType().equals(BLOB_SPOUT_TYPE)) {
 	    if (blobStorePath() == null) {
 		LOG.error("Must set a path using the " + BLOB_STORE_PATH + " property when using a blob store spout");
@@ -51,20 +94,55 @@ public class SpoutBuilder extends Builder {
 		    return false;
 		};
 	    }
+	    if (isFusedBlobSpout() && blobPartitions() < 1) {
+		LOG.error("Must set " + BLOB_PARTITIONS + " to at least 1 when using the " + FUSED_RECORDIZER + " recordizer");
+		return false;
+	    }
 	}
 	return true;
     }
 
     @Override
     public void logInfo() {
-	if (spoutType().equals(BLOB_SPOUT_TYPE)) {
+	if (isAdaptivePending()) {
+	    LOG.info("SPOUT: Adapting the number of batches in flight between " + pendingMin() + " and " + pendingMax() + " to a target batch latency of " + pendingLatency() + " ms");
+	}
+	if (isSyntheticSpout()) {
+	    LOG.info("SPOUT: Generating records " + (syntheticSample() != null ? ("from the templates in " + syntheticSample()) : ("from the template <" + syntheticTemplate() + ">")) + " in batches of " + syntheticBatchSize() + " with parallelism " + inputParallelism() + (syntheticRate() > 0 ? (" at " + syntheticRate() + " records/sec") : " as fast as possible"));
+	    if (syntheticRecordSize() > 0) {
+		LOG.info("SPOUT: Padding records to " + syntheticRecordSize() + " bytes");
+	    }
+	    if (isMeasuringEndToEnd()) {
+		LOG.info("SPOUT: Measuring end-to-end latency from the " + syntheticStampBy() + " stamp <" + syntheticStampKey() + "> of each output record");
+	    }
+	} else if (isLocalStandIn()) {
+	    LOG.info("SPOUT: Replaying the lines of local file " + localInput() + " in batches of " + localBatchSize() + " with parallelism " + inputParallelism() + " instead of reading from Kafka");
+	} else if (spoutType().equals(BLOB_SPOUT_TYPE)) {
 	    if (blobStoreType().equals(S3_BLOB_TYPE)) {
 		LOG.info("SPOUT: Reading from S3 bucket s3://" + s3Bucket() + " at path /" + blobStorePath() + ", using AWS key " + awsKey());
 	    } else {
 		LOG.info("SPOUT: Reading from local file file:///" + blobStorePath());
 	    }
+	    if (isFusedBlobSpout()) {
+		LOG.info("SPOUT: Recordizing blobs with the " + FUSED_RECORDIZER + " recordizer in " + blobPartitions() + " partitions with parallelism " + inputParallelism());
+		if (blobIndexPath() != null) {
+		    LOG.info("SPOUT: Indexing blobs in " + blobIndexPath());
+		}
+		if (isS3Spout() && blobPrefetch() > 0) {
+		    LOG.info("SPOUT: Prefetching up to " + blobPrefetch() + " blobs ahead");
+		}
+	    }
 	} else {
 	    LOG.info("SPOUT: Reading from offset " + kafkaInputOffset() + " of Kafka topic <" + kafkaInputTopic() + "> in batches of " + kafkaInputBatchSize() + " with parallelism " + inputParallelism());
+	    if (isDiscoveringKafkaPartitions()) {
+		LOG.info("SPOUT: Discovering Kafka brokers and partitions from " + zookeeperHosts() + " at " + kafkaInputZkPath() + " every " + kafkaInputRefresh() + " seconds");
+	    }
+	    if (isRawKafkaInput()) {
+		LOG.info("SPOUT: Passing Kafka messages through as raw bytes");
+	    }
+	    if (isAdaptiveKafkaBatch()) {
+		LOG.info("SPOUT: Adapting Kafka batch sizes between " + kafkaInputBatchMin() + " and " + kafkaInputBatchMax() + " bytes to a target latency of " + kafkaInputBatchLatency() + " ms");
+	    }
 	}
     }
 
@@ -78,34 +156,122 @@ public class SpoutBuilder extends Builder {
 	    + "  BlobStore Spout -- " + SPOUT_TYPE + "=" + BLOB_TYPE + "\n"
 	    + "    Filesystem Spout -- " + BLOB_SPOUT_TYPE + "=" + FILE_BLOB_TYPE + "\n"
 	    + "    S3 Spout -- " + BLOB_SPOUT_TYPE + "=" + S3_BLOB_TYPE + "\n"
+	    + "  Synthetic Spout -- " + SPOUT_TYPE + "=" + SYNTHETIC_SPOUT_TYPE + "\n"
+	    + "\n"
+	    + "The following options apply for all spouts:\n"
+	    + "\n"
+	    + "  " + String.format("%10s", PENDING_MODE) + "  How to limit the batches in flight, one of: " + FIXED_PENDING + " (" + Config.TOPOLOGY_MAX_SPOUT_PENDING + "), " + ADAPTIVE_PENDING + " (raise the limit while batches commit within " + PENDING_LATENCY + ", halve it when they don't or are replayed) (Default: " + DEFAULT_PENDING_MODE + ")\n"
+	    + "  " + String.format("%10s", PENDING_MIN) + "  Fewest batches in flight when adapting (Default: " + DEFAULT_PENDING_MIN + ")\n"
+	    + "  " + String.format("%10s", PENDING_MAX) + "  Most batches in flight when adapting.  Kept below " + Config.TOPOLOGY_MAX_SPOUT_PENDING + ", which defaults to one more than this when adapting (Default: " + DEFAULT_PENDING_MAX + ")\n"
+	    + "  " + String.format("%10s", PENDING_LATENCY) + "  Target milliseconds from the start of a batch to its commit when adapting (Default: " + DEFAULT_PENDING_LATENCY + ")\n"
 	    + "\n"
 	    + "The following options apply for the Kafka spout (" + SPOUT_TYPE + "=" + KAFKA_SPOUT_TYPE + "):\n"
 	    + "\n"
 	    + "  " + String.format("%10s", INPUT_PARALLELISM) + "	Parallelism hint for the spout (Default: " + DEFAULT_INPUT_PARALLELISM + ")\n"
 	    + "  " + String.format("%10s", KAFKA_INPUT_TOPIC) + "  Name of the Kafka topic to read input from"
 	    + "  " + String.format("%10s", KAFKA_INPUT_OFFSET) + "  Offset from which to start consuming from the input topic, one of: -1 = 'end', -2 = 'beginning', or an explicit byte offset.  (Default: resume if possible, else '1')\n"
-	    + "  " + String.format("%10s", KAFKA_INPUT_PARTITIONS) + "  Number of Storm partitions to use.  Should match the number of partitions on the input topic. (Default: " + DEFAULT_KAFKA_INPUT_PARTITIONS + ")\n"
-	    + "  " + String.format("%10s", KAFKA_INPUT_BATCH) + "  Batch size to fetch from Kafka (Default: " + DEFAULT_KAFKA_INPUT_BATCH + ")\n"
+	    + "  " + String.format("%10s", KAFKA_INPUT_PARTITIONS) + "  Number of Storm partitions to use.  Should match the number of partitions on the input topic.  Ignored when discovering partitions (Default: " + DEFAULT_KAFKA_INPUT_PARTITIONS + ")\n"
+	    + "  " + String.format("%10s", KAFKA_INPUT_DISCOVERY) + "  How to find the brokers and partitions of the input topic, one of: " + STATIC_DISCOVERY + " (the Kafka hosts and partitions given), " + ZOOKEEPER_DISCOVERY + " (read from " + ZOOKEEPER_HOSTS + " and refreshed as the topic grows) (Default: " + DEFAULT_KAFKA_INPUT_DISCOVERY + ")\n"
+	    + "  " + String.format("%10s", KAFKA_INPUT_ZK_PATH) + "  Path in Zookeeper under which Kafka brokers register (Default: " + DEFAULT_KAFKA_INPUT_ZK_PATH + ")\n"
+	    + "  " + String.format("%10s", KAFKA_INPUT_REFRESH) + "  Seconds between reads of broker and partition metadata from Zookeeper (Default: " + DEFAULT_KAFKA_INPUT_REFRESH + ")\n"
+	    + "  " + String.format("%10s", KAFKA_INPUT_BATCH) + "  Batch size to fetch from Kafka, or the starting size when adapting batch sizes (Default: " + DEFAULT_KAFKA_INPUT_BATCH + ")\n"
+	    + "  " + String.format("%10s", KAFKA_INPUT_RAW) + "  Pass each message's bytes through to the dataflow and the state as they are, rather than decoding them into Strings.  Requires " + DataflowBuilder.DATAFLOW_BATCH + " or " + DataflowBuilder.DATAFLOW_FRAMING + "=" + DataflowBuilder.LENGTH_FRAMING + " (Default: " + DEFAULT_KAFKA_INPUT_RAW + ")\n"
+	    + "  " + String.format("%10s", KAFKA_INPUT_BATCH_MODE) + "  How to size batches, one of: " + FIXED_BATCH + " (always " + KAFKA_INPUT_BATCH + "), " + ADAPTIVE_BATCH + " (grow each partition's batches while it is behind, shrink them while batches are slow or small) (Default: " + DEFAULT_KAFKA_INPUT_BATCH_MODE + ")\n"
+	    + "  " + String.format("%10s", KAFKA_INPUT_BATCH_MIN) + "  Smallest batch size to fetch when adapting batch sizes (Default: " + DEFAULT_KAFKA_INPUT_BATCH_MIN + ")\n"
+	    + "  " + String.format("%10s", KAFKA_INPUT_BATCH_MAX) + "  Largest batch size to fetch when adapting batch sizes (Default: " + DEFAULT_KAFKA_INPUT_BATCH_MAX + ")\n"
+	    + "  " + String.format("%10s", KAFKA_INPUT_BATCH_LATENCY) + "  Milliseconds between batches from a partition above which adaptive batches shrink (Default: " + DEFAULT_KAFKA_INPUT_BATCH_LATENCY + ")\n"
 	    + "\n"
 	    + "The following options apply for all BlobStore spouts (" + SPOUT_TYPE + "=" + BLOB_TYPE + "):\n"
 	    + "\n"
 	    + "  " + String.format("%10s", BLOB_STORE_PATH) + "  Directory to read from (Required)\n"
 	    + "  " + String.format("%10s", BLOB_START) + "  Starting policy, one of: EARLIEST, LATEST, EXPLICIT, or RESUME.  (Default: 'RESUME' if possible, else 'LATEST')\n"
 	    + "  " + String.format("%10s", BLOB_MARKER) + "  Required name of marker for an EXPLICIT starting policy\n"
+	    + "  " + String.format("%10s", BLOB_RECORDIZER) + "  How blobs are turned into records, one of: " + WUKONG_RECORDIZER + " or " + FUSED_RECORDIZER + ".  The '" + FUSED_RECORDIZER + "' recordizer joins each line with its metadata as the blob is read, saving a Trident stage (Default: " + DEFAULT_BLOB_RECORDIZER + ")\n"
+	    + "  " + String.format("%10s", BLOB_PARTITIONS) + "  Number of partitions to hash blobs into, spread across the spout tasks.  Must not change while resuming.  Only used by the '" + FUSED_RECORDIZER + "' recordizer (Default: " + DEFAULT_BLOB_PARTITIONS + ")\n"
+	    + "  " + String.format("%10s", BLOB_INDEX) + "  Local directory on each worker in which to keep an index of the blobs, so they needn't all be listed to find where to start or what comes next.  Only used by the '" + FUSED_RECORDIZER + "' recordizer\n"
+	    + "  " + String.format("%10s", BLOB_COMPRESSION) + "  How blobs are compressed, one of: auto, none, gzip, bzip2, zstd.  'auto' detects each blob's compression from its extension or first bytes.  Only used by the '" + FUSED_RECORDIZER + "' recordizer (Default: " + DEFAULT_BLOB_COMPRESSION + ")\n"
 	    + "\n"
 	    + "The following options apply for the S3 spout (" + BLOB_SPOUT_TYPE + "=" + S3_BLOB_TYPE + "):\n"
 	    + "\n"
 	    + "  " + String.format("%10s", S3_BUCKET) + "  S3 bucket (Required)\n"
 	    + "  " + String.format("%10s", AWS_KEY) + "  AWS access key (Required)\n"
-	    + "  " + String.format("%10s", AWS_SECRET) + "  AWS secret key (Required)\n";
+	    + "  " + String.format("%10s", AWS_SECRET) + "  AWS secret key (Required)\n"
+	    + "  " + String.format("%10s", BLOB_PREFETCH) + "  Number of blobs to download in the background ahead of the one being read, 0 to read each as it is needed.  Only used by the '" + FUSED_RECORDIZER + "' recordizer (Default: " + DEFAULT_BLOB_PREFETCH + ")\n"
+	    + "\n"
+	    + "The following options apply for the synthetic spout (" + SPOUT_TYPE + "=" + SYNTHETIC_SPOUT_TYPE + "), which generates records\n"
+	    + "from templates.  In a template, " + SyntheticSpout.TIME + " is replaced by the time the record is emitted in\n"
+	    + "milliseconds since the epoch, " + SyntheticSpout.SEQ + " by a sequence number, and " + SyntheticSpout.PAD + " by enough filler\n"
+	    + "to make the record " + SYNTHETIC_RECORD_SIZE + " bytes long:\n"
+	    + "\n"
+	    + "  " + String.format("%10s", SYNTHETIC_TEMPLATE) + "  Template for every record (Default: " + DEFAULT_SYNTHETIC_TEMPLATE.replace("\t", "\\t") + ")\n"
+	    + "  " + String.format("%10s", SYNTHETIC_SAMPLE) + "  Local file of templates, one per line, used in turn instead of " + SYNTHETIC_TEMPLATE + ".  Read when the topology is built, so it needn't be on the workers\n"
+	    + "  " + String.format("%10s", SYNTHETIC_RATE) + "  Records per second to generate across all the spout's tasks, 0 for as fast as the topology will take them (Default: " + DEFAULT_SYNTHETIC_RATE + ")\n"
+	    + "  " + String.format("%10s", SYNTHETIC_RECORD_SIZE) + "  Bytes to pad each record to (Default: " + DEFAULT_SYNTHETIC_RECORD_SIZE + ")\n"
+	    + "  " + String.format("%10s", SYNTHETIC_BATCH) + "  Number of records each spout task emits in each batch (Default: " + DEFAULT_SYNTHETIC_BATCH + ")\n"
+	    + "  " + String.format("%10s", SYNTHETIC_STAMP_BY) + "  Where to find the time stamp in each output record to measure end-to-end latency, one of: " + NO_STAMP + ", " + COLUMN_STAMP + ", " + JSON_STAMP + ", " + REGEX_STAMP + " (Default: " + DEFAULT_SYNTHETIC_STAMP_BY + ")\n"
+	    + "  " + String.format("%10s", SYNTHETIC_STAMP_KEY) + "  The column number, JSON field path, or regular expression locating the stamp (Default: " + DEFAULT_SYNTHETIC_STAMP_KEY + ")\n"
+	    + "\n"
+	    + "The following options apply when running locally (" + LOCAL + "=true) with the Kafka spout:\n"
+	    + "\n"
+	    + "  " + String.format("%10s", LOCAL_INPUT) + "  Local file whose lines are replayed, over and over, in place of the Kafka topic\n"
+	    + "  " + String.format("%10s", LOCAL_BATCH) + "  Number of lines in each batch replayed from the local file (Default: " + DEFAULT_LOCAL_BATCH + ")\n";
 	return s;
     }
     
     public IOpaquePartitionedTridentSpout spout() {
+	IOpaquePartitionedTridentSpout spout = sourceSpout();
+	return isLocal() ? new TimedSpout(spout) : spout;
+    }
+
+    // Used instead of spout() by the synthetic spout, and when running
+    // locally with a file in place of the Kafka topic.
+    public IBatchSpout batchSpout() {
+	if (isSyntheticSpout()) {
+	    return new SyntheticSpout(syntheticTemplates(), syntheticBatchSize(), syntheticRecordSize(), syntheticRate());
+	}
+	return new LocalFileSpout(localInput(), localBatchSize(), isRawKafkaInput());
+    }
+
+    // Wraps whichever spout would otherwise be used.
+    public ITridentSpout adaptivePendingSpout() {
+	ITridentSpout spout = isBatchSpout() ? new BatchSpoutExecutor(batchSpout()) : new OpaquePartitionedTridentSpoutExecutor(spout());
+	return new AdaptivePendingSpout(spout, pendingMin(), pendingMax(), pendingLatency());
+    }
+
+    public Boolean isBatchSpout() {
+	return (isSyntheticSpout() || isLocalStandIn());
+    }
+
+    // The number of records in each of a batch spout's batches, across
+    // all its tasks.
+    public long batchSpoutRecords() {
+	return (long) inputParallelism() * (isSyntheticSpout() ? syntheticBatchSize() : localBatchSize());
+    }
+
+    // Measures the latency of records stamped by the synthetic spout
+    // as they reach the state.
+    public EndToEndLatency endToEndLatency() {
+	if (syntheticStampBy().equals(COLUMN_STAMP)) {
+	    return new EndToEndLatency(new ColumnKeyExtractor(Integer.parseInt(syntheticStampKey())));
+	} else if (syntheticStampBy().equals(JSON_STAMP)) {
+	    return new EndToEndLatency(new JsonKeyExtractor(syntheticStampKey()));
+	} else {
+	    return new EndToEndLatency(new RegexKeyExtractor(syntheticStampKey()));
+	}
+    }
+
+    private IOpaquePartitionedTridentSpout sourceSpout() {
 	if (spoutType().equals(BLOB_SPOUT_TYPE)) {
+	    if (isFusedBlobSpout()) {
+		return new BlobSpout(fusedBlobStore(), new FusedRecordizer(), blobCompression(), blobPartitions(), (isS3Spout() ? blobPrefetch() : 0), blobStart(), blobMarker());
+	    }
 	    return new OpaqueTransactionalBlobSpout(blobStore(), new WukongRecordizer(), blobStart(), blobMarker());
 	} else {
-	    return new OpaqueTridentKafkaSpout(kafkaSpoutConfig());
+	    TridentKafkaConfig config = kafkaSpoutConfig();
+	    if (isAdaptiveKafkaBatch()) {
+		return new AdaptiveKafkaSpout(new OpaqueTridentKafkaSpout(config), config, kafkaInputBatchMin(), kafkaInputBatchMax(), kafkaInputBatchLatency());
+	    }
+	    return new OpaqueTridentKafkaSpout(config);
 	}
     }
 
@@ -117,13 +283,38 @@ public class SpoutBuilder extends Builder {
 	}
     }
 
+    private BlobStore fusedBlobStore() {
+	BlobStore store;
+	if (blobStoreType().equals(S3_BLOB_TYPE)) {
+	    store = new com.infochimps.wukong.storm.spout.S3BlobStore(blobStorePath(), s3Bucket(), s3Endpoint(), awsKey(), awsSecret());
+	} else {
+	    store = new com.infochimps.wukong.storm.spout.FileBlobStore(blobStorePath());
+	}
+	return (blobIndexPath() == null) ? store : new IndexedBlobStore(store, blobIndexPath());
+    }
+
     private TridentKafkaConfig kafkaSpoutConfig() {
-	TridentKafkaConfig kafkaConfig = new TridentKafkaConfig(KafkaConfig.StaticHosts.fromHostString(kafkaHosts(), kafkaInputPartitions()), kafkaInputTopic());
-	kafkaConfig.scheme = new SchemeAsMultiScheme(new StringScheme());
+	TridentKafkaConfig kafkaConfig = new TridentKafkaConfig(kafkaBrokerHosts(), kafkaInputTopic());
+	kafkaConfig.scheme = new SchemeAsMultiScheme(isRawKafkaInput() ? new BytesScheme() : new StringScheme());
 	kafkaConfig.fetchSizeBytes = kafkaInputBatchSize();
 	kafkaConfig.forceStartOffsetTime(kafkaInputOffset());
 	return kafkaConfig;
     }
+
+    // With Zookeeper discovery the spout reads the brokers and the
+    // partitions of the topic on each from where the brokers register
+    // themselves, rereading them periodically.  Partitions are spread
+    // evenly across the spout's tasks and new ones are picked up
+    // without restarting the topology.
+    private KafkaConfig.BrokerHosts kafkaBrokerHosts() {
+	if (isDiscoveringKafkaPartitions()) {
+	    KafkaConfig.ZkHosts hosts = new KafkaConfig.ZkHosts(zookeeperHosts(), kafkaInputZkPath());
+	    hosts.refreshFreqSecs = kafkaInputRefresh();
+	    return hosts;
+	} else {
+	    return KafkaConfig.StaticHosts.fromHostString(kafkaHosts(), kafkaInputPartitions());
+	}
+    }
     
     public static String INPUT_PARALLELISM		= "wukong.input.parallelism";
     public static String DEFAULT_INPUT_PARALLELISM	= "1";
@@ -131,12 +322,41 @@ public class SpoutBuilder extends Builder {
 	return Integer.parseInt(prop(INPUT_PARALLELISM, DEFAULT_INPUT_PARALLELISM));
     }
 
+    public static String PENDING_MODE			= "wukong.input.pending_mode";
+    public static String FIXED_PENDING			= "fixed";
+    public static String ADAPTIVE_PENDING		= "adaptive";
+    public static String DEFAULT_PENDING_MODE		= FIXED_PENDING;
+    public Boolean isAdaptivePending() {
+	return prop(PENDING_MODE, DEFAULT_PENDING_MODE).equals(ADAPTIVE_PENDING);
+    }
+
+    public static String PENDING_MIN			= "wukong.input.pending_min";
+    public static String DEFAULT_PENDING_MIN		= "1";
+    public int pendingMin() {
+	return Integer.parseInt(prop(PENDING_MIN, DEFAULT_PENDING_MIN));
+    }
+
+    public static String PENDING_MAX			= "wukong.input.pending_max";
+    public static String DEFAULT_PENDING_MAX		= "16";
+    public int pendingMax() {
+	return Integer.parseInt(prop(PENDING_MAX, DEFAULT_PENDING_MAX));
+    }
+
+    public static String PENDING_LATENCY		= "wukong.input.pending_latency_ms";
+    public static String DEFAULT_PENDING_LATENCY	= "5000";
+    public long pendingLatency() {
+	return Long.parseLong(prop(PENDING_LATENCY, DEFAULT_PENDING_LATENCY));
+    }
+
     public static String SPOUT_TYPE                     = "wukong.input.type";
     public static String KAFKA_SPOUT_TYPE               = "kafka";
     public static String BLOB_SPOUT_TYPE                = "blob";
+    public static String SYNTHETIC_SPOUT_TYPE           = "synthetic";
     public String spoutType() {
 	if ((prop(SPOUT_TYPE) != null) && prop(SPOUT_TYPE).equals(BLOB_SPOUT_TYPE)) {
 	    return BLOB_SPOUT_TYPE;
+	} else if ((prop(SPOUT_TYPE) != null) && prop(SPOUT_TYPE).equals(SYNTHETIC_SPOUT_TYPE)) {
+	    return SYNTHETIC_SPOUT_TYPE;
 	} else {
 	    return KAFKA_SPOUT_TYPE;
 	}
@@ -150,6 +370,90 @@ public class SpoutBuilder extends Builder {
 	return spoutType().equals(KAFKA_SPOUT_TYPE);
     }
 
+    public Boolean isSyntheticSpout() {
+	return spoutType().equals(SYNTHETIC_SPOUT_TYPE);
+    }
+
+    public static String SYNTHETIC_TEMPLATE		= "wukong.input.synthetic.template";
+    public static String DEFAULT_SYNTHETIC_TEMPLATE	= SyntheticSpout.TIME + "\t" + SyntheticSpout.SEQ + "\t" + SyntheticSpout.PAD;
+    public String syntheticTemplate() {
+	return prop(SYNTHETIC_TEMPLATE, DEFAULT_SYNTHETIC_TEMPLATE);
+    }
+
+    public static String SYNTHETIC_SAMPLE		= "wukong.input.synthetic.sample";
+    public String syntheticSample() {
+	return prop(SYNTHETIC_SAMPLE);
+    }
+
+    // The sample is read here, when the topology is built, and shipped
+    // to the workers with the spout.
+    public List<String> syntheticTemplates() {
+	if (syntheticSample() == null) {
+	    return Collections.singletonList(syntheticTemplate());
+	}
+	List<String> templates = new ArrayList<String>();
+	try {
+	    BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(syntheticSample()), "UTF-8"));
+	    try {
+		String line;
+		while ((line = reader.readLine()) != null) {
+		    if (line.length() > 0) { templates.add(line); }
+		}
+	    } finally {
+		reader.close();
+	    }
+	} catch (IOException e) {
+	    throw new RuntimeException("Could not read templates from " + syntheticSample(), e);
+	}
+	if (templates.isEmpty()) {
+	    throw new RuntimeException("No templates in " + syntheticSample());
+	}
+	return templates;
+    }
+
+    public static String SYNTHETIC_RATE			= "wukong.input.synthetic.rate";
+    public static String DEFAULT_SYNTHETIC_RATE		= "0";
+    public long syntheticRate() {
+	return Long.parseLong(prop(SYNTHETIC_RATE, DEFAULT_SYNTHETIC_RATE));
+    }
+
+    public static String SYNTHETIC_RECORD_SIZE		= "wukong.input.synthetic.record_size";
+    public static String DEFAULT_SYNTHETIC_RECORD_SIZE	= "0";
+    public int syntheticRecordSize() {
+	return Integer.parseInt(prop(SYNTHETIC_RECORD_SIZE, DEFAULT_SYNTHETIC_RECORD_SIZE));
+    }
+
+    public static String SYNTHETIC_BATCH		= "wukong.input.synthetic.batch_size";
+    public static String DEFAULT_SYNTHETIC_BATCH	= "1000";
+    public int syntheticBatchSize() {
+	return Integer.parseInt(prop(SYNTHETIC_BATCH, DEFAULT_SYNTHETIC_BATCH));
+    }
+
+    public static String SYNTHETIC_STAMP_BY		= "wukong.input.synthetic.stamp_by";
+    public static String NO_STAMP			= "none";
+    public static String COLUMN_STAMP			= "column";
+    public static String JSON_STAMP			= "json";
+    public static String REGEX_STAMP			= "regex";
+    public static String DEFAULT_SYNTHETIC_STAMP_BY	= COLUMN_STAMP;
+    public String syntheticStampBy() {
+	String stampBy = prop(SYNTHETIC_STAMP_BY, DEFAULT_SYNTHETIC_STAMP_BY);
+	if (stampBy.equals(COLUMN_STAMP) || stampBy.equals(JSON_STAMP) || stampBy.equals(REGEX_STAMP)) {
+	    return stampBy;
+	} else {
+	    return NO_STAMP;
+	}
+    }
+
+    public static String SYNTHETIC_STAMP_KEY		= "wukong.input.synthetic.stamp_key";
+    public static String DEFAULT_SYNTHETIC_STAMP_KEY	= "1";
+    public String syntheticStampKey() {
+	return prop(SYNTHETIC_STAMP_KEY, DEFAULT_SYNTHETIC_STAMP_KEY);
+    }
+
+    public Boolean isMeasuringEndToEnd() {
+	return (isSyntheticSpout() && !syntheticStampBy().equals(NO_STAMP));
+    }
+
     public static String BLOB_STORE_PATH                = "wukong.input.blob.path";
     public String blobStorePath() {
 	return prop(BLOB_STORE_PATH);
@@ -189,6 +493,49 @@ public class SpoutBuilder extends Builder {
 	return prop(BLOB_MARKER);
     }
 
+    public static String BLOB_RECORDIZER         = "wukong.input.blob.recordizer";
+    public static String WUKONG_RECORDIZER       = "wukong";
+    public static String FUSED_RECORDIZER        = "fused";
+    public static String DEFAULT_BLOB_RECORDIZER = WUKONG_RECORDIZER;
+    public String blobRecordizer() {
+	if (prop(BLOB_RECORDIZER, DEFAULT_BLOB_RECORDIZER).equals(FUSED_RECORDIZER)) {
+	    return FUSED_RECORDIZER;
+	} else {
+	    return WUKONG_RECORDIZER;
+	}
+    }
+
+    public static String BLOB_PARTITIONS         = "wukong.input.blob.partitions";
+    public static String DEFAULT_BLOB_PARTITIONS = "16";
+    public int blobPartitions() {
+	return Integer.parseInt(prop(BLOB_PARTITIONS, DEFAULT_BLOB_PARTITIONS));
+    }
+
+    public static String BLOB_INDEX = "wukong.input.blob.index";
+
+    // Each bucket and path gets its own index within the directory.
+    public String blobIndexPath() {
+	if (prop(BLOB_INDEX) == null) { return null; }
+	String store = isS3Spout() ? (S3_BLOB_TYPE + "-" + s3Bucket() + "-" + blobStorePath()) : (FILE_BLOB_TYPE + "-" + blobStorePath());
+	return new File(prop(BLOB_INDEX), store.replaceAll("[^A-Za-z0-9._-]", "_")).getPath();
+    }
+
+    public static String BLOB_COMPRESSION         = "wukong.input.blob.compression";
+    public static String DEFAULT_BLOB_COMPRESSION = "auto";
+    public Compression blobCompression() {
+	try {
+	    return Compression.valueOf(prop(BLOB_COMPRESSION, DEFAULT_BLOB_COMPRESSION).toUpperCase());
+	} catch (IllegalArgumentException e) {
+	    return Compression.AUTO;
+	}
+    }
+
+    // Does the blob spout emit records already joined with their
+    // metadata in a single "str" field?
+    public Boolean isFusedBlobSpout() {
+	return (isBlobSpout() && blobRecordizer().equals(FUSED_RECORDIZER));
+    }
+
     public static String S3_BUCKET                      = "wukong.input.blob.s3_bucket";
     public String s3Bucket() {
 	return prop(S3_BUCKET);
@@ -210,6 +557,12 @@ public class SpoutBuilder extends Builder {
 	return prop(AWS_SECRET);
     }
 
+    public static String BLOB_PREFETCH                  = "wukong.input.blob.prefetch";
+    public static String DEFAULT_BLOB_PREFETCH          = "2";
+    public int blobPrefetch() {
+	return Integer.parseInt(prop(BLOB_PREFETCH, DEFAULT_BLOB_PREFETCH));
+    }
+
     public static String KAFKA_INPUT_TOPIC        	= "wukong.input.kafka.topic";
     public String kafkaInputTopic() {
 	return prop(KAFKA_INPUT_TOPIC);
@@ -227,11 +580,79 @@ public class SpoutBuilder extends Builder {
 	return Integer.parseInt(prop(KAFKA_INPUT_PARTITIONS, DEFAULT_KAFKA_INPUT_PARTITIONS));
     }
     
+    public static String KAFKA_INPUT_DISCOVERY		= "wukong.input.kafka.discovery";
+    public static String STATIC_DISCOVERY		= "static";
+    public static String ZOOKEEPER_DISCOVERY		= "zookeeper";
+    public static String DEFAULT_KAFKA_INPUT_DISCOVERY	= STATIC_DISCOVERY;
+    public Boolean isDiscoveringKafkaPartitions() {
+	return prop(KAFKA_INPUT_DISCOVERY, DEFAULT_KAFKA_INPUT_DISCOVERY).equals(ZOOKEEPER_DISCOVERY);
+    }
+
+    public static String KAFKA_INPUT_ZK_PATH		= "wukong.input.kafka.zk_path";
+    public static String DEFAULT_KAFKA_INPUT_ZK_PATH	= "/brokers";
+    public String kafkaInputZkPath() {
+	return prop(KAFKA_INPUT_ZK_PATH, DEFAULT_KAFKA_INPUT_ZK_PATH);
+    }
+
+    public static String KAFKA_INPUT_REFRESH		= "wukong.input.kafka.refresh_secs";
+    public static String DEFAULT_KAFKA_INPUT_REFRESH	= "60";
+    public int kafkaInputRefresh() {
+	return Integer.parseInt(prop(KAFKA_INPUT_REFRESH, DEFAULT_KAFKA_INPUT_REFRESH));
+    }
+
     public static String KAFKA_INPUT_BATCH			= "wukong.input.kafka.batch";
     public static String DEFAULT_KAFKA_INPUT_BATCH		= "1048576";
     public int kafkaInputBatchSize() {
 	return Integer.parseInt(prop(KAFKA_INPUT_BATCH, DEFAULT_KAFKA_INPUT_BATCH));
     }
+
+    public static String KAFKA_INPUT_RAW			= "wukong.input.kafka.raw";
+    public static String DEFAULT_KAFKA_INPUT_RAW		= "false";
+    public Boolean isRawKafkaInput() {
+	return (isKafkaSpout() && Boolean.parseBoolean(prop(KAFKA_INPUT_RAW, DEFAULT_KAFKA_INPUT_RAW)));
+    }
+
+    public static String KAFKA_INPUT_BATCH_MODE		= "wukong.input.kafka.batch_mode";
+    public static String FIXED_BATCH			= "fixed";
+    public static String ADAPTIVE_BATCH			= "adaptive";
+    public static String DEFAULT_KAFKA_INPUT_BATCH_MODE	= FIXED_BATCH;
+    public Boolean isAdaptiveKafkaBatch() {
+	return prop(KAFKA_INPUT_BATCH_MODE, DEFAULT_KAFKA_INPUT_BATCH_MODE).equals(ADAPTIVE_BATCH);
+    }
+
+    public static String KAFKA_INPUT_BATCH_MIN		= "wukong.input.kafka.batch_min";
+    public static String DEFAULT_KAFKA_INPUT_BATCH_MIN	= "65536";
+    public int kafkaInputBatchMin() {
+	return Integer.parseInt(prop(KAFKA_INPUT_BATCH_MIN, DEFAULT_KAFKA_INPUT_BATCH_MIN));
+    }
+
+    public static String KAFKA_INPUT_BATCH_MAX		= "wukong.input.kafka.batch_max";
+    public static String DEFAULT_KAFKA_INPUT_BATCH_MAX	= "16777216";
+    public int kafkaInputBatchMax() {
+	return Integer.parseInt(prop(KAFKA_INPUT_BATCH_MAX, DEFAULT_KAFKA_INPUT_BATCH_MAX));
+    }
+
+    public static String KAFKA_INPUT_BATCH_LATENCY		= "wukong.input.kafka.batch_latency_ms";
+    public static String DEFAULT_KAFKA_INPUT_BATCH_LATENCY	= "2000";
+    public long kafkaInputBatchLatency() {
+	return Long.parseLong(prop(KAFKA_INPUT_BATCH_LATENCY, DEFAULT_KAFKA_INPUT_BATCH_LATENCY));
+    }
+
+    public static String LOCAL_INPUT			= "wukong.local.input";
+    public String localInput() {
+	return prop(LOCAL_INPUT);
+    }
+
+    public static String LOCAL_BATCH			= "wukong.local.batch_size";
+    public static String DEFAULT_LOCAL_BATCH		= "1000";
+    public int localBatchSize() {
+	return Integer.parseInt(prop(LOCAL_BATCH, DEFAULT_LOCAL_BATCH));
+    }
+
+    // Is a local file standing in for the Kafka topic?
+    public Boolean isLocalStandIn() {
+	return (isLocal() && isKafkaSpout() && localInput() != null);
+    }
     
     
 }
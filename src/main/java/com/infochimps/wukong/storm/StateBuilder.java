@@ -1,46 +1,177 @@
 package com.infochimps.wukong.storm;
 
+import java.util.Properties;
+
 import org.apache.log4j.Logger;
-import com.infochimps.storm.trident.KafkaState;
+
+import storm.trident.state.StateFactory;
+import storm.trident.state.StateUpdater;
+
+import com.infochimps.wukong.storm.state.AppendLogState;
+import com.infochimps.wukong.storm.state.DiscardState;
+import com.infochimps.wukong.storm.state.KafkaState;
 
 public class StateBuilder extends Builder {
 
     static Logger LOG = Logger.getLogger(StateBuilder.class);
 
-    public KafkaState.Factory state() {
-	return new KafkaState.Factory(kafkaOutputTopic(), zookeeperHosts());
+    public StateFactory state() {
+	if (isFileState()) {
+	    return new AppendLogState.Factory(fileOutputPath(), fileSegmentSize());
+	}
+	if (isLocal()) {
+	    return new DiscardState.Factory();
+	}
+	return new KafkaState.Factory(kafkaOutputTopic(), kafkaBatchMessages(), kafkaBatchBytes(), kafkaProducerProperties());
+    }
+
+    public Properties kafkaProducerProperties() {
+	Properties props = new Properties();
+	props.put("zk.connect",        zookeeperHosts());
+	props.put("serializer.class",  "kafka.serializer.DefaultEncoder");
+	props.put("producer.type",     SYNC_PRODUCER);
+	props.put("compression.codec", kafkaCompressionCodec());
+	return props;
     }
 
-    public KafkaState.Updater updater() {
+    public StateUpdater updater() {
+	if (isFileState()) {
+	    return new AppendLogState.Updater();
+	}
+	if (isLocal()) {
+	    return new DiscardState.Updater();
+	}
 	return new KafkaState.Updater();
     }
 
     @Override
     public Boolean valid() {
-	if (kafkaOutputTopic() == null) {
+	if (isFileState()) {
+	    if (fileOutputPath() == null) {
+		LOG.error("Must set an output path using the " + FILE_OUTPUT_PATH + " property");
+		return false;
+	    }
+	    return true;
+	}
+	if (kafkaOutputTopic() == null && !isLocal()) {
 	    LOG.error("Must set a Kafka output topic using the " + KAFKA_OUTPUT_TOPIC + "property");
 	    return false;
 	}
+	if (!SYNC_PRODUCER.equals(prop(KAFKA_PRODUCER_TYPE, SYNC_PRODUCER))) {
+	    LOG.error("Cannot set " + KAFKA_PRODUCER_TYPE + " to anything but " + SYNC_PRODUCER + ": an asynchronous producer can't be flushed before a batch commits or report its failed sends to Trident");
+	    return false;
+	}
 	return true;
     }
 
     @Override
     public void logInfo() {
-	LOG.info("STATE: Writing to Kafka topic <" + kafkaOutputTopic() + ">");
+	if (isFileState()) {
+	    LOG.info("STATE: Writing to local append logs in " + fileOutputPath() + " in segments of " + fileSegmentSize() + " bytes");
+	} else if (isLocal()) {
+	    LOG.info("STATE: Discarding output instead of writing to Kafka while running locally");
+	} else {
+	    LOG.info("STATE: Writing to Kafka topic <" + kafkaOutputTopic() + "> in message sets of up to " + kafkaBatchMessages() + " messages and " + kafkaBatchBytes() + " bytes, compressed with " + kafkaCompression());
+	}
     }
 
     public static String usage() {
 	String s = "STATE OPTIONS\n"
 	    + "\n"
-	    + "The only available state is Kafka which has the following options:\n"
+	    + "Choose the state with the following properties.  Each state has its own\n"
+	    + "further configuration\n"
+	    + "\n"
+	    + "  Kafka State -- " + OUTPUT_TYPE + "=" + KAFKA_OUTPUT_TYPE + "\n"
+	    + "  Append Log State -- " + OUTPUT_TYPE + "=" + FILE_OUTPUT_TYPE + "\n"
+	    + "\n"
+	    + "When running locally (" + LOCAL + "=true) Kafka output is discarded.\n"
 	    + "\n"
-	    + "  " + String.format("%10s", KAFKA_OUTPUT_TOPIC) + "  The Kafka output topic (Required)\n";
+	    + "The following options apply for the Kafka state (" + OUTPUT_TYPE + "=" + KAFKA_OUTPUT_TYPE + "):\n"
+	    + "\n"
+	    + "  " + String.format("%10s", KAFKA_OUTPUT_TOPIC) + "  The Kafka output topic (Required)\n"
+	    + "  " + String.format("%10s", KAFKA_BATCH_MESSAGES) + "  Maximum number of messages sent together (Default: " + DEFAULT_KAFKA_BATCH_MESSAGES + ")\n"
+	    + "  " + String.format("%10s", KAFKA_BATCH_BYTES) + "  Maximum number of bytes sent together (Default: " + DEFAULT_KAFKA_BATCH_BYTES + ")\n"
+	    + "  " + String.format("%10s", KAFKA_COMPRESSION) + "  Compression codec, one of: " + NO_COMPRESSION + ", " + GZIP_COMPRESSION + ", or " + SNAPPY_COMPRESSION + " (Default: " + DEFAULT_KAFKA_COMPRESSION + ")\n"
+	    + "\n"
+	    + "The following options apply for the append log state (" + OUTPUT_TYPE + "=" + FILE_OUTPUT_TYPE + "),\n"
+	    + "which writes each partition of the output to memory-mapped log segments\n"
+	    + "on the local disk of its worker:\n"
+	    + "\n"
+	    + "  " + String.format("%10s", FILE_OUTPUT_PATH) + "  Directory to write a log for each partition within (Required)\n"
+	    + "  " + String.format("%10s", FILE_SEGMENT_SIZE) + "  Size of each log segment in bytes (Default: " + DEFAULT_FILE_SEGMENT_SIZE + ")\n";
 	return s;
     }
-    
+
+    public static String OUTPUT_TYPE       = "wukong.output.type";
+    public static String KAFKA_OUTPUT_TYPE = "kafka";
+    public static String FILE_OUTPUT_TYPE  = "file";
+    public String outputType() {
+	if (prop(OUTPUT_TYPE, KAFKA_OUTPUT_TYPE).equals(FILE_OUTPUT_TYPE)) {
+	    return FILE_OUTPUT_TYPE;
+	} else {
+	    return KAFKA_OUTPUT_TYPE;
+	}
+    }
+
+    public Boolean isFileState() {
+	return outputType().equals(FILE_OUTPUT_TYPE);
+    }
+
     public static String KAFKA_OUTPUT_TOPIC = "wukong.output.kafka.topic";
     public String kafkaOutputTopic() {
 	return prop(KAFKA_OUTPUT_TOPIC);
     }
-    
+
+    // Only a synchronous producer is supported, since each batch must
+    // be sent before it commits.  The property is still read so that
+    // asking for an asynchronous one fails rather than being ignored.
+    public static String KAFKA_PRODUCER_TYPE = "wukong.output.kafka.producer_type";
+    public static String SYNC_PRODUCER       = "sync";
+
+    public static String KAFKA_BATCH_MESSAGES         = "wukong.output.kafka.batch_messages";
+    public static String DEFAULT_KAFKA_BATCH_MESSAGES = "200";
+    public int kafkaBatchMessages() {
+	return Integer.parseInt(prop(KAFKA_BATCH_MESSAGES, DEFAULT_KAFKA_BATCH_MESSAGES));
+    }
+
+    // Kafka rejects message sets larger than the broker's
+    // max.message.size, which defaults to this.
+    public static String KAFKA_BATCH_BYTES         = "wukong.output.kafka.batch_bytes";
+    public static String DEFAULT_KAFKA_BATCH_BYTES = "1000000";
+    public int kafkaBatchBytes() {
+	return Integer.parseInt(prop(KAFKA_BATCH_BYTES, DEFAULT_KAFKA_BATCH_BYTES));
+    }
+
+    public static String KAFKA_COMPRESSION         = "wukong.output.kafka.compression";
+    public static String NO_COMPRESSION            = "none";
+    public static String GZIP_COMPRESSION          = "gzip";
+    public static String SNAPPY_COMPRESSION        = "snappy";
+    public static String DEFAULT_KAFKA_COMPRESSION = NO_COMPRESSION;
+    public String kafkaCompression() {
+	String compression = prop(KAFKA_COMPRESSION, DEFAULT_KAFKA_COMPRESSION);
+	if (compression.equals(GZIP_COMPRESSION) || compression.equals(SNAPPY_COMPRESSION)) {
+	    return compression;
+	} else {
+	    return NO_COMPRESSION;
+	}
+    }
+
+    // The Kafka producer identifies codecs by number.
+    public String kafkaCompressionCodec() {
+	if (kafkaCompression().equals(GZIP_COMPRESSION))   { return "1"; }
+	if (kafkaCompression().equals(SNAPPY_COMPRESSION)) { return "2"; }
+	return "0";
+    }
+
+    public static String FILE_OUTPUT_PATH = "wukong.output.file.path";
+    public String fileOutputPath() {
+	return prop(FILE_OUTPUT_PATH);
+    }
+
+    public static String FILE_SEGMENT_SIZE         = "wukong.output.file.segment_size";
+    public static String DEFAULT_FILE_SEGMENT_SIZE = "134217728";
+    public int fileSegmentSize() {
+	return Integer.parseInt(prop(FILE_SEGMENT_SIZE, DEFAULT_FILE_SEGMENT_SIZE));
+    }
+
 }
@@ -14,19 +14,41 @@ import storm.trident.TridentTopology;
 
 import storm.trident.operation.BaseFunction;
 import storm.trident.operation.TridentCollector;
+import storm.trident.operation.TridentOperationContext;
 import backtype.storm.tuple.Values;
 import storm.trident.tuple.TridentTuple;
 
+import com.infochimps.wukong.storm.metrics.Metrics;
+import com.infochimps.wukong.storm.metrics.StageMetrics;
+
 public class TopologyBuilder extends Builder {
 
-    private static class CombineMetadata extends BaseFunction {
+    /**
+     * Joins the fields emitted by a blob spout into the single "str"
+     * field read by the dataflow.
+     *
+     * Public only so the benchmarks can measure it from their own
+     * package.
+     */
+    public static class CombineMetadata extends BaseFunction {
+
+	private transient StageMetrics metrics;
+
+	@Override
+	public void prepare(Map conf, TridentOperationContext context) {
+	    metrics = Metrics.stage(context, conf, "combine");
+	}
+
         @Override
         public void execute(TridentTuple tuple, TridentCollector collector) {
 	    String  content    = tuple.getStringByField("content");
             String  metadata   = tuple.getStringByField("metadata");
             Integer lineNumber = tuple.getIntegerByField("linenumber");
-	    LOG.debug(String.format("%s\t%s\t%s", metadata, content, lineNumber));
-            collector.emit(new Values(String.format("%s\t%s\t%s", metadata, content, lineNumber)));
+	    String  str        = metadata + "\t" + content + "\t" + lineNumber;
+	    if (LOG.isDebugEnabled()) { LOG.debug(str); }
+	    metrics.input(Metrics.utf8Length(content));
+	    metrics.output(Metrics.utf8Length(str));
+            collector.emit(new Values(str));
         }
     }
 
@@ -65,8 +87,15 @@ public class TopologyBuilder extends Builder {
     public StormTopology topology() {
 	TridentTopology top = new TridentTopology();
 
-	Stream spoutOutput = top.newStream(topologyName(), spoutBuilder.spout())
-	    .parallelismHint(spoutBuilder.inputParallelism());
+	Stream spoutStream;
+	if (spoutBuilder.isAdaptivePending()) {
+	    spoutStream = top.newStream(topologyName(), spoutBuilder.adaptivePendingSpout());
+	} else if (spoutBuilder.isBatchSpout()) {
+	    spoutStream = top.newStream(topologyName(), spoutBuilder.batchSpout());
+	} else {
+	    spoutStream = top.newStream(topologyName(), spoutBuilder.spout());
+	}
+	Stream spoutOutput = spoutStream.parallelismHint(spoutBuilder.inputParallelism());
 
 	Stream possiblyShuffledSpoutOutput;
 	if (needToShuffleSpoutOutput()) {
@@ -76,30 +105,69 @@ public class TopologyBuilder extends Builder {
 	}
 
 	Stream dataflowInput;
-	if (spoutBuilder.isBlobSpout()) {
+	if (spoutBuilder.isBlobSpout() && !spoutBuilder.isFusedBlobSpout()) {
 	    dataflowInput = possiblyShuffledSpoutOutput.each(new Fields("content", "metadata", "linenumber"), new CombineMetadata(), new Fields("str"));
 	} else {
 	    dataflowInput = possiblyShuffledSpoutOutput;
 	}
 	
-	Stream dataflowOutput = dataflowInput.each(new Fields("str"), dataflowBuilder.dataflow(), new Fields("_wukong"))
-	    .parallelismHint(dataflowBuilder.dataflowParallelism());
+	if (dataflowBuilder.isPartitionedByKey()) {
+	    dataflowInput = dataflowInput.each(new Fields("str"), dataflowBuilder.partitionKeyFunction(), new Fields("_key"))
+		.partitionBy(new Fields("_key"));
+	}
+
+	Stream dataflowOutput = dataflowInput;
+	for (int stage = 1; stage <= dataflowBuilder.dataflowStages(); stage++) {
+	    if (stage > 1 && dataflowBuilder.stageRepartition(stage).equals(DataflowBuilder.SHUFFLE_REPARTITION)) {
+		dataflowOutput = dataflowOutput.shuffle();
+	    }
+	    dataflowOutput = dataflowStage(dataflowOutput, stage);
+	}
+
+	if (spoutBuilder.isMeasuringEndToEnd()) {
+	    dataflowOutput = dataflowOutput.each(new Fields("_wukong"), spoutBuilder.endToEndLatency());
+	}
 
 	dataflowOutput.partitionPersist(stateBuilder.state(), new Fields("_wukong"), stateBuilder.updater());
 	
 	return top.build();
     }
 
+    // Each stage reads the field the stage before it wrote, the first
+    // reading the spout's "str" and the last writing "_wukong" for the
+    // state.
+    //
+    // When partitioning by key the first stage also reads the key, so
+    // a WuBatchAggregator can send each key to the same subprocess.
+    private Stream dataflowStage(Stream input, int stage) {
+	Fields inputFields  = new Fields(stage == 1 ? "str" : stageField(stage - 1));
+	Fields keyedFields  = (stage == 1 && dataflowBuilder.isPartitionedByKey()) ? new Fields("str", "_key") : inputFields;
+	Fields outputFields = new Fields(stageField(stage));
+	int    parallelism  = dataflowBuilder.stageParallelism(stage);
+	if (dataflowBuilder.isEmbedded()) {
+	    return input.partitionAggregate(inputFields, dataflowBuilder.embeddedDataflow(stage), outputFields).parallelismHint(parallelism);
+	} else if (dataflowBuilder.framed() || dataflowBuilder.isZygote() || dataflowBuilder.isCached() || stage > 1) {
+	    return input.partitionAggregate(keyedFields, dataflowBuilder.batchDataflow(stage), outputFields).parallelismHint(parallelism);
+	} else {
+	    return input.each(inputFields, dataflowBuilder.dataflow(), outputFields).parallelismHint(parallelism);
+	}
+    }
+
+    private String stageField(int stage) {
+	return (stage == dataflowBuilder.dataflowStages()) ? "_wukong" : "_wukong" + stage;
+    }
+
     public static String usage() {
 	String s = "\n"
 	    + "Dynamically assemble and launch a parametrized Storm topology that\n"
 	    + "embeds Wukong dataflow(s).  The current overall \"shape\" of the\n"
 	    + "topology is\n"
 	    + "\n"
-	    + "  spout -> wukong dataflow -> state\n"
+	    + "  spout -> wukong dataflow [-> wukong dataflow ...] -> state\n"
 	    + "\n"
-	    + "The available spouts read from Kafka or S3.  The only available state\n"
-	    + "is Kafka.\n"
+	    + "The available spouts read from Kafka or S3, or generate synthetic\n"
+	    + "records.  The available states write to Kafka or to append logs on\n"
+	    + "local disk.\n"
 	    + "\n"
 	    + "TOPOLOGY OPTIONS\n"
 	    + "\n"
@@ -118,8 +186,9 @@ public class TopologyBuilder extends Builder {
 	return s;
     }
 
+    // Partitioning by key already spreads records across the dataflow.
     private Boolean needToShuffleSpoutOutput() {
-	return (dataflowBuilder.dataflowParallelism() > spoutBuilder.inputParallelism());
+	return (!dataflowBuilder.isPartitionedByKey() && dataflowBuilder.dataflowParallelism() > spoutBuilder.inputParallelism());
     }
 
     public static String TOPOLOGY_NAME                  = "wukong.topology";
@@ -1,29 +1,41 @@
 package com.infochimps.wukong.storm;
 
 import java.io.File;
+import java.io.IOException;
 
 import org.apache.log4j.Logger;
 
 import backtype.storm.Config;
+import backtype.storm.LocalCluster;
 import backtype.storm.StormSubmitter;
 import backtype.storm.generated.AlreadyAliveException;
 import backtype.storm.generated.InvalidTopologyException;
+import backtype.storm.metric.LoggingMetricsConsumer;
 
 import com.infochimps.wukong.storm.TopologyBuilder;
+import com.infochimps.wukong.storm.metrics.FileMetricsConsumer;
+import com.infochimps.wukong.storm.metrics.LocalSummary;
 
 public class TopologySubmitter {
 
     private static Logger LOG = Logger.getLogger(TopologySubmitter.class);
     
     private TopologyBuilder builder;
+    private SpoutBuilder    spoutBuilder;
+    private Calibrator      calibrator;
     private Config          config;
 
     public static void main(String[] args) throws Exception {
 	setPropertiesFromArgsBecauseStupidlyHard(args);
 	TopologySubmitter submitter = new TopologySubmitter();
+	submitter.calibrate();
 	submitter.setConfig();
 	submitter.validate();
-	submitter.submit();
+	if (submitter.isLocal()) {
+	    submitter.runLocally();
+	} else {
+	    submitter.submit();
+	}
 	System.exit(0);
     }
 
@@ -72,19 +84,67 @@ public class TopologySubmitter {
     }
     
     public TopologySubmitter() {
-	this.builder = new TopologyBuilder();
-	this.config  = new Config();
+	this.builder      = new TopologyBuilder();
+	this.spoutBuilder = new SpoutBuilder();
+	this.calibrator   = new Calibrator();
+	this.config       = new Config();
     }
 
     private void validate() {
-	if (!builder.valid()) {
+	if (!(builder.valid() && validMetrics())) {
 	    System.out.println(usage());
 	    System.exit(1);
 	}
     }
 
     public String usage() {
-	return "usage: storm jar " + fullyQualifiedClassPath() + " -DOPTION=VALUE ..." + TopologyBuilder.usage();
+	return "usage: storm jar " + fullyQualifiedClassPath() + " -DOPTION=VALUE ..." + TopologyBuilder.usage() + Calibrator.usage() + metricsUsage() + localUsage();
+    }
+
+    public static String metricsUsage() {
+	String s = "METRICS OPTIONS\n"
+	    + "\n"
+	    + "Each stage of the topology reports its throughput and latency as Storm\n"
+	    + "metrics named wukong.STAGE and wukong.STAGE.WHAT.  These are reported\n"
+	    + "alongside Storm's own metrics to the chosen consumer, either Storm's\n"
+	    + "LoggingMetricsConsumer (which writes to each worker's metrics.log) or a\n"
+	    + "file on each worker's local disk.\n"
+	    + "\n"
+	    + "  " + String.format("%10s", METRICS_CONSUMER) + "  Where to report metrics, one of: none, logging, file (Default: " + DEFAULT_METRICS_CONSUMER + ")\n"
+	    + "  " + String.format("%10s", METRICS_FILE) + "  Path on each worker to write metrics to when using the file consumer (Default: " + DEFAULT_METRICS_FILE + ")\n"
+	    + "  " + String.format("%10s", METRICS_PARALLELISM) + "  Number of metrics consumer executors (Default: " + DEFAULT_METRICS_PARALLELISM + ")\n"
+	    + "  " + String.format("%10s", Config.TOPOLOGY_BUILTIN_METRICS_BUCKET_SIZE_SECS) + "  Seconds between reports\n";
+	return s;
+    }
+
+    public static String localUsage() {
+	String s = "\n"
+	    + "LOCAL OPTIONS\n"
+	    + "\n"
+	    + "Setting " + Builder.LOCAL + "=true runs the topology in a LocalCluster in this\n"
+	    + "JVM instead of submitting it, stops it after a fixed time or number of records,\n"
+	    + "and prints its throughput, batch latency, and the totals of each stage.  Kafka\n"
+	    + "output is discarded and Kafka input can be replaced by a local file (see the\n"
+	    + "spout options).\n"
+	    + "\n"
+	    + "  " + String.format("%10s", LOCAL_DURATION) + "  Seconds to run the topology for (Default: " + DEFAULT_LOCAL_DURATION + ")\n"
+	    + "  " + String.format("%10s", LOCAL_RECORDS) + "  Stop early once this many records have reached the state, 0 to run for the full duration (Default: " + DEFAULT_LOCAL_RECORDS + ")\n";
+	return s;
+    }
+
+    private void calibrate() {
+	if (!calibrator.enabled()) { return; }
+	if (!calibrator.valid()) {
+	    System.out.println(usage());
+	    System.exit(1);
+	}
+	calibrator.logInfo();
+	try {
+	    calibrator.calibrate();
+	} catch (IOException e) {
+	    LOG.error("Could not calibrate topology " + builder.topologyName(), e);
+	    System.exit(4);
+	}
     }
     
     public File fullyQualifiedClassPath() {
@@ -100,6 +160,8 @@ public class TopologySubmitter {
 	setNumWorkers();
 	setOptimize();
 	setStatsSampleRate();
+	setMetricsBucketSize();
+	setMetricsConsumer();
     }
 
     public void submit() {
@@ -115,6 +177,42 @@ public class TopologySubmitter {
 	}
     }
 
+    // The summary measures from the first batch emitted, so the time
+    // taken to start the cluster and the dataflow's subprocesses isn't
+    // counted against the topology's throughput.
+    public void runLocally() {
+	LocalSummary.enable();
+	builder.logInfo();
+	LOG.info("Running topology " + builder.topologyName() + " locally for up to " + localDuration() + " seconds" + (localRecords() > 0 ? (" or " + localRecords() + " records") : ""));
+	LocalCluster cluster = new LocalCluster();
+	long start = System.nanoTime();
+	try {
+	    cluster.submitTopology(builder.topologyName(), config, builder.topology());
+	} catch (AlreadyAliveException e) {
+	    LOG.error("Topology " + builder.topologyName() + " is already running", e);
+	    System.exit(2);
+	} catch (InvalidTopologyException e) {
+	    LOG.error("Topology " + builder.topologyName() + " is invalid", e);
+	    System.exit(3);
+	}
+	long end = start + localDuration() * 1000000000L;
+	while (System.nanoTime() < end && (localRecords() == 0 || LocalSummary.records(LOCAL_RECORDS_STAGE) < localRecords())) {
+	    try {
+		Thread.sleep(100);
+	    } catch (InterruptedException e) {
+		break;
+	    }
+	}
+	long   records = LocalSummary.records(LOCAL_RECORDS_STAGE);
+	long   first   = LocalSummary.firstEmitNanos();
+	double seconds = (System.nanoTime() - (first == 0 ? start : first)) / 1e9;
+	cluster.shutdown();
+	for (String line : LocalSummary.report(records, seconds)) {
+	    System.out.println("LOCAL RUN: " + line);
+	    LOG.info("LOCAL RUN: " + line);
+	}
+    }
+
     public void setDebug() {
 	String value = prop(Config.TOPOLOGY_DEBUG);
 	if (! (value == null)) {
@@ -123,7 +221,13 @@ public class TopologySubmitter {
 	}
     }
 
+    // When adapting the batches in flight, the limit must stay below
+    // topology.max.spout.pending, so by default it's set just above
+    // the most the spout will allow.
     public void setMaxSpoutPending() {
+	if (prop(Config.TOPOLOGY_MAX_SPOUT_PENDING) == null && spoutBuilder.isAdaptivePending()) {
+	    System.setProperty(Config.TOPOLOGY_MAX_SPOUT_PENDING, Integer.toString(spoutBuilder.pendingMax() + 1));
+	}
 	String value = prop(Config.TOPOLOGY_MAX_SPOUT_PENDING);
 	if (! (value == null)) {
 	    LOG.info("Setting " + Config.TOPOLOGY_MAX_SPOUT_PENDING + " to " + value);
@@ -178,4 +282,69 @@ public class TopologySubmitter {
 	    config.setStatsSampleRate(Integer.parseInt(value));
 	}
     }
+
+    public void setMetricsBucketSize() {
+	String value = prop(Config.TOPOLOGY_BUILTIN_METRICS_BUCKET_SIZE_SECS);
+	if (! (value == null)) {
+	    LOG.info("Setting " + Config.TOPOLOGY_BUILTIN_METRICS_BUCKET_SIZE_SECS + " to " + value);
+	    config.put(Config.TOPOLOGY_BUILTIN_METRICS_BUCKET_SIZE_SECS, Integer.parseInt(value));
+	}
+    }
+
+    public void setMetricsConsumer() {
+	String consumer = metricsConsumer();
+	if (consumer.equals("logging")) {
+	    LOG.info("Reporting metrics to each worker's metrics log");
+	    config.registerMetricsConsumer(LoggingMetricsConsumer.class, metricsParallelism());
+	} else if (consumer.equals("file")) {
+	    LOG.info("Reporting metrics to " + metricsFile() + " on each worker");
+	    config.registerMetricsConsumer(FileMetricsConsumer.class, metricsFile(), metricsParallelism());
+	}
+    }
+
+    private Boolean validMetrics() {
+	String consumer = metricsConsumer();
+	if (!(consumer.equals("none") || consumer.equals("logging") || consumer.equals("file"))) {
+	    LOG.error("The " + METRICS_CONSUMER + " property must be one of: none, logging, file");
+	    return false;
+	}
+	return true;
+    }
+
+    public Boolean isLocal() {
+	return builder.isLocal();
+    }
+
+    // Records are counted as they reach the state.
+    private static String LOCAL_RECORDS_STAGE = "wukong.state";
+
+    public static String LOCAL_DURATION         = "wukong.local.duration_secs";
+    public static String DEFAULT_LOCAL_DURATION = "60";
+    public long localDuration() {
+	return Long.parseLong(prop(LOCAL_DURATION, DEFAULT_LOCAL_DURATION));
+    }
+
+    public static String LOCAL_RECORDS         = "wukong.local.records";
+    public static String DEFAULT_LOCAL_RECORDS = "0";
+    public long localRecords() {
+	return Long.parseLong(prop(LOCAL_RECORDS, DEFAULT_LOCAL_RECORDS));
+    }
+
+    public static String METRICS_CONSUMER         = "wukong.metrics.consumer";
+    public static String DEFAULT_METRICS_CONSUMER = "none";
+    public String metricsConsumer() {
+	return prop(METRICS_CONSUMER, DEFAULT_METRICS_CONSUMER);
+    }
+
+    public static String METRICS_FILE         = "wukong.metrics.file";
+    public static String DEFAULT_METRICS_FILE = "/tmp/wukong-metrics.log";
+    public String metricsFile() {
+	return prop(METRICS_FILE, DEFAULT_METRICS_FILE);
+    }
+
+    public static String METRICS_PARALLELISM         = "wukong.metrics.parallelism";
+    public static String DEFAULT_METRICS_PARALLELISM = "1";
+    public int metricsParallelism() {
+	return Integer.parseInt(prop(METRICS_PARALLELISM, DEFAULT_METRICS_PARALLELISM));
+    }
 }
@@ -0,0 +1,22 @@
+package com.infochimps.wukong.storm.dataflow;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * Describes how a frame of input records is written to a dataflow
+ * subprocess and how the corresponding outputs are read back.
+ *
+ * A reply must preserve the boundaries between inputs: the i-th
+ * element of the list returned by #readFrame holds the output
+ * records generated by the i-th input record of the frame.
+ */
+public interface DataflowProtocol extends Serializable {
+
+    public void writeFrame(OutputStream out, List<byte[]> records) throws IOException;
+
+    public List<List<byte[]>> readFrame(FrameReader in, int numRecords) throws IOException;
+    
+}
@@ -0,0 +1,65 @@
+package com.infochimps.wukong.storm.dataflow;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The record-at-a-time protocol spoken by `wu-bolt` without any
+ * framing options, the one WuFunction uses.
+ *
+ * Each input record is a newline-terminated line.  The reply to each
+ * record is its output records, each newline-terminated, followed by
+ * a line holding only the batch delimiter:
+ *
+ * <pre>
+ *   first-a
+ *   first-b
+ *   X
+ * </pre>
+ *
+ * Several records may be written at once, their replies come back in
+ * order.
+ */
+public class DelimitedProtocol implements DataflowProtocol {
+
+    public static String DEFAULT_DELIMITER = "X";
+
+    private static final byte NEWLINE = '\n';
+
+    private byte[] delimiter;
+
+    public DelimitedProtocol() {
+	this(DEFAULT_DELIMITER);
+    }
+
+    public DelimitedProtocol(String delimiter) {
+	this.delimiter = delimiter.getBytes(Charset.forName("UTF-8"));
+    }
+
+    @Override
+    public void writeFrame(OutputStream out, List<byte[]> records) throws IOException {
+	for (byte[] record : records) {
+	    out.write(record);
+	    out.write(NEWLINE);
+	}
+    }
+
+    @Override
+    public List<List<byte[]>> readFrame(FrameReader in, int numRecords) throws IOException {
+	List<List<byte[]>> outputs = new ArrayList<List<byte[]>>(numRecords);
+	for (int i = 0; i < numRecords; i++) {
+	    List<byte[]> recordOutputs = new ArrayList<byte[]>();
+	    byte[] line;
+	    while (!Arrays.equals((line = in.readLine()), delimiter)) {
+		recordOutputs.add(line);
+	    }
+	    outputs.add(recordOutputs);
+	}
+	return outputs;
+    }
+
+}
@@ -0,0 +1,70 @@
+package com.infochimps.wukong.storm.dataflow;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import org.jruby.embed.LocalContextScope;
+import org.jruby.embed.LocalVariableBehavior;
+import org.jruby.embed.ScriptingContainer;
+
+/**
+ * A Ruby runtime, embedded within the worker JVM, which has loaded a
+ * Wukong dataflow.
+ *
+ * The dataflow is loaded by Wukong::Storm::EmbeddedDriver from the
+ * same command-line that would have launched `wu-bolt` so the two
+ * modes run exactly the same code.  Gems are found the same way
+ * JRuby always finds them, e.g. - via GEM_HOME and GEM_PATH in the
+ * worker's environment.
+ *
+ * A runtime must only be used by one thread at a time.
+ */
+public class EmbeddedRuntime {
+
+    static Logger LOG = Logger.getLogger(EmbeddedRuntime.class);
+
+    private String command;
+    private String directory;
+    private String environment;
+
+    private ScriptingContainer container;
+    private Object             driver;
+
+    public EmbeddedRuntime(String command, String directory, String environment) {
+	this.command     = command;
+	this.directory   = directory;
+	this.environment = environment;
+    }
+
+    public void start() {
+	LOG.info("Loading <" + command + "> into an embedded Ruby runtime in " + directory);
+	container = new ScriptingContainer(LocalContextScope.SINGLETHREAD, LocalVariableBehavior.TRANSIENT);
+	container.setCurrentDirectory(directory);
+	Map<String, String> env = new HashMap<String, String>(System.getenv());
+	if (environment != null) {
+	    env.put("WUKONG_ENV", environment);
+	}
+	container.setEnvironment(env);
+	Object driverClass = container.runScriptlet("require 'wukong-storm' ; Wukong::Storm::EmbeddedDriver");
+	driver = container.callMethod(driverClass, "from_command_line", command, Object.class);
+    }
+
+    /**
+     * Send each of the given records through the dataflow.
+     *
+     * @return the outputs of each record, in order
+     */
+    @SuppressWarnings("unchecked")
+    public List<List<String>> process(List<String> records) {
+	return (List<List<String>>) container.callMethod(driver, "process_frame", records, List.class);
+    }
+
+    public void stop() {
+	if (container != null) { container.terminate(); }
+	container = null;
+    }
+    
+}
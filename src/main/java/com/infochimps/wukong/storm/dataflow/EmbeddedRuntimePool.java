@@ -0,0 +1,100 @@
+package com.infochimps.wukong.storm.dataflow;
+
+import java.io.InterruptedIOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A pool of EmbeddedRuntimes shared by all executors of a dataflow
+ * within a single worker.
+ *
+ * Runtimes are booted lazily, as executors need them, up to the size
+ * of the pool.  An executor borrows a runtime for each frame it
+ * processes and then releases it back to the pool.
+ */
+public class EmbeddedRuntimePool {
+
+    static Logger LOG = Logger.getLogger(EmbeddedRuntimePool.class);
+
+    private static Map<String, EmbeddedRuntimePool> POOLS = new HashMap<String, EmbeddedRuntimePool>();
+
+    /**
+     * Return this worker's pool for the given dataflow, creating it
+     * if necessary.
+     */
+    public static synchronized EmbeddedRuntimePool forDataflow(String command, String directory, String environment, int size) {
+	String key = command + "\t" + directory + "\t" + environment;
+	EmbeddedRuntimePool pool = POOLS.get(key);
+	if (pool == null) {
+	    pool = new EmbeddedRuntimePool(command, directory, environment, size);
+	    POOLS.put(key, pool);
+	}
+	return pool;
+    }
+
+    private String command;
+    private String directory;
+    private String environment;
+    private int    size;
+    private int    created;
+
+    private final LinkedBlockingQueue<EmbeddedRuntime> idle = new LinkedBlockingQueue<EmbeddedRuntime>();
+
+    private EmbeddedRuntimePool(String command, String directory, String environment, int size) {
+	this.command     = command;
+	this.directory   = directory;
+	this.environment = environment;
+	this.size        = Math.max(size, 1);
+    }
+
+    /**
+     * Borrow an idle runtime, booting a new one if the pool isn't yet
+     * full, else waiting for one to be released.
+     */
+    public EmbeddedRuntime borrow() throws InterruptedIOException {
+	EmbeddedRuntime runtime = idle.poll();
+	if (runtime != null) { return runtime; }
+	if (reserve()) {
+	    runtime = new EmbeddedRuntime(command, directory, environment);
+	    try {
+		runtime.start();
+	    } catch (RuntimeException e) {
+		unreserve();
+		throw e;
+	    }
+	    return runtime;
+	}
+	try {
+	    return idle.take();
+	} catch (InterruptedException e) {
+	    throw new InterruptedIOException("Interrupted while waiting for an embedded Ruby runtime");
+	}
+    }
+
+    public void release(EmbeddedRuntime runtime) {
+	idle.add(runtime);
+    }
+
+    /**
+     * Throw away a runtime which failed, making room for a new one.
+     */
+    public void discard(EmbeddedRuntime runtime) {
+	LOG.warn("Discarding embedded Ruby runtime for <" + command + ">");
+	runtime.stop();
+	unreserve();
+    }
+
+    private synchronized boolean reserve() {
+	if (created >= size) { return false; }
+	created++;
+	return true;
+    }
+
+    private synchronized void unreserve() {
+	created--;
+    }
+    
+}
@@ -0,0 +1,121 @@
+package com.infochimps.wukong.storm.dataflow;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Reads lines, integers, and length-prefixed records out of a
+ * subprocess' output using a single reusable buffer.
+ *
+ * Unlike a BufferedReader this never decodes characters: records are
+ * returned as raw UTF-8 bytes so the caller decides whether (and
+ * when) a String is needed.
+ */
+public class FrameReader {
+
+    private final InputStream in;
+    private final byte[]      buffer;
+    private int               position;
+    private int               limit;
+
+    // Holds the beginning of a line which straddles two buffer fills.
+    private byte[]            scratch = new byte[256];
+
+    public FrameReader(InputStream in, int bufferSize) {
+	this.in     = in;
+	this.buffer = new byte[bufferSize];
+    }
+
+    /**
+     * Return the next line, without its trailing newline.
+     *
+     * @throws EOFException if the subprocess closed its output
+     */
+    public byte[] readLine() throws IOException {
+	int length = 0;
+	while (true) {
+	    if (position == limit && !fill()) {
+		throw new EOFException("Subprocess closed its output");
+	    }
+	    int start = position;
+	    while (position < limit && buffer[position] != '\n') {
+		position++;
+	    }
+	    int chunk = position - start;
+	    if (position < limit) {
+		position++;
+		if (length == 0) {
+		    return Arrays.copyOfRange(buffer, start, start + chunk);
+		}
+		append(start, chunk, length);
+		return Arrays.copyOf(scratch, length + chunk);
+	    }
+	    append(start, chunk, length);
+	    length += chunk;
+	}
+    }
+
+    /**
+     * Return the next big-endian 4-byte integer.
+     *
+     * @throws EOFException if the subprocess closed its output
+     */
+    public int readInt() throws IOException {
+	if (limit - position >= 4) {
+	    int value = ((buffer[position] & 0xff) << 24) | ((buffer[position + 1] & 0xff) << 16) | ((buffer[position + 2] & 0xff) << 8) | (buffer[position + 3] & 0xff);
+	    position += 4;
+	    return value;
+	}
+	int value = 0;
+	for (int i = 0; i < 4; i++) {
+	    value = (value << 8) | readByte();
+	}
+	return value;
+    }
+
+    /**
+     * Return the next <code>length</code> bytes, copied straight out
+     * of the buffer.
+     *
+     * @throws EOFException if the subprocess closed its output
+     */
+    public byte[] readBytes(int length) throws IOException {
+	byte[] bytes  = new byte[length];
+	int    copied = 0;
+	while (copied < length) {
+	    if (position == limit && !fill()) {
+		throw new EOFException("Subprocess closed its output");
+	    }
+	    int chunk = Math.min(limit - position, length - copied);
+	    System.arraycopy(buffer, position, bytes, copied, chunk);
+	    position += chunk;
+	    copied   += chunk;
+	}
+	return bytes;
+    }
+
+    private int readByte() throws IOException {
+	if (position == limit && !fill()) {
+	    throw new EOFException("Subprocess closed its output");
+	}
+	return buffer[position++] & 0xff;
+    }
+
+    private void append(int start, int chunk, int length) {
+	if (length + chunk > scratch.length) {
+	    scratch = Arrays.copyOf(scratch, Math.max(scratch.length * 2, length + chunk));
+	}
+	System.arraycopy(buffer, start, scratch, length, chunk);
+    }
+
+    private boolean fill() throws IOException {
+	int n = in.read(buffer, 0, buffer.length);
+	if (n <= 0) { return false; }
+	position = 0;
+	limit    = n;
+	return true;
+    }
+    
+}
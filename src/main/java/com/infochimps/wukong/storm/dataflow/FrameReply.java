@@ -0,0 +1,89 @@
+package com.infochimps.wukong.storm.dataflow;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The eventual reply from a dataflow to a frame of records which has
+ * been submitted to it.
+ *
+ * A reply from a PipelinedSubprocess must arrive within the given
+ * timeout.  Otherwise the subprocess is taken to be hung: it is
+ * failed, which stops it and fails every frame in flight to it, so
+ * the pool relaunches it and the batch is replayed.
+ */
+public class FrameReply {
+
+    private final int                 numRecords;
+    private final PipelinedSubprocess subprocess;
+    private final int                 timeout;
+    private final CountDownLatch      done      = new CountDownLatch(1);
+    private final long                submitted = System.nanoTime();
+
+    private volatile List<List<byte[]>> outputs;
+    private volatile IOException        failure;
+    private volatile long               completed;
+
+    public FrameReply(int numRecords) {
+	this(numRecords, null, 0);
+    }
+
+    /**
+     * @param timeout milliseconds to wait for the reply, or 0 to wait forever
+     */
+    public FrameReply(int numRecords, PipelinedSubprocess subprocess, int timeout) {
+	this.numRecords = numRecords;
+	this.subprocess = subprocess;
+	this.timeout    = timeout;
+    }
+
+    public int numRecords() {
+	return numRecords;
+    }
+
+    /**
+     * The time between submitting the frame and its reply arriving.
+     */
+    public long latencyNanos() {
+	return completed - submitted;
+    }
+
+    public void succeed(List<List<byte[]>> outputs) {
+	this.outputs   = outputs;
+	this.completed = System.nanoTime();
+	done.countDown();
+    }
+
+    public void fail(IOException failure) {
+	this.failure = failure;
+	done.countDown();
+    }
+
+    /**
+     * Block until the reply has arrived or the timeout has passed.
+     *
+     * @return the outputs of each record in the frame, in order
+     * @throws IOException if the dataflow failed before replying or didn't reply in time
+     */
+    public List<List<byte[]>> get() throws IOException {
+	try {
+	    if (timeout <= 0) {
+		done.await();
+	    } else if (!done.await(timeout, TimeUnit.MILLISECONDS)) {
+		IOException e = new IOException("Dataflow did not reply to " + numRecords + " records within " + timeout + " ms");
+		if (subprocess != null) { subprocess.fail(e); }
+		fail(e);
+	    }
+	} catch (InterruptedException e) {
+	    throw new InterruptedIOException("Interrupted while waiting for a reply from the dataflow");
+	}
+	if (failure != null) {
+	    throw new IOException("Dataflow failed before replying", failure);
+	}
+	return outputs;
+    }
+    
+}
@@ -0,0 +1,64 @@
+package com.infochimps.wukong.storm.dataflow;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The binary batch protocol spoken by `wu-bolt --framing=length`.
+ *
+ * All integers are big-endian and 4 bytes long.  An input frame is
+ * the number of records N followed by N records, each preceded by
+ * its length in bytes.
+ *
+ * The reply is N integers holding the number of output records
+ * produced by each input, followed by all the output records, each
+ * preceded by its length in bytes.
+ *
+ * Nothing is ever scanned for a delimiter, so records may contain
+ * newlines or the `wu-bolt` batch delimiter.
+ */
+public class LengthPrefixedProtocol implements DataflowProtocol {
+
+    @Override
+    public void writeFrame(OutputStream out, List<byte[]> records) throws IOException {
+	writeInt(out, records.size());
+	for (byte[] record : records) {
+	    writeInt(out, record.length);
+	    out.write(record);
+	}
+    }
+
+    @Override
+    public List<List<byte[]>> readFrame(FrameReader in, int numRecords) throws IOException {
+	int[] counts = new int[numRecords];
+	for (int i = 0; i < numRecords; i++) {
+	    counts[i] = in.readInt();
+	    if (counts[i] < 0) {
+		throw new IOException("Malformed output count from subprocess: " + counts[i]);
+	    }
+	}
+	List<List<byte[]>> outputs = new ArrayList<List<byte[]>>(numRecords);
+	for (int count : counts) {
+	    List<byte[]> recordOutputs = new ArrayList<byte[]>(count);
+	    for (int i = 0; i < count; i++) {
+		int length = in.readInt();
+		if (length < 0) {
+		    throw new IOException("Malformed record length from subprocess: " + length);
+		}
+		recordOutputs.add(in.readBytes(length));
+	    }
+	    outputs.add(recordOutputs);
+	}
+	return outputs;
+    }
+
+    private void writeInt(OutputStream out, int value) throws IOException {
+	out.write(value >>> 24);
+	out.write(value >>> 16);
+	out.write(value >>> 8);
+	out.write(value);
+    }
+    
+}
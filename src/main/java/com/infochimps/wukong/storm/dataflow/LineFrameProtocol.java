@@ -0,0 +1,92 @@
+package com.infochimps.wukong.storm.dataflow;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The newline-delimited batch protocol spoken by `wu-bolt --batch`.
+ *
+ * An input frame is a header line holding the number of records N
+ * followed by N newline-terminated records:
+ *
+ * <pre>
+ *   3
+ *   first
+ *   second
+ *   third
+ * </pre>
+ *
+ * The reply is a header line holding the number of output records
+ * produced by each input, separated by spaces, followed by all the
+ * output records, each newline-terminated:
+ *
+ * <pre>
+ *   2 0 1
+ *   first-a
+ *   first-b
+ *   third-a
+ * </pre>
+ *
+ * The whole reply is written with a single flush.  Records may not
+ * contain newlines, see LengthPrefixedProtocol for that.
+ */
+public class LineFrameProtocol implements DataflowProtocol {
+
+    private static final byte NEWLINE = '\n';
+
+    @Override
+    public void writeFrame(OutputStream out, List<byte[]> records) throws IOException {
+	out.write(Integer.toString(records.size()).getBytes("US-ASCII"));
+	out.write(NEWLINE);
+	for (byte[] record : records) {
+	    out.write(record);
+	    out.write(NEWLINE);
+	}
+    }
+
+    @Override
+    public List<List<byte[]>> readFrame(FrameReader in, int numRecords) throws IOException {
+	int[] counts = parseCounts(in.readLine(), numRecords);
+	List<List<byte[]>> outputs = new ArrayList<List<byte[]>>(numRecords);
+	for (int count : counts) {
+	    List<byte[]> recordOutputs = new ArrayList<byte[]>(count);
+	    for (int i = 0; i < count; i++) {
+		recordOutputs.add(in.readLine());
+	    }
+	    outputs.add(recordOutputs);
+	}
+	return outputs;
+    }
+
+    private int[] parseCounts(byte[] header, int numRecords) throws IOException {
+	int[] counts  = new int[numRecords];
+	int   index   = 0;
+	int   value   = 0;
+	boolean digit = false;
+	for (int i = 0; i <= header.length; i++) {
+	    byte b = (i < header.length) ? header[i] : (byte) ' ';
+	    if (b >= '0' && b <= '9') {
+		value = (value * 10) + (b - '0');
+		digit = true;
+	    } else if (b == ' ' || b == '\r') {
+		if (digit) {
+		    if (index == numRecords) {
+			throw new IOException("Got more output counts from subprocess than the " + numRecords + " records sent");
+		    }
+		    counts[index++] = value;
+		    value = 0;
+		    digit = false;
+		}
+	    } else {
+		throw new IOException("Malformed batch header from subprocess: " + new String(header, "UTF-8"));
+	    }
+	}
+	if (index != numRecords) {
+	    throw new IOException("Expected " + numRecords + " output counts from subprocess but got " + index);
+	}
+	return counts;
+    }
+    
+}
@@ -0,0 +1,77 @@
+package com.infochimps.wukong.storm.dataflow;
+
+import java.util.List;
+import java.util.Map;
+
+import storm.trident.operation.BaseFunction;
+import storm.trident.operation.Function;
+import storm.trident.operation.TridentCollector;
+import storm.trident.operation.TridentOperationContext;
+import storm.trident.tuple.TridentTuple;
+
+import com.infochimps.wukong.storm.metrics.LatencyHistogram;
+import com.infochimps.wukong.storm.metrics.Metrics;
+import com.infochimps.wukong.storm.metrics.StageMetrics;
+
+/**
+ * Wraps a function which runs a dataflow a record at a time (such as
+ * WuFunction) to report the <code>wukong.NAME</code> metrics for it,
+ * where NAME names its stage.  Every stage in a bolt must have a
+ * different name.
+ *
+ * Each record's trip through the dataflow is synchronous, so the time
+ * spent in the wrapped function is its round-trip latency.
+ */
+public class MeteredFunction extends BaseFunction {
+
+    private String   name;
+    private Function function;
+
+    private transient StageMetrics     metrics;
+    private transient LatencyHistogram latency;
+    private transient MeteredCollector collector;
+
+    public MeteredFunction(String name, Function function) {
+	this.name     = name;
+	this.function = function;
+    }
+
+    @Override
+    public void prepare(Map conf, TridentOperationContext context) {
+	metrics   = Metrics.stage(context, conf, name);
+	latency   = Metrics.latency(context, conf, name, "latency");
+	collector = new MeteredCollector();
+	function.prepare(conf, context);
+    }
+
+    @Override
+    public void execute(TridentTuple tuple, TridentCollector collector) {
+	metrics.input(Metrics.utf8Length(tuple.getString(0)));
+	this.collector.delegate = collector;
+	long start = System.nanoTime();
+	function.execute(tuple, this.collector);
+	latency.recordSince(start);
+    }
+
+    @Override
+    public void cleanup() {
+	function.cleanup();
+    }
+
+    private class MeteredCollector implements TridentCollector {
+
+	private TridentCollector delegate;
+
+	@Override
+	public void emit(List<Object> values) {
+	    metrics.output(Metrics.utf8Length((String) values.get(0)));
+	    delegate.emit(values);
+	}
+
+	@Override
+	public void reportError(Throwable t) {
+	    delegate.reportError(t);
+	}
+    }
+
+}
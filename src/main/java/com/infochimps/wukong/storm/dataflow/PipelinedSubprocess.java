@@ -0,0 +1,147 @@
+package com.infochimps.wukong.storm.dataflow;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A Subprocess which can have several frames in flight at once.
+ *
+ * Frames are written by the submitting thread without waiting for a
+ * reply.  A dedicated reader thread reads replies, which arrive in
+ * the order frames were written, and completes the corresponding
+ * FrameReply.  At most <code>depth</code> frames are ever in flight.
+ *
+ * Once any read or write fails, or a reply doesn't arrive within
+ * <code>replyTimeout</code> milliseconds (see FrameReply), the
+ * subprocess is dead: it is stopped, every frame in flight fails,
+ * and it accepts no further frames.  SubprocessPool replaces dead
+ * subprocesses.  Only a subprocess lost without being stopped is
+ * logged as an error.
+ */
+public class PipelinedSubprocess implements Runnable {
+
+    static Logger LOG = Logger.getLogger(PipelinedSubprocess.class);
+
+    private final Subprocess                     subprocess;
+    private final DataflowProtocol               protocol;
+    private final int                            depth;
+    private final Semaphore                      slots;
+    private final int                            replyTimeout;
+    private final LinkedBlockingQueue<FrameReply> inFlight    = new LinkedBlockingQueue<FrameReply>();
+    private final AtomicInteger                  outstanding = new AtomicInteger();
+
+    private volatile IOException failure;
+    private volatile boolean     stopping;
+    private Thread               reader;
+
+    public PipelinedSubprocess(Subprocess subprocess, DataflowProtocol protocol, int depth, int replyTimeout) {
+	this.subprocess   = subprocess;
+	this.protocol     = protocol;
+	this.depth        = Math.max(depth, 1);
+	this.slots        = new Semaphore(this.depth);
+	this.replyTimeout = replyTimeout;
+    }
+
+    public void start() throws IOException {
+	subprocess.start();
+	reader = new Thread(this, "wukong-reader");
+	reader.setDaemon(true);
+	reader.start();
+    }
+
+    /**
+     * Write the given frame to the subprocess, blocking only if the
+     * maximum number of frames are already in flight.
+     */
+    public FrameReply submit(List<byte[]> records) throws IOException {
+	if (failure != null) { throw failure; }
+	try {
+	    slots.acquire();
+	} catch (InterruptedException e) {
+	    throw new InterruptedIOException("Interrupted while waiting to write to the dataflow");
+	}
+	FrameReply reply = new FrameReply(records.size(), this, replyTimeout);
+	synchronized (this) {
+	    if (failure != null) {
+		slots.release();
+		throw failure;
+	    }
+	    outstanding.addAndGet(records.size());
+	    inFlight.add(reply);
+	}
+	try {
+	    subprocess.write(protocol, records);
+	} catch (IOException e) {
+	    fail(e);
+	    throw e;
+	}
+	return reply;
+    }
+
+    @Override
+    public void run() {
+	FrameReply reply = null;
+	try {
+	    while (true) {
+		reply = inFlight.take();
+		List<List<byte[]>> outputs = subprocess.read(protocol, reply.numRecords());
+		outstanding.addAndGet(-reply.numRecords());
+		slots.release();
+		reply.succeed(outputs);
+		reply = null;
+	    }
+	} catch (IOException e) {
+	    // Mark the subprocess dead before its caller hears of the
+	    // failure, so a replayed batch goes to its replacement.
+	    fail(e);
+	    if (reply != null) { reply.fail(e); }
+	} catch (InterruptedException e) {
+	    if (reply != null) { reply.fail(new InterruptedIOException("Stopped reading from the dataflow")); }
+	}
+    }
+
+    /**
+     * The number of records written to, but not yet replied to by,
+     * the subprocess.
+     */
+    public int outstanding() {
+	return outstanding.get();
+    }
+
+    public boolean isAlive() {
+	return failure == null;
+    }
+
+    public void stop() {
+	stopping = true;
+	if (reader != null) { reader.interrupt(); }
+	subprocess.stop();
+    }
+
+    void fail(IOException e) {
+	synchronized (this) {
+	    if (failure != null) { return; }
+	    failure = e;
+	}
+	if (stopping) {
+	    LOG.debug("Stopped dataflow subprocess with " + outstanding() + " records in flight", e);
+	} else {
+	    LOG.error("Lost dataflow subprocess with " + outstanding() + " records in flight", e);
+	}
+	FrameReply reply;
+	while ((reply = inFlight.poll()) != null) {
+	    reply.fail(e);
+	}
+	// Failed frames are never read, so wake any thread waiting for
+	// one of their slots to find this subprocess dead.
+	slots.release(depth);
+	subprocess.stop();
+    }
+    
+}
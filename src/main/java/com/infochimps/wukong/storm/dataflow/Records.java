@@ -0,0 +1,32 @@
+package com.infochimps.wukong.storm.dataflow;
+
+import java.nio.charset.Charset;
+
+/**
+ * Records pass between the stages of a topology as Strings or, when
+ * the spout reads raw bytes, as the byte[] payloads it read.
+ *
+ * Stages which write records out as bytes use these to accept either
+ * without decoding a payload only to encode it again.
+ */
+public class Records {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * @return the record as UTF-8 bytes, the record itself if it is already a byte[]
+     */
+    public static byte[] bytes(Object record) {
+	if (record instanceof byte[]) { return (byte[]) record; }
+	return record.toString().getBytes(UTF8);
+    }
+
+    /**
+     * @return the record as a String, decoding it from UTF-8 if it is a byte[]
+     */
+    public static String string(Object record) {
+	if (record instanceof byte[]) { return new String((byte[]) record, UTF8); }
+	return record.toString();
+    }
+
+}
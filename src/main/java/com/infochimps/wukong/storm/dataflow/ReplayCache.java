@@ -0,0 +1,319 @@
+package com.infochimps.wukong.storm.dataflow;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import backtype.storm.metric.api.IMetric;
+
+/**
+ * A bounded cache of the outputs a dataflow produced for each input
+ * record, so a replayed batch needn't be sent through the dataflow
+ * again.
+ *
+ * Records are keyed by the MD5 of their bytes, so a record is found
+ * however its batch was put together when it was replayed.  This is
+ * only correct for dataflows whose outputs depend on nothing but the
+ * record.
+ *
+ * Outputs are held outside the heap, either in a direct buffer or in
+ * a scratch file mapped into memory, which lets the cache be larger
+ * than the worker's memory.  The buffer is split into STRIPES
+ * stripes, each with its own lock, and a record's key picks its
+ * stripe, so executors caching different records rarely wait for
+ * each other.  Each stripe is a ring: each entry is written after the
+ * last and, once the ring is full, the oldest entries are evicted to
+ * make room.  An entry which is read is written again after the last,
+ * so the oldest entry in a stripe is always its least recently used.
+ * Only the index of entries is kept on the heap.
+ *
+ * Each entry is the 16-byte key, the 4-byte size of the whole entry,
+ * the 4-byte number of outputs, and then each output preceded by its
+ * 4-byte length.
+ *
+ * Every executor of a dataflow within a worker shares one cache (see
+ * forDataflow).
+ */
+public class ReplayCache {
+
+    static Logger LOG = Logger.getLogger(ReplayCache.class);
+
+    public static String MEMORY = "memory";
+    public static String FILE   = "file";
+
+    public static int STRIPES = 16;
+
+    private static final int KEY_SIZE    = 16;
+    private static final int HEADER_SIZE = KEY_SIZE + 8;
+
+    private static Map<String, ReplayCache> CACHES = new HashMap<String, ReplayCache>();
+
+    /**
+     * Return this worker's cache for the given dataflow, creating it
+     * if necessary.
+     *
+     * @param storage either MEMORY or FILE
+     * @param directory where FILE storage creates its scratch file
+     */
+    public static synchronized ReplayCache forDataflow(String command, String storage, String directory, int capacity) {
+	ReplayCache cache = CACHES.get(command);
+	if (cache == null) {
+	    try {
+		cache = new ReplayCache(storage, directory, capacity);
+	    } catch (IOException e) {
+		throw new RuntimeException("Could not create a replay cache in " + directory, e);
+	    }
+	    LOG.info("Caching up to " + capacity + " bytes of outputs from <" + command + "> in " + (FILE.equals(storage) ? directory : "memory"));
+	    CACHES.put(command, cache);
+	}
+	return cache;
+    }
+
+    /**
+     * A digest for computing keys with.  Digests aren't thread-safe,
+     * so each executor should keep its own.
+     */
+    public static MessageDigest digest() {
+	try {
+	    return MessageDigest.getInstance("MD5");
+	} catch (NoSuchAlgorithmException e) {
+	    throw new RuntimeException(e);
+	}
+    }
+
+    /**
+     * The key a record is cached under.
+     */
+    public static byte[] key(MessageDigest digest, byte[] record) {
+	return digest.digest(record);
+    }
+
+    private Stripe[] stripes;
+
+    private ReplayCache(String storage, String directory, int capacity) throws IOException {
+	ByteBuffer buffer;
+	if (FILE.equals(storage)) {
+	    File dir = new File(directory);
+	    if (!dir.isDirectory() && !dir.mkdirs()) {
+		throw new IOException("Could not create replay cache directory " + directory);
+	    }
+	    File             file    = File.createTempFile("wukong-replay-", ".cache", dir);
+	    RandomAccessFile scratch = new RandomAccessFile(file, "rw");
+	    file.deleteOnExit();
+	    scratch.setLength(capacity);
+	    buffer = scratch.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+	    scratch.close();
+	} else {
+	    buffer = ByteBuffer.allocateDirect(capacity);
+	}
+	int count  = Math.max(1, Math.min(STRIPES, capacity / 65536));
+	int size   = capacity / count;
+	stripes    = new Stripe[count];
+	for (int i = 0; i < count; i++) {
+	    ByteBuffer slice = buffer.duplicate();
+	    slice.position(i * size);
+	    slice.limit((i + 1) * size);
+	    stripes[i] = new Stripe(slice.slice());
+	}
+    }
+
+    /**
+     * @return the cached outputs of the record with the given key, or null
+     */
+    public List<byte[]> get(byte[] key) {
+	return stripe(key).get(key);
+    }
+
+    /**
+     * Cache the outputs of the record with the given key, evicting the
+     * least recently used entries of its stripe to make room.  Outputs
+     * too large for a whole stripe are not cached.
+     */
+    public void put(byte[] key, List<byte[]> outputs) {
+	stripe(key).put(key, outputs);
+    }
+
+    public int entries() {
+	int entries = 0;
+	for (Stripe stripe : stripes) { entries += stripe.entries(); }
+	return entries;
+    }
+
+    public int bytes() {
+	int bytes = 0;
+	for (Stripe stripe : stripes) { bytes += stripe.bytes(); }
+	return bytes;
+    }
+
+    public long evictions() {
+	long evictions = 0;
+	for (Stripe stripe : stripes) { evictions += stripe.evictions(); }
+	return evictions;
+    }
+
+    // Keys are digests, so any of their bytes spread them evenly.
+    private Stripe stripe(byte[] key) {
+	return stripes[(key[0] & 0xff) % stripes.length];
+    }
+
+    // A ring of entries in its own part of the buffer.
+    private static class Stripe {
+
+	private ByteBuffer buffer;
+	private int        capacity;
+
+	// Entries lie in [tail, head) or, once the ring has wrapped, in
+	// [tail, wrapAt) and then [0, head).
+	private int     head;
+	private int     tail;
+	private int     wrapAt;
+	private boolean wrapped;
+	private int     used;
+	private long    evictions;
+
+	// The offset of each entry, by key.
+	private final Map<ByteBuffer, Integer> index = new HashMap<ByteBuffer, Integer>();
+
+	public Stripe(ByteBuffer buffer) {
+	    this.buffer   = buffer;
+	    this.capacity = buffer.capacity();
+	    this.wrapAt   = capacity;
+	}
+
+	public synchronized List<byte[]> get(byte[] key) {
+	    Integer offset = index.get(ByteBuffer.wrap(key));
+	    if (offset == null) { return null; }
+	    int          count   = buffer.getInt(offset + KEY_SIZE + 4);
+	    List<byte[]> outputs = new ArrayList<byte[]>(count);
+	    int          at      = offset + HEADER_SIZE;
+	    for (int i = 0; i < count; i++) {
+		byte[] output = new byte[buffer.getInt(at)];
+		ByteBuffer view = buffer.duplicate();
+		view.position(at + 4);
+		view.get(output);
+		outputs.add(output);
+		at += 4 + output.length;
+	    }
+	    put(key, outputs);
+	    return outputs;
+	}
+
+	public synchronized void put(byte[] key, List<byte[]> outputs) {
+	    int size = HEADER_SIZE;
+	    for (byte[] output : outputs) { size += 4 + output.length; }
+	    if (size > capacity || !reserve(size)) { return; }
+	    ByteBuffer view = buffer.duplicate();
+	    view.position(head);
+	    view.put(key, 0, KEY_SIZE).putInt(size).putInt(outputs.size());
+	    for (byte[] output : outputs) {
+		view.putInt(output.length).put(output);
+	    }
+	    index.put(ByteBuffer.wrap(key.clone()), head);
+	    head += size;
+	    used += size;
+	}
+
+	public synchronized int entries() {
+	    return index.size();
+	}
+
+	public synchronized int bytes() {
+	    return used;
+	}
+
+	public synchronized long evictions() {
+	    return evictions;
+	}
+
+	// Evicts entries until there are size contiguous bytes free at
+	// the head of the ring.
+	private boolean reserve(int size) {
+	    while (true) {
+		if (used == 0) {
+		    head    = 0;
+		    tail    = 0;
+		    wrapAt  = capacity;
+		    wrapped = false;
+		}
+		if (!wrapped) {
+		    if (capacity - head >= size) { return true; }
+		    wrapAt  = head;
+		    head    = 0;
+		    wrapped = true;
+		}
+		if (tail - head >= size) { return true; }
+		if (used == 0) { return false; }
+		evict();
+	    }
+	}
+
+	// Evicts the entry at the tail of the ring.  It may be a stale
+	// copy of an entry which has since been written again.
+	private void evict() {
+	    byte[] key = new byte[KEY_SIZE];
+	    ByteBuffer view = buffer.duplicate();
+	    view.position(tail);
+	    view.get(key);
+	    int size = view.getInt();
+	    ByteBuffer wrappedKey = ByteBuffer.wrap(key);
+	    Integer    offset     = index.get(wrappedKey);
+	    if (offset != null && offset == tail) {
+		index.remove(wrappedKey);
+		evictions += 1;
+	    }
+	    tail += size;
+	    used -= size;
+	    if (tail == wrapAt) {
+		tail    = 0;
+		wrapAt  = capacity;
+		wrapped = false;
+	    }
+	}
+    }
+
+    /**
+     * Counts the replayed records one executor found, or didn't find,
+     * in the cache.
+     *
+     * Reported as a map of <code>hits</code>, <code>misses</code>, and
+     * the cache's current <code>entries</code> and <code>bytes</code>
+     * and its total <code>evictions</code>.
+     */
+    public class Counts implements IMetric {
+
+	private long hits;
+	private long misses;
+
+	public void hit() {
+	    hits += 1;
+	}
+
+	public void miss() {
+	    misses += 1;
+	}
+
+	@Override
+	public Object getValueAndReset() {
+	    Map<String, Object> value = new HashMap<String, Object>();
+	    value.put("hits",      hits);
+	    value.put("misses",    misses);
+	    value.put("entries",   entries());
+	    value.put("bytes",     bytes());
+	    value.put("evictions", evictions());
+	    hits   = 0;
+	    misses = 0;
+	    return value;
+	}
+    }
+
+}
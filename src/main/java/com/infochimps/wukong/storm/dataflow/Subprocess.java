@@ -0,0 +1,142 @@
+package com.infochimps.wukong.storm.dataflow;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A running dataflow command, e.g. - `wu-bolt my_flow.rb --batch`.
+ *
+ * The command is run via `/bin/sh -c` within the given directory.
+ * Its STDERR is drained into the worker's log.
+ *
+ * Given a Zygote, the subprocess is instead a child forked from it,
+ * with the dataflow already loaded, and records are exchanged over
+ * the child's connection rather than its STDIN and STDOUT.
+ */
+public class Subprocess {
+
+    static Logger LOG = Logger.getLogger(Subprocess.class);
+
+    public static int BUFFER_SIZE = 65536;
+
+    private String command;
+    private String directory;
+    private String environment;
+
+    private Zygote       zygote;
+
+    private Process      process;
+    private Zygote.Child child;
+    private OutputStream input;
+    private FrameReader  output;
+
+    public Subprocess(String command, String directory, String environment) {
+	this.command     = command;
+	this.directory   = directory;
+	this.environment = environment;
+    }
+
+    public Subprocess(String command, Zygote zygote) {
+	this.command = command;
+	this.zygote  = zygote;
+    }
+
+    public void start() throws IOException {
+	if (zygote != null) {
+	    child  = zygote.fork();
+	    input  = new BufferedOutputStream(child.socket.getOutputStream(), BUFFER_SIZE);
+	    output = new FrameReader(child.socket.getInputStream(), BUFFER_SIZE);
+	    LOG.info("Forked <" + command + "> as child " + child.pid + " of its zygote");
+	    return;
+	}
+	ProcessBuilder builder = new ProcessBuilder("/bin/sh", "-c", command);
+	builder.directory(new File(directory));
+	if (environment != null) {
+	    builder.environment().put("WUKONG_ENV", environment);
+	}
+	LOG.info("Launching <" + command + "> in " + directory);
+	process = builder.start();
+	input   = new BufferedOutputStream(process.getOutputStream(), BUFFER_SIZE);
+	output  = new FrameReader(process.getInputStream(), BUFFER_SIZE);
+	drainErrors(command, process.getErrorStream());
+    }
+
+    /**
+     * Write the given frame of records with a single flush and block
+     * until the subprocess has replied to all of them.
+     */
+    public List<List<byte[]>> roundTrip(DataflowProtocol protocol, List<byte[]> records) throws IOException {
+	write(protocol, records);
+	return read(protocol, records.size());
+    }
+
+    /**
+     * Write the given frame of records with a single flush without
+     * waiting for a reply.
+     */
+    public void write(DataflowProtocol protocol, List<byte[]> records) throws IOException {
+	protocol.writeFrame(input, records);
+	input.flush();
+    }
+
+    /**
+     * Block until the subprocess has replied to the oldest frame
+     * written to it, which held <code>numRecords</code> records.
+     */
+    public List<List<byte[]>> read(DataflowProtocol protocol, int numRecords) throws IOException {
+	return protocol.readFrame(output, numRecords);
+    }
+
+    public void stop() {
+	if (process == null && child == null) { return; }
+	try {
+	    input.close();
+	} catch (IOException e) {
+	    LOG.debug("Error closing input to <" + command + ">", e);
+	}
+	if (child != null) {
+	    try {
+		child.socket.close();
+	    } catch (IOException e) {
+		LOG.debug("Error closing connection to <" + command + ">", e);
+	    }
+	    zygote.kill(child.pid);
+	    child = null;
+	} else {
+	    process.destroy();
+	    process = null;
+	}
+    }
+
+    public void restart() throws IOException {
+	stop();
+	start();
+    }
+
+    static void drainErrors(final String command, final InputStream errors) {
+	Thread drainer = new Thread("wukong-stderr") {
+		public void run() {
+		    BufferedReader reader = new BufferedReader(new InputStreamReader(errors));
+		    try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+			    LOG.warn(line);
+			}
+		    } catch (IOException e) {
+			LOG.debug("Stopped reading STDERR of <" + command + ">", e);
+		    }
+		}
+	    };
+	drainer.setDaemon(true);
+	drainer.start();
+    }
+    
+}
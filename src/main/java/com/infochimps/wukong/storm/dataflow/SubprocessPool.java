@@ -0,0 +1,118 @@
+package com.infochimps.wukong.storm.dataflow;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A fixed-size pool of PipelinedSubprocesses all running the same
+ * dataflow command.
+ *
+ * Each frame goes to a single subprocess, chosen either in turn
+ * (ROUND_ROBIN) or as the one with the fewest records in flight
+ * (LEAST_OUTSTANDING).  Dead subprocesses are relaunched the next
+ * time they're chosen, including those which didn't reply to a frame
+ * within <code>replyTimeout</code> milliseconds.
+ *
+ * With the ZYGOTE launch, subprocesses are forked from the worker's
+ * Zygote for the command instead of each booting the dataflow.
+ *
+ * A pool is used by a single Trident executor thread.
+ */
+public class SubprocessPool {
+
+    static Logger LOG = Logger.getLogger(SubprocessPool.class);
+
+    public static String ROUND_ROBIN       = "round_robin";
+    public static String LEAST_OUTSTANDING = "least_outstanding";
+
+    public static String EXEC   = "exec";
+    public static String ZYGOTE = "zygote";
+
+    private String           command;
+    private String           directory;
+    private String           environment;
+    private DataflowProtocol protocol;
+    private int              depth;
+    private int              replyTimeout;
+    private String           dispatch;
+    private String           launch;
+
+    private PipelinedSubprocess[] processes;
+    private int                   next;
+
+    public SubprocessPool(String command, String directory, String environment, DataflowProtocol protocol, int size, int depth, String dispatch, String launch, int replyTimeout) {
+	this.command      = command;
+	this.directory    = directory;
+	this.environment  = environment;
+	this.protocol     = protocol;
+	this.depth        = depth;
+	this.dispatch     = dispatch;
+	this.launch       = launch;
+	this.replyTimeout = replyTimeout;
+	this.processes    = new PipelinedSubprocess[Math.max(size, 1)];
+    }
+
+    public void start() throws IOException {
+	for (int i = 0; i < processes.length; i++) {
+	    processes[i] = launch();
+	}
+    }
+
+    public int size() {
+	return processes.length;
+    }
+
+    /**
+     * Send the given frame to one of the subprocesses in the pool.
+     */
+    public FrameReply submit(List<byte[]> records) throws IOException {
+	return submit(choose(), records);
+    }
+
+    /**
+     * Send the given frame to the subprocess with the given index,
+     * whatever the dispatch policy.
+     */
+    public FrameReply submit(int index, List<byte[]> records) throws IOException {
+	if (!processes[index].isAlive()) {
+	    LOG.warn("Relaunching dead dataflow subprocess " + index + " of " + processes.length);
+	    processes[index].stop();
+	    processes[index] = launch();
+	}
+	return processes[index].submit(records);
+    }
+
+    public void stop() {
+	for (PipelinedSubprocess process : processes) {
+	    if (process != null) { process.stop(); }
+	}
+    }
+
+    private int choose() {
+	if (LEAST_OUTSTANDING.equals(dispatch)) {
+	    int best = 0;
+	    for (int i = 1; i < processes.length; i++) {
+		if (processes[i].outstanding() < processes[best].outstanding()) { best = i; }
+	    }
+	    return best;
+	} else {
+	    next = (next + 1) % processes.length;
+	    return next;
+	}
+    }
+
+    private PipelinedSubprocess launch() throws IOException {
+	Subprocess subprocess;
+	if (ZYGOTE.equals(launch)) {
+	    subprocess = new Subprocess(command, Zygote.forDataflow(command, directory, environment));
+	} else {
+	    subprocess = new Subprocess(command, directory, environment);
+	}
+	PipelinedSubprocess process = new PipelinedSubprocess(subprocess, protocol, depth, replyTimeout);
+	process.start();
+	return process;
+    }
+    
+}
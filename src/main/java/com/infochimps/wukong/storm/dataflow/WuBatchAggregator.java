@@ -0,0 +1,327 @@
+package com.infochimps.wukong.storm.dataflow;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import backtype.storm.topology.FailedException;
+import backtype.storm.tuple.Values;
+
+import storm.trident.operation.BaseAggregator;
+import storm.trident.operation.TridentCollector;
+import storm.trident.operation.TridentOperationContext;
+import storm.trident.topology.TransactionAttempt;
+import storm.trident.tuple.TridentTuple;
+
+import com.infochimps.wukong.storm.metrics.LatencyHistogram;
+import com.infochimps.wukong.storm.metrics.Metrics;
+import com.infochimps.wukong.storm.metrics.StageMetrics;
+
+/**
+ * Runs a Wukong dataflow over whole frames of records rather than
+ * one record at a time.
+ *
+ * Records of a Trident batch are buffered and sent to a pool of
+ * subprocesses as frames, each time <code>batchSize</code> records
+ * have accumulated (if it is positive) and once the batch is
+ * complete.  A batch which is still a single frame when it completes
+ * is split evenly across the pool.  Frames are pipelined: the
+ * aggregator keeps reading tuples while earlier frames are being
+ * processed.
+ *
+ * Once the batch is complete, outputs are emitted in the order of
+ * the inputs which produced them, using the per-input output counts
+ * in each reply.
+ *
+ * If tuples carry a second field, it is the record's key (see
+ * PartitionKey) and each record goes to the subprocess its key
+ * hashes to rather than being dispatched by frame, so a subprocess
+ * sees every record with a given key.  Outputs are then emitted in
+ * input order only within each subprocess.
+ *
+ * Records may arrive as Strings or as raw byte[] payloads.  When
+ * <code>raw</code> is set outputs are emitted as the byte[] read
+ * from the subprocess, otherwise they are decoded into Strings.
+ *
+ * Subprocesses are either each launched from the command or forked
+ * from a Zygote shared by the worker (see SubprocessPool).
+ *
+ * Any error talking to a subprocess, or a subprocess which doesn't
+ * reply to a frame within the reply timeout (see withReplyTimeout),
+ * relaunches it and fails the batch so that Trident will replay it.
+ *
+ * Given a ReplayCache, the outputs of every record are cached, and
+ * records of a replayed batch which are found in the cache are
+ * emitted from it rather than sent through the dataflow again.
+ * Cached records are emitted in input order, as other records are.
+ *
+ * Reports the <code>wukong.NAME</code> metrics, where NAME is the
+ * dataflow name given for its stage, with the round-trip latency of
+ * each frame, and, with a cache, <code>wukong.NAME.cache</code>.
+ */
+public class WuBatchAggregator extends BaseAggregator<WuBatchAggregator.Frames> {
+
+    static Logger LOG = Logger.getLogger(WuBatchAggregator.class);
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * The frames of a single Trident batch: those already submitted
+     * to the pool and the one still being filled.
+     */
+    public static class Frames {
+	public List<byte[]>       current = new ArrayList<byte[]>();
+	public List<FrameReply>   replies = new ArrayList<FrameReply>();
+	public List<List<byte[]>> keyed;
+
+	// Set when replaying a batch with a cache: the records sent
+	// with each reply, and the cached outputs of records found in
+	// the cache since the last reply.
+	public List<List<byte[]>> sent;
+	public List<List<byte[]>> hits;
+    }
+
+    private String           dataflowName;
+    private String           command;
+    private String           directory;
+    private String           environment;
+    private int              batchSize;
+    private DataflowProtocol protocol;
+    private int              processes;
+    private int              pipelineDepth;
+    private String           dispatch;
+    private String           launch;
+    private int              replyTimeout;
+    private boolean          raw;
+    private String           cacheStorage;
+    private String           cacheDirectory;
+    private int              cacheSize;
+
+    private transient SubprocessPool     pool;
+    private transient StageMetrics       metrics;
+    private transient LatencyHistogram   latency;
+    private transient ReplayCache        cache;
+    private transient ReplayCache.Counts cacheCounts;
+    private transient MessageDigest      digest;
+
+    public WuBatchAggregator(String dataflowName, String command, String directory, String environment, int batchSize, DataflowProtocol protocol, int processes, int pipelineDepth, String dispatch, String launch, boolean raw) {
+	this.dataflowName  = dataflowName;
+	this.command       = command;
+	this.directory     = directory;
+	this.environment   = environment;
+	this.batchSize     = batchSize;
+	this.protocol      = protocol;
+	this.processes     = processes;
+	this.pipelineDepth = pipelineDepth;
+	this.dispatch      = dispatch;
+	this.launch        = launch;
+	this.raw           = raw;
+    }
+
+    /**
+     * Give up on a subprocess which takes longer than the given number
+     * of milliseconds to reply to a frame.  By default replies are
+     * waited for forever.
+     */
+    public WuBatchAggregator withReplyTimeout(int millis) {
+	this.replyTimeout = millis;
+	return this;
+    }
+
+    /**
+     * Cache the outputs of each record in this worker's ReplayCache
+     * for the dataflow.
+     *
+     * @param storage either ReplayCache.MEMORY or ReplayCache.FILE
+     */
+    public WuBatchAggregator withReplayCache(String storage, String directory, int size) {
+	this.cacheStorage   = storage;
+	this.cacheDirectory = directory;
+	this.cacheSize      = size;
+	return this;
+    }
+
+    @Override
+    public void prepare(Map conf, TridentOperationContext context) {
+	metrics = Metrics.stage(context, conf, dataflowName);
+	latency = Metrics.latency(context, conf, dataflowName, "latency");
+	pool    = new SubprocessPool(command, directory, environment, protocol, processes, pipelineDepth, dispatch, launch, replyTimeout);
+	if (cacheStorage != null) {
+	    cache       = ReplayCache.forDataflow(command, cacheStorage, cacheDirectory, cacheSize);
+	    cacheCounts = Metrics.register(context, conf, "wukong." + dataflowName + ".cache", cache.new Counts());
+	    digest      = ReplayCache.digest();
+	}
+	try {
+	    pool.start();
+	} catch (IOException e) {
+	    throw new RuntimeException("Could not launch dataflow <" + dataflowName + ">", e);
+	}
+    }
+
+    @Override
+    public Frames init(Object batchId, TridentCollector collector) {
+	Frames frames = new Frames();
+	if (cache != null) {
+	    frames.sent = new ArrayList<List<byte[]>>();
+	    if (batchId instanceof TransactionAttempt && ((TransactionAttempt) batchId).getAttemptId() > 0) {
+		frames.hits = new ArrayList<List<byte[]>>();
+	    }
+	}
+	return frames;
+    }
+
+    @Override
+    public void aggregate(Frames frames, TridentTuple tuple, TridentCollector collector) {
+	byte[] record = Records.bytes(tuple.getValue(0));
+	metrics.input(record.length);
+	boolean keyed = tuple.size() > 1 && pool.size() > 1;
+	int     index = keyed ? subprocess(tuple.getValue(1), pool.size()) : -1;
+	if (frames.hits != null && replayFromCache(frames, index, record)) { return; }
+	if (keyed) {
+	    aggregateKeyed(frames, index, record);
+	    return;
+	}
+	frames.current.add(record);
+	if (batchSize > 0 && frames.current.size() >= batchSize) {
+	    submit(frames, frames.current);
+	    frames.current = new ArrayList<byte[]>();
+	}
+    }
+
+    // Trident's fields grouping only sends this executor the keys whose
+    // hashes fall into one residue class modulo the number of tasks.
+    // Taking those same hashes modulo the number of subprocesses would
+    // send them all to a few subprocesses whenever the two counts share
+    // a factor, so the hash is first scrambled with murmur3's finalizer,
+    // which leaves no such correlation.
+    static int subprocess(Object key, int subprocesses) {
+	int h = key.hashCode();
+	h ^= h >>> 16;
+	h *= 0x85ebca6b;
+	h ^= h >>> 13;
+	h *= 0xc2b2ae35;
+	h ^= h >>> 16;
+	return (h & Integer.MAX_VALUE) % subprocesses;
+    }
+
+    private void aggregateKeyed(Frames frames, int index, byte[] record) {
+	if (frames.keyed == null) {
+	    frames.keyed = new ArrayList<List<byte[]>>(pool.size());
+	    for (int i = 0; i < pool.size(); i++) { frames.keyed.add(new ArrayList<byte[]>()); }
+	}
+	List<byte[]> frame = frames.keyed.get(index);
+	frame.add(record);
+	if (batchSize > 0 && frame.size() >= batchSize) {
+	    submit(frames, index, frame);
+	    frames.keyed.set(index, new ArrayList<byte[]>());
+	}
+    }
+
+    // Records found in the cache are held until the next record which
+    // isn't, and records waiting to be sent to the same subprocess are
+    // sent first, so outputs stay in input order.
+    private boolean replayFromCache(Frames frames, int index, byte[] record) {
+	List<byte[]> outputs = cache.get(ReplayCache.key(digest, record));
+	if (outputs == null) {
+	    cacheCounts.miss();
+	    flushHits(frames);
+	    return false;
+	}
+	cacheCounts.hit();
+	if (index < 0) {
+	    submit(frames, frames.current);
+	    frames.current = new ArrayList<byte[]>();
+	} else if (frames.keyed != null) {
+	    submit(frames, index, frames.keyed.get(index));
+	    frames.keyed.set(index, new ArrayList<byte[]>());
+	}
+	frames.hits.add(outputs);
+	return true;
+    }
+
+    private void flushHits(Frames frames) {
+	if (frames.hits == null || frames.hits.isEmpty()) { return; }
+	FrameReply reply = new FrameReply(frames.hits.size());
+	reply.succeed(frames.hits);
+	frames.replies.add(reply);
+	frames.sent.add(null);
+	frames.hits = new ArrayList<List<byte[]>>();
+    }
+
+    @Override
+    public void complete(Frames frames, TridentCollector collector) {
+	if (frames.keyed != null) {
+	    for (int i = 0; i < frames.keyed.size(); i++) {
+		submit(frames, i, frames.keyed.get(i));
+	    }
+	}
+	if (frames.replies.isEmpty() && pool.size() > 1) {
+	    int chunk = (frames.current.size() + pool.size() - 1) / pool.size();
+	    for (int start = 0; start < frames.current.size(); start += chunk) {
+		submit(frames, frames.current.subList(start, Math.min(start + chunk, frames.current.size())));
+	    }
+	} else {
+	    submit(frames, frames.current);
+	}
+	flushHits(frames);
+	for (int i = 0; i < frames.replies.size(); i++) {
+	    List<byte[]>       sent    = (frames.sent == null) ? null : frames.sent.get(i);
+	    boolean            cached  = (frames.sent != null && sent == null);
+	    List<List<byte[]>> outputs = emit(frames.replies.get(i), collector, !cached);
+	    if (sent != null) { cacheOutputs(sent, outputs); }
+	}
+    }
+
+    private void cacheOutputs(List<byte[]> records, List<List<byte[]>> outputs) {
+	for (int i = 0; i < records.size(); i++) {
+	    cache.put(ReplayCache.key(digest, records.get(i)), outputs.get(i));
+	}
+    }
+
+    @Override
+    public void cleanup() {
+	if (pool != null) { pool.stop(); }
+    }
+
+    private void submit(Frames frames, List<byte[]> frame) {
+	submit(frames, -1, frame);
+    }
+
+    // An index of -1 lets the pool choose the subprocess.
+    private void submit(Frames frames, int index, List<byte[]> frame) {
+	if (frame.isEmpty()) { return; }
+	try {
+	    frames.replies.add(index < 0 ? pool.submit(frame) : pool.submit(index, frame));
+	    if (frames.sent != null) { frames.sent.add(frame); }
+	} catch (IOException e) {
+	    LOG.error("Could not send " + frame.size() + " records to dataflow <" + dataflowName + ">", e);
+	    throw new FailedException(e);
+	}
+    }
+
+    // Replies from the cache didn't go through the dataflow, so their
+    // latency isn't recorded.
+    private List<List<byte[]>> emit(FrameReply reply, TridentCollector collector, boolean timed) {
+	List<List<byte[]>> outputs;
+	try {
+	    outputs = reply.get();
+	} catch (IOException e) {
+	    LOG.error("Lost dataflow <" + dataflowName + "> while processing " + reply.numRecords() + " records", e);
+	    throw new FailedException(e);
+	}
+	if (timed) { latency.record(reply.latencyNanos()); }
+	for (List<byte[]> recordOutputs : outputs) {
+	    for (byte[] record : recordOutputs) {
+		metrics.output(record.length);
+		collector.emit(new Values(raw ? record : new String(record, UTF8)));
+	    }
+	}
+	return outputs;
+    }
+    
+}
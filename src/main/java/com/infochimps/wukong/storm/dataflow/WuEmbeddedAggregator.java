@@ -0,0 +1,123 @@
+package com.infochimps.wukong.storm.dataflow;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import backtype.storm.topology.FailedException;
+import backtype.storm.tuple.Values;
+
+import storm.trident.operation.BaseAggregator;
+import storm.trident.operation.TridentCollector;
+import storm.trident.operation.TridentOperationContext;
+import storm.trident.tuple.TridentTuple;
+
+import com.infochimps.wukong.storm.metrics.LatencyHistogram;
+import com.infochimps.wukong.storm.metrics.Metrics;
+import com.infochimps.wukong.storm.metrics.StageMetrics;
+
+/**
+ * Runs a Wukong dataflow inside the worker JVM using a pool of
+ * embedded Ruby runtimes.
+ *
+ * Records are framed just as by WuBatchAggregator but each frame is
+ * handed to a runtime borrowed from the worker's
+ * EmbeddedRuntimePool as a list of Strings: nothing is written to or
+ * read from a pipe.  Raw byte[] records are decoded into Strings on
+ * the way in.
+ *
+ * Any error raised by a runtime discards it and fails the batch so
+ * that Trident will replay it.
+ *
+ * Reports the <code>wukong.NAME</code> metrics, where NAME is the
+ * dataflow name given for its stage, with the latency of each frame.
+ */
+public class WuEmbeddedAggregator extends BaseAggregator<List<String>> {
+
+    static Logger LOG = Logger.getLogger(WuEmbeddedAggregator.class);
+
+    private String dataflowName;
+    private String command;
+    private String directory;
+    private String environment;
+    private int    batchSize;
+    private int    runtimes;
+
+    private transient EmbeddedRuntimePool pool;
+    private transient StageMetrics        metrics;
+    private transient LatencyHistogram    latency;
+
+    public WuEmbeddedAggregator(String dataflowName, String command, String directory, String environment, int batchSize, int runtimes) {
+	this.dataflowName = dataflowName;
+	this.command      = command;
+	this.directory    = directory;
+	this.environment  = environment;
+	this.batchSize    = batchSize;
+	this.runtimes     = runtimes;
+    }
+
+    @Override
+    public void prepare(Map conf, TridentOperationContext context) {
+	metrics = Metrics.stage(context, conf, dataflowName);
+	latency = Metrics.latency(context, conf, dataflowName, "latency");
+	pool    = EmbeddedRuntimePool.forDataflow(command, directory, environment, runtimes);
+	// Boot a runtime now rather than during the first batch.
+	try {
+	    pool.release(pool.borrow());
+	} catch (IOException e) {
+	    throw new RuntimeException("Could not load dataflow <" + dataflowName + ">", e);
+	}
+    }
+
+    @Override
+    public List<String> init(Object batchId, TridentCollector collector) {
+	return new ArrayList<String>();
+    }
+
+    @Override
+    public void aggregate(List<String> frame, TridentTuple tuple, TridentCollector collector) {
+	String record = Records.string(tuple.getValue(0));
+	metrics.input(Metrics.utf8Length(record));
+	frame.add(record);
+	if (batchSize > 0 && frame.size() >= batchSize) {
+	    flush(frame, collector);
+	}
+    }
+
+    @Override
+    public void complete(List<String> frame, TridentCollector collector) {
+	flush(frame, collector);
+    }
+
+    private void flush(List<String> frame, TridentCollector collector) {
+	if (frame.isEmpty()) { return; }
+	List<List<String>> outputs;
+	EmbeddedRuntime    runtime;
+	try {
+	    runtime = pool.borrow();
+	} catch (IOException e) {
+	    throw new FailedException(e);
+	}
+	long start = System.nanoTime();
+	try {
+	    outputs = runtime.process(frame);
+	} catch (RuntimeException e) {
+	    LOG.error("Embedded dataflow <" + dataflowName + "> failed while processing " + frame.size() + " records", e);
+	    pool.discard(runtime);
+	    throw new FailedException(e);
+	}
+	pool.release(runtime);
+	latency.recordSince(start);
+	for (List<String> recordOutputs : outputs) {
+	    for (String record : recordOutputs) {
+		metrics.output(Metrics.utf8Length(record));
+		collector.emit(new Values(record));
+	    }
+	}
+	frame.clear();
+    }
+    
+}
@@ -0,0 +1,258 @@
+package com.infochimps.wukong.storm.dataflow;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.Charset;
+import java.security.SecureRandom;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A `wu-bolt --zygote` process shared by every executor of a
+ * dataflow within a single worker.
+ *
+ * The zygote boots Ruby and loads Wukong and the dataflow once, then
+ * forks a child for each subprocess the worker needs.  A child starts
+ * with the dataflow already loaded, so launching or relaunching a
+ * subprocess takes milliseconds rather than the seconds it takes to
+ * boot Ruby.
+ *
+ * The zygote is driven over its STDIN and STDOUT, one line at a time:
+ *
+ * <ul>
+ *   <li><code>fork PORT TOKEN</code> -- fork a child which connects to PORT on the loopback interface, writes TOKEN and a newline, and then speaks the usual wu-bolt protocol over the connection.  The zygote replies with the child's PID</li>
+ *   <li><code>kill PID</code> -- terminate the given child.  There is no reply</li>
+ * </ul>
+ *
+ * Any local process could connect to the port, so a connection is
+ * only taken to be the child's once it has presented the random
+ * token the fork was requested with.  The zygote must reply within
+ * REPLY_TIMEOUT, which also bounds how long it may take to boot, and
+ * the child must connect within ACCEPT_TIMEOUT.  A zygote which
+ * doesn't reply in time is destroyed.
+ *
+ * The zygote is launched by the first fork and relaunched by the
+ * next fork if it has died.  It exits when its STDIN is closed,
+ * e.g. - when the worker dies, and its children exit when their
+ * connections are closed.  The STDERR of the zygote and all its
+ * children is drained into the worker's log.
+ */
+public class Zygote {
+
+    static Logger LOG = Logger.getLogger(Zygote.class);
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    public static int REPLY_TIMEOUT  = 60000;
+    public static int ACCEPT_TIMEOUT = 30000;
+
+    // Stands in for the end of the zygote's STDOUT among its replies.
+    private static final String EXITED = new String("exited");
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private static Map<String, Zygote> ZYGOTES = new HashMap<String, Zygote>();
+
+    /**
+     * Return this worker's zygote for the given dataflow, creating it
+     * if necessary.
+     */
+    public static synchronized Zygote forDataflow(String command, String directory, String environment) {
+	String key = command + "\t" + directory + "\t" + environment;
+	Zygote zygote = ZYGOTES.get(key);
+	if (zygote == null) {
+	    zygote = new Zygote(command, directory, environment);
+	    ZYGOTES.put(key, zygote);
+	}
+	return zygote;
+    }
+
+    private String command;
+    private String directory;
+    private String environment;
+
+    private Process                     process;
+    private Writer                      requests;
+    private LinkedBlockingQueue<String> replies;
+
+    private Zygote(String command, String directory, String environment) {
+	this.command     = command + " --zygote";
+	this.directory   = directory;
+	this.environment = environment;
+    }
+
+    /**
+     * A child forked by the zygote and its connection.
+     */
+    public static class Child {
+	public final int    pid;
+	public final Socket socket;
+
+	public Child(int pid, Socket socket) {
+	    this.pid    = pid;
+	    this.socket = socket;
+	}
+    }
+
+    /**
+     * Fork a new child and wait for it to connect.
+     *
+     * The first fork waits for the zygote to boot.
+     */
+    public synchronized Child fork() throws IOException {
+	if (!isAlive()) { start(); }
+	ServerSocket server = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+	try {
+	    String token = Long.toHexString(RANDOM.nextLong());
+	    request("fork " + server.getLocalPort() + " " + token);
+	    int pid = Integer.parseInt(reply().trim());
+	    try {
+		return new Child(pid, accept(server, token));
+	    } catch (SocketTimeoutException e) {
+		kill(pid);
+		throw new IOException("Child " + pid + " of zygote <" + command + "> did not connect within " + ACCEPT_TIMEOUT + " ms", e);
+	    }
+	} catch (NumberFormatException e) {
+	    throw new IOException("Zygote <" + command + "> did not reply with a PID", e);
+	} finally {
+	    server.close();
+	}
+    }
+
+    /**
+     * Terminate the given child.  Errors are only logged since the
+     * child will exit anyway once its connection is closed.
+     */
+    public synchronized void kill(int pid) {
+	if (!isAlive()) { return; }
+	try {
+	    request("kill " + pid);
+	} catch (IOException e) {
+	    LOG.debug("Could not ask zygote <" + command + "> to kill child " + pid, e);
+	}
+    }
+
+    private String reply() throws IOException {
+	String reply;
+	try {
+	    reply = replies.poll(REPLY_TIMEOUT, TimeUnit.MILLISECONDS);
+	} catch (InterruptedException e) {
+	    Thread.currentThread().interrupt();
+	    throw new IOException("Interrupted waiting for zygote <" + command + "> to reply", e);
+	}
+	if (reply == null) {
+	    process.destroy();
+	    process = null;
+	    throw new IOException("Zygote <" + command + "> did not reply within " + REPLY_TIMEOUT + " ms");
+	}
+	if (reply == EXITED) {
+	    throw new IOException("Zygote <" + command + "> exited");
+	}
+	return reply;
+    }
+
+    // Accepts connections until one presents the token, all within
+    // ACCEPT_TIMEOUT.
+    private Socket accept(ServerSocket server, String token) throws IOException {
+	long deadline = System.currentTimeMillis() + ACCEPT_TIMEOUT;
+	while (true) {
+	    int remaining = (int) (deadline - System.currentTimeMillis());
+	    if (remaining <= 0) { throw new SocketTimeoutException(); }
+	    server.setSoTimeout(remaining);
+	    Socket socket = server.accept();
+	    try {
+		socket.setSoTimeout(remaining);
+		if (token.equals(readLine(socket.getInputStream()))) {
+		    socket.setSoTimeout(0);
+		    socket.setTcpNoDelay(true);
+		    return socket;
+		}
+		LOG.warn("Rejecting a connection to zygote <" + command + "> from " + socket.getRemoteSocketAddress() + " which did not present its token");
+	    } catch (SocketTimeoutException e) {
+		LOG.warn("Rejecting a connection to zygote <" + command + "> from " + socket.getRemoteSocketAddress() + " which did not present its token in time");
+	    }
+	    socket.close();
+	}
+    }
+
+    // Reads a byte at a time so nothing after the line is buffered
+    // away from the wu-bolt protocol which follows it.
+    private static String readLine(InputStream in) throws IOException {
+	StringBuilder line = new StringBuilder();
+	int c;
+	while ((c = in.read()) >= 0 && c != '\n') {
+	    if (line.length() >= 64) { return null; }
+	    line.append((char) c);
+	}
+	return line.toString();
+    }
+
+    private void start() throws IOException {
+	if (process != null) {
+	    LOG.warn("Relaunching dead zygote <" + command + ">");
+	    process.destroy();
+	}
+	ProcessBuilder builder = new ProcessBuilder("/bin/sh", "-c", command);
+	builder.directory(new File(directory));
+	if (environment != null) {
+	    builder.environment().put("WUKONG_ENV", environment);
+	}
+	LOG.info("Launching zygote <" + command + "> in " + directory);
+	process  = builder.start();
+	requests = new OutputStreamWriter(process.getOutputStream(), UTF8);
+	replies  = new LinkedBlockingQueue<String>();
+	readReplies(process.getInputStream(), replies);
+	Subprocess.drainErrors(command, process.getErrorStream());
+    }
+
+    // Replies are read on their own thread so that fork() can give up
+    // on a zygote which never replies.
+    private void readReplies(final InputStream stdout, final LinkedBlockingQueue<String> replies) {
+	Thread reader = new Thread("wukong-zygote") {
+		public void run() {
+		    BufferedReader reader = new BufferedReader(new InputStreamReader(stdout, UTF8));
+		    try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+			    replies.add(line);
+			}
+		    } catch (IOException e) {
+			LOG.debug("Stopped reading replies from zygote <" + command + ">", e);
+		    } finally {
+			replies.add(EXITED);
+		    }
+		}
+	    };
+	reader.setDaemon(true);
+	reader.start();
+    }
+
+    private void request(String line) throws IOException {
+	requests.write(line + "\n");
+	requests.flush();
+    }
+
+    private boolean isAlive() {
+	if (process == null) { return false; }
+	try {
+	    process.exitValue();
+	    return false;
+	} catch (IllegalThreadStateException e) {
+	    return true;
+	}
+    }
+
+}
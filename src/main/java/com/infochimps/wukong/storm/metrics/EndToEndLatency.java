@@ -0,0 +1,52 @@
+package com.infochimps.wukong.storm.metrics;
+
+import java.util.Map;
+
+import storm.trident.operation.BaseFilter;
+import storm.trident.operation.TridentOperationContext;
+import storm.trident.tuple.TridentTuple;
+
+import com.infochimps.wukong.storm.partition.KeyExtractor;
+
+/**
+ * Measures how long records took to get through the topology, from
+ * the time the spout stamped on them when it emitted them to when
+ * they reach the state, as <code>wukong.state.end_to_end</code>.
+ *
+ * The stamp, in milliseconds since the epoch, is pulled out of each
+ * record by a KeyExtractor, so it can be anywhere the dataflow leaves
+ * it.  Records without a stamp aren't measured.  Since stamps come
+ * from the spout's clock, latencies are only as good as the
+ * agreement between the clocks of the workers.
+ *
+ * Every record passes through.
+ */
+public class EndToEndLatency extends BaseFilter {
+
+    private KeyExtractor extractor;
+
+    private transient LatencyHistogram latency;
+
+    public EndToEndLatency(KeyExtractor extractor) {
+	this.extractor = extractor;
+    }
+
+    @Override
+    public void prepare(Map conf, TridentOperationContext context) {
+	latency = Metrics.latency(context, conf, "state", "end_to_end");
+    }
+
+    @Override
+    public boolean isKeep(TridentTuple tuple) {
+	String stamp = extractor.key(tuple.getValue(0));
+	if (stamp != null) {
+	    try {
+		latency.record(Math.max(0, System.currentTimeMillis() - Long.parseLong(stamp.trim())) * 1000000L);
+	    } catch (NumberFormatException e) {
+		// Not a stamp, so not measured.
+	    }
+	}
+	return true;
+    }
+
+}
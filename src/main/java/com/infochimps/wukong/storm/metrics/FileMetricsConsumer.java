@@ -0,0 +1,68 @@
+package com.infochimps.wukong.storm.metrics;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Collection;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import backtype.storm.metric.api.IMetricsConsumer;
+import backtype.storm.task.IErrorReporter;
+import backtype.storm.task.TopologyContext;
+
+/**
+ * A metrics consumer which appends each data point as a line to a
+ * file on the local disk of the worker running it.
+ *
+ * The registration argument is the path of the file, to which the
+ * task ID of the consumer is appended so that several consumers in
+ * the same topology don't collide.  Each line holds, separated by
+ * tabs, the timestamp (in seconds), the host and port of the worker
+ * which reported it, the component and task, the name of the metric,
+ * and its value.
+ */
+public class FileMetricsConsumer implements IMetricsConsumer {
+
+    static Logger LOG = Logger.getLogger(FileMetricsConsumer.class);
+
+    private Writer out;
+
+    @Override
+    public void prepare(Map stormConf, Object registrationArgument, TopologyContext context, IErrorReporter errorReporter) {
+	File file = new File(registrationArgument + "." + context.getThisTaskId());
+	try {
+	    if (file.getParentFile() != null) { file.getParentFile().mkdirs(); }
+	    out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), "UTF-8"));
+	} catch (IOException e) {
+	    throw new RuntimeException("Could not open metrics file " + file, e);
+	}
+	LOG.info("Writing metrics to " + file);
+    }
+
+    @Override
+    public void handleDataPoints(TaskInfo taskInfo, Collection<DataPoint> dataPoints) {
+	try {
+	    for (DataPoint dataPoint : dataPoints) {
+		out.write(taskInfo.timestamp + "\t" + taskInfo.srcWorkerHost + ":" + taskInfo.srcWorkerPort + "\t" + taskInfo.srcComponentId + "\t" + taskInfo.srcTaskId + "\t" + dataPoint.name + "\t" + dataPoint.value + "\n");
+	    }
+	    out.flush();
+	} catch (IOException e) {
+	    LOG.error("Could not write " + dataPoints.size() + " metrics", e);
+	}
+    }
+
+    @Override
+    public void cleanup() {
+	try {
+	    out.close();
+	} catch (IOException e) {
+	    LOG.error("Could not close metrics file", e);
+	}
+    }
+
+}
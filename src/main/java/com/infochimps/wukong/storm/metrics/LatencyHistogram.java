@@ -0,0 +1,105 @@
+package com.infochimps.wukong.storm.metrics;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import backtype.storm.metric.api.IMetric;
+
+/**
+ * A histogram of latencies with buckets whose bounds are powers of
+ * two in microseconds.
+ *
+ * Reported as a map of the <code>count</code> of latencies recorded
+ * along with their <code>mean_ms</code>, <code>max_ms</code>, and
+ * <code>p50_ms</code>, <code>p95_ms</code>, and
+ * <code>p99_ms</code>.  Percentiles are the upper bound of the bucket
+ * they fall in, so they are accurate to within a factor of two.
+ *
+ * Latencies may be recorded from any thread.
+ */
+public class LatencyHistogram implements IMetric {
+
+    private static final int BUCKETS = 40;
+
+    private long[] buckets = new long[BUCKETS];
+    private long   count;
+    private long   totalNanos;
+    private long   maxNanos;
+
+    private LatencyHistogram total;
+
+    public LatencyHistogram() {
+    }
+
+    /**
+     * Also record every latency into the given total, which reporting
+     * never resets (see LocalSummary).
+     */
+    public LatencyHistogram(LatencyHistogram total) {
+	this.total = total;
+    }
+
+    public void record(long nanos) {
+	recordOne(nanos);
+	if (total != null) { total.recordOne(nanos); }
+    }
+
+    private synchronized void recordOne(long nanos) {
+	long micros = nanos / 1000;
+	int  bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+	buckets[bucket] += 1;
+	count           += 1;
+	totalNanos      += nanos;
+	maxNanos         = Math.max(maxNanos, nanos);
+    }
+
+    /**
+     * Record the time since the given start, as from
+     * System.nanoTime().
+     */
+    public void recordSince(long startNanos) {
+	record(System.nanoTime() - startNanos);
+    }
+
+    public synchronized void add(LatencyHistogram other) {
+	synchronized (other) {
+	    for (int bucket = 0; bucket < BUCKETS; bucket++) {
+		buckets[bucket] += other.buckets[bucket];
+	    }
+	    count      += other.count;
+	    totalNanos += other.totalNanos;
+	    maxNanos    = Math.max(maxNanos, other.maxNanos);
+	}
+    }
+
+    @Override
+    public synchronized Object getValueAndReset() {
+	Map<String, Object> value = new HashMap<String, Object>();
+	value.put("count", count);
+	if (count > 0) {
+	    value.put("mean_ms", totalNanos / 1e6 / count);
+	    value.put("max_ms",  maxNanos / 1e6);
+	    value.put("p50_ms",  percentile(0.50));
+	    value.put("p95_ms",  percentile(0.95));
+	    value.put("p99_ms",  percentile(0.99));
+	}
+	buckets    = new long[BUCKETS];
+	count      = 0;
+	totalNanos = 0;
+	maxNanos   = 0;
+	return value;
+    }
+
+    private double percentile(double p) {
+	long rank = (long) Math.ceil(p * count);
+	long seen = 0;
+	for (int bucket = 0; bucket < BUCKETS; bucket++) {
+	    seen += buckets[bucket];
+	    if (seen >= rank) {
+		return Math.min((1L << bucket) / 1e3, maxNanos / 1e6);
+	    }
+	}
+	return maxNanos / 1e6;
+    }
+
+}
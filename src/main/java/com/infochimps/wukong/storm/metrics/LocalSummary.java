@@ -0,0 +1,118 @@
+package com.infochimps.wukong.storm.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Totals every stage's metrics over a whole run of a topology in a
+ * LocalCluster, so the run can be summarized once it's over.
+ *
+ * Once enabled, every StageMetrics and LatencyHistogram handed out by
+ * Metrics also counts into a total of its own which is never reset
+ * by reporting.  The totals of all the tasks of a stage are added up
+ * when summarizing.
+ *
+ * Batch latency is the time from the first emit of a transaction by
+ * any spout task to the first commit of it by any state partition.
+ *
+ * Everything is static since a LocalCluster runs every task of the
+ * topology in this JVM.
+ */
+public class LocalSummary {
+
+    private static volatile boolean enabled;
+
+    private static final Map<String, List<StageMetrics>>     stages    = new TreeMap<String, List<StageMetrics>>();
+    private static final Map<String, List<LatencyHistogram>> latencies = new TreeMap<String, List<LatencyHistogram>>();
+
+    private static final ConcurrentHashMap<Long, Long> emitted   = new ConcurrentHashMap<Long, Long>();
+    private static final LatencyHistogram              batches   = new LatencyHistogram();
+    private static final AtomicLong                    firstEmit = new AtomicLong();
+
+    public static void enable() {
+	enabled = true;
+    }
+
+    public static boolean isEnabled() {
+	return enabled;
+    }
+
+    public static synchronized StageMetrics stage(String name) {
+	StageMetrics total = new StageMetrics();
+	if (!stages.containsKey(name)) { stages.put(name, new ArrayList<StageMetrics>()); }
+	stages.get(name).add(total);
+	return total;
+    }
+
+    public static synchronized LatencyHistogram latency(String name) {
+	LatencyHistogram total = new LatencyHistogram();
+	if (!latencies.containsKey(name)) { latencies.put(name, new ArrayList<LatencyHistogram>()); }
+	latencies.get(name).add(total);
+	return total;
+    }
+
+    /**
+     * Called by spouts as they emit each transaction.
+     */
+    public static void emitted(Long txid) {
+	if (!enabled || txid == null) { return; }
+	long now = System.nanoTime();
+	firstEmit.compareAndSet(0, now);
+	emitted.putIfAbsent(txid, now);
+    }
+
+    /**
+     * Called by states as they commit each transaction.
+     */
+    public static void committed(Long txid) {
+	if (!enabled || txid == null) { return; }
+	Long start = emitted.remove(txid);
+	if (start != null) { batches.recordSince(start); }
+    }
+
+    /**
+     * @return System.nanoTime() when the first transaction was emitted, 0 if none has been
+     */
+    public static long firstEmitNanos() {
+	return firstEmit.get();
+    }
+
+    /**
+     * The number of records into the named stage so far.  Tasks'
+     * totals are read without synchronizing with them, so while the
+     * topology runs this may lag a little behind.
+     */
+    public static synchronized long records(String name) {
+	long records = 0;
+	if (stages.containsKey(name)) {
+	    for (StageMetrics total : stages.get(name)) { records += total.recordsIn(); }
+	}
+	return records;
+    }
+
+    /**
+     * Lines summarizing the run: throughput, batch latency, and the
+     * totals of every stage.
+     */
+    public static synchronized List<String> report(long records, double seconds) {
+	List<String> lines = new ArrayList<String>();
+	lines.add(String.format("%d records in %.1f sec (%.1f records/sec)", records, seconds, (seconds > 0 ? records / seconds : 0.0)));
+	lines.add("batch latency " + batches.getValueAndReset());
+	for (Map.Entry<String, List<StageMetrics>> stage : stages.entrySet()) {
+	    StageMetrics sum = new StageMetrics();
+	    for (StageMetrics total : stage.getValue()) { sum.add(total); }
+	    lines.add(stage.getKey() + " " + sum.getValueAndReset());
+	}
+	for (Map.Entry<String, List<LatencyHistogram>> latency : latencies.entrySet()) {
+	    LatencyHistogram sum = new LatencyHistogram();
+	    for (LatencyHistogram total : latency.getValue()) { sum.add(total); }
+	    lines.add(latency.getKey() + " " + sum.getValueAndReset());
+	}
+	return lines;
+    }
+
+}
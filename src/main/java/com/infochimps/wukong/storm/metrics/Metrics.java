@@ -0,0 +1,71 @@
+package com.infochimps.wukong.storm.metrics;
+
+import java.util.Map;
+
+import backtype.storm.Config;
+import backtype.storm.metric.api.IMetric;
+import backtype.storm.task.IMetricsContext;
+
+/**
+ * Registers the metrics each stage of a Wukong topology reports.
+ *
+ * Every stage registers a StageMetrics named
+ * <code>wukong.STAGE</code> and may register LatencyHistograms named
+ * <code>wukong.STAGE.WHAT</code>.  They are reported every
+ * <code>topology.builtin.metrics.bucket.size.secs</code> seconds,
+ * along with Storm's own metrics, to whichever metrics consumers are
+ * registered with the topology.
+ *
+ * When running in a LocalCluster, every metric also counts into a
+ * total kept by LocalSummary.
+ *
+ * Stages which are prepared without a metrics context (e.g. - when
+ * benchmarked) get metrics which are never reported.
+ */
+public class Metrics {
+
+    public static int DEFAULT_BUCKET_SIZE = 60;
+
+    public static StageMetrics stage(IMetricsContext context, Map conf, String stage) {
+	String name = "wukong." + stage;
+	return register(context, conf, name, LocalSummary.isEnabled() ? new StageMetrics(LocalSummary.stage(name)) : new StageMetrics());
+    }
+
+    public static LatencyHistogram latency(IMetricsContext context, Map conf, String stage, String what) {
+	String name = "wukong." + stage + "." + what;
+	return register(context, conf, name, LocalSummary.isEnabled() ? new LatencyHistogram(LocalSummary.latency(name)) : new LatencyHistogram());
+    }
+
+    public static int bucketSize(Map conf) {
+	Object size = (conf == null) ? null : conf.get(Config.TOPOLOGY_BUILTIN_METRICS_BUCKET_SIZE_SECS);
+	return (size == null) ? DEFAULT_BUCKET_SIZE : ((Number) size).intValue();
+    }
+
+    /**
+     * The number of bytes in the UTF-8 encoding of the string,
+     * without encoding it.
+     */
+    public static long utf8Length(String s) {
+	long length = 0;
+	for (int i = 0; i < s.length(); i++) {
+	    char c = s.charAt(i);
+	    if (c < 0x80) {
+		length += 1;
+	    } else if (c < 0x800) {
+		length += 2;
+	    } else if (Character.isHighSurrogate(c)) {
+		length += 4;
+		i++;
+	    } else {
+		length += 3;
+	    }
+	}
+	return length;
+    }
+
+    public static <T extends IMetric> T register(IMetricsContext context, Map conf, String name, T metric) {
+	if (context == null) { return metric; }
+	return context.registerMetric(name, metric, bucketSize(conf));
+    }
+
+}
@@ -0,0 +1,86 @@
+package com.infochimps.wukong.storm.metrics;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import backtype.storm.metric.api.IMetric;
+
+/**
+ * Counts the records and bytes into and out of a stage of the
+ * topology.
+ *
+ * Reported as a map of <code>records_in</code>,
+ * <code>bytes_in</code>, <code>records_out</code>,
+ * <code>bytes_out</code>, and, if any records came in,
+ * <code>outputs_per_input</code>.
+ *
+ * Not thread-safe: Storm reports metrics on the same executor thread
+ * which runs the stage.
+ */
+public class StageMetrics implements IMetric {
+
+    private long recordsIn;
+    private long bytesIn;
+    private long recordsOut;
+    private long bytesOut;
+
+    private StageMetrics total;
+
+    public StageMetrics() {
+    }
+
+    /**
+     * Also count everything into the given total, which reporting
+     * never resets (see LocalSummary).
+     */
+    public StageMetrics(StageMetrics total) {
+	this.total = total;
+    }
+
+    public void input(long bytes) {
+	recordsIn += 1;
+	bytesIn   += bytes;
+	if (total != null) { total.input(bytes); }
+    }
+
+    public void output(long bytes) {
+	recordsOut += 1;
+	bytesOut   += bytes;
+	if (total != null) { total.output(bytes); }
+    }
+
+    public void outputs(long records, long bytes) {
+	recordsOut += records;
+	bytesOut   += bytes;
+	if (total != null) { total.outputs(records, bytes); }
+    }
+
+    public long recordsIn() {
+	return recordsIn;
+    }
+
+    public void add(StageMetrics other) {
+	recordsIn  += other.recordsIn;
+	bytesIn    += other.bytesIn;
+	recordsOut += other.recordsOut;
+	bytesOut   += other.bytesOut;
+    }
+
+    @Override
+    public Object getValueAndReset() {
+	Map<String, Object> value = new HashMap<String, Object>();
+	value.put("records_in",  recordsIn);
+	value.put("bytes_in",    bytesIn);
+	value.put("records_out", recordsOut);
+	value.put("bytes_out",   bytesOut);
+	if (recordsIn > 0) {
+	    value.put("outputs_per_input", (double) recordsOut / recordsIn);
+	}
+	recordsIn  = 0;
+	bytesIn    = 0;
+	recordsOut = 0;
+	bytesOut   = 0;
+	return value;
+    }
+
+}
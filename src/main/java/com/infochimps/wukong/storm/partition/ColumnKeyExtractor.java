@@ -0,0 +1,49 @@
+package com.infochimps.wukong.storm.partition;
+
+import java.nio.charset.Charset;
+
+/**
+ * Keys each record by one of its tab-separated columns, numbered from
+ * 1 as by <code>cut -f</code>.
+ *
+ * Raw byte[] records are scanned for tabs without decoding them, only
+ * the key itself is decoded.
+ */
+public class ColumnKeyExtractor implements KeyExtractor {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final char TAB = '\t';
+
+    private int column;
+
+    public ColumnKeyExtractor(int column) {
+	this.column = column;
+    }
+
+    @Override
+    public String key(Object record) {
+	if (record instanceof byte[]) { return key((byte[]) record); }
+	String str   = record.toString();
+	int    start = 0;
+	for (int i = 1; i < column; i++) {
+	    start = str.indexOf(TAB, start) + 1;
+	    if (start == 0) { return null; }
+	}
+	int end = str.indexOf(TAB, start);
+	return str.substring(start, (end == -1) ? str.length() : end);
+    }
+
+    private String key(byte[] record) {
+	int start = 0;
+	for (int i = 1; i < column; i++) {
+	    while (start < record.length && record[start] != TAB) { start++; }
+	    if (start == record.length) { return null; }
+	    start++;
+	}
+	int end = start;
+	while (end < record.length && record[end] != TAB) { end++; }
+	return new String(record, start, end - start, UTF8);
+    }
+
+}
@@ -0,0 +1,67 @@
+package com.infochimps.wukong.storm.partition;
+
+import java.io.IOException;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * Keys each record, a JSON object, by one of its fields.
+ *
+ * The field is named by a dot-separated path, so
+ * <code>user.id</code> is the <code>id</code> field of the object in
+ * the record's <code>user</code> field.  The field must hold a
+ * scalar: a string, number, or boolean.
+ *
+ * Records are read with Jackson's streaming parser, which stops as
+ * soon as the field is found and skips over every other field's
+ * value without building it.  Records which aren't JSON objects have
+ * no key.
+ */
+public class JsonKeyExtractor implements KeyExtractor {
+
+    private String[] path;
+
+    private transient JsonFactory factory;
+
+    public JsonKeyExtractor(String field) {
+	this.path = field.split("\\.");
+    }
+
+    @Override
+    public String key(Object record) {
+	if (factory == null) { factory = new JsonFactory(); }
+	JsonParser parser = null;
+	try {
+	    parser = (record instanceof byte[]) ? factory.createParser((byte[]) record) : factory.createParser(record.toString());
+	    return (parser.nextToken() == JsonToken.START_OBJECT) ? find(parser) : null;
+	} catch (IOException e) {
+	    return null;
+	} finally {
+	    if (parser != null) {
+		try { parser.close(); } catch (IOException e) { }
+	    }
+	}
+    }
+
+    // Called with the parser just inside the record's object.
+    private String find(JsonParser parser) throws IOException {
+	int depth = 0;
+	while (parser.nextToken() == JsonToken.FIELD_NAME) {
+	    String    name  = parser.getCurrentName();
+	    JsonToken value = parser.nextToken();
+	    if (!name.equals(path[depth])) {
+		parser.skipChildren();
+	    } else if (depth == path.length - 1) {
+		return (value.isScalarValue() && value != JsonToken.VALUE_NULL) ? parser.getText() : null;
+	    } else if (value == JsonToken.START_OBJECT) {
+		depth++;
+	    } else {
+		return null;
+	    }
+	}
+	return null;
+    }
+
+}
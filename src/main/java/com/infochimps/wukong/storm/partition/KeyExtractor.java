@@ -0,0 +1,17 @@
+package com.infochimps.wukong.storm.partition;
+
+import java.io.Serializable;
+
+/**
+ * Pulls the key a record should be partitioned by out of the record.
+ *
+ * Records arrive as Strings or as raw byte[] payloads, see Records.
+ */
+public interface KeyExtractor extends Serializable {
+
+    /**
+     * @return the record's key, or null if it doesn't have one
+     */
+    public String key(Object record);
+
+}
@@ -0,0 +1,34 @@
+package com.infochimps.wukong.storm.partition;
+
+import backtype.storm.tuple.Values;
+
+import storm.trident.operation.BaseFunction;
+import storm.trident.operation.TridentCollector;
+import storm.trident.tuple.TridentTuple;
+
+import com.infochimps.wukong.storm.dataflow.Records;
+
+/**
+ * Appends the key of each record, pulled out by a KeyExtractor, so
+ * the stream can be partitioned by it.
+ *
+ * A record without a key is keyed by its whole content instead, so
+ * such records are still spread across partitions rather than all
+ * landing in one.
+ */
+public class PartitionKey extends BaseFunction {
+
+    private KeyExtractor extractor;
+
+    public PartitionKey(KeyExtractor extractor) {
+	this.extractor = extractor;
+    }
+
+    @Override
+    public void execute(TridentTuple tuple, TridentCollector collector) {
+	Object record = tuple.getValue(0);
+	String key    = extractor.key(record);
+	collector.emit(new Values(key != null ? key : Records.string(record)));
+    }
+
+}
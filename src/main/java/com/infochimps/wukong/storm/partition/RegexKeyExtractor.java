@@ -0,0 +1,28 @@
+package com.infochimps.wukong.storm.partition;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.infochimps.wukong.storm.dataflow.Records;
+
+/**
+ * Keys each record by the first match of a regular expression within
+ * it: the first capturing group if the expression has one, otherwise
+ * the whole match.
+ */
+public class RegexKeyExtractor implements KeyExtractor {
+
+    private Pattern pattern;
+
+    public RegexKeyExtractor(String regex) {
+	this.pattern = Pattern.compile(regex);
+    }
+
+    @Override
+    public String key(Object record) {
+	Matcher matcher = pattern.matcher(Records.string(record));
+	if (!matcher.find()) { return null; }
+	return (matcher.groupCount() > 0) ? matcher.group(1) : matcher.group();
+    }
+
+}
@@ -0,0 +1,260 @@
+package com.infochimps.wukong.storm.spout;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import backtype.storm.task.TopologyContext;
+import backtype.storm.tuple.Fields;
+
+import storm.kafka.KafkaConfig;
+
+import storm.trident.operation.TridentCollector;
+import storm.trident.spout.IOpaquePartitionedTridentSpout;
+import storm.trident.spout.ISpoutPartition;
+import storm.trident.topology.TransactionAttempt;
+
+/**
+ * Wraps a Kafka spout to choose how many bytes to fetch from each
+ * partition for each batch, rather than always fetching the same
+ * number.
+ *
+ * Each partition's fetch size starts at the configured
+ * <code>fetchSizeBytes</code> and is adjusted after every batch, within
+ * a minimum and a maximum:
+ *
+ * <ul>
+ *   <li>if batches from the partition are taking longer than the target latency to come round again, it is halved</li>
+ *   <li>otherwise, if the fetch came back full, the partition is behind and it is doubled</li>
+ *   <li>otherwise, if the fetch came back less than a quarter full, it is halved</li>
+ * </ul>
+ *
+ * It is never allowed below twice the largest message seen, since a
+ * fetch which can't hold the next message returns nothing.
+ *
+ * The bytes fetched are taken from the offsets storm-kafka stores in
+ * each batch's metadata, which in Kafka 0.7 are byte positions, so
+ * records needn't be measured as they are emitted.
+ *
+ * This relies on the wrapped spout reading <code>fetchSizeBytes</code>
+ * from its KafkaConfig for each fetch, as storm-kafka's does.  Each
+ * emitter wraps its own copy of the spout and its config, so the
+ * config the spout was built with is never changed, and sets its copy
+ * to a partition's fetch size just before the partition is emitted,
+ * which is safe because an emitter emits its partitions one at a
+ * time.
+ */
+public class AdaptiveKafkaSpout<Partitions, Partition extends ISpoutPartition> implements IOpaquePartitionedTridentSpout<Partitions, Partition, Map> {
+
+    static Logger LOG = Logger.getLogger(AdaptiveKafkaSpout.class);
+
+    // Bytes of framing around each Kafka 0.7 message in a fetch.
+    private static final int MESSAGE_OVERHEAD = 10;
+
+    private IOpaquePartitionedTridentSpout<Partitions, Partition, Map> spout;
+    private KafkaConfig                                                 config;
+    private int                                                         minFetch;
+    private int                                                         maxFetch;
+    private long                                                        targetLatency;
+
+    /**
+     * The config must be the one the spout was built with.
+     */
+    public AdaptiveKafkaSpout(IOpaquePartitionedTridentSpout<Partitions, Partition, Map> spout, KafkaConfig config, int minFetch, int maxFetch, long targetLatencyMillis) {
+	this.spout         = spout;
+	this.config        = config;
+	this.minFetch      = minFetch;
+	this.maxFetch      = maxFetch;
+	this.targetLatency = targetLatencyMillis;
+    }
+
+    @Override
+    public IOpaquePartitionedTridentSpout.Emitter<Partitions, Partition, Map> getEmitter(Map conf, TopologyContext context) {
+	Object[] copy = copy(new Object[] { spout, config });
+	IOpaquePartitionedTridentSpout<Partitions, Partition, Map> spoutCopy = (IOpaquePartitionedTridentSpout<Partitions, Partition, Map>) copy[0];
+	return new Emitter(spoutCopy.getEmitter(conf, context), (KafkaConfig) copy[1]);
+    }
+
+    // Copied together so the copied spout holds the copied config.
+    private static Object[] copy(Object[] objects) {
+	try {
+	    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+	    ObjectOutputStream    out   = new ObjectOutputStream(bytes);
+	    out.writeObject(objects);
+	    out.close();
+	    return (Object[]) new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())).readObject();
+	} catch (IOException e) {
+	    throw new RuntimeException("Could not copy the Kafka spout", e);
+	} catch (ClassNotFoundException e) {
+	    throw new RuntimeException("Could not copy the Kafka spout", e);
+	}
+    }
+
+    @Override
+    public IOpaquePartitionedTridentSpout.Coordinator getCoordinator(Map conf, TopologyContext context) {
+	return spout.getCoordinator(conf, context);
+    }
+
+    @Override
+    public Map getComponentConfiguration() {
+	return spout.getComponentConfiguration();
+    }
+
+    @Override
+    public Fields getOutputFields() {
+	return spout.getOutputFields();
+    }
+
+    public class Emitter implements IOpaquePartitionedTridentSpout.Emitter<Partitions, Partition, Map> {
+
+	private IOpaquePartitionedTridentSpout.Emitter<Partitions, Partition, Map> emitter;
+	private KafkaConfig                                                         emitterConfig;
+	private int                                                                 initialFetch;
+	private Map<String, FetchSize>                                              fetchSizes = new HashMap<String, FetchSize>();
+	private CountingCollector                                                   counter    = new CountingCollector();
+
+	/**
+	 * The config must be the one the emitter's spout was built with,
+	 * and not shared with any other emitter.
+	 */
+	public Emitter(IOpaquePartitionedTridentSpout.Emitter<Partitions, Partition, Map> emitter, KafkaConfig emitterConfig) {
+	    this.emitter       = emitter;
+	    this.emitterConfig = emitterConfig;
+	    this.initialFetch  = emitterConfig.fetchSizeBytes;
+	}
+
+	@Override
+	public Map emitPartitionBatch(TransactionAttempt tx, TridentCollector collector, Partition partition, Map lastMeta) {
+	    FetchSize fetchSize = fetchSizes.get(partition.getId());
+	    if (fetchSize == null) {
+		fetchSize = new FetchSize(initialFetch, minFetch, maxFetch, targetLatency);
+		fetchSizes.put(partition.getId(), fetchSize);
+	    }
+	    emitterConfig.fetchSizeBytes = fetchSize.bytes;
+	    counter.start(collector);
+	    Map  meta    = emitter.emitPartitionBatch(tx, counter, partition, lastMeta);
+	    long fetched = fetched(meta, counter);
+	    int  before  = fetchSize.bytes;
+	    fetchSize.update(fetched, counter.largest + MESSAGE_OVERHEAD);
+	    if (fetchSize.bytes != before) {
+		LOG.debug("Fetching " + fetchSize.bytes + " bytes from Kafka partition " + partition.getId() + " after " + counter.records + " records (" + fetched + " bytes) in " + tx);
+	    }
+	    return meta;
+	}
+
+	// Offsets in Kafka 0.7 are byte positions, so the fetch covered
+	// the bytes between them, framing included.  Spouts which don't
+	// store them are estimated from the records emitted.
+	private long fetched(Map meta, CountingCollector counter) {
+	    Object offset     = (meta == null) ? null : meta.get("offset");
+	    Object nextOffset = (meta == null) ? null : meta.get("nextOffset");
+	    if (offset instanceof Number && nextOffset instanceof Number) {
+		return ((Number) nextOffset).longValue() - ((Number) offset).longValue();
+	    }
+	    return counter.bytes + (counter.records * MESSAGE_OVERHEAD);
+	}
+
+	@Override
+	public List<Partition> getOrderedPartitions(Partitions partitions) {
+	    return emitter.getOrderedPartitions(partitions);
+	}
+
+	@Override
+	public void refreshPartitions(List<Partition> partitions) {
+	    emitter.refreshPartitions(partitions);
+	}
+
+	@Override
+	public void close() {
+	    emitter.close();
+	}
+    }
+
+    /**
+     * The fetch size of a single partition.
+     */
+    static class FetchSize {
+
+	private int  bytes;
+	private int  largest;
+	private long lastEmitted;
+
+	private int  minFetch;
+	private int  maxFetch;
+	private long targetLatency;
+
+	public FetchSize(int bytes, int minFetch, int maxFetch, long targetLatency) {
+	    this.bytes         = bytes;
+	    this.minFetch      = minFetch;
+	    this.maxFetch      = maxFetch;
+	    this.targetLatency = targetLatency;
+	}
+
+	public int bytes() {
+	    return bytes;
+	}
+
+	/**
+	 * @param fetched the bytes fetched, framing included
+	 * @param largestMessage the bytes of the largest message fetched, framing included
+	 */
+	public void update(long fetched, int largestMessage) {
+	    long now     = System.nanoTime();
+	    long latency = (lastEmitted == 0) ? 0 : (now - lastEmitted) / 1000000;
+	    lastEmitted  = now;
+	    largest      = Math.max(largest, largestMessage);
+
+	    int min = Math.max(minFetch, 2 * largest);
+	    int max = Math.max(maxFetch, 2 * largest);
+	    if (latency > targetLatency) {
+		bytes /= 2;
+	    } else if (fetched > bytes - largest) {
+		bytes = (int) Math.min((long) bytes * 2, max);
+	    } else if (fetched < bytes / 4) {
+		bytes /= 2;
+	    }
+	    bytes = Math.min(Math.max(bytes, min), max);
+	}
+    }
+
+    // Counts the records emitted for a partition on their way to the
+    // real collector, and bounds the bytes of the largest without
+    // encoding it: a char takes at most 3 bytes of UTF-8.
+    private static class CountingCollector implements TridentCollector {
+
+	private TridentCollector collector;
+	private long             records;
+	private long             bytes;
+	private int              largest;
+
+	public void start(TridentCollector collector) {
+	    this.collector = collector;
+	    this.records   = 0;
+	    this.bytes     = 0;
+	    this.largest   = 0;
+	}
+
+	@Override
+	public void emit(List<Object> values) {
+	    Object record = values.get(0);
+	    int    length = (record instanceof byte[]) ? ((byte[]) record).length : 3 * record.toString().length();
+	    records += 1;
+	    bytes   += length;
+	    largest  = Math.max(largest, length);
+	    collector.emit(values);
+	}
+
+	@Override
+	public void reportError(Throwable t) {
+	    collector.reportError(t);
+	}
+    }
+
+}
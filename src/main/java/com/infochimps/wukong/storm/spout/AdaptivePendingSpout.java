@@ -0,0 +1,224 @@
+package com.infochimps.wukong.storm.spout;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.apache.log4j.Logger;
+
+import backtype.storm.Config;
+import backtype.storm.metric.api.IMetric;
+import backtype.storm.task.TopologyContext;
+import backtype.storm.tuple.Fields;
+
+import storm.trident.operation.TridentCollector;
+import storm.trident.spout.ICommitterTridentSpout;
+import storm.trident.spout.ITridentSpout;
+import storm.trident.topology.TransactionAttempt;
+
+import com.infochimps.wukong.storm.metrics.LatencyHistogram;
+import com.infochimps.wukong.storm.metrics.Metrics;
+
+/**
+ * Wraps a spout to limit how many of its batches are in flight,
+ * adjusting the limit as it goes rather than fixing it with
+ * <code>topology.max.spout.pending</code>.
+ *
+ * The limit is raised by one each time a limit's worth of batches
+ * commit within the target latency (additive increase), and halved
+ * when a batch takes longer or is replayed after failing or timing
+ * out (multiplicative decrease).  It's halved at most once for the
+ * batches in flight at the time, so one slow stretch doesn't collapse
+ * it, and always kept within a minimum and a maximum.
+ *
+ * Trident's master coordinator asks the spout's coordinator whether
+ * each batch is ready before starting it, and the limit is enforced
+ * by answering no.  The master coordinator doesn't tell it when
+ * batches commit, but only ever asks about batches within
+ * <code>topology.max.spout.pending</code> of the oldest uncommitted
+ * one, so a batch has committed once the master coordinator asks
+ * about one that many past it.  For that to be seen the limit is kept
+ * below <code>topology.max.spout.pending</code>, which should be set
+ * to at least one more than the maximum.  The master coordinator
+ * asks no more often than
+ * <code>topology.trident.batch.emit.interval.millis</code>, so batch
+ * latencies are only measured to within that.
+ *
+ * The limit, the batches in flight, and replays are reported as
+ * <code>wukong.spout.pending</code>, and the latency of each batch as
+ * <code>wukong.spout.batch</code>.
+ *
+ * The wrapper is always a committing spout, passing commits through
+ * to the wrapped spout's emitter if it is one, so that opaque spouts
+ * still save their partitions' progress.
+ */
+public class AdaptivePendingSpout implements ICommitterTridentSpout<Object> {
+
+    static Logger LOG = Logger.getLogger(AdaptivePendingSpout.class);
+
+    // The component ID Trident gives every master coordinator starts
+    // with this.
+    private static final String MASTER_COORDINATOR = "$mastercoord";
+
+    private ITridentSpout<Object> spout;
+    private int                   minPending;
+    private int                   maxPending;
+    private long                  targetLatency;
+
+    public AdaptivePendingSpout(ITridentSpout spout, int minPending, int maxPending, long targetLatencyMillis) {
+	this.spout         = spout;
+	this.minPending    = minPending;
+	this.maxPending    = maxPending;
+	this.targetLatency = targetLatencyMillis;
+    }
+
+    @Override
+    public ITridentSpout.BatchCoordinator<Object> getCoordinator(String txStateId, Map conf, TopologyContext context) {
+	ITridentSpout.BatchCoordinator<Object> coordinator = spout.getCoordinator(txStateId, conf, context);
+	if (context == null || context.getThisComponentId() == null || !context.getThisComponentId().startsWith(MASTER_COORDINATOR)) {
+	    return coordinator;
+	}
+	Number window  = (Number) conf.get(Config.TOPOLOGY_MAX_SPOUT_PENDING);
+	Limiter limiter = new Limiter(coordinator, (window == null) ? 1 : window.intValue());
+	Metrics.register(context, conf, "wukong.spout.pending", limiter);
+	limiter.latency = Metrics.latency(context, conf, "spout", "batch");
+	return limiter;
+    }
+
+    @Override
+    public ICommitterTridentSpout.Emitter getEmitter(String txStateId, Map conf, TopologyContext context) {
+	return new Emitter(spout.getEmitter(txStateId, conf, context));
+    }
+
+    @Override
+    public Map getComponentConfiguration() {
+	return spout.getComponentConfiguration();
+    }
+
+    @Override
+    public Fields getOutputFields() {
+	return spout.getOutputFields();
+    }
+
+    public class Limiter implements ITridentSpout.BatchCoordinator<Object>, IMetric {
+
+	private ITridentSpout.BatchCoordinator<Object> coordinator;
+	private int                                    window;
+	private int                                    max;
+	private double                                 limit;
+	private LatencyHistogram                       latency = new LatencyHistogram();
+
+	// When each batch in flight was started, by transaction ID.
+	private TreeMap<Long, Long> started  = new TreeMap<Long, Long>();
+	private long                next     = -1;
+	private long                recovery = -1;
+	private long                replays;
+
+	public Limiter(ITridentSpout.BatchCoordinator<Object> coordinator, int window) {
+	    this.coordinator = coordinator;
+	    this.window      = window;
+	    this.max         = Math.max(1, Math.min(maxPending, window - 1));
+	    this.limit       = Math.min(minPending, max);
+	    if (maxPending >= window) {
+		LOG.warn("Limiting batches in flight to " + max + " rather than " + maxPending + ", one less than " + Config.TOPOLOGY_MAX_SPOUT_PENDING + "=" + window);
+	    }
+	}
+
+	@Override
+	public synchronized boolean isReady(long txid) {
+	    long now = System.nanoTime();
+	    SortedMap<Long, Long> committed = started.headMap(txid - window + 1);
+	    for (Map.Entry<Long, Long> batch : committed.entrySet()) {
+		long elapsed = now - batch.getValue();
+		latency.record(elapsed);
+		if (elapsed > targetLatency * 1000000L) {
+		    decrease(batch.getKey(), "took " + (elapsed / 1000000) + " ms");
+		} else {
+		    limit = Math.min(max, limit + 1.0 / Math.floor(limit));
+		}
+	    }
+	    committed.clear();
+	    if (started.containsKey(txid)) {
+		replays += 1;
+		decrease(txid, "was replayed");
+		started.tailMap(txid).clear();
+		next = txid;
+	    }
+	    // The master coordinator asks about every batch it could start,
+	    // not just the next, but they must start in order.
+	    if (next == -1) { next = txid; }
+	    if (txid != next || started.size() >= (int) limit || !coordinator.isReady(txid)) {
+		return false;
+	    }
+	    started.put(txid, now);
+	    next = txid + 1;
+	    return true;
+	}
+
+	// Only batches started since the last decrease can cause another.
+	private void decrease(long txid, String reason) {
+	    if (txid <= recovery) { return; }
+	    limit    = Math.max(Math.min(minPending, max), Math.floor(limit) / 2);
+	    recovery = started.isEmpty() ? txid : Math.max(txid, started.lastKey());
+	    LOG.debug("Limiting batches in flight to " + (int) limit + " after batch " + txid + " " + reason);
+	}
+
+	@Override
+	public Object initializeTransaction(long txid, Object prevMetadata, Object currMetadata) {
+	    return coordinator.initializeTransaction(txid, prevMetadata, currMetadata);
+	}
+
+	@Override
+	public void success(long txid) {
+	    coordinator.success(txid);
+	}
+
+	@Override
+	public void close() {
+	    coordinator.close();
+	}
+
+	@Override
+	public synchronized Object getValueAndReset() {
+	    Map<String, Object> value = new HashMap<String, Object>();
+	    value.put("limit",     (int) limit);
+	    value.put("in_flight", started.size());
+	    value.put("replays",   replays);
+	    replays = 0;
+	    return value;
+	}
+    }
+
+    public static class Emitter implements ICommitterTridentSpout.Emitter {
+
+	private ITridentSpout.Emitter<Object> emitter;
+
+	public Emitter(ITridentSpout.Emitter<Object> emitter) {
+	    this.emitter = emitter;
+	}
+
+	@Override
+	public void emitBatch(TransactionAttempt tx, Object coordinatorMeta, TridentCollector collector) {
+	    emitter.emitBatch(tx, coordinatorMeta, collector);
+	}
+
+	@Override
+	public void success(TransactionAttempt tx) {
+	    emitter.success(tx);
+	}
+
+	@Override
+	public void commit(TransactionAttempt attempt) {
+	    if (emitter instanceof ICommitterTridentSpout.Emitter) {
+		((ICommitterTridentSpout.Emitter) emitter).commit(attempt);
+	    }
+	}
+
+	@Override
+	public void close() {
+	    emitter.close();
+	}
+    }
+
+}
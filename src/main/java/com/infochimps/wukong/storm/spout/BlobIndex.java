@@ -0,0 +1,281 @@
+package com.infochimps.wukong.storm.spout;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A sorted list of the markers in a BlobStore, kept in memory-mapped
+ * files on local disk so it survives restarts.
+ *
+ * The index lives in a directory holding two files:
+ *
+ * <ul>
+ *   <li><code>markers</code> -- each marker in UTF-8 followed by a newline, in order</li>
+ *   <li><code>offsets</code> -- for each marker, the 8-byte offset of the end of its line in <code>markers</code></li>
+ * </ul>
+ *
+ * The index is only ever extended with markers after the last one it
+ * holds, by listing the store from there (see update).  Offsets are
+ * written after their markers, so a crash part way through an update
+ * loses at most the markers it was adding.
+ *
+ * Finding the marker after a given one is a binary search over the
+ * mapped files, except when walking the index in order: the marker
+ * after the last one returned is found in constant time.
+ *
+ * Each file is mapped in chunks of CHUNK_SIZE bytes, so neither is
+ * limited to the 2GB of a single mapping.  Chunks stay mapped as the
+ * index grows: only the last, partly filled, chunk of a file is
+ * mapped again, and only once the file has grown past it.
+ *
+ * Every BlobStore in a JVM which indexes into the same directory
+ * shares one BlobIndex (see open).  Updates are serialized between
+ * JVMs on the same machine with a lock file.
+ */
+public class BlobIndex {
+
+    static Logger LOG = Logger.getLogger(BlobIndex.class);
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    public static int PAGE_SIZE  = 1000;
+    public static int CHUNK_SIZE = 1 << 30;
+
+    private static final Map<String, BlobIndex> INDEXES = new HashMap<String, BlobIndex>();
+
+    private File        directory;
+    private FileChannel markers;
+    private FileChannel offsets;
+    private FileChannel lock;
+
+    private Mapping markerMap;
+    private Mapping offsetMap;
+    private int     size;
+
+    private int    cachedIndex = -1;
+    private String cachedMarker;
+
+    public static synchronized BlobIndex open(File directory) throws IOException {
+	String    path  = directory.getCanonicalPath();
+	BlobIndex index = INDEXES.get(path);
+	if (index == null) {
+	    index = new BlobIndex(directory);
+	    INDEXES.put(path, index);
+	}
+	return index;
+    }
+
+    private BlobIndex(File directory) throws IOException {
+	this.directory = directory;
+	if (!directory.isDirectory() && !directory.mkdirs()) {
+	    throw new IOException("Could not create blob index directory " + directory);
+	}
+	this.markers = new RandomAccessFile(new File(directory, "markers"), "rw").getChannel();
+	this.offsets = new RandomAccessFile(new File(directory, "offsets"), "rw").getChannel();
+	this.lock    = new RandomAccessFile(new File(directory, "lock"),    "rw").getChannel();
+	this.markerMap = new Mapping(markers, CHUNK_SIZE);
+	this.offsetMap = new Mapping(offsets, CHUNK_SIZE - CHUNK_SIZE % 8);
+	FileLock held = lock.lock();
+	try {
+	    reload();
+	} finally {
+	    held.release();
+	}
+	LOG.info("Opened index of " + size + " blobs in " + directory);
+    }
+
+    public synchronized int size() {
+	return size;
+    }
+
+    public synchronized String marker(int index) {
+	if (index < 0 || index >= size) {
+	    throw new IndexOutOfBoundsException("No marker " + index + " in blob index of " + size + " in " + directory);
+	}
+	long start = (index == 0) ? 0 : offsetMap.getLong(8L * (index - 1));
+	long end   = offsetMap.getLong(8L * index) - 1;
+	if (start < 0 || end < start || end - start > Integer.MAX_VALUE) {
+	    throw new IllegalStateException("Blob index in " + directory + " has a corrupt offset for marker " + index);
+	}
+	byte[] bytes = new byte[(int) (end - start)];
+	markerMap.get(start, bytes);
+	return new String(bytes, UTF8);
+    }
+
+    /**
+     * @return the position of the first marker after the given one, which is size() if there is none
+     */
+    public synchronized int after(String marker) {
+	int next;
+	if (marker.equals(cachedMarker)) {
+	    next = cachedIndex + 1;
+	} else {
+	    int low  = 0;
+	    int high = size;
+	    while (low < high) {
+		int middle = (low + high) >>> 1;
+		if (marker(middle).compareTo(marker) <= 0) {
+		    low = middle + 1;
+		} else {
+		    high = middle;
+		}
+	    }
+	    next = low;
+	}
+	if (next < size) {
+	    cachedIndex  = next;
+	    cachedMarker = marker(next);
+	}
+	return next;
+    }
+
+    /**
+     * Extend the index with every marker in the store after the last
+     * one it holds.
+     */
+    public synchronized void update(BlobStore store) throws IOException {
+	FileLock held = lock.lock();
+	try {
+	    reload();
+	    int    before = size;
+	    String last   = (size == 0) ? null : marker(size - 1);
+	    if (last == null) {
+		last = store.firstMarker();
+		if (last == null) { return; }
+		append(Collections.singletonList(last));
+	    }
+	    List<String> page;
+	    while (!(page = store.nextMarkers(last, PAGE_SIZE)).isEmpty()) {
+		append(page);
+		last = page.get(page.size() - 1);
+	    }
+	    if (size > before) {
+		LOG.debug("Indexed " + (size - before) + " new blobs in " + directory);
+	    }
+	} finally {
+	    held.release();
+	}
+    }
+
+    private void append(List<String> page) throws IOException {
+	long       end   = (size == 0) ? 0 : offsetMap.getLong(8L * (size - 1));
+	ByteBuffer ends  = ByteBuffer.allocate(8 * page.size());
+	int        bytes = 0;
+	for (String marker : page) {
+	    bytes += marker.getBytes(UTF8).length + 1;
+	}
+	ByteBuffer lines = ByteBuffer.allocate(bytes);
+	for (String marker : page) {
+	    lines.put(marker.getBytes(UTF8)).put((byte) '\n');
+	    ends.putLong(end + lines.position());
+	}
+	lines.flip();
+	ends.flip();
+	while (lines.hasRemaining()) { markers.write(lines, end + lines.position()); }
+	markers.force(false);
+	long offset = 8L * size;
+	while (ends.hasRemaining()) { offsets.write(ends, offset + ends.position()); }
+	offsets.force(false);
+	map(size + page.size());
+    }
+
+    // Picks up markers appended by other JVMs and discards anything
+    // left over from an update which didn't finish.
+    private void reload() throws IOException {
+	int count = (int) (offsets.size() / 8);
+	if (offsets.size() > 8L * count) { offsets.truncate(8L * count); }
+	long end = map(count);
+	if (markers.size() < end) {
+	    throw new IOException("Blob index in " + directory + " is missing markers");
+	}
+	if (markers.size() > end) { markers.truncate(end); }
+    }
+
+    // Maps the first count markers and returns the offset of the end
+    // of the last one.
+    private long map(int count) throws IOException {
+	offsetMap.extend(8L * count);
+	long end = (count == 0) ? 0 : offsetMap.getLong(8L * (count - 1));
+	markerMap.extend(Math.min(end, markers.size()));
+	size = count;
+	if (cachedIndex >= count) {
+	    cachedIndex  = -1;
+	    cachedMarker = null;
+	}
+	return end;
+    }
+
+    // The first length bytes of a file, mapped in chunks.
+    private static class Mapping {
+
+	private FileChannel            channel;
+	private int                    chunkSize;
+	private List<MappedByteBuffer> chunks = new ArrayList<MappedByteBuffer>();
+	private long                   mapped;
+	private long                   length;
+
+	public Mapping(FileChannel channel, int chunkSize) {
+	    this.channel   = channel;
+	    this.chunkSize = chunkSize;
+	}
+
+	// Maps up to the given length, keeping every full chunk already
+	// mapped.
+	public void extend(long newLength) throws IOException {
+	    if (newLength <= mapped) {
+		length = newLength;
+		return;
+	    }
+	    int last = chunks.size() - 1;
+	    if (last >= 0 && chunks.get(last).capacity() < chunkSize) {
+		chunks.remove(last);
+	    }
+	    for (long start = (long) chunks.size() * chunkSize; start < newLength; start += chunkSize) {
+		chunks.add(channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(chunkSize, newLength - start)));
+	    }
+	    mapped = newLength;
+	    length = newLength;
+	}
+
+	// The offsets are mapped in chunks of a multiple of 8 bytes, so
+	// an aligned long never spans two of them.
+	public long getLong(long position) {
+	    check(position, 8);
+	    return chunks.get((int) (position / chunkSize)).getLong((int) (position % chunkSize));
+	}
+
+	public void get(long position, byte[] bytes) {
+	    check(position, bytes.length);
+	    int copied = 0;
+	    while (copied < bytes.length) {
+		long       at     = position + copied;
+		ByteBuffer chunk  = chunks.get((int) (at / chunkSize)).duplicate();
+		int        offset = (int) (at % chunkSize);
+		int        n      = Math.min(bytes.length - copied, chunk.capacity() - offset);
+		chunk.position(offset);
+		chunk.get(bytes, copied, n);
+		copied += n;
+	    }
+	}
+
+	private void check(long position, int count) {
+	    if (position < 0 || position + count > length) {
+		throw new IndexOutOfBoundsException("Cannot read " + count + " bytes at " + position + " of a blob index file of " + length + " bytes");
+	    }
+	}
+    }
+
+}
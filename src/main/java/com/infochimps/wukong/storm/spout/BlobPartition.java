@@ -0,0 +1,34 @@
+package com.infochimps.wukong.storm.spout;
+
+import java.io.Serializable;
+
+import storm.trident.spout.ISpoutPartition;
+
+/**
+ * A slice of a BlobStore read by a single spout task.
+ */
+public class BlobPartition implements ISpoutPartition, Serializable {
+
+    private int    index;
+    private String id;
+
+    public BlobPartition(int index) {
+	this.index = index;
+	this.id    = "blob-" + index;
+    }
+
+    public int getIndex() {
+	return index;
+    }
+
+    @Override
+    public String getId() {
+	return id;
+    }
+
+    @Override
+    public String toString() {
+	return id;
+    }
+    
+}
@@ -0,0 +1,293 @@
+package com.infochimps.wukong.storm.spout;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import backtype.storm.task.TopologyContext;
+import backtype.storm.topology.FailedException;
+import backtype.storm.tuple.Fields;
+
+import storm.trident.operation.TridentCollector;
+import storm.trident.spout.IOpaquePartitionedTridentSpout;
+import storm.trident.topology.TransactionAttempt;
+
+import com.infochimps.storm.trident.spout.StartPolicy;
+
+import com.infochimps.wukong.storm.metrics.LatencyHistogram;
+import com.infochimps.wukong.storm.metrics.Metrics;
+import com.infochimps.wukong.storm.metrics.StageMetrics;
+
+/**
+ * An opaque transactional spout which reads one blob per batch out
+ * of a BlobStore, in marker order, handing each to a Recordizer.
+ *
+ * The metadata stored for each batch is the marker of the blob it
+ * read and the number of partitions it was read with.  Where reading
+ * starts is governed by a StartPolicy:
+ *
+ * <ul>
+ *   <li>EARLIEST -- the first blob in the store</li>
+ *   <li>LATEST -- the first blob after the last one in the store when the topology starts</li>
+ *   <li>EXPLICIT -- the blob with the given marker</li>
+ *   <li>RESUME -- the blob after the last one read, else as LATEST</li>
+ * </ul>
+ *
+ * A partition which hasn't read a blob yet stores where it started
+ * as its marker (BEFORE_FIRST if the store was empty), so blobs
+ * which arrive after the topology starts are read however long the
+ * partition waits for them.
+ *
+ * The store may be split into several partitions, each read by
+ * whichever spout task it is assigned to, so several tasks can read
+ * the same store at once.  Each partition holds the blobs whose
+ * markers hash to it (see PartitionedBlobStore) and is read in marker
+ * order with its own marker and StartPolicy.  Blobs in different
+ * partitions may be read in any order.  Partitions may also
+ * prefetch upcoming blobs (see PrefetchingBlobStore).
+ *
+ * The number of partitions is fixed rather than following the spout's
+ * parallelism, since changing it moves blobs between partitions and
+ * so orphans each partition's marker.  A spout asked to RESUME from
+ * markers stored with a different number of partitions refuses to
+ * start, while the other policies ignore those markers.
+ *
+ * Compressed blobs are decompressed as they are read, as governed by
+ * a Compression.
+ *
+ * Reports the <code>wukong.spout</code> metrics, counting each blob
+ * as an input and the records recordized from it as outputs, and the
+ * time taken to read each blob as <code>wukong.spout.read</code>.
+ */
+public class BlobSpout implements IOpaquePartitionedTridentSpout<List<BlobPartition>, BlobPartition, Map> {
+
+    static Logger LOG = Logger.getLogger(BlobSpout.class);
+
+    public static String MARKER     = "marker";
+    public static String PARTITIONS = "partitions";
+
+    // Stored as the marker of a partition which has read nothing yet
+    // and should next read the first blob in the store.
+    public static String BEFORE_FIRST = "";
+
+    private BlobStore   store;
+    private Recordizer  recordizer;
+    private Compression compression;
+    private int         partitions;
+    private int         prefetch;
+    private StartPolicy startPolicy;
+    private String      explicitMarker;
+
+    public BlobSpout(BlobStore store, Recordizer recordizer, Compression compression, int partitions, int prefetch, StartPolicy startPolicy, String explicitMarker) {
+	this.store          = store;
+	this.recordizer     = recordizer;
+	this.compression    = compression;
+	this.partitions     = partitions;
+	this.prefetch       = prefetch;
+	this.startPolicy    = startPolicy;
+	this.explicitMarker = explicitMarker;
+    }
+
+    @Override
+    public IOpaquePartitionedTridentSpout.Emitter<List<BlobPartition>, BlobPartition, Map> getEmitter(Map conf, TopologyContext context) {
+	return new Emitter(Metrics.stage(context, conf, "spout"), Metrics.latency(context, conf, "spout", "read"));
+    }
+
+    @Override
+    public IOpaquePartitionedTridentSpout.Coordinator<List<BlobPartition>> getCoordinator(Map conf, TopologyContext context) {
+	return new Coordinator();
+    }
+
+    @Override
+    public Map getComponentConfiguration() {
+	return null;
+    }
+
+    @Override
+    public Fields getOutputFields() {
+	return recordizer.getOutputFields();
+    }
+
+    public class Coordinator implements IOpaquePartitionedTridentSpout.Coordinator<List<BlobPartition>> {
+
+	@Override
+	public boolean isReady(long txid) {
+	    return true;
+	}
+
+	@Override
+	public List<BlobPartition> getPartitionsForBatch() {
+	    List<BlobPartition> ordered = new ArrayList<BlobPartition>();
+	    for (int i = 0; i < partitions; i++) {
+		ordered.add(new BlobPartition(i));
+	    }
+	    return ordered;
+	}
+
+	@Override
+	public void close() {
+	}
+    }
+
+    public class Emitter implements IOpaquePartitionedTridentSpout.Emitter<List<BlobPartition>, BlobPartition, Map> {
+
+	private StageMetrics            metrics;
+	private LatencyHistogram        latency;
+	private Map<Integer, BlobStore> stores = new HashMap<Integer, BlobStore>();
+	private String                  startingPosition;
+
+	public Emitter(StageMetrics metrics, LatencyHistogram latency) {
+	    this.metrics = metrics;
+	    this.latency = latency;
+	}
+
+	@Override
+	public Map emitPartitionBatch(TransactionAttempt tx, TridentCollector collector, BlobPartition partition, Map lastMeta) {
+	    try {
+		if (!samePartitions(partition, lastMeta)) { lastMeta = null; }
+		BlobStore store      = store(partition);
+		String    lastMarker = (lastMeta == null) ? null : (String) lastMeta.get(MARKER);
+		if (lastMarker == null) {
+		    if (startPolicy == StartPolicy.EXPLICIT && PartitionedBlobStore.partition(explicitMarker, partitions) == partition.getIndex()) {
+			read(store, explicitMarker, collector);
+			return meta(explicitMarker);
+		    }
+		    lastMarker = startingPosition();
+		}
+		String marker = lastMarker.isEmpty() ? store.firstMarker() : store.nextMarker(lastMarker);
+		if (marker == null) { return meta(lastMarker); }
+		read(store, marker, collector);
+		return meta(marker);
+	    } catch (IOException e) {
+		LOG.error("Could not read from blob store in transaction " + tx, e);
+		throw new FailedException(e);
+	    }
+	}
+
+	@Override
+	public List<BlobPartition> getOrderedPartitions(List<BlobPartition> partitions) {
+	    return partitions;
+	}
+
+	@Override
+	public void refreshPartitions(List<BlobPartition> partitions) {
+	}
+
+	@Override
+	public void close() {
+	    for (BlobStore partitionStore : stores.values()) {
+		partitionStore.close();
+	    }
+	    stores.clear();
+	}
+
+	// Each partition reads through its own view of the store, which
+	// also holds its prefetched blobs.
+	private BlobStore store(BlobPartition partition) {
+	    BlobStore partitionStore = stores.get(partition.getIndex());
+	    if (partitionStore == null) {
+		partitionStore = (partitions > 1) ? new PartitionedBlobStore(store, partition.getIndex(), partitions) : store;
+		if (prefetch > 0) {
+		    partitionStore = new PrefetchingBlobStore(partitionStore, prefetch);
+		}
+		partitionStore.initialize();
+		stores.put(partition.getIndex(), partitionStore);
+	    }
+	    return partitionStore;
+	}
+
+	private void read(BlobStore store, String marker, TridentCollector collector) throws IOException {
+	    long        start = System.nanoTime();
+	    InputStream blob  = compression.decompress(marker, store.open(marker));
+	    if (!(blob instanceof FileBlob)) {
+		blob = new CountingStream(blob);
+	    }
+	    try {
+		long records = recordizer.recordize(marker, blob, collector);
+		long bytes   = (blob instanceof FileBlob) ? ((FileBlob) blob).size() : ((CountingStream) blob).count;
+		metrics.input(bytes);
+		metrics.outputs(records, bytes);
+		latency.recordSince(start);
+		LOG.debug("Emitted " + records + " records from blob " + marker);
+	    } finally {
+		blob.close();
+	    }
+	}
+
+	// The position each partition without a stored marker starts
+	// after: BEFORE_FIRST for EARLIEST, the EXPLICIT marker, or the
+	// last blob in the whole store at startup for LATEST and RESUME.
+	// It's stored as the partition's marker until the partition
+	// reads a blob, so blobs which arrive in the meantime are read
+	// rather than taken as the new starting position.  The store is
+	// listed once for all the partitions this task reads.
+	private String startingPosition() throws IOException {
+	    if (startingPosition == null) {
+		switch (startPolicy) {
+		case EARLIEST: startingPosition = BEFORE_FIRST;   break;
+		case EXPLICIT: startingPosition = explicitMarker; break;
+		default:
+		    String last      = store.lastMarker();
+		    startingPosition = (last == null) ? BEFORE_FIRST : last;
+		}
+	    }
+	    return startingPosition;
+	}
+
+	// Markers stored with a different number of partitions belong to
+	// partitions holding different blobs, so resuming from them would
+	// skip or repeat blobs.  Only RESUME needs them; any other policy
+	// starts over.
+	private boolean samePartitions(BlobPartition partition, Map lastMeta) {
+	    if (lastMeta == null || lastMeta.get(PARTITIONS) == null) { return true; }
+	    int stored = ((Number) lastMeta.get(PARTITIONS)).intValue();
+	    if (stored == partitions) { return true; }
+	    if (startPolicy == StartPolicy.RESUME) {
+		throw new IllegalStateException("Cannot resume partition " + partition + " of " + partitions + " from a marker stored with " + stored + " partitions.  Keep " + stored + " partitions or start from an explicit marker");
+	    }
+	    LOG.warn("Ignoring the marker of partition " + partition + " stored with " + stored + " partitions and starting " + startPolicy);
+	    return false;
+	}
+
+	private Map meta(String marker) {
+	    Map<String, Object> meta = new HashMap<String, Object>();
+	    meta.put(MARKER,     marker);
+	    meta.put(PARTITIONS, partitions);
+	    return meta;
+	}
+    }
+
+    // Counts the bytes the recordizer reads out of a blob, which stand
+    // in for the bytes of the records it emits.  A FileBlob knows its
+    // size and isn't wrapped, so recordizers can still read its
+    // buffers directly.
+    private static class CountingStream extends FilterInputStream {
+
+	private long count;
+
+	public CountingStream(InputStream in) {
+	    super(in);
+	}
+
+	@Override
+	public int read() throws IOException {
+	    int b = super.read();
+	    if (b >= 0) { count++; }
+	    return b;
+	}
+
+	@Override
+	public int read(byte[] buffer, int offset, int length) throws IOException {
+	    int n = super.read(buffer, offset, length);
+	    if (n > 0) { count += n; }
+	    return n;
+	}
+    }
+    
+}
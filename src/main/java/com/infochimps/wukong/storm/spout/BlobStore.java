@@ -0,0 +1,51 @@
+package com.infochimps.wukong.storm.spout;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * An ordered collection of blobs, e.g. - files in a directory or
+ * objects under an S3 prefix.
+ *
+ * Each blob is named by a marker and markers sort in the order the
+ * blobs should be read.
+ */
+public interface BlobStore extends Serializable {
+
+    /**
+     * Called within the worker before any other method.
+     */
+    public void initialize();
+
+    /**
+     * @return the marker of the first blob, or null if there are none
+     */
+    public String firstMarker() throws IOException;
+
+    /**
+     * @return the marker of the last blob, or null if there are none
+     */
+    public String lastMarker() throws IOException;
+
+    /**
+     * @return the marker of the first blob after the given marker, or null if there is none yet
+     */
+    public String nextMarker(String marker) throws IOException;
+
+    /**
+     * @return the markers of up to limit blobs after the given marker, in order
+     */
+    public List<String> nextMarkers(String marker, int limit) throws IOException;
+
+    public InputStream open(String marker) throws IOException;
+
+    /**
+     * Called within the worker once the store will no longer be used,
+     * to release any threads or connections it holds.  May be called
+     * more than once.
+     */
+    public void close();
+    
+}
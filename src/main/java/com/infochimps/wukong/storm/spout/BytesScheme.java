@@ -0,0 +1,29 @@
+package com.infochimps.wukong.storm.spout;
+
+import java.util.List;
+
+import backtype.storm.spout.Scheme;
+import backtype.storm.tuple.Fields;
+import backtype.storm.tuple.Values;
+
+/**
+ * Emits each Kafka message's payload as it is, as a byte[], rather
+ * than decoding it into a String.
+ *
+ * The payload is emitted in the field <code>str</code>, which is
+ * where every dataflow reads its input from, so a topology reads the
+ * same field whichever scheme its spout uses.
+ */
+public class BytesScheme implements Scheme {
+
+    @Override
+    public List<Object> deserialize(byte[] payload) {
+	return new Values(payload);
+    }
+
+    @Override
+    public Fields getOutputFields() {
+	return new Fields("str");
+    }
+
+}
@@ -0,0 +1,95 @@
+package com.infochimps.wukong.storm.spout;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+import org.apache.commons.compress.compressors.zstandard.ZstdCompressorInputStream;
+
+/**
+ * How the contents of a blob are compressed.
+ *
+ * Blobs are decompressed as they are read, so compressed archives
+ * can be replayed without decompressing them first.  AUTO detects
+ * the compression of each blob, first by the extension of its marker
+ * (<code>.gz</code>, <code>.bz2</code>, <code>.zst</code>) and then by
+ * the magic bytes at its start, reading it as is if neither matches.
+ *
+ * Concatenated gzip members and bzip2 streams are read as a single
+ * stream, as <code>gunzip</code> and <code>bunzip2</code> do.  Reading
+ * zstd needs zstd-jni's native library on the workers.
+ */
+public enum Compression {
+
+    AUTO, NONE, GZIP, BZIP2, ZSTD;
+
+    public static int BUFFER_SIZE = 65536;
+
+    private static final byte[] GZIP_MAGIC  = { (byte) 0x1f, (byte) 0x8b };
+    private static final byte[] BZIP2_MAGIC = { 'B', 'Z', 'h' };
+    private static final byte[] ZSTD_MAGIC  = { (byte) 0x28, (byte) 0xb5, (byte) 0x2f, (byte) 0xfd };
+
+    /**
+     * Wrap the given blob so it is read decompressed.
+     */
+    public InputStream decompress(String marker, InputStream blob) throws IOException {
+	switch (this) {
+	case AUTO:  return detect(marker, blob);
+	case GZIP:  return new GZIPInputStream(blob, BUFFER_SIZE);
+	case BZIP2: return new BZip2CompressorInputStream(blob, true);
+	case ZSTD:  return new ZstdCompressorInputStream(blob);
+	default:    return blob;
+	}
+    }
+
+    private static InputStream detect(String marker, InputStream blob) throws IOException {
+	Compression compression = fromExtension(marker);
+	if (compression == null) {
+	    byte[] head = new byte[ZSTD_MAGIC.length];
+	    if (blob instanceof FileBlob) {
+		((FileBlob) blob).peek(head);
+	    } else {
+		if (!blob.markSupported()) {
+		    blob = new BufferedInputStream(blob, BUFFER_SIZE);
+		}
+		blob.mark(head.length);
+		int n = 0, read;
+		while (n < head.length && (read = blob.read(head, n, head.length - n)) != -1) {
+		    n += read;
+		}
+		blob.reset();
+	    }
+	    compression = fromMagic(head);
+	}
+	return compression.decompress(marker, blob);
+    }
+
+    private static Compression fromExtension(String marker) {
+	if (marker.endsWith(".gz") || marker.endsWith(".gzip")) { return GZIP;  }
+	if (marker.endsWith(".bz2"))                            { return BZIP2; }
+	if (marker.endsWith(".zst"))                            { return ZSTD;  }
+	return null;
+    }
+
+    private static Compression fromMagic(byte[] head) {
+	if (startsWith(head, GZIP_MAGIC))                      { return GZIP;  }
+	if (startsWith(head, BZIP2_MAGIC) && isDigit(head[3])) { return BZIP2; }
+	if (startsWith(head, ZSTD_MAGIC))                      { return ZSTD;  }
+	return NONE;
+    }
+
+    // The bzip2 magic is followed by its block size, 1-9.
+    private static boolean isDigit(byte b) {
+	return (b >= '1' && b <= '9');
+    }
+
+    private static boolean startsWith(byte[] head, byte[] magic) {
+	for (int i = 0; i < magic.length; i++) {
+	    if (head[i] != magic[i]) { return false; }
+	}
+	return true;
+    }
+
+}
@@ -0,0 +1,103 @@
+package com.infochimps.wukong.storm.spout;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A blob in a local file, read a buffer at a time without copying it
+ * onto the heap.
+ *
+ * A small file is read whole into a direct buffer supplied (and
+ * reused) by its FileBlobStore.  A larger file is memory-mapped, one
+ * region of up to REGION_SIZE bytes at a time, so the only copies of
+ * its contents are in the page cache.
+ *
+ * Recordizers which know about FileBlob (e.g. - FusedRecordizer) walk
+ * the buffers returned by nextBuffer directly.  Others can read it
+ * like any other InputStream.
+ */
+public class FileBlob extends InputStream {
+
+    public static int REGION_SIZE = 1 << 30;
+
+    private FileChannel channel;
+    private long        size;
+    private long        offset;
+    private ByteBuffer  direct;
+    private ByteBuffer  current;
+
+    /**
+     * Read the file through the given direct buffer, which must hold
+     * all of it, or map it if the buffer is null.
+     */
+    public FileBlob(FileChannel channel, ByteBuffer direct) throws IOException {
+	this.channel = channel;
+	this.size    = channel.size();
+	this.direct  = direct;
+    }
+
+    public long size() {
+	return size;
+    }
+
+    /**
+     * Read the first bytes of the file into the given array without
+     * moving through it.
+     *
+     * @return the number of bytes read
+     */
+    public int peek(byte[] head) throws IOException {
+	ByteBuffer buffer = ByteBuffer.wrap(head);
+	while (buffer.hasRemaining() && channel.read(buffer, buffer.position()) > 0) { }
+	return buffer.position();
+    }
+
+    /**
+     * @return a buffer holding the next part of the file between its position and limit, or null at the end of the file
+     */
+    public ByteBuffer nextBuffer() throws IOException {
+	if (offset >= size) { return null; }
+	if (direct != null) {
+	    direct.clear();
+	    direct.limit((int) size);
+	    while (direct.hasRemaining() && channel.read(direct) >= 0) { }
+	    direct.flip();
+	    current = direct;
+	    offset  = size;
+	} else {
+	    current = channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(REGION_SIZE, size - offset));
+	    offset += current.remaining();
+	}
+	return current;
+    }
+
+    @Override
+    public int read() throws IOException {
+	if (!fill()) { return -1; }
+	return current.get() & 0xff;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+	if (length == 0)  { return 0;  }
+	if (!fill())      { return -1; }
+	int n = Math.min(length, current.remaining());
+	current.get(buffer, offset, n);
+	return n;
+    }
+
+    @Override
+    public void close() throws IOException {
+	channel.close();
+    }
+
+    private boolean fill() throws IOException {
+	while (current == null || !current.hasRemaining()) {
+	    if (nextBuffer() == null) { return false; }
+	}
+	return true;
+    }
+
+}
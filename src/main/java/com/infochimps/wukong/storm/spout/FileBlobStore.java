@@ -0,0 +1,98 @@
+package com.infochimps.wukong.storm.spout;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The files within a local directory, in order of their names.
+ *
+ * Each file is opened as a FileBlob.  Files of up to DIRECT_SIZE bytes
+ * are read into a single direct buffer which is reused for each one,
+ * so a blob must be closed before the next is opened.  Larger files
+ * are memory-mapped.
+ */
+public class FileBlobStore implements BlobStore {
+
+    public static int DIRECT_SIZE = 4 * 1024 * 1024;
+
+    private String path;
+
+    private transient ByteBuffer direct;
+
+    public FileBlobStore(String path) {
+	this.path = path;
+    }
+
+    @Override
+    public void initialize() {
+    }
+
+    @Override
+    public String firstMarker() throws IOException {
+	String[] names = names();
+	return names.length == 0 ? null : names[0];
+    }
+
+    @Override
+    public String lastMarker() throws IOException {
+	String[] names = names();
+	return names.length == 0 ? null : names[names.length - 1];
+    }
+
+    @Override
+    public String nextMarker(String marker) throws IOException {
+	for (String name : names()) {
+	    if (name.compareTo(marker) > 0) { return name; }
+	}
+	return null;
+    }
+
+    @Override
+    public List<String> nextMarkers(String marker, int limit) throws IOException {
+	List<String> markers = new ArrayList<String>();
+	for (String name : names()) {
+	    if (markers.size() >= limit) { break; }
+	    if (name.compareTo(marker) > 0) { markers.add(name); }
+	}
+	return markers;
+    }
+
+    @Override
+    public InputStream open(String marker) throws IOException {
+	FileChannel channel = new FileInputStream(new File(path, marker)).getChannel();
+	try {
+	    if (channel.size() > DIRECT_SIZE) {
+		return new FileBlob(channel, null);
+	    }
+	    if (direct == null) {
+		direct = ByteBuffer.allocateDirect(DIRECT_SIZE);
+	    }
+	    return new FileBlob(channel, direct);
+	} catch (IOException e) {
+	    channel.close();
+	    throw e;
+	}
+    }
+
+    @Override
+    public void close() {
+    }
+
+    private String[] names() throws IOException {
+	File directory = new File(path);
+	String[] names = directory.list();
+	if (names == null) {
+	    throw new IOException("Cannot list directory " + path);
+	}
+	Arrays.sort(names);
+	return names;
+    }
+    
+}
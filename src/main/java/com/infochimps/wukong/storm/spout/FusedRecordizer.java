@@ -0,0 +1,153 @@
+package com.infochimps.wukong.storm.spout;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import backtype.storm.tuple.Fields;
+import backtype.storm.tuple.Values;
+
+import storm.trident.operation.TridentCollector;
+
+/**
+ * Emits each line of a blob as the single field <code>str</code>,
+ * already joined with its metadata (the blob's marker) and line
+ * number:
+ *
+ * <pre>
+ *   METADATA \t LINE \t LINE_NUMBER
+ * </pre>
+ *
+ * This is the same string which TopologyBuilder's CombineMetadata
+ * builds from the output of WukongRecordizer, but built as the blob
+ * is read, so no separate Trident stage (and tuple copy) is needed.
+ *
+ * Characters are decoded straight into a single reusable builder
+ * which already holds the metadata prefix: the only String allocated
+ * per line is the emitted one.  Line numbers start at 1.
+ *
+ * A FileBlob is instead split into lines straight out of its
+ * (direct or mapped) buffers.  Each line's bytes are copied once into
+ * a reusable array holding the prefix and decoded only to build the
+ * emitted String.
+ */
+public class FusedRecordizer implements Recordizer {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    public static int BUFFER_SIZE = 65536;
+
+    @Override
+    public Fields getOutputFields() {
+	return new Fields("str");
+    }
+
+    @Override
+    public long recordize(String marker, InputStream blob, TridentCollector collector) throws IOException {
+	if (blob instanceof FileBlob) {
+	    return recordize(marker, (FileBlob) blob, collector);
+	}
+	Reader        reader  = new InputStreamReader(blob, UTF8);
+	char[]        buffer  = new char[BUFFER_SIZE];
+	StringBuilder record  = new StringBuilder(256).append(marker).append('\t');
+	int           prefix  = record.length();
+	long          line    = 0;
+	boolean       pending = false;
+	int           n;
+	while ((n = reader.read(buffer, 0, buffer.length)) != -1) {
+	    int start = 0;
+	    for (int i = 0; i < n; i++) {
+		if (buffer[i] == '\n') {
+		    record.append(buffer, start, i - start);
+		    emit(record, prefix, ++line, collector);
+		    start   = i + 1;
+		    pending = false;
+		}
+	    }
+	    if (start < n) {
+		record.append(buffer, start, n - start);
+		pending = true;
+	    }
+	}
+	if (pending) {
+	    emit(record, prefix, ++line, collector);
+	}
+	return line;
+    }
+
+    private long recordize(String marker, FileBlob blob, TridentCollector collector) throws IOException {
+	byte[]     prefix  = (marker + "\t").getBytes(UTF8);
+	byte[]     record  = Arrays.copyOf(prefix, Math.max(256, 2 * prefix.length));
+	int        length  = prefix.length;
+	long       line    = 0;
+	boolean    pending = false;
+	ByteBuffer buffer;
+	while ((buffer = blob.nextBuffer()) != null) {
+	    int start = buffer.position();
+	    int end   = buffer.limit();
+	    for (int i = start; i < end; i++) {
+		if (buffer.get(i) == '\n') {
+		    record  = append(record, length, buffer, start, i - start);
+		    length += i - start;
+		    emit(record, length, prefix.length, ++line, collector);
+		    length  = prefix.length;
+		    start   = i + 1;
+		    pending = false;
+		}
+	    }
+	    if (start < end) {
+		record  = append(record, length, buffer, start, end - start);
+		length += end - start;
+		pending = true;
+	    }
+	}
+	if (pending) {
+	    emit(record, length, prefix.length, ++line, collector);
+	}
+	return line;
+    }
+
+    // Copies bytes out of the buffer onto the end of the record,
+    // growing it if need be.  Leaves room for the line number.
+    private byte[] append(byte[] record, int length, ByteBuffer buffer, int from, int n) {
+	if (length + n + 21 > record.length) {
+	    record = Arrays.copyOf(record, Math.max(2 * record.length, length + n + 21));
+	}
+	buffer.position(from);
+	buffer.get(record, length, n);
+	return record;
+    }
+
+    private void emit(byte[] record, int length, int prefix, long line, TridentCollector collector) {
+	if (length > prefix && record[length - 1] == '\r') {
+	    length -= 1;
+	}
+	record[length++] = '\t';
+	int digits = length;
+	do {
+	    record[length++] = (byte) ('0' + (line % 10));
+	    line /= 10;
+	} while (line > 0);
+	for (int i = digits, j = length - 1; i < j; i++, j--) {
+	    byte digit = record[i];
+	    record[i]  = record[j];
+	    record[j]  = digit;
+	}
+	collector.emit(new Values(new String(record, 0, length, UTF8)));
+    }
+
+    private void emit(StringBuilder record, int prefix, long line, TridentCollector collector) {
+	int end = record.length();
+	if (end > prefix && record.charAt(end - 1) == '\r') {
+	    record.setLength(end - 1);
+	}
+	record.append('\t').append(line);
+	collector.emit(new Values(record.toString()));
+	record.setLength(prefix);
+    }
+    
+}
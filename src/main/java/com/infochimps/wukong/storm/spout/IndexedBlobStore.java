@@ -0,0 +1,84 @@
+package com.infochimps.wukong.storm.spout;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Wraps a BlobStore to answer questions about its markers from a
+ * BlobIndex on local disk instead of listing the store each time.
+ *
+ * The store is only listed after the last marker in the index: all
+ * of it the first time the index is used, and then whenever the
+ * spout reaches the end of the index and needs to look for new
+ * blobs.  Blobs added to the store with markers before the end of
+ * the index are never seen.
+ */
+public class IndexedBlobStore implements BlobStore {
+
+    private BlobStore store;
+    private String    path;
+
+    private transient BlobIndex index;
+
+    public IndexedBlobStore(BlobStore store, String path) {
+	this.store = store;
+	this.path  = path;
+    }
+
+    @Override
+    public void initialize() {
+	store.initialize();
+	try {
+	    index = BlobIndex.open(new File(path));
+	} catch (IOException e) {
+	    throw new RuntimeException("Could not open blob index in " + path, e);
+	}
+    }
+
+    @Override
+    public String firstMarker() throws IOException {
+	if (index.size() == 0) { index.update(store); }
+	return (index.size() == 0) ? null : index.marker(0);
+    }
+
+    @Override
+    public String lastMarker() throws IOException {
+	index.update(store);
+	return (index.size() == 0) ? null : index.marker(index.size() - 1);
+    }
+
+    @Override
+    public String nextMarker(String marker) throws IOException {
+	List<String> next = nextMarkers(marker, 1);
+	return next.isEmpty() ? null : next.get(0);
+    }
+
+    @Override
+    public List<String> nextMarkers(String marker, int limit) throws IOException {
+	int next = index.after(marker);
+	if (next + limit > index.size()) {
+	    index.update(store);
+	    next = index.after(marker);
+	}
+	List<String> markers = new ArrayList<String>();
+	for (int i = next; i < Math.min(next + limit, index.size()); i++) {
+	    markers.add(index.marker(i));
+	}
+	return markers;
+    }
+
+    @Override
+    public InputStream open(String marker) throws IOException {
+	return store.open(marker);
+    }
+
+    // The index is shared by the worker and stays open.
+    @Override
+    public void close() {
+	store.close();
+    }
+
+}
@@ -0,0 +1,106 @@
+package com.infochimps.wukong.storm.spout;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import backtype.storm.task.TopologyContext;
+import backtype.storm.tuple.Fields;
+import backtype.storm.tuple.Values;
+
+import storm.trident.operation.TridentCollector;
+import storm.trident.spout.IBatchSpout;
+
+import com.infochimps.wukong.storm.metrics.LocalSummary;
+import com.infochimps.wukong.storm.metrics.Metrics;
+import com.infochimps.wukong.storm.metrics.StageMetrics;
+
+/**
+ * Replays the lines of a local file as the records of a topology,
+ * standing in for a Kafka spout when running in a LocalCluster.
+ *
+ * The file is read into memory when the spout opens.  Each batch is
+ * the next <code>batchSize</code> lines, starting over at the top when
+ * the file runs out, so a small sample can drive a topology for as
+ * long as needed.  Each task starts at a different line.
+ *
+ * Lines are emitted in the field <code>str</code> as Strings or, if
+ * <code>raw</code>, as UTF-8 bytes, just as the Kafka spout would
+ * emit them.
+ */
+public class LocalFileSpout implements IBatchSpout {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private String  path;
+    private int     batchSize;
+    private boolean raw;
+
+    private transient List<Object> records;
+    private transient int          next;
+    private transient StageMetrics metrics;
+
+    public LocalFileSpout(String path, int batchSize, boolean raw) {
+	this.path      = path;
+	this.batchSize = batchSize;
+	this.raw       = raw;
+    }
+
+    @Override
+    public void open(Map conf, TopologyContext context) {
+	records = new ArrayList<Object>();
+	try {
+	    BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(path), UTF8));
+	    try {
+		String line;
+		while ((line = reader.readLine()) != null) {
+		    records.add(raw ? line.getBytes(UTF8) : line);
+		}
+	    } finally {
+		reader.close();
+	    }
+	} catch (IOException e) {
+	    throw new RuntimeException("Could not read input records from " + path, e);
+	}
+	if (records.isEmpty()) {
+	    throw new RuntimeException("No input records in " + path);
+	}
+	next    = (int) (((long) context.getThisTaskIndex() * batchSize) % records.size());
+	metrics = Metrics.stage(context, conf, "spout");
+    }
+
+    @Override
+    public void emitBatch(long batchId, TridentCollector collector) {
+	LocalSummary.emitted(batchId);
+	for (int i = 0; i < batchSize; i++) {
+	    Object record = records.get(next);
+	    metrics.output(raw ? ((byte[]) record).length : Metrics.utf8Length((String) record));
+	    collector.emit(new Values(record));
+	    next = (next + 1) % records.size();
+	}
+    }
+
+    @Override
+    public void ack(long batchId) {
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public Map getComponentConfiguration() {
+	return null;
+    }
+
+    @Override
+    public Fields getOutputFields() {
+	return new Fields("str");
+    }
+
+}
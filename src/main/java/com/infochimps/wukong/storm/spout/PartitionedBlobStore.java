@@ -0,0 +1,99 @@
+package com.infochimps.wukong.storm.spout;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The blobs of a BlobStore which belong to one of several partitions,
+ * so that each partition can be read by a different spout task.
+ *
+ * A blob belongs to the partition its marker hashes to.  Markers are
+ * hashed with String.hashCode, which is the same on every JVM, so a
+ * blob always belongs to the same partition as long as the number of
+ * partitions doesn't change.
+ *
+ * Finding the next blob in a partition lists the whole store from
+ * the given marker and skips the blobs belonging to other
+ * partitions.
+ */
+public class PartitionedBlobStore implements BlobStore {
+
+    public static int PAGE_SIZE = 1000;
+
+    private BlobStore store;
+    private int       index;
+    private int       count;
+
+    public PartitionedBlobStore(BlobStore store, int index, int count) {
+	this.store = store;
+	this.index = index;
+	this.count = count;
+    }
+
+    public static int partition(String marker, int count) {
+	return (marker.hashCode() & Integer.MAX_VALUE) % count;
+    }
+
+    public boolean owns(String marker) {
+	return partition(marker, count) == index;
+    }
+
+    @Override
+    public void initialize() {
+	store.initialize();
+    }
+
+    @Override
+    public String firstMarker() throws IOException {
+	String first = store.firstMarker();
+	if (first == null || owns(first)) { return first; }
+	return nextMarker(first);
+    }
+
+    @Override
+    public String lastMarker() throws IOException {
+	String marker = store.firstMarker();
+	if (marker == null) { return null; }
+	String last = owns(marker) ? marker : null;
+	List<String> page;
+	while (!(page = store.nextMarkers(marker, PAGE_SIZE)).isEmpty()) {
+	    for (String next : page) {
+		if (owns(next)) { last = next; }
+	    }
+	    marker = page.get(page.size() - 1);
+	}
+	return last;
+    }
+
+    @Override
+    public String nextMarker(String marker) throws IOException {
+	List<String> next = nextMarkers(marker, 1);
+	return next.isEmpty() ? null : next.get(0);
+    }
+
+    @Override
+    public List<String> nextMarkers(String marker, int limit) throws IOException {
+	List<String> markers = new ArrayList<String>();
+	List<String> page;
+	while (markers.size() < limit && !(page = store.nextMarkers(marker, Math.min(PAGE_SIZE, limit * count))).isEmpty()) {
+	    for (String next : page) {
+		if (owns(next) && markers.size() < limit) { markers.add(next); }
+	    }
+	    marker = page.get(page.size() - 1);
+	}
+	return markers;
+    }
+
+    @Override
+    public InputStream open(String marker) throws IOException {
+	return store.open(marker);
+    }
+
+    @Override
+    public void close() {
+	store.close();
+    }
+
+}
@@ -0,0 +1,196 @@
+package com.infochimps.wukong.storm.spout;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Wraps a BlobStore to read the blobs after the one being read in
+ * the background, so a BlobSpout doesn't wait a full round trip to
+ * the store (e.g. - an S3 GET) before each batch.
+ *
+ * The markers after the last one read are listed a page at a time
+ * and the first <code>depth</code> of them are downloaded into memory
+ * in parallel.  When the spout asks for the next marker it is
+ * answered from the listing and when it opens that blob it gets the
+ * downloaded copy, after which the next blob in the listing starts
+ * downloading.  At most <code>depth</code> blobs are downloaded ahead
+ * of the one being read, so memory use grows with the size of the
+ * blobs.
+ *
+ * The spout still sees the same markers in the same order.  If it
+ * asks about a marker off the listing (e.g. - when a batch is
+ * replayed) the listing and any downloads are thrown away and
+ * started again from there.  If a download fails, the blob is read
+ * again directly.
+ *
+ * Not thread-safe: a BlobSpout calls its store from a single
+ * emitter thread.  Closing the store cancels any downloads and stops
+ * its threads.
+ */
+public class PrefetchingBlobStore implements BlobStore {
+
+    static Logger LOG = Logger.getLogger(PrefetchingBlobStore.class);
+
+    public static int LIST_SIZE = 100;
+
+    private BlobStore store;
+    private int       depth;
+
+    private transient ExecutorService  executor;
+    private transient String           anchor;
+    private transient LinkedList<Blob> upcoming;
+
+    // A blob after the anchor, in order, which may be downloading.
+    private static class Blob {
+	private String         marker;
+	private Future<byte[]> content;
+
+	public Blob(String marker) {
+	    this.marker = marker;
+	}
+    }
+
+    public PrefetchingBlobStore(BlobStore store, int depth) {
+	this.store = store;
+	this.depth = depth;
+    }
+
+    @Override
+    public void initialize() {
+	store.initialize();
+	upcoming = new LinkedList<Blob>();
+	executor = Executors.newFixedThreadPool(depth, new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable runnable) {
+		    Thread thread = new Thread(runnable, "blob-prefetch");
+		    thread.setDaemon(true);
+		    return thread;
+		}
+	    });
+    }
+
+    @Override
+    public String firstMarker() throws IOException {
+	return store.firstMarker();
+    }
+
+    @Override
+    public String lastMarker() throws IOException {
+	return store.lastMarker();
+    }
+
+    @Override
+    public String nextMarker(String marker) throws IOException {
+	moveTo(marker);
+	if (upcoming.isEmpty()) { list(); }
+	return upcoming.isEmpty() ? null : upcoming.getFirst().marker;
+    }
+
+    @Override
+    public List<String> nextMarkers(String marker, int limit) throws IOException {
+	return store.nextMarkers(marker, limit);
+    }
+
+    @Override
+    public InputStream open(String marker) throws IOException {
+	Blob blob = (upcoming.isEmpty() || !upcoming.getFirst().marker.equals(marker)) ? null : upcoming.getFirst();
+	moveTo(marker);
+	if (upcoming.size() < depth) { list(); }
+	prefetch();
+	if (blob != null && blob.content != null) {
+	    try {
+		return new ByteArrayInputStream(blob.content.get());
+	    } catch (ExecutionException e) {
+		LOG.warn("Could not prefetch blob " + marker + ", reading it directly", e.getCause());
+	    } catch (InterruptedException e) {
+		Thread.currentThread().interrupt();
+		throw new IOException("Interrupted while waiting for blob " + marker, e);
+	    }
+	}
+	return store.open(marker);
+    }
+
+    @Override
+    public void close() {
+	if (executor != null) { executor.shutdownNow(); }
+	if (upcoming != null) { upcoming.clear(); }
+	store.close();
+    }
+
+    // Make the given marker the anchor, dropping it and everything
+    // before it from the listing, or dropping the whole listing if it
+    // isn't on it.
+    private void moveTo(String marker) {
+	if (marker.equals(anchor)) { return; }
+	boolean listed = false;
+	for (Blob blob : upcoming) {
+	    if (blob.marker.equals(marker)) { listed = true; break; }
+	}
+	Iterator<Blob> blobs = upcoming.iterator();
+	while (blobs.hasNext()) {
+	    Blob    blob = blobs.next();
+	    boolean last = blob.marker.equals(marker);
+	    if (blob.content != null && !last) { blob.content.cancel(true); }
+	    blobs.remove();
+	    if (listed && last) { break; }
+	}
+	anchor = marker;
+    }
+
+    private void list() throws IOException {
+	String after = upcoming.isEmpty() ? anchor : upcoming.getLast().marker;
+	for (String marker : store.nextMarkers(after, Math.max(depth, LIST_SIZE))) {
+	    upcoming.add(new Blob(marker));
+	}
+    }
+
+    private void prefetch() {
+	int started = 0;
+	for (Blob blob : upcoming) {
+	    if (started++ >= depth) { return; }
+	    if (blob.content == null) {
+		blob.content = executor.submit(new Download(blob.marker));
+	    }
+	}
+    }
+
+    private class Download implements Callable<byte[]> {
+
+	private String marker;
+
+	public Download(String marker) {
+	    this.marker = marker;
+	}
+
+	@Override
+	public byte[] call() throws IOException {
+	    InputStream           in     = store.open(marker);
+	    ByteArrayOutputStream out    = new ByteArrayOutputStream();
+	    byte[]                buffer = new byte[65536];
+	    try {
+		int n;
+		while ((n = in.read(buffer)) != -1) {
+		    if (Thread.interrupted()) { throw new IOException("Cancelled download of blob " + marker); }
+		    out.write(buffer, 0, n);
+		}
+	    } finally {
+		in.close();
+	    }
+	    return out.toByteArray();
+	}
+    }
+
+}
@@ -0,0 +1,25 @@
+package com.infochimps.wukong.storm.spout;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+
+import backtype.storm.tuple.Fields;
+
+import storm.trident.operation.TridentCollector;
+
+/**
+ * Turns the contents of a blob into records emitted by a BlobSpout.
+ */
+public interface Recordizer extends Serializable {
+
+    public Fields getOutputFields();
+
+    /**
+     * Emit a record for each record in the given blob.
+     *
+     * @return the number of records emitted
+     */
+    public long recordize(String marker, InputStream blob, TridentCollector collector) throws IOException;
+    
+}
@@ -0,0 +1,101 @@
+package com.infochimps.wukong.storm.spout;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.services.s3.AmazonS3Client;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.ListObjectsRequest;
+import com.amazonaws.services.s3.model.ObjectListing;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+
+/**
+ * The objects under a prefix within an S3 bucket, in order of their
+ * keys.  Markers are full keys.
+ */
+public class S3BlobStore implements BlobStore {
+
+    private String prefix;
+    private String bucket;
+    private String endpoint;
+    private String awsKey;
+    private String awsSecret;
+
+    private transient AmazonS3Client client;
+
+    public S3BlobStore(String path, String bucket, String endpoint, String awsKey, String awsSecret) {
+	this.prefix    = (path.isEmpty() || path.endsWith("/")) ? path : path + "/";
+	this.bucket    = bucket;
+	this.endpoint  = endpoint;
+	this.awsKey    = awsKey;
+	this.awsSecret = awsSecret;
+    }
+
+    @Override
+    public void initialize() {
+	client = new AmazonS3Client(new BasicAWSCredentials(awsKey, awsSecret));
+	client.setEndpoint(endpoint);
+    }
+
+    @Override
+    public String firstMarker() throws IOException {
+	List<S3ObjectSummary> first = list(null, 1).getObjectSummaries();
+	return first.isEmpty() ? null : first.get(0).getKey();
+    }
+
+    @Override
+    public String lastMarker() throws IOException {
+	String        last    = null;
+	ObjectListing listing = list(null, 1000);
+	while (true) {
+	    List<S3ObjectSummary> summaries = listing.getObjectSummaries();
+	    if (!summaries.isEmpty()) {
+		last = summaries.get(summaries.size() - 1).getKey();
+	    }
+	    if (!listing.isTruncated()) { return last; }
+	    listing = list(last, 1000);
+	}
+    }
+
+    @Override
+    public String nextMarker(String marker) throws IOException {
+	List<S3ObjectSummary> next = list(marker, 1).getObjectSummaries();
+	return next.isEmpty() ? null : next.get(0).getKey();
+    }
+
+    @Override
+    public List<String> nextMarkers(String marker, int limit) throws IOException {
+	List<String> markers = new ArrayList<String>();
+	for (S3ObjectSummary summary : list(marker, limit).getObjectSummaries()) {
+	    markers.add(summary.getKey());
+	}
+	return markers;
+    }
+
+    @Override
+    public InputStream open(String marker) throws IOException {
+	try {
+	    return client.getObject(new GetObjectRequest(bucket, marker)).getObjectContent();
+	} catch (AmazonClientException e) {
+	    throw new IOException("Could not read s3://" + bucket + "/" + marker, e);
+	}
+    }
+
+    @Override
+    public void close() {
+	if (client != null) { client.shutdown(); }
+    }
+
+    private ObjectListing list(String marker, int maxKeys) throws IOException {
+	try {
+	    return client.listObjects(new ListObjectsRequest().withBucketName(bucket).withPrefix(prefix).withMarker(marker).withMaxKeys(maxKeys));
+	} catch (AmazonClientException e) {
+	    throw new IOException("Could not list s3://" + bucket + "/" + prefix, e);
+	}
+    }
+    
+}
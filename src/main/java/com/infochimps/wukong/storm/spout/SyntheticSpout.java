@@ -0,0 +1,209 @@
+package com.infochimps.wukong.storm.spout;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import backtype.storm.task.TopologyContext;
+import backtype.storm.tuple.Fields;
+import backtype.storm.tuple.Values;
+
+import storm.trident.operation.TridentCollector;
+import storm.trident.spout.IBatchSpout;
+
+import com.infochimps.wukong.storm.metrics.LatencyHistogram;
+import com.infochimps.wukong.storm.metrics.LocalSummary;
+import com.infochimps.wukong.storm.metrics.Metrics;
+import com.infochimps.wukong.storm.metrics.StageMetrics;
+
+/**
+ * Generates records from templates, at a target rate or as fast as
+ * the topology will take them, to put a controlled, repeatable load
+ * through a topology.
+ *
+ * Each record is the next of the templates, in turn, with these
+ * placeholders filled in:
+ *
+ * <ul>
+ *   <li><code>{{time}}</code> -- the time the record is emitted, in milliseconds since the epoch</li>
+ *   <li><code>{{seq}}</code> -- a sequence number, unique across all the spout's tasks</li>
+ *   <li><code>{{pad}}</code> -- enough filler to make the record <code>recordSize</code> bytes long, if it isn't already</li>
+ * </ul>
+ *
+ * The rate is shared evenly between the spout's tasks.  When the
+ * topology can't keep up, batches are emitted late rather than in a
+ * burst to catch up, and how late each one was is reported as
+ * <code>wukong.spout.lag</code>.
+ */
+public class SyntheticSpout implements IBatchSpout {
+
+    public static final String TIME = "{{time}}";
+    public static final String SEQ  = "{{seq}}";
+    public static final String PAD  = "{{pad}}";
+
+    private static final String FILLER = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789";
+
+    private enum Placeholder {
+	TIME(SyntheticSpout.TIME), SEQ(SyntheticSpout.SEQ), PAD(SyntheticSpout.PAD);
+
+	private final String text;
+
+	private Placeholder(String text) {
+	    this.text = text;
+	}
+    }
+
+    // A piece of a template: either a placeholder or literal text.
+    private static class Part {
+	private final Placeholder placeholder;
+	private final String      text;
+
+	public Part(Placeholder placeholder, String text) {
+	    this.placeholder = placeholder;
+	    this.text        = text;
+	}
+    }
+
+    private List<String> templates;
+    private int          batchSize;
+    private int          recordSize;
+    private long         rate;
+
+    private transient List<List<Part>> parts;
+    private transient String           filler;
+    private transient long             seq;
+    private transient int              tasks;
+    private transient int              nextTemplate;
+    private transient long             interval;
+    private transient long             due;
+    private transient StageMetrics     metrics;
+    private transient LatencyHistogram lag;
+
+    /**
+     * @param rate records per second across all the spout's tasks, 0 for as fast as possible
+     */
+    public SyntheticSpout(List<String> templates, int batchSize, int recordSize, long rate) {
+	this.templates  = templates;
+	this.batchSize  = batchSize;
+	this.recordSize = recordSize;
+	this.rate       = rate;
+    }
+
+    @Override
+    public void open(Map conf, TopologyContext context) {
+	parts = new ArrayList<List<Part>>();
+	for (String template : templates) {
+	    parts.add(split(template));
+	}
+	StringBuilder fill   = new StringBuilder();
+	Random        random = new Random(0);
+	for (int i = 0; i < recordSize; i++) {
+	    fill.append(FILLER.charAt(random.nextInt(FILLER.length())));
+	}
+	filler       = fill.toString();
+	tasks        = context.getComponentTasks(context.getThisComponentId()).size();
+	seq          = context.getThisTaskIndex();
+	nextTemplate = context.getThisTaskIndex() % parts.size();
+	interval     = (rate > 0) ? (1000000000L * batchSize * tasks) / rate : 0;
+	metrics      = Metrics.stage(context, conf, "spout");
+	lag          = Metrics.latency(context, conf, "spout", "lag");
+    }
+
+    // Splits a template into literal text and placeholders.
+    private static List<Part> split(String template) {
+	List<Part> split = new ArrayList<Part>();
+	int start = 0;
+	while (start < template.length()) {
+	    int next = template.indexOf("{{", start);
+	    if (next < 0) { break; }
+	    Placeholder placeholder = null;
+	    for (Placeholder candidate : Placeholder.values()) {
+		if (template.startsWith(candidate.text, next)) { placeholder = candidate; }
+	    }
+	    if (placeholder == null) {
+		split.add(new Part(null, template.substring(start, next + 2)));
+		start = next + 2;
+		continue;
+	    }
+	    if (next > start) { split.add(new Part(null, template.substring(start, next))); }
+	    split.add(new Part(placeholder, null));
+	    start = next + placeholder.text.length();
+	}
+	if (start < template.length()) { split.add(new Part(null, template.substring(start))); }
+	return split;
+    }
+
+    @Override
+    public void emitBatch(long batchId, TridentCollector collector) {
+	pace();
+	LocalSummary.emitted(batchId);
+	for (int i = 0; i < batchSize; i++) {
+	    String record = render(parts.get(nextTemplate));
+	    metrics.output(Metrics.utf8Length(record));
+	    collector.emit(new Values(record));
+	    nextTemplate = (nextTemplate + 1) % parts.size();
+	}
+    }
+
+    // Waits until this task's next batch is due.  A late batch resets
+    // the schedule, so the spout never bursts to catch up.
+    private void pace() {
+	if (interval == 0) { return; }
+	long now = System.nanoTime();
+	if (due == 0) {
+	    due = now;
+	} else if (now < due) {
+	    try {
+		Thread.sleep((due - now) / 1000000, (int) ((due - now) % 1000000));
+	    } catch (InterruptedException e) {
+		Thread.currentThread().interrupt();
+	    }
+	} else {
+	    lag.record(now - due);
+	    due = now;
+	}
+	due += interval;
+    }
+
+    private String render(List<Part> template) {
+	StringBuilder record = new StringBuilder();
+	int           pad    = -1;
+	for (Part part : template) {
+	    if (part.placeholder == null) {
+		record.append(part.text);
+		continue;
+	    }
+	    switch (part.placeholder) {
+	    case TIME: record.append(System.currentTimeMillis()); break;
+	    case SEQ:  record.append(seq);                        break;
+	    case PAD:  if (pad < 0) { pad = record.length(); }    break;
+	    }
+	}
+	if (pad >= 0) {
+	    long missing = recordSize - Metrics.utf8Length(record.toString());
+	    if (missing > 0) { record.insert(pad, filler, 0, (int) missing); }
+	}
+	seq += tasks;
+	return record.toString();
+    }
+
+    @Override
+    public void ack(long batchId) {
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public Map getComponentConfiguration() {
+	return null;
+    }
+
+    @Override
+    public Fields getOutputFields() {
+	return new Fields("str");
+    }
+
+}
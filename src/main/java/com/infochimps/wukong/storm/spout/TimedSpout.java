@@ -0,0 +1,79 @@
+package com.infochimps.wukong.storm.spout;
+
+import java.util.List;
+import java.util.Map;
+
+import backtype.storm.task.TopologyContext;
+import backtype.storm.tuple.Fields;
+
+import storm.trident.operation.TridentCollector;
+import storm.trident.spout.IOpaquePartitionedTridentSpout;
+import storm.trident.spout.ISpoutPartition;
+import storm.trident.topology.TransactionAttempt;
+
+import com.infochimps.wukong.storm.metrics.LocalSummary;
+
+/**
+ * Wraps a spout to tell LocalSummary when each transaction is first
+ * emitted, so the latency of whole batches can be measured when
+ * running in a LocalCluster.
+ */
+public class TimedSpout<Partitions, Partition extends ISpoutPartition, M> implements IOpaquePartitionedTridentSpout<Partitions, Partition, M> {
+
+    private IOpaquePartitionedTridentSpout<Partitions, Partition, M> spout;
+
+    public TimedSpout(IOpaquePartitionedTridentSpout<Partitions, Partition, M> spout) {
+	this.spout = spout;
+    }
+
+    @Override
+    public IOpaquePartitionedTridentSpout.Emitter<Partitions, Partition, M> getEmitter(Map conf, TopologyContext context) {
+	return new Emitter(spout.getEmitter(conf, context));
+    }
+
+    @Override
+    public IOpaquePartitionedTridentSpout.Coordinator getCoordinator(Map conf, TopologyContext context) {
+	return spout.getCoordinator(conf, context);
+    }
+
+    @Override
+    public Map getComponentConfiguration() {
+	return spout.getComponentConfiguration();
+    }
+
+    @Override
+    public Fields getOutputFields() {
+	return spout.getOutputFields();
+    }
+
+    public class Emitter implements IOpaquePartitionedTridentSpout.Emitter<Partitions, Partition, M> {
+
+	private IOpaquePartitionedTridentSpout.Emitter<Partitions, Partition, M> emitter;
+
+	public Emitter(IOpaquePartitionedTridentSpout.Emitter<Partitions, Partition, M> emitter) {
+	    this.emitter = emitter;
+	}
+
+	@Override
+	public M emitPartitionBatch(TransactionAttempt tx, TridentCollector collector, Partition partition, M lastMeta) {
+	    LocalSummary.emitted(tx.getTransactionId());
+	    return emitter.emitPartitionBatch(tx, collector, partition, lastMeta);
+	}
+
+	@Override
+	public List<Partition> getOrderedPartitions(Partitions partitions) {
+	    return emitter.getOrderedPartitions(partitions);
+	}
+
+	@Override
+	public void refreshPartitions(List<Partition> partitions) {
+	    emitter.refreshPartitions(partitions);
+	}
+
+	@Override
+	public void close() {
+	    emitter.close();
+	}
+    }
+
+}
@@ -0,0 +1,169 @@
+package com.infochimps.wukong.storm.state;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A log of newline-terminated records appended to a directory of
+ * memory-mapped segment files.
+ *
+ * Each segment is named for the offset of its first byte within the
+ * whole log (<code>00000000000000000000.log</code>,
+ * <code>00000000000134217728.log</code>, ...) so that the segments
+ * concatenated in name order form the log.  A new segment is started
+ * once the current one has no room left for the next record.
+ *
+ * The current segment is mapped at its full size, so until it is
+ * rolled or the log is closed it ends in unwritten zero bytes; the
+ * offset of the last write a reader can trust must be recorded
+ * elsewhere (see AppendLogState).
+ */
+public class AppendLog {
+
+    static Logger LOG = Logger.getLogger(AppendLog.class);
+
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final byte   NEWLINE        = '\n';
+
+    private File directory;
+    private int  segmentSize;
+
+    private long             segmentStart;
+    private RandomAccessFile segment;
+    private MappedByteBuffer buffer;
+
+    public AppendLog(File directory, int segmentSize) {
+	this.directory   = directory;
+	this.segmentSize = segmentSize;
+    }
+
+    /**
+     * Open the log for appending at the given offset.
+     *
+     * Anything in the log beyond the offset is discarded: segments
+     * starting after it are deleted and the segment containing it is
+     * truncated.
+     */
+    public void open(long offset) throws IOException {
+	if (!directory.isDirectory() && !directory.mkdirs()) {
+	    throw new IOException("Could not create directory " + directory);
+	}
+	long start = offset;
+	for (long existing : segmentStarts()) {
+	    if (existing > offset) {
+		if (!segmentFile(existing).delete()) {
+		    throw new IOException("Could not delete segment " + segmentFile(existing));
+		}
+	    } else {
+		start = existing;
+	    }
+	}
+	if (segmentFile(start).length() < offset - start) {
+	    throw new IOException("Segment " + segmentFile(start) + " ends before offset " + offset);
+	}
+	map(start, offset - start);
+    }
+
+    /**
+     * The offset of the end of the log.
+     */
+    public long position() {
+	return segmentStart + buffer.position();
+    }
+
+    public void append(byte[] record) throws IOException {
+	int needed = record.length + 1;
+	if (buffer.remaining() < needed) {
+	    roll(needed);
+	}
+	buffer.put(record);
+	buffer.put(NEWLINE);
+    }
+
+    /**
+     * Force everything appended so far to disk.
+     */
+    public void force() {
+	buffer.force();
+    }
+
+    /**
+     * Discard everything appended after the given offset.
+     */
+    public void truncate(long offset) throws IOException {
+	if (offset >= segmentStart && offset <= position()) {
+	    buffer.position((int) (offset - segmentStart));
+	} else {
+	    close();
+	    open(offset);
+	}
+    }
+
+    /**
+     * Force the current segment to disk and trim it to the bytes
+     * actually written.
+     */
+    public void close() throws IOException {
+	if (segment == null) { return; }
+	buffer.force();
+	segment.getChannel().truncate(buffer.position());
+	segment.close();
+	segment = null;
+	buffer  = null;
+    }
+
+    private void roll(int needed) throws IOException {
+	long start = position();
+	close();
+	LOG.debug("Rolling append log in " + directory + " to a new segment at offset " + start);
+	map(start, 0);
+	if (buffer.remaining() < needed) {
+	    // A record larger than a segment gets a segment of its own.
+	    close();
+	    map(start, 0, needed);
+	}
+    }
+
+    private void map(long start, long position) throws IOException {
+	map(start, position, segmentSize);
+    }
+
+    private void map(long start, long position, int size) throws IOException {
+	segmentStart = start;
+	segment      = new RandomAccessFile(segmentFile(start), "rw");
+	FileChannel channel = segment.getChannel();
+	if (channel.size() > position) {
+	    channel.truncate(position);
+	}
+	buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(size, (int) position));
+	buffer.position((int) position);
+    }
+
+    private File segmentFile(long start) {
+	return new File(directory, String.format("%020d", start) + SEGMENT_SUFFIX);
+    }
+
+    private List<Long> segmentStarts() {
+	String[] names = directory.list(new FilenameFilter() {
+		public boolean accept(File dir, String name) {
+		    return name.matches("\\d{20}" + SEGMENT_SUFFIX.replace(".", "\\."));
+		}
+	    });
+	Arrays.sort(names);
+	List<Long> starts = new ArrayList<Long>(names.length);
+	for (String name : names) {
+	    starts.add(Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length())));
+	}
+	return starts;
+    }
+
+}
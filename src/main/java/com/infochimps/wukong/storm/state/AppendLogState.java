@@ -0,0 +1,205 @@
+package com.infochimps.wukong.storm.state;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import backtype.storm.task.IMetricsContext;
+import backtype.storm.topology.FailedException;
+
+import storm.trident.operation.TridentCollector;
+import storm.trident.state.BaseStateUpdater;
+import storm.trident.state.State;
+import storm.trident.state.StateFactory;
+import storm.trident.tuple.TridentTuple;
+
+import com.infochimps.wukong.storm.dataflow.Records;
+import com.infochimps.wukong.storm.metrics.LatencyHistogram;
+import com.infochimps.wukong.storm.metrics.LocalSummary;
+import com.infochimps.wukong.storm.metrics.Metrics;
+import com.infochimps.wukong.storm.metrics.StageMetrics;
+
+/**
+ * A Trident state which appends the records of each batch to an
+ * AppendLog on local disk, one log per partition.
+ *
+ * When a batch commits, the log is forced to disk and a checkpoint
+ * is written next to it holding the batch's txid and the offset of
+ * the end of the log, along with the txid and offset of the batch
+ * committed before it.  As with Trident's OpaqueValue, this makes
+ * replays of opaque spouts, which may replay a txid with different
+ * records, idempotent:
+ *
+ * <ul>
+ *   <li>a batch older than the last one committed is skipped</li>
+ *   <li>the last batch committed is rewritten in place: the log is truncated back to the previous offset and the batch written again</li>
+ *   <li>anything written by an attempt which never committed is discarded before the next batch is written</li>
+ * </ul>
+ *
+ * Readers should treat the offset in the checkpoint as the end of
+ * the log.  While the last batch is being rewritten, the log may
+ * briefly be shorter than that offset.
+ *
+ * Reports the <code>wukong.state</code> metrics, with the time taken
+ * to write and sync each batch as <code>wukong.state.commit</code>.
+ */
+public class AppendLogState implements State {
+
+    static Logger LOG = Logger.getLogger(AppendLogState.class);
+
+    private static final Charset UTF8       = Charset.forName("UTF-8");
+    private static final String  CHECKPOINT = "checkpoint";
+
+    private File      directory;
+    private AppendLog log;
+
+    private Long    committedTxid;
+    private long    committedOffset;
+    private Long    prevTxid;
+    private long    prevOffset;
+    private boolean replaying;
+
+    private StageMetrics     metrics = new StageMetrics();
+    private LatencyHistogram latency = new LatencyHistogram();
+    private long             commitStart;
+
+    public AppendLogState(File directory, int segmentSize) throws IOException {
+	this.directory = directory;
+	this.log       = new AppendLog(directory, segmentSize);
+	readCheckpoint();
+	log.open(committedOffset);
+	LOG.info("Appending to " + directory + " at offset " + committedOffset + " after txid " + committedTxid);
+    }
+
+    public void registerMetrics(IMetricsContext context, Map conf) {
+	metrics = Metrics.stage(context, conf, "state");
+	latency = Metrics.latency(context, conf, "state", "commit");
+    }
+
+    @Override
+    public void beginCommit(Long txid) {
+	commitStart = System.nanoTime();
+	replaying = (txid != null && committedTxid != null && txid < committedTxid);
+	if (replaying) { return; }
+	try {
+	    if (txid != null && txid.equals(committedTxid)) {
+		LOG.info("Rewriting txid " + txid + " in " + directory + " from offset " + prevOffset);
+		log.truncate(prevOffset);
+	    } else if (log.position() != committedOffset) {
+		LOG.warn("Discarding " + (log.position() - committedOffset) + " bytes in " + directory + " from an uncommitted batch");
+		log.truncate(committedOffset);
+	    }
+	} catch (IOException e) {
+	    throw new FailedException(e);
+	}
+    }
+
+    public void append(List<TridentTuple> tuples) {
+	if (replaying) { return; }
+	try {
+	    for (TridentTuple tuple : tuples) {
+		byte[] record = Records.bytes(tuple.getValue(0));
+		metrics.input(record.length);
+		log.append(record);
+	    }
+	} catch (IOException e) {
+	    LOG.error("Could not append " + tuples.size() + " records to " + directory, e);
+	    throw new FailedException(e);
+	}
+    }
+
+    @Override
+    public void commit(Long txid) {
+	if (replaying) {
+	    LOG.info("Skipping txid " + txid + " in " + directory + ", already committed");
+	    return;
+	}
+	log.force();
+	// A rewritten batch keeps the checkpoint it was written after.
+	if (txid == null || !txid.equals(committedTxid)) {
+	    prevTxid   = committedTxid;
+	    prevOffset = committedOffset;
+	}
+	try {
+	    writeCheckpoint(txid, log.position(), prevTxid, prevOffset);
+	} catch (IOException e) {
+	    LOG.error("Could not write checkpoint for txid " + txid + " in " + directory, e);
+	    throw new FailedException(e);
+	}
+	committedTxid   = txid;
+	committedOffset = log.position();
+	latency.recordSince(commitStart);
+	LocalSummary.committed(txid);
+    }
+
+    private void readCheckpoint() throws IOException {
+	File file = new File(directory, CHECKPOINT);
+	if (!file.exists()) { return; }
+	BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), UTF8));
+	try {
+	    String[] fields = reader.readLine().trim().split(" ");
+	    committedTxid   = (fields[0].equals("-") ? null : Long.valueOf(fields[0]));
+	    committedOffset = Long.parseLong(fields[1]);
+	    prevTxid        = (fields[2].equals("-") ? null : Long.valueOf(fields[2]));
+	    prevOffset      = Long.parseLong(fields[3]);
+	} finally {
+	    reader.close();
+	}
+    }
+
+    // Written to a temporary file and renamed so a crash never leaves
+    // a partial checkpoint behind.
+    private void writeCheckpoint(Long txid, long offset, Long prevTxid, long prevOffset) throws IOException {
+	File             tmp = new File(directory, CHECKPOINT + ".tmp");
+	FileOutputStream out = new FileOutputStream(tmp);
+	try {
+	    out.write(((txid == null ? "-" : txid.toString()) + " " + offset + " " + (prevTxid == null ? "-" : prevTxid.toString()) + " " + prevOffset + "\n").getBytes(UTF8));
+	    out.getFD().sync();
+	} finally {
+	    out.close();
+	}
+	if (!tmp.renameTo(new File(directory, CHECKPOINT))) {
+	    throw new IOException("Could not rename " + tmp);
+	}
+    }
+
+    public static class Factory implements StateFactory {
+
+	private String path;
+	private int    segmentSize;
+
+	public Factory(String path, int segmentSize) {
+	    this.path        = path;
+	    this.segmentSize = segmentSize;
+	}
+
+	@Override
+	public State makeState(Map conf, IMetricsContext metrics, int partitionIndex, int numPartitions) {
+	    File directory = new File(path, "partition-" + partitionIndex);
+	    try {
+		AppendLogState state = new AppendLogState(directory, segmentSize);
+		state.registerMetrics(metrics, conf);
+		return state;
+	    } catch (IOException e) {
+		throw new RuntimeException("Could not open append log in " + directory, e);
+	    }
+	}
+    }
+
+    public static class Updater extends BaseStateUpdater<AppendLogState> {
+
+	@Override
+	public void updateState(AppendLogState state, List<TridentTuple> tuples, TridentCollector collector) {
+	    state.append(tuples);
+	}
+    }
+
+}
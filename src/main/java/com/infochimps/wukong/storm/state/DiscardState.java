@@ -0,0 +1,67 @@
+package com.infochimps.wukong.storm.state;
+
+import java.util.List;
+import java.util.Map;
+
+import backtype.storm.task.IMetricsContext;
+
+import storm.trident.operation.TridentCollector;
+import storm.trident.state.BaseStateUpdater;
+import storm.trident.state.State;
+import storm.trident.state.StateFactory;
+import storm.trident.tuple.TridentTuple;
+
+import com.infochimps.wukong.storm.metrics.LocalSummary;
+import com.infochimps.wukong.storm.metrics.Metrics;
+import com.infochimps.wukong.storm.metrics.StageMetrics;
+
+/**
+ * A Trident state which throws its records away, standing in for
+ * Kafka output when running a topology in a LocalCluster.
+ *
+ * Reports the <code>wukong.state</code> metrics, so the records
+ * reaching the end of the topology are still counted.
+ */
+public class DiscardState implements State {
+
+    private StageMetrics metrics = new StageMetrics();
+
+    public void registerMetrics(IMetricsContext context, Map conf) {
+	metrics = Metrics.stage(context, conf, "state");
+    }
+
+    @Override
+    public void beginCommit(Long txid) {
+    }
+
+    @Override
+    public void commit(Long txid) {
+	LocalSummary.committed(txid);
+    }
+
+    public void discard(List<TridentTuple> tuples) {
+	for (TridentTuple tuple : tuples) {
+	    Object record = tuple.getValue(0);
+	    metrics.input((record instanceof byte[]) ? ((byte[]) record).length : Metrics.utf8Length(record.toString()));
+	}
+    }
+
+    public static class Factory implements StateFactory {
+
+	@Override
+	public State makeState(Map conf, IMetricsContext metrics, int partitionIndex, int numPartitions) {
+	    DiscardState state = new DiscardState();
+	    state.registerMetrics(metrics, conf);
+	    return state;
+	}
+    }
+
+    public static class Updater extends BaseStateUpdater<DiscardState> {
+
+	@Override
+	public void updateState(DiscardState state, List<TridentTuple> tuples, TridentCollector collector) {
+	    state.discard(tuples);
+	}
+    }
+
+}
@@ -0,0 +1,153 @@
+package com.infochimps.wukong.storm.state;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.log4j.Logger;
+
+import backtype.storm.task.IMetricsContext;
+import backtype.storm.topology.FailedException;
+
+import kafka.javaapi.producer.Producer;
+import kafka.javaapi.producer.ProducerData;
+import kafka.message.Message;
+import kafka.producer.ProducerConfig;
+
+import storm.trident.operation.TridentCollector;
+import storm.trident.state.BaseStateUpdater;
+import storm.trident.state.State;
+import storm.trident.state.StateFactory;
+import storm.trident.tuple.TridentTuple;
+
+import com.infochimps.wukong.storm.dataflow.Records;
+import com.infochimps.wukong.storm.metrics.LatencyHistogram;
+import com.infochimps.wukong.storm.metrics.Metrics;
+import com.infochimps.wukong.storm.metrics.StageMetrics;
+
+/**
+ * A Trident state which sends the records of each batch to a Kafka
+ * topic.
+ *
+ * Rather than sending each record as its own message set, the
+ * records of a partition's batch are grouped into as few message
+ * sets as possible, each holding at most <code>batchMessages</code>
+ * messages and <code>batchBytes</code> bytes, and each sent with a
+ * single call to the producer.  Compression, if configured, applies
+ * to each whole message set.
+ *
+ * Message sets are sent by a synchronous producer, so a batch only
+ * commits once every message set in it has been accepted, and a send
+ * which fails fails the batch.  Kafka has no transactions, so a
+ * replayed batch is sent again.
+ *
+ * Reports the <code>wukong.state</code> metrics, with the time taken
+ * to send each batch as <code>wukong.state.commit</code>.
+ */
+public class KafkaState implements State {
+
+    static Logger LOG = Logger.getLogger(KafkaState.class);
+
+    // Size, crc, magic, and attributes of each message within a
+    // message set.
+    private static final int MESSAGE_OVERHEAD = 10;
+
+    private String                    topic;
+    private int                       batchMessages;
+    private int                       batchBytes;
+    private Producer<String, Message> producer;
+
+    private StageMetrics     metrics = new StageMetrics();
+    private LatencyHistogram latency = new LatencyHistogram();
+    private long             commitStart;
+
+    public KafkaState(String topic, int batchMessages, int batchBytes, Producer<String, Message> producer) {
+	this.topic         = topic;
+	this.batchMessages = batchMessages;
+	this.batchBytes    = batchBytes;
+	this.producer      = producer;
+    }
+
+    public void registerMetrics(IMetricsContext context, Map conf) {
+	metrics = Metrics.stage(context, conf, "state");
+	latency = Metrics.latency(context, conf, "state", "commit");
+    }
+
+    @Override
+    public void beginCommit(Long txid) {
+	commitStart = System.nanoTime();
+    }
+
+    @Override
+    public void commit(Long txid) {
+	latency.recordSince(commitStart);
+    }
+
+    public void send(List<TridentTuple> tuples) {
+	List<Message> messages = new ArrayList<Message>(Math.min(tuples.size(), batchMessages));
+	int           bytes    = 0;
+	for (TridentTuple tuple : tuples) {
+	    byte[] record = Records.bytes(tuple.getValue(0));
+	    metrics.input(record.length);
+	    if (!messages.isEmpty() && (messages.size() >= batchMessages || bytes + record.length + MESSAGE_OVERHEAD > batchBytes)) {
+		sendMessageSet(messages);
+		messages = new ArrayList<Message>(Math.min(tuples.size(), batchMessages));
+		bytes    = 0;
+	    }
+	    messages.add(new Message(record));
+	    bytes += record.length + MESSAGE_OVERHEAD;
+	}
+	if (!messages.isEmpty()) {
+	    sendMessageSet(messages);
+	}
+    }
+
+    /**
+     * Send a single message set to the topic.
+     */
+    protected void sendMessageSet(List<Message> messages) {
+	try {
+	    producer.send(new ProducerData<String, Message>(topic, messages));
+	} catch (RuntimeException e) {
+	    LOG.error("Could not send " + messages.size() + " messages to Kafka topic <" + topic + ">", e);
+	    throw new FailedException(e);
+	}
+    }
+
+    public static class Factory implements StateFactory {
+
+	private String     topic;
+	private int        batchMessages;
+	private int        batchBytes;
+	private Properties producerProperties;
+
+	/**
+	 * The producer properties are passed straight through to the
+	 * Kafka producer, see ProducerConfig.
+	 */
+	public Factory(String topic, int batchMessages, int batchBytes, Properties producerProperties) {
+	    this.topic              = topic;
+	    this.batchMessages      = batchMessages;
+	    this.batchBytes         = batchBytes;
+	    this.producerProperties = producerProperties;
+	}
+
+	@Override
+	public State makeState(Map conf, IMetricsContext metrics, int partitionIndex, int numPartitions) {
+	    Producer<String, Message> producer = new Producer<String, Message>(new ProducerConfig(producerProperties));
+	    KafkaState state = new KafkaState(topic, batchMessages, batchBytes, producer);
+	    state.registerMetrics(metrics, conf);
+	    return state;
+	}
+    }
+
+    public static class Updater extends BaseStateUpdater<KafkaState> {
+
+	@Override
+	public void updateState(KafkaState state, List<TridentTuple> tuples, TridentCollector collector) {
+	    state.send(tuples);
+	}
+    }
+
+}
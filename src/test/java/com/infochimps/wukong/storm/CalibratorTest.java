@@ -0,0 +1,58 @@
+package com.infochimps.wukong.storm;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+import backtype.storm.Config;
+
+public class CalibratorTest extends TestCase {
+
+    private File sample;
+
+    protected void setUp() throws IOException {
+	DataflowBuilderTest.clearProperties();
+	sample = File.createTempFile("wukong-sample-", ".tsv");
+	FileWriter writer = new FileWriter(sample);
+	writer.write("a\nb\nc\n");
+	writer.close();
+	System.setProperty(Calibrator.CALIBRATE,          "true");
+	System.setProperty(Calibrator.CALIBRATION_SAMPLE, sample.getPath());
+	System.setProperty(Calibrator.CALIBRATION_TARGET, "1");
+    }
+
+    protected void tearDown() {
+	DataflowBuilderTest.clearProperties();
+	System.clearProperty(Config.TOPOLOGY_WORKERS);
+	System.clearProperty(Config.TOPOLOGY_MAX_SPOUT_PENDING);
+	sample.delete();
+    }
+
+    public void testSizesTheTopologyFromADataflowWhichKeepsUp() throws IOException {
+	System.setProperty(DataflowBuilder.BOLT_COMMAND, "while read line; do echo \"$line\"; echo X; done");
+	new Calibrator().calibrate();
+	assertEquals("1", System.getProperty(DataflowBuilder.DATAFLOW_PARALLELISM));
+    }
+
+    public void testFailsOnADataflowWhichNeverReplies() {
+	System.setProperty(DataflowBuilder.BOLT_COMMAND,    "cat > /dev/null");
+	System.setProperty(Calibrator.CALIBRATION_TIMEOUT, "500");
+	long start = System.currentTimeMillis();
+	try {
+	    new Calibrator().calibrate();
+	    fail("Calibrated a dataflow which never replied");
+	} catch (IOException e) {
+	    assertTrue(e.getMessage(), e.getMessage().contains("did not process 3 sample records within 500 ms"));
+	}
+	assertTrue(System.currentTimeMillis() - start < 5000);
+    }
+
+    public void testRequiresAPositiveTimeout() {
+	System.setProperty(DataflowBuilder.BOLT_COMMAND, "cat");
+	System.setProperty(Calibrator.CALIBRATION_TIMEOUT, "0");
+	assertFalse(new Calibrator().valid());
+    }
+
+}
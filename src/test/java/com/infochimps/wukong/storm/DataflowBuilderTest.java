@@ -0,0 +1,69 @@
+package com.infochimps.wukong.storm;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class DataflowBuilderTest extends TestCase {
+
+    private DataflowBuilder builder;
+
+    protected void setUp() {
+	clearProperties();
+	builder = new DataflowBuilder(new SpoutBuilder());
+    }
+
+    protected void tearDown() {
+	clearProperties();
+    }
+
+    public void testNamesEachStageForItsDataflow() {
+	stages("parse", "enrich", "format");
+	assertEquals("parse",  builder.stageMetricsName(1));
+	assertEquals("enrich", builder.stageMetricsName(2));
+	assertEquals("format", builder.stageMetricsName(3));
+    }
+
+    public void testNumbersRepeatedDataflows() {
+	stages("identity", "identity", "identity");
+	assertEquals("identity",   builder.stageMetricsName(1));
+	assertEquals("identity_2", builder.stageMetricsName(2));
+	assertEquals("identity_3", builder.stageMetricsName(3));
+    }
+
+    public void testNumbersDataflowsNamedLikeOtherStages() {
+	stages("state", "spout");
+	assertEquals("state_1", builder.stageMetricsName(1));
+	assertEquals("spout_2", builder.stageMetricsName(2));
+    }
+
+    public void testHandsEmbeddedRuntimesWholeBatches() {
+	assertEquals(0, builder.embeddedFrameSize());
+	assertEquals(1, builder.frameSize());
+    }
+
+    public void testHandsEmbeddedRuntimesFramesWhenBatched() {
+	System.setProperty(DataflowBuilder.DATAFLOW_BATCH,      "true");
+	System.setProperty(DataflowBuilder.DATAFLOW_BATCH_SIZE, "100");
+	assertEquals(100, builder.embeddedFrameSize());
+    }
+
+    private void stages(String... names) {
+	System.setProperty(DataflowBuilder.DATAFLOW_NAME,   names[0]);
+	System.setProperty(DataflowBuilder.DATAFLOW_STAGES, Integer.toString(names.length));
+	for (int stage = 2; stage <= names.length; stage++) {
+	    System.setProperty(DataflowBuilder.stageProperty(stage, DataflowBuilder.STAGE_NAME), names[stage - 1]);
+	}
+    }
+
+    // Builders read, and set defaults into, system properties.
+    static void clearProperties() {
+	List<String> keys = new ArrayList<String>();
+	for (Object key : System.getProperties().keySet()) {
+	    if (key.toString().startsWith("wukong.")) { keys.add(key.toString()); }
+	}
+	for (String key : keys) { System.clearProperty(key); }
+    }
+
+}
@@ -0,0 +1,124 @@
+package com.infochimps.wukong.storm;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.HashMap;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import backtype.storm.tuple.Fields;
+
+import com.infochimps.wukong.storm.spout.FileBlob;
+import com.infochimps.wukong.storm.spout.FusedRecordizer;
+
+/**
+ * Checks that FusedRecordizer emits exactly what the blob spout's
+ * WukongRecordizer and the CombineMetadata stage after it emit
+ * together.
+ */
+public class FusedRecordizerTest extends TestCase {
+
+    private static final String MARKER = "s3://bucket/path/to/blob-00001";
+
+    private int  bufferSize;
+    private int  regionSize;
+    private File file;
+
+    protected void setUp() throws IOException {
+	bufferSize = FusedRecordizer.BUFFER_SIZE;
+	regionSize = FileBlob.REGION_SIZE;
+	file       = File.createTempFile("wukong-blob-", "");
+    }
+
+    protected void tearDown() {
+	FusedRecordizer.BUFFER_SIZE = bufferSize;
+	FileBlob.REGION_SIZE        = regionSize;
+	file.delete();
+    }
+
+    public void testMatchesCombineMetadataOnAStream() throws IOException {
+	byte[] blob = blob();
+	assertEquals(combined(blob), fused(new ByteArrayInputStream(blob)));
+    }
+
+    public void testMatchesCombineMetadataOnAStreamReadInSmallBuffers() throws IOException {
+	FusedRecordizer.BUFFER_SIZE = 7;
+	byte[] blob = blob();
+	assertEquals(combined(blob), fused(new ByteArrayInputStream(blob)));
+    }
+
+    public void testMatchesCombineMetadataOnAFile() throws IOException {
+	byte[] blob = blob();
+	assertEquals(combined(blob), fused(fileBlob(blob)));
+    }
+
+    public void testMatchesCombineMetadataOnAFileMappedInSmallRegions() throws IOException {
+	FileBlob.REGION_SIZE = 7;
+	byte[] blob = blob();
+	assertEquals(combined(blob), fused(fileBlob(blob)));
+    }
+
+    public void testMatchesCombineMetadataOnABlobEndingInANewline() throws IOException {
+	byte[] blob = "first\nsecond\n".getBytes("UTF-8");
+	assertEquals(combined(blob), fused(new ByteArrayInputStream(blob)));
+	assertEquals(combined(blob), fused(fileBlob(blob)));
+	assertEquals(2, combined(blob).size());
+    }
+
+    // Empty lines, CRLF endings, multibyte characters split across
+    // buffers, a line longer than any buffer, and no final newline.
+    private byte[] blob() throws IOException {
+	StringBuilder blob = new StringBuilder();
+	blob.append("plain\ttab separated\n");
+	blob.append("\n");
+	blob.append("windows line\r\n");
+	blob.append("caf\u00e9 \u4e2d\u6587 \ud83d\ude00\n");
+	for (int i = 0; i < 100000; i++) { blob.append((char) ('a' + (i % 26))); }
+	blob.append('\n');
+	blob.append("\u00e9\u00e9\u00e9\u00e9\u00e9\u00e9\u00e9\n");
+	blob.append("no final newline");
+	return blob.toString().getBytes("UTF-8");
+    }
+
+    private FileBlob fileBlob(byte[] blob) throws IOException {
+	FileOutputStream out = new FileOutputStream(file);
+	out.write(blob);
+	out.close();
+	return new FileBlob(new FileInputStream(file).getChannel(), null);
+    }
+
+    private List<Object> fused(InputStream blob) throws IOException {
+	Tuples.Collector collector = new Tuples.Collector();
+	try {
+	    new FusedRecordizer().recordize(MARKER, blob, collector);
+	} finally {
+	    blob.close();
+	}
+	return collector.firstValues();
+    }
+
+    // WukongRecordizer emits each line of the blob, as read by a
+    // BufferedReader, with the blob's marker and its line number,
+    // counting from 1.  CombineMetadata then joins them.
+    private List<Object> combined(byte[] blob) throws IOException {
+	Tuples.Collector                out     = new Tuples.Collector();
+	TopologyBuilder.CombineMetadata combine = new TopologyBuilder.CombineMetadata();
+	combine.prepare(new HashMap(), null);
+	Fields         fields = new Fields("content", "metadata", "linenumber");
+	BufferedReader reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(blob), "UTF-8"));
+	String         line;
+	int            number = 0;
+	while ((line = reader.readLine()) != null) {
+	    combine.execute(Tuples.of(fields, line, MARKER, ++number), out);
+	}
+	return out.firstValues();
+    }
+
+}
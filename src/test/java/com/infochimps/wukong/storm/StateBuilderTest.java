@@ -0,0 +1,27 @@
+package com.infochimps.wukong.storm;
+
+import junit.framework.TestCase;
+
+public class StateBuilderTest extends TestCase {
+
+    protected void setUp() {
+	DataflowBuilderTest.clearProperties();
+	System.setProperty(StateBuilder.KAFKA_OUTPUT_TOPIC, "output");
+    }
+
+    protected void tearDown() {
+	DataflowBuilderTest.clearProperties();
+    }
+
+    public void testSendsToKafkaWithASyncProducer() {
+	StateBuilder builder = new StateBuilder();
+	assertTrue(builder.valid());
+	assertEquals("sync", builder.kafkaProducerProperties().get("producer.type"));
+    }
+
+    public void testRejectsAnAsyncProducer() {
+	System.setProperty(StateBuilder.KAFKA_PRODUCER_TYPE, "async");
+	assertFalse(new StateBuilder().valid());
+    }
+
+}
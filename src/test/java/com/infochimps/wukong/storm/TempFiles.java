@@ -0,0 +1,40 @@
+package com.infochimps.wukong.storm;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Scratch directories for tests which read or write files.
+ */
+public class TempFiles {
+
+    /**
+     * Create a new, empty directory whose name starts with the given
+     * prefix.
+     */
+    public static File directory(String prefix) throws IOException {
+	File directory = File.createTempFile(prefix, "");
+	if (!directory.delete() || !directory.mkdirs()) {
+	    throw new IOException("Could not create the directory " + directory);
+	}
+	return directory;
+    }
+
+    /**
+     * Delete the given directory and everything under it.
+     */
+    public static void delete(File directory) {
+	File[] files = directory.listFiles();
+	if (files != null) {
+	    for (File file : files) {
+		if (file.isDirectory()) {
+		    delete(file);
+		} else {
+		    file.delete();
+		}
+	    }
+	}
+	directory.delete();
+    }
+
+}
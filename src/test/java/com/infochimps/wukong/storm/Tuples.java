@@ -0,0 +1,91 @@
+package com.infochimps.wukong.storm;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import backtype.storm.tuple.Fields;
+
+import storm.trident.operation.TridentCollector;
+import storm.trident.tuple.TridentTuple;
+import storm.trident.tuple.TridentTupleView;
+
+/**
+ * Builds TridentTuples holding the given values, for tests and
+ * benchmarks which drive Trident operations and states directly.
+ */
+public class Tuples {
+
+    public static TridentTuple of(final Object... values) {
+	return (TridentTuple) Proxy.newProxyInstance(TridentTuple.class.getClassLoader(), new Class[] { TridentTuple.class }, new InvocationHandler() {
+		public Object invoke(Object proxy, Method method, Object[] args) {
+		    String name = method.getName();
+		    if (name.equals("size"))      { return values.length; }
+		    if (name.equals("getValues")) { return Arrays.asList(values); }
+		    if (name.equals("toString"))  { return Arrays.asList(values).toString(); }
+		    if (name.startsWith("get") && args != null && args.length == 1 && args[0] instanceof Integer) {
+			return values[(Integer) args[0]];
+		    }
+		    throw new UnsupportedOperationException(name);
+		}
+	    });
+    }
+
+    /**
+     * Builds a tuple whose values can also be read by field, the same
+     * way Trident builds the tuples coming out of a spout.
+     */
+    public static TridentTuple of(Fields fields, Object... values) {
+	return new TridentTupleView.FreshOutputFactory(fields).create(Arrays.asList(values));
+    }
+
+    /**
+     * A TridentCollector which keeps every tuple emitted to it.
+     */
+    public static class Collector implements TridentCollector {
+
+	public final List<List<Object>> emitted = new ArrayList<List<Object>>();
+
+	public void emit(List<Object> values) { emitted.add(values); }
+	public void reportError(Throwable t)  { }
+
+	/**
+	 * The first value of each tuple emitted so far, in order.
+	 */
+	public List<Object> firstValues() {
+	    List<Object> values = new ArrayList<Object>(emitted.size());
+	    for (List<Object> tuple : emitted) { values.add(tuple.get(0)); }
+	    return values;
+	}
+    }
+
+    /**
+     * A batch of records shaped like the "str" field a spout hands to
+     * the dataflow.
+     */
+    public static List<TridentTuple> records(int count, int length) {
+	Fields             fields  = new Fields("str");
+	List<TridentTuple> records = new ArrayList<TridentTuple>(count);
+	for (int i = 0; i < count; i++) {
+	    records.add(of(fields, record(i, length)));
+	}
+	return records;
+    }
+
+    /**
+     * The <code>i</code>th record of a batch, padded out to the given
+     * length.
+     */
+    public static String record(int i, int length) {
+	StringBuilder s = new StringBuilder(length);
+	s.append(i).append('\t');
+	while (s.length() < length) {
+	    s.append((char) ('a' + (s.length() % 26)));
+	}
+	return s.toString();
+    }
+
+}
@@ -0,0 +1,112 @@
+package com.infochimps.wukong.storm.dataflow;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class FrameReaderTest extends TestCase {
+
+    public void testReadsLinesWithinOneFill() throws IOException {
+	FrameReader in = reader("first\nsecond\n", 64);
+	assertEquals("first",  string(in.readLine()));
+	assertEquals("second", string(in.readLine()));
+    }
+
+    public void testReadsLinesSplitAcrossFills() throws IOException {
+	FrameReader in = reader("first\nsecond\nthird\n", 4);
+	assertEquals("first",  string(in.readLine()));
+	assertEquals("second", string(in.readLine()));
+	assertEquals("third",  string(in.readLine()));
+    }
+
+    public void testReadsLinesLongerThanItsScratchSpace() throws IOException {
+	String line = repeat('x', 1000);
+	FrameReader in = reader(line + "\nnext\n", 7);
+	assertEquals(line,   string(in.readLine()));
+	assertEquals("next", string(in.readLine()));
+    }
+
+    public void testReadsEmptyLines() throws IOException {
+	FrameReader in = reader("\n\nlast\n", 1);
+	assertEquals("",     string(in.readLine()));
+	assertEquals("",     string(in.readLine()));
+	assertEquals("last", string(in.readLine()));
+    }
+
+    public void testFailsWhenTheStreamEnds() throws IOException {
+	FrameReader in = reader("first\nunterminated", 4);
+	assertEquals("first", string(in.readLine()));
+	try {
+	    in.readLine();
+	    fail("Read a line which was never terminated");
+	} catch (EOFException e) { }
+    }
+
+    public void testReadsIntsSplitAcrossFills() throws IOException {
+	byte[] contents = new byte[] { 0, 0, 0, 1, (byte) 0x12, (byte) 0x34, (byte) 0x56, (byte) 0x78, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xfe };
+	for (int bufferSize : new int[] { 1, 3, 5, 64 }) {
+	    FrameReader in = reader(contents, bufferSize);
+	    assertEquals(1,          in.readInt());
+	    assertEquals(0x12345678, in.readInt());
+	    assertEquals(-2,         in.readInt());
+	}
+    }
+
+    public void testReadsBytesSplitAcrossFills() throws IOException {
+	String record = repeat('z', 100);
+	FrameReader in = reader(record + "tail", 7);
+	assertEquals(record, string(in.readBytes(100)));
+	assertEquals("",     string(in.readBytes(0)));
+	assertEquals("tail", string(in.readBytes(4)));
+    }
+
+    public void testReadsNewlinesWithinBytes() throws IOException {
+	FrameReader in = reader("a\nb\n", 2);
+	assertEquals("a\nb\n", string(in.readBytes(4)));
+    }
+
+    public void testFailsWhenTheStreamEndsWithinAnInt() {
+	try {
+	    reader(new byte[] { 0, 0, 1 }, 2).readInt();
+	    fail("Read an int from 3 bytes");
+	} catch (IOException e) {
+	    assertTrue(e instanceof EOFException);
+	}
+    }
+
+    public void testFailsWhenTheStreamEndsWithinBytes() throws IOException {
+	try {
+	    reader("short", 2).readBytes(6);
+	    fail("Read 6 bytes from 5");
+	} catch (EOFException e) { }
+    }
+
+    static FrameReader reader(String contents, int bufferSize) throws IOException {
+	return reader(contents.getBytes("UTF-8"), bufferSize);
+    }
+
+    static FrameReader reader(byte[] contents, int bufferSize) {
+	return new FrameReader(new ByteArrayInputStream(contents), bufferSize);
+    }
+
+    static List<byte[]> records(String... records) throws IOException {
+	byte[][] bytes = new byte[records.length][];
+	for (int i = 0; i < records.length; i++) { bytes[i] = records[i].getBytes("UTF-8"); }
+	return Arrays.asList(bytes);
+    }
+
+    static String string(byte[] bytes) throws IOException {
+	return new String(bytes, "UTF-8");
+    }
+
+    static String repeat(char c, int times) {
+	StringBuilder s = new StringBuilder(times);
+	for (int i = 0; i < times; i++) { s.append(c); }
+	return s.toString();
+    }
+
+}
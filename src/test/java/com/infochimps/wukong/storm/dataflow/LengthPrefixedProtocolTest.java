@@ -0,0 +1,109 @@
+package com.infochimps.wukong.storm.dataflow;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class LengthPrefixedProtocolTest extends TestCase {
+
+    private LengthPrefixedProtocol protocol = new LengthPrefixedProtocol();
+
+    public void testWritesACountThenEachRecordWithItsLength() throws IOException {
+	ByteArrayOutputStream out = new ByteArrayOutputStream();
+	protocol.writeFrame(out, FrameReaderTest.records("ab", ""));
+	assertTrue(Arrays.equals(new byte[] { 0, 0, 0, 2, 0, 0, 0, 2, 'a', 'b', 0, 0, 0, 0 }, out.toByteArray()));
+    }
+
+    public void testReadsTheOutputsOfEachRecord() throws IOException {
+	Reply reply = new Reply().counts(2, 0, 1).record("first-a").record("first-b").record("third-a");
+	List<List<byte[]>> outputs = read(reply, 3, 64);
+	assertEquals(Arrays.asList("first-a", "first-b"), strings(outputs.get(0)));
+	assertEquals(0, outputs.get(1).size());
+	assertEquals(Arrays.asList("third-a"), strings(outputs.get(2)));
+    }
+
+    public void testReadsFramesSplitAcrossFills() throws IOException {
+	String record = FrameReaderTest.repeat('y', 500);
+	Reply  reply  = new Reply().counts(1, 2).record(record).record("a").record("b");
+	for (int bufferSize : new int[] { 1, 2, 3, 5, 7, 64 }) {
+	    List<List<byte[]>> outputs = read(reply, 2, bufferSize);
+	    assertEquals(Arrays.asList(record),   strings(outputs.get(0)));
+	    assertEquals(Arrays.asList("a", "b"), strings(outputs.get(1)));
+	}
+    }
+
+    public void testReadsEmptyRecords() throws IOException {
+	List<List<byte[]>> outputs = read(new Reply().counts(2).record("").record(""), 1, 3);
+	assertEquals(Arrays.asList("", ""), strings(outputs.get(0)));
+    }
+
+    public void testReadsRecordsContainingNewlines() throws IOException {
+	List<List<byte[]>> outputs = read(new Reply().counts(1, 1).record("a\nb").record("\n"), 2, 2);
+	assertEquals(Arrays.asList("a\nb"), strings(outputs.get(0)));
+	assertEquals(Arrays.asList("\n"),   strings(outputs.get(1)));
+    }
+
+    public void testReadsWhatItWrote() throws IOException {
+	List<byte[]> records = FrameReaderTest.records("a\nb", "", "caf\u00e9");
+	ByteArrayOutputStream out = new ByteArrayOutputStream();
+	protocol.writeFrame(out, records);
+	// A frame read back as a reply is one record with three outputs.
+	List<List<byte[]>> outputs = protocol.readFrame(FrameReaderTest.reader(out.toByteArray(), 3), 1);
+	for (int i = 0; i < records.size(); i++) {
+	    assertTrue(Arrays.equals(records.get(i), outputs.get(0).get(i)));
+	}
+    }
+
+    public void testFailsOnANegativeCount() throws IOException {
+	try {
+	    read(new Reply().counts(1, -1).record("a"), 2, 4);
+	    fail("Read a negative output count");
+	} catch (IOException e) {
+	    assertTrue(e.getMessage(), e.getMessage().contains("Malformed output count from subprocess: -1"));
+	}
+    }
+
+    public void testFailsOnANegativeLength() throws IOException {
+	Reply reply = new Reply().counts(1);
+	reply.data.writeInt(-5);
+	try {
+	    read(reply, 1, 4);
+	    fail("Read a negative record length");
+	} catch (IOException e) {
+	    assertTrue(e.getMessage(), e.getMessage().contains("Malformed record length from subprocess: -5"));
+	}
+    }
+
+    private List<List<byte[]>> read(Reply reply, int numRecords, int bufferSize) throws IOException {
+	return protocol.readFrame(FrameReaderTest.reader(reply.bytes.toByteArray(), bufferSize), numRecords);
+    }
+
+    private static List<String> strings(List<byte[]> records) throws IOException {
+	String[] strings = new String[records.size()];
+	for (int i = 0; i < strings.length; i++) { strings[i] = FrameReaderTest.string(records.get(i)); }
+	return Arrays.asList(strings);
+    }
+
+    // Builds a reply the way `wu-bolt --framing=length` writes one.
+    private static class Reply {
+	ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+	DataOutputStream      data  = new DataOutputStream(bytes);
+
+	Reply counts(int... counts) throws IOException {
+	    for (int count : counts) { data.writeInt(count); }
+	    return this;
+	}
+
+	Reply record(String record) throws IOException {
+	    byte[] contents = record.getBytes("UTF-8");
+	    data.writeInt(contents.length);
+	    data.write(contents);
+	    return this;
+	}
+    }
+
+}
@@ -0,0 +1,95 @@
+package com.infochimps.wukong.storm.dataflow;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class LineFrameProtocolTest extends TestCase {
+
+    private LineFrameProtocol protocol = new LineFrameProtocol();
+
+    public void testWritesACountThenEachRecord() throws IOException {
+	ByteArrayOutputStream out = new ByteArrayOutputStream();
+	protocol.writeFrame(out, FrameReaderTest.records("first", "second", "third"));
+	assertEquals("3\nfirst\nsecond\nthird\n", out.toString("UTF-8"));
+    }
+
+    public void testReadsTheOutputsOfEachRecord() throws IOException {
+	List<List<byte[]>> outputs = read("2 0 1\nfirst-a\nfirst-b\nthird-a\n", 3, 4);
+	assertEquals(Arrays.asList("first-a", "first-b"), strings(outputs.get(0)));
+	assertEquals(0, outputs.get(1).size());
+	assertEquals(Arrays.asList("third-a"), strings(outputs.get(2)));
+    }
+
+    public void testReadsFramesSplitAcrossFills() throws IOException {
+	String record = FrameReaderTest.repeat('y', 500);
+	for (int bufferSize : new int[] { 1, 2, 3, 7, 64 }) {
+	    List<List<byte[]>> outputs = read("1 1\n" + record + "\nshort\n", 2, bufferSize);
+	    assertEquals(Arrays.asList(record),  strings(outputs.get(0)));
+	    assertEquals(Arrays.asList("short"), strings(outputs.get(1)));
+	}
+    }
+
+    public void testReadsWhatItWrote() throws IOException {
+	List<byte[]> records = FrameReaderTest.records("a", "", "caf\u00e9");
+	ByteArrayOutputStream out = new ByteArrayOutputStream();
+	out.write("1 1 1\n".getBytes("UTF-8"));
+	for (byte[] record : records) {
+	    out.write(record);
+	    out.write('\n');
+	}
+	List<List<byte[]>> outputs = protocol.readFrame(FrameReaderTest.reader(out.toByteArray(), 3), 3);
+	for (int i = 0; i < records.size(); i++) {
+	    assertTrue(Arrays.equals(records.get(i), outputs.get(i).get(0)));
+	}
+    }
+
+    public void testIgnoresACarriageReturnEndingTheCounts() throws IOException {
+	List<List<byte[]>> outputs = read("1 0\r\nfirst-a\n", 2, 4);
+	assertEquals(Arrays.asList("first-a"), strings(outputs.get(0)));
+	assertEquals(0, outputs.get(1).size());
+    }
+
+    public void testIgnoresRepeatedSpacesBetweenCounts() throws IOException {
+	List<List<byte[]>> outputs = read("1  1 \nfirst-a\nsecond-a\n", 2, 64);
+	assertEquals(Arrays.asList("second-a"), strings(outputs.get(1)));
+    }
+
+    public void testFailsOnAMalformedHeader() throws IOException {
+	assertFailure("1 x\n", 2, "Malformed batch header");
+	assertFailure("-1\n",  1, "Malformed batch header");
+    }
+
+    public void testFailsOnTooFewCounts() throws IOException {
+	assertFailure("1 2\n", 3, "Expected 3 output counts from subprocess but got 2");
+	assertFailure("\n",    1, "Expected 1 output counts from subprocess but got 0");
+    }
+
+    public void testFailsOnTooManyCounts() throws IOException {
+	assertFailure("1 2 3\n", 2, "Got more output counts from subprocess than the 2 records sent");
+    }
+
+    private List<List<byte[]>> read(String reply, int numRecords, int bufferSize) throws IOException {
+	return protocol.readFrame(FrameReaderTest.reader(reply, bufferSize), numRecords);
+    }
+
+    private void assertFailure(String reply, int numRecords, String message) {
+	try {
+	    read(reply, numRecords, 4);
+	    fail("Read a reply with a bad header: " + reply);
+	} catch (IOException e) {
+	    assertTrue(e.getMessage(), e.getMessage().contains(message));
+	}
+    }
+
+    private static List<String> strings(List<byte[]> records) throws IOException {
+	List<String> strings = new ArrayList<String>(records.size());
+	for (byte[] record : records) { strings.add(FrameReaderTest.string(record)); }
+	return strings;
+    }
+
+}
@@ -0,0 +1,114 @@
+package com.infochimps.wukong.storm.dataflow;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class PipelinedSubprocessTest extends TestCase {
+
+    private PipelinedSubprocess process;
+
+    protected void tearDown() {
+	if (process != null) { process.stop(); }
+    }
+
+    public void testFailsAFrameWhichIsNotRepliedToInTime() throws IOException {
+	process = start("cat > /dev/null", 200);
+	FrameReply reply = process.submit(FrameReaderTest.records("a", "b"));
+	long start = System.currentTimeMillis();
+	try {
+	    reply.get();
+	    fail("Got a reply from a subprocess which never replies");
+	} catch (IOException e) {
+	    assertTrue(e.getCause().getMessage(), e.getCause().getMessage().contains("did not reply to 2 records within 200 ms"));
+	}
+	assertTrue(System.currentTimeMillis() - start < 5000);
+	assertFalse(process.isAlive());
+    }
+
+    public void testFailsEveryFrameInFlightToAHungSubprocess() throws IOException {
+	process = start("cat > /dev/null", 200);
+	FrameReply first  = process.submit(FrameReaderTest.records("a"));
+	FrameReply second = process.submit(FrameReaderTest.records("b"));
+	try {
+	    first.get();
+	    fail("Got a reply from a subprocess which never replies");
+	} catch (IOException e) { }
+	try {
+	    second.get();
+	    fail("Got a reply from a subprocess which never replies");
+	} catch (IOException e) { }
+	try {
+	    process.submit(FrameReaderTest.records("c"));
+	    fail("Submitted a frame to a hung subprocess");
+	} catch (IOException e) { }
+    }
+
+    public void testWritesSeveralFramesBeforeAnyReply() throws IOException {
+	process = start("sleep 1; " + StubBolt.command("batch"), 0, 3);
+	FrameReply first  = process.submit(FrameReaderTest.records("a", "b"));
+	FrameReply second = process.submit(FrameReaderTest.records("c"));
+	FrameReply third  = process.submit(FrameReaderTest.records("d", "e", "f"));
+	assertEquals(6, process.outstanding());
+	assertEquals(Arrays.asList("a", "b"),      outputs(first));
+	assertEquals(Arrays.asList("c"),           outputs(second));
+	assertEquals(Arrays.asList("d", "e", "f"), outputs(third));
+	assertEquals(0, process.outstanding());
+    }
+
+    public void testRepliesToFramesInTheOrderTheyWereSubmitted() throws IOException {
+	process = start(StubBolt.command("length"), 0, 4);
+	List<FrameReply> replies = new ArrayList<FrameReply>();
+	for (int i = 0; i < 50; i++) {
+	    String[] frame = new String[(i % 3) + 1];
+	    for (int j = 0; j < frame.length; j++) { frame[j] = i + "-" + j; }
+	    replies.add(process.submit(FrameReaderTest.records(frame)));
+	}
+	for (int i = 0; i < replies.size(); i++) {
+	    List<String> outputs = outputs(replies.get(i));
+	    assertEquals((i % 3) + 1, outputs.size());
+	    for (int j = 0; j < outputs.size(); j++) {
+		assertEquals(i + "-" + j, outputs.get(j));
+	    }
+	}
+    }
+
+    public void testFailsEveryFrameInFlightWhenTheSubprocessDies() throws IOException {
+	// Exits once it has read both frames, two lines each.
+	process = start("head -n 4 > /dev/null; exit 1", 0, 2);
+	FrameReply first  = process.submit(FrameReaderTest.records("a"));
+	FrameReply second = process.submit(FrameReaderTest.records("b"));
+	try {
+	    first.get();
+	    fail("Got a reply from a subprocess which died");
+	} catch (IOException e) { }
+	try {
+	    second.get();
+	    fail("Got a reply from a subprocess which died");
+	} catch (IOException e) { }
+	assertFalse(process.isAlive());
+    }
+
+    private PipelinedSubprocess start(String command, int replyTimeout) throws IOException {
+	return start(command, replyTimeout, 2);
+    }
+
+    private PipelinedSubprocess start(String command, int replyTimeout, int depth) throws IOException {
+	DataflowProtocol    protocol = command.endsWith("length") ? new LengthPrefixedProtocol() : new LineFrameProtocol();
+	PipelinedSubprocess process  = new PipelinedSubprocess(new Subprocess(command, System.getProperty("java.io.tmpdir"), null), protocol, depth, replyTimeout);
+	process.start();
+	return process;
+    }
+
+    static List<String> outputs(FrameReply reply) throws IOException {
+	List<String> outputs = new ArrayList<String>();
+	for (List<byte[]> recordOutputs : reply.get()) {
+	    for (byte[] output : recordOutputs) { outputs.add(new String(output, "UTF-8")); }
+	}
+	return outputs;
+    }
+
+}
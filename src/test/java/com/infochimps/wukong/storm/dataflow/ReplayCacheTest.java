@@ -0,0 +1,127 @@
+package com.infochimps.wukong.storm.dataflow;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class ReplayCacheTest extends TestCase {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    // Each entry of a single output of this size takes 64 bytes.
+    private static final int OUTPUT_SIZE = 36;
+
+    private static int caches;
+
+    private MessageDigest digest = ReplayCache.digest();
+
+    public void testReturnsWhatWasPut() {
+	ReplayCache cache = cache(1024);
+	cache.put(key("a"), outputs("1", "2"));
+	assertEquals(Arrays.asList("1", "2"), strings(cache.get(key("a"))));
+	assertNull(cache.get(key("b")));
+    }
+
+    public void testCachesRecordsWithoutOutputs() {
+	ReplayCache cache = cache(1024);
+	cache.put(key("a"), new ArrayList<byte[]>());
+	assertEquals(0, cache.get(key("a")).size());
+    }
+
+    public void testEvictsTheOldestEntryWhenFull() {
+	ReplayCache cache = cache(256);
+	for (String record : new String[] { "a", "b", "c", "d" }) {
+	    cache.put(key(record), outputs(pad(record)));
+	}
+	assertEquals(0, cache.evictions());
+	cache.put(key("e"), outputs(pad("e")));
+	assertEquals(1, cache.evictions());
+	assertNull(cache.get(key("a")));
+	assertEquals(Arrays.asList(pad("e")), strings(cache.get(key("e"))));
+    }
+
+    public void testEvictsTheLeastRecentlyUsedEntry() {
+	ReplayCache cache = cache(256);
+	for (String record : new String[] { "a", "b", "c" }) {
+	    cache.put(key(record), outputs(pad(record)));
+	}
+	assertNotNull(cache.get(key("a")));
+	cache.put(key("d"), outputs(pad("d")));
+	cache.put(key("e"), outputs(pad("e")));
+	assertNotNull(cache.get(key("a")));
+	assertNull(cache.get(key("b")));
+    }
+
+    public void testSkipsOutputsLargerThanTheCache() {
+	ReplayCache cache = cache(256);
+	cache.put(key("a"), outputs(pad("a")));
+	cache.put(key("b"), outputs(new String(new char[512])));
+	assertNull(cache.get(key("b")));
+	assertNotNull(cache.get(key("a")));
+    }
+
+    public void testKeepsEntriesIntactAcrossManyWraps() {
+	ReplayCache cache = cache(1000);
+	for (int i = 0; i < 500; i++) {
+	    String record = "record-" + i;
+	    cache.put(key(record), outputs(record, new String(new char[i % 50])));
+	    assertEquals(record, strings(cache.get(key(record))).get(0));
+	    if (i > 0) {
+		List<byte[]> previous = cache.get(key("record-" + (i - 1)));
+		if (previous != null) {
+		    assertEquals("record-" + (i - 1), strings(previous).get(0));
+		}
+	    }
+	}
+	assertTrue(cache.bytes() <= 1000);
+    }
+
+    public void testSpreadsEntriesAcrossStripes() {
+	ReplayCache cache = cache(ReplayCache.STRIPES * 65536);
+	for (int i = 0; i < 1000; i++) {
+	    cache.put(key("record-" + i), outputs("output-" + i));
+	}
+	assertEquals(1000, cache.entries());
+	for (int i = 0; i < 1000; i++) {
+	    assertEquals("output-" + i, strings(cache.get(key("record-" + i))).get(0));
+	}
+	assertEquals(0, cache.evictions());
+    }
+
+    public void testStoresEntriesInAFile() {
+	ReplayCache cache = ReplayCache.forDataflow("test-" + (caches++), ReplayCache.FILE, System.getProperty("java.io.tmpdir"), 256);
+	cache.put(key("a"), outputs("1"));
+	assertEquals(Arrays.asList("1"), strings(cache.get(key("a"))));
+    }
+
+    private ReplayCache cache(int capacity) {
+	return ReplayCache.forDataflow("test-" + (caches++), ReplayCache.MEMORY, null, capacity);
+    }
+
+    private byte[] key(String record) {
+	return ReplayCache.key(digest, record.getBytes(UTF8));
+    }
+
+    private String pad(String output) {
+	StringBuilder padded = new StringBuilder(output);
+	while (padded.length() < OUTPUT_SIZE) { padded.append('.'); }
+	return padded.toString();
+    }
+
+    private List<byte[]> outputs(String... outputs) {
+	List<byte[]> bytes = new ArrayList<byte[]>();
+	for (String output : outputs) { bytes.add(output.getBytes(UTF8)); }
+	return bytes;
+    }
+
+    private List<String> strings(List<byte[]> outputs) {
+	List<String> strings = new ArrayList<String>();
+	for (byte[] output : outputs) { strings.add(new String(output, UTF8)); }
+	return strings;
+    }
+
+}
@@ -0,0 +1,133 @@
+package com.infochimps.wukong.storm.dataflow;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+
+/**
+ * A stand-in for `wu-bolt` which echoes every input record back as
+ * its single output record.
+ *
+ * It speaks each of the protocols `wu-bolt` does, chosen by its only
+ * argument:
+ *
+ * <ul>
+ *   <li><code>line</code>: one record per line, each reply followed by the delimiter line "X"</li>
+ *   <li><code>batch</code>: frames as in LineFrameProtocol</li>
+ *   <li><code>length</code>: frames as in LengthPrefixedProtocol</li>
+ * </ul>
+ *
+ * Given a second argument, <code>tagged</code>, each output record in
+ * <code>batch</code> mode is followed by a tab and a name unique to
+ * the stub's process, so tests can tell which subprocess replied.
+ *
+ * Tests and benchmarks run it with the command-line from #command so
+ * that they exercise, and measure the cost of, getting records to and
+ * from a dataflow rather than the dataflow itself.  It lives with the
+ * tests, and benchmarks get it from this project's test-jar.
+ */
+public class StubBolt {
+
+    public static final String DELIMITER  = "X";
+    public static final int    MAX_RECORD = 65536;
+
+    public static String command(String mode) {
+	return "exec java -cp '" + System.getProperty("java.class.path") + "' " + StubBolt.class.getName() + " " + mode;
+    }
+
+    public static void main(String[] args) throws IOException {
+	DataInputStream  in  = new DataInputStream(new BufferedInputStream(System.in, 65536));
+	DataOutputStream out = new DataOutputStream(new BufferedOutputStream(System.out, 65536));
+	String mode = (args.length > 0 ? args[0] : "line");
+	try {
+	    if (mode.equals("batch")) {
+		batch(in, out, (args.length > 1 && args[1].equals("tagged")) ? ("\t" + ManagementFactory.getRuntimeMXBean().getName()).getBytes("UTF-8") : new byte[0]);
+	    } else if (mode.equals("length")) {
+		length(in, out);
+	    } else {
+		line(in, out);
+	    }
+	} catch (EOFException e) {
+	}
+	out.flush();
+    }
+
+    private static void line(DataInputStream in, DataOutputStream out) throws IOException {
+	byte[] delimiter = (DELIMITER + "\n").getBytes("UTF-8");
+	byte[] buffer    = new byte[MAX_RECORD];
+	while (true) {
+	    int length = readLine(in, buffer);
+	    if (length < 0) { return; }
+	    out.write(buffer, 0, length);
+	    out.write('\n');
+	    out.write(delimiter);
+	    out.flush();
+	}
+    }
+
+    private static void batch(DataInputStream in, DataOutputStream out, byte[] tag) throws IOException {
+	byte[]   buffer = new byte[MAX_RECORD];
+	byte[][] frame  = new byte[0][];
+	while (true) {
+	    int length = readLine(in, buffer);
+	    if (length < 0) { return; }
+	    int count = Integer.parseInt(new String(buffer, 0, length, "UTF-8"));
+	    if (frame.length < count) { frame = new byte[count][]; }
+	    for (int i = 0; i < count; i++) {
+		length = readLine(in, buffer);
+		if (length < 0) { throw new EOFException(); }
+		frame[i] = new byte[length];
+		System.arraycopy(buffer, 0, frame[i], 0, length);
+	    }
+	    for (int i = 0; i < count; i++) {
+		if (i > 0) { out.write(' '); }
+		out.write('1');
+	    }
+	    out.write('\n');
+	    for (int i = 0; i < count; i++) {
+		out.write(frame[i]);
+		out.write(tag);
+		out.write('\n');
+	    }
+	    out.flush();
+	}
+    }
+
+    private static void length(DataInputStream in, DataOutputStream out) throws IOException {
+	byte[][] frame = new byte[0][];
+	while (true) {
+	    int count = in.readInt();
+	    if (frame.length < count) { frame = new byte[count][]; }
+	    for (int i = 0; i < count; i++) {
+		frame[i] = new byte[in.readInt()];
+		in.readFully(frame[i]);
+	    }
+	    for (int i = 0; i < count; i++) {
+		out.writeInt(1);
+	    }
+	    for (int i = 0; i < count; i++) {
+		out.writeInt(frame[i].length);
+		out.write(frame[i]);
+	    }
+	    out.flush();
+	}
+    }
+
+    // Reads a line into the buffer, returning its length without the
+    // newline, or -1 at the end of input.
+    private static int readLine(DataInputStream in, byte[] buffer) throws IOException {
+	int length = 0;
+	int b;
+	while ((b = in.read()) != '\n') {
+	    if (b < 0) { return (length == 0 ? -1 : length); }
+	    if (length == buffer.length) { throw new IOException("Record longer than " + buffer.length + " bytes"); }
+	    buffer[length++] = (byte) b;
+	}
+	return length;
+    }
+
+}
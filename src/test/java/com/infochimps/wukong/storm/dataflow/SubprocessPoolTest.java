@@ -0,0 +1,54 @@
+package com.infochimps.wukong.storm.dataflow;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import com.infochimps.wukong.storm.TempFiles;
+
+public class SubprocessPoolTest extends TestCase {
+
+    private File           directory;
+    private SubprocessPool pool;
+
+    protected void setUp() throws IOException {
+	directory = TempFiles.directory("subprocess-pool");
+    }
+
+    protected void tearDown() {
+	if (pool != null) { pool.stop(); }
+	TempFiles.delete(directory);
+    }
+
+    public void testSendsEachFrameToOneSubprocess() throws IOException {
+	pool = start(StubBolt.command("batch"), 3);
+	FrameReply[] replies = new FrameReply[10];
+	for (int i = 0; i < replies.length; i++) {
+	    replies[i] = pool.submit(FrameReaderTest.records("record-" + i, "other-" + i));
+	}
+	for (int i = 0; i < replies.length; i++) {
+	    assertEquals(Arrays.asList("record-" + i, "other-" + i), PipelinedSubprocessTest.outputs(replies[i]));
+	}
+    }
+
+    // The first subprocess launched exits on its first frame, every
+    // later one echoes.
+    public void testFailsTheFrameOfADeadSubprocessThenRelaunchesIt() throws IOException {
+	pool = start("if [ -e died ]; then " + StubBolt.command("batch") + "; else touch died; read line; exit 1; fi", 1);
+	try {
+	    pool.submit(FrameReaderTest.records("lost")).get();
+	    fail("Got a reply from a subprocess which died");
+	} catch (IOException e) { }
+	FrameReply replay = pool.submit(FrameReaderTest.records("replayed"));
+	assertEquals(Arrays.asList("replayed"), PipelinedSubprocessTest.outputs(replay));
+    }
+
+    private SubprocessPool start(String command, int size) throws IOException {
+	SubprocessPool pool = new SubprocessPool(command, directory.getPath(), null, new LineFrameProtocol(), size, 2, SubprocessPool.ROUND_ROBIN, SubprocessPool.EXEC, 0);
+	pool.start();
+	return pool;
+    }
+
+}
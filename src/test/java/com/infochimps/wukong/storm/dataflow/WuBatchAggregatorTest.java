@@ -0,0 +1,77 @@
+package com.infochimps.wukong.storm.dataflow;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import com.infochimps.wukong.storm.Tuples;
+
+public class WuBatchAggregatorTest extends TestCase {
+
+    // Storm's fields grouping sends a task the keys for which
+    // Arrays.asList(key).hashCode() modulo the number of tasks is its
+    // index.
+    public void testSpreadsOneTasksKeysAcrossEverySubprocess() {
+	int   tasks        = 4;
+	int   subprocesses = 4;
+	int[] counts       = new int[subprocesses];
+	int   keys         = 0;
+	for (int i = 0; keys < 4000; i++) {
+	    String key = "key-" + i;
+	    if ((Arrays.asList(key).hashCode() & Integer.MAX_VALUE) % tasks != 0) { continue; }
+	    counts[WuBatchAggregator.subprocess(key, subprocesses)] += 1;
+	    keys += 1;
+	}
+	for (int count : counts) {
+	    assertTrue("Uneven subprocess counts " + Arrays.toString(counts), count > 800 && count < 1200);
+	}
+    }
+
+    // Each key's records should all reach one subprocess, and keys
+    // should reach different subprocesses exactly when they hash to
+    // different ones.
+    public void testSendsEachKeyToTheSameSubprocess() {
+	int               subprocesses = 3;
+	WuBatchAggregator aggregator   = new WuBatchAggregator("routing", StubBolt.command("batch") + " tagged", System.getProperty("java.io.tmpdir"), null, 2, new LineFrameProtocol(), subprocesses, 2, SubprocessPool.ROUND_ROBIN, SubprocessPool.EXEC, false);
+	Tuples.Collector  collector    = new Tuples.Collector();
+	aggregator.prepare(new HashMap(), null);
+	try {
+	    WuBatchAggregator.Frames frames = aggregator.init(null, collector);
+	    for (int i = 0; i < 5; i++) {
+		for (int key = 0; key < 12; key++) {
+		    aggregator.aggregate(frames, Tuples.of("key-" + key + "-" + i, "key-" + key), collector);
+		}
+	    }
+	    aggregator.complete(frames, collector);
+	} finally {
+	    aggregator.cleanup();
+	}
+	assertEquals(60, collector.emitted.size());
+
+	Map<String, Set<String>> repliers = new HashMap<String, Set<String>>();
+	for (Object output : collector.firstValues()) {
+	    String[] parts = ((String) output).split("\t");
+	    String   key   = parts[0].substring(0, parts[0].lastIndexOf('-'));
+	    if (!repliers.containsKey(key)) { repliers.put(key, new HashSet<String>()); }
+	    repliers.get(key).add(parts[1]);
+	}
+	Set<String>  allRepliers = new HashSet<String>();
+	Set<Integer> indices     = new HashSet<Integer>();
+	for (String key : repliers.keySet()) {
+	    assertEquals("Subprocesses replying for " + key, 1, repliers.get(key).size());
+	    allRepliers.addAll(repliers.get(key));
+	    indices.add(WuBatchAggregator.subprocess(key, subprocesses));
+	    for (String other : repliers.keySet()) {
+		boolean sameSubprocess = WuBatchAggregator.subprocess(key, subprocesses) == WuBatchAggregator.subprocess(other, subprocesses);
+		assertEquals(key + " and " + other, sameSubprocess, repliers.get(key).equals(repliers.get(other)));
+	    }
+	}
+	assertTrue("Keys only went to " + allRepliers, allRepliers.size() > 1);
+	assertEquals(indices.size(), allRepliers.size());
+    }
+
+}
@@ -0,0 +1,68 @@
+package com.infochimps.wukong.storm.dataflow;
+
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+public class ZygoteTest extends TestCase {
+
+    private static final String DIRECTORY = System.getProperty("java.io.tmpdir");
+
+    private int replyTimeout;
+    private int acceptTimeout;
+
+    protected void setUp() {
+	replyTimeout  = Zygote.REPLY_TIMEOUT;
+	acceptTimeout = Zygote.ACCEPT_TIMEOUT;
+	Zygote.REPLY_TIMEOUT  = 2000;
+	Zygote.ACCEPT_TIMEOUT = 2000;
+    }
+
+    protected void tearDown() {
+	Zygote.REPLY_TIMEOUT  = replyTimeout;
+	Zygote.ACCEPT_TIMEOUT = acceptTimeout;
+    }
+
+    public void testReturnsTheChildWhichPresentsItsToken() throws IOException {
+	Zygote.Child child = zygote("echo $t >&3").fork();
+	assertEquals(42, child.pid);
+	assertTrue(child.socket.isConnected());
+	child.socket.close();
+    }
+
+    public void testRejectsAConnectionWithoutTheToken() {
+	try {
+	    zygote("echo wrong >&3").fork();
+	    fail("Accepted a connection which presented the wrong token");
+	} catch (IOException e) {
+	    assertTrue(e.getMessage().contains("did not connect"));
+	}
+    }
+
+    public void testGivesUpOnAZygoteWhichDoesNotReply() {
+	Zygote.REPLY_TIMEOUT = 200;
+	try {
+	    Zygote.forDataflow("sleep 10 #", DIRECTORY, null).fork();
+	    fail("Waited for a zygote which never replied");
+	} catch (IOException e) {
+	    assertTrue(e.getMessage().contains("did not reply within 200 ms"));
+	}
+    }
+
+    public void testReportsAZygoteWhichExited() {
+	try {
+	    Zygote.forDataflow("read request; exit 0 #", DIRECTORY, null).fork();
+	    fail("Forked from a zygote which exited");
+	} catch (IOException e) {
+	    assertTrue(e.getMessage().contains("exited"));
+	}
+    }
+
+    // A stand-in zygote which replies to a fork with the PID 42 and
+    // connects to the port itself, then runs the given child.
+    private Zygote zygote(String child) {
+	String script = "read c p t; echo 42; exec 3<>/dev/tcp/127.0.0.1/$p; " + child + "; sleep 5";
+	return Zygote.forDataflow("bash -c '" + script + "'", DIRECTORY, null);
+    }
+
+}
@@ -0,0 +1,123 @@
+package com.infochimps.wukong.storm.spout;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import backtype.storm.task.TopologyContext;
+import backtype.storm.tuple.Fields;
+
+import storm.kafka.KafkaConfig;
+
+import storm.trident.operation.TridentCollector;
+import storm.trident.spout.IOpaquePartitionedTridentSpout;
+import storm.trident.topology.TransactionAttempt;
+
+import com.infochimps.wukong.storm.Tuples;
+
+public class AdaptiveKafkaSpoutTest extends TestCase {
+
+    public void testDoublesWhenAFetchComesBackFull() {
+	AdaptiveKafkaSpout.FetchSize fetchSize = new AdaptiveKafkaSpout.FetchSize(1000, 100, 10000, 60000);
+	fetchSize.update(1000, 10);
+	assertEquals(2000, fetchSize.bytes());
+    }
+
+    public void testClampsDoublingToTheMaximum() {
+	AdaptiveKafkaSpout.FetchSize fetchSize = new AdaptiveKafkaSpout.FetchSize(6000, 100, 10000, 60000);
+	fetchSize.update(6000, 10);
+	assertEquals(10000, fetchSize.bytes());
+    }
+
+    public void testDoesNotOverflowWhenDoublingALargeFetch() {
+	AdaptiveKafkaSpout.FetchSize fetchSize = new AdaptiveKafkaSpout.FetchSize(1500000000, 100, Integer.MAX_VALUE, 60000);
+	fetchSize.update(1500000000L, 10);
+	assertEquals(Integer.MAX_VALUE, fetchSize.bytes());
+    }
+
+    public void testHalvesWhenAFetchComesBackMostlyEmpty() {
+	AdaptiveKafkaSpout.FetchSize fetchSize = new AdaptiveKafkaSpout.FetchSize(1000, 100, 10000, 60000);
+	fetchSize.update(100, 10);
+	assertEquals(500, fetchSize.bytes());
+	fetchSize.update(0, 0);
+	fetchSize.update(0, 0);
+	fetchSize.update(0, 0);
+	assertEquals(100, fetchSize.bytes());
+    }
+
+    public void testHoldsWhenAFetchComesBackPartlyFull() {
+	AdaptiveKafkaSpout.FetchSize fetchSize = new AdaptiveKafkaSpout.FetchSize(1000, 100, 10000, 60000);
+	fetchSize.update(500, 10);
+	assertEquals(1000, fetchSize.bytes());
+    }
+
+    public void testHalvesWhenBatchesAreSlow() throws InterruptedException {
+	AdaptiveKafkaSpout.FetchSize fetchSize = new AdaptiveKafkaSpout.FetchSize(1000, 100, 10000, 1);
+	fetchSize.update(1000, 10);
+	Thread.sleep(10);
+	fetchSize.update(2000, 10);
+	assertEquals(1000, fetchSize.bytes());
+    }
+
+    public void testStaysAboveTwiceTheLargestMessage() {
+	AdaptiveKafkaSpout.FetchSize fetchSize = new AdaptiveKafkaSpout.FetchSize(1000, 100, 10000, 60000);
+	fetchSize.update(0, 400);
+	assertEquals(800, fetchSize.bytes());
+	fetchSize.update(0, 0);
+	assertEquals(800, fetchSize.bytes());
+    }
+
+    public void testCountsFetchedBytesFromOffsetsWithoutChangingTheSpoutsConfig() {
+	KafkaConfig config = new KafkaConfig(null, "topic");
+	config.fetchSizeBytes = 1000;
+	FakeSpout spout = new FakeSpout(config);
+	AdaptiveKafkaSpout<List<BlobPartition>, BlobPartition> adaptive = new AdaptiveKafkaSpout<List<BlobPartition>, BlobPartition>(spout, config, 100, 10000, 60000);
+	IOpaquePartitionedTridentSpout.Emitter<List<BlobPartition>, BlobPartition, Map> emitter = adaptive.getEmitter(new HashMap(), null);
+	BlobPartition partition = new BlobPartition(0);
+	// The records are short but the offsets say the fetch was full.
+	Map meta = emitter.emitPartitionBatch(new TransactionAttempt(1L, 0), new Tuples.Collector(), partition, null);
+	meta     = emitter.emitPartitionBatch(new TransactionAttempt(2L, 0), new Tuples.Collector(), partition, meta);
+	assertEquals(1000, config.fetchSizeBytes);
+	assertEquals(Arrays.asList(1000, 2000), FakeSpout.fetchSizes);
+    }
+
+    // Emits a single short record from a fetch which filled the fetch
+    // size, recording the fetch size of each.
+    private static class FakeSpout implements IOpaquePartitionedTridentSpout<List<BlobPartition>, BlobPartition, Map> {
+
+	static List<Integer> fetchSizes = new ArrayList<Integer>();
+
+	private KafkaConfig config;
+
+	public FakeSpout(KafkaConfig config) {
+	    this.config = config;
+	    fetchSizes.clear();
+	}
+
+	public IOpaquePartitionedTridentSpout.Emitter<List<BlobPartition>, BlobPartition, Map> getEmitter(Map conf, TopologyContext context) {
+	    return new IOpaquePartitionedTridentSpout.Emitter<List<BlobPartition>, BlobPartition, Map>() {
+		public Map emitPartitionBatch(TransactionAttempt tx, TridentCollector collector, BlobPartition partition, Map lastMeta) {
+		    long offset = (lastMeta == null) ? 0 : ((Number) lastMeta.get("nextOffset")).longValue();
+		    fetchSizes.add(config.fetchSizeBytes);
+		    collector.emit(new ArrayList<Object>(Arrays.asList((Object) "record")));
+		    Map<String, Object> meta = new HashMap<String, Object>();
+		    meta.put("offset",     offset);
+		    meta.put("nextOffset", offset + config.fetchSizeBytes);
+		    return meta;
+		}
+		public List<BlobPartition> getOrderedPartitions(List<BlobPartition> partitions) { return partitions; }
+		public void refreshPartitions(List<BlobPartition> partitions) { }
+		public void close() { }
+	    };
+	}
+
+	public IOpaquePartitionedTridentSpout.Coordinator getCoordinator(Map conf, TopologyContext context) { return null; }
+	public Map getComponentConfiguration() { return null; }
+	public Fields getOutputFields() { return new Fields("str"); }
+    }
+
+}
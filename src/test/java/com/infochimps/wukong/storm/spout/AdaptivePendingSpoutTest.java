@@ -0,0 +1,227 @@
+package com.infochimps.wukong.storm.spout;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import junit.framework.TestCase;
+
+import backtype.storm.task.TopologyContext;
+import backtype.storm.tuple.Fields;
+
+import storm.trident.spout.ITridentSpout;
+
+/**
+ * Drives a Limiter the way Trident's master coordinator does: it asks
+ * about each transaction it could start, in order, within WINDOW of
+ * the oldest uncommitted one, skipping those already in flight, and
+ * forgets a failed transaction and every one after it.  Reading a
+ * value from the limiter's metric resets its count of replays.
+ */
+public class AdaptivePendingSpoutTest extends TestCase {
+
+    private static final int WINDOW = 10;
+
+    private long          oldest;
+    private TreeSet<Long> active;
+
+    protected void setUp() {
+	oldest = 1;
+	active = new TreeSet<Long>();
+    }
+
+    public void testStartsWithTheMinimumInFlight() {
+	AdaptivePendingSpout.Limiter limiter = limiter(1, 8, 60000);
+	assertEquals(1, ask(limiter).size());
+	assertEquals(1, value(limiter, "limit"));
+	assertEquals(1, value(limiter, "in_flight"));
+    }
+
+    public void testRaisesTheLimitByOneForEachLimitsWorthOfCommits() {
+	AdaptivePendingSpout.Limiter limiter = limiter(1, 8, 60000);
+	assertEquals(1, start(limiter).size());
+	commitAll();
+	assertEquals(2, start(limiter).size());
+	assertEquals(2, value(limiter, "limit"));
+	commitAll();
+	assertEquals(3, start(limiter).size());
+	assertEquals(3, value(limiter, "limit"));
+    }
+
+    public void testStartsBatchesInOrder() {
+	AdaptivePendingSpout.Limiter limiter = limiter(4, 8, 60000);
+	List<Long> started = new ArrayList<Long>();
+	for (int i = 0; i < 5; i++) {
+	    started.addAll(ask(limiter));
+	    commit(1);
+	}
+	assertEquals(Long.valueOf(1), started.get(0));
+	for (int i = 1; i < started.size(); i++) {
+	    assertEquals(started.get(i - 1) + 1, (long) started.get(i));
+	}
+    }
+
+    public void testHalvesTheLimitWhenABatchIsReplayed() {
+	AdaptivePendingSpout.Limiter limiter = limiter(1, 4, 60000);
+	grow(limiter, 4);
+	List<Long> started = start(limiter);
+	assertEquals(4, started.size());
+	failFrom(started.get(1));
+	List<Long> restarted = ask(limiter);
+	assertEquals(1, value(limiter, "replays"));
+	assertEquals(2, value(limiter, "limit"));
+	assertEquals(started.subList(1, 2), restarted);
+	assertEquals(2, value(limiter, "in_flight"));
+    }
+
+    public void testHalvesTheLimitOnceWhenSeveralBatchesAreSlow() throws InterruptedException {
+	AdaptivePendingSpout.Limiter limiter = limiter(1, 4, 50);
+	grow(limiter, 4);
+	assertEquals(4, start(limiter).size());
+	Thread.sleep(100);
+	commitAll();
+	ask(limiter);
+	assertEquals(2, value(limiter, "limit"));
+    }
+
+    public void testIgnoresReplaysOfBatchesInFlightWhenTheLimitFell() throws InterruptedException {
+	AdaptivePendingSpout.Limiter limiter = limiter(1, 4, 50);
+	grow(limiter, 4);
+	List<Long> started = start(limiter);
+	Thread.sleep(100);
+	commit(1);
+	ask(limiter);
+	assertEquals(2, value(limiter, "limit"));
+	failFrom(started.get(2));
+	ask(limiter);
+	assertEquals(1, value(limiter, "replays"));
+	assertEquals(2, value(limiter, "limit"));
+    }
+
+    public void testHalvesTheLimitAgainForBatchesStartedSinceItFell() throws InterruptedException {
+	AdaptivePendingSpout.Limiter limiter = limiter(1, 4, 50);
+	grow(limiter, 4);
+	start(limiter);
+	Thread.sleep(100);
+	commitAll();
+	assertEquals(2, start(limiter).size());
+	assertEquals(2, value(limiter, "limit"));
+	Thread.sleep(100);
+	commitAll();
+	ask(limiter);
+	assertEquals(1, value(limiter, "limit"));
+    }
+
+    public void testNeverRaisesTheLimitAboveTheMaximum() {
+	AdaptivePendingSpout.Limiter limiter = limiter(1, 3, 60000);
+	for (int i = 0; i < 50; i++) {
+	    ask(limiter);
+	    assertTrue(active.size() <= 3);
+	    commitAll();
+	}
+	assertEquals(3, value(limiter, "limit"));
+    }
+
+    public void testKeepsTheLimitBelowMaxSpoutPending() {
+	AdaptivePendingSpout.Limiter limiter = limiter(1, 50, 60000);
+	for (int i = 0; i < 100; i++) {
+	    ask(limiter);
+	    commitAll();
+	}
+	assertEquals(WINDOW - 1, value(limiter, "limit"));
+    }
+
+    public void testNeverLowersTheLimitBelowTheMinimum() {
+	AdaptivePendingSpout.Limiter limiter = limiter(3, 8, 60000);
+	for (int i = 0; i < 5; i++) {
+	    List<Long> started = start(limiter);
+	    failFrom(started.get(0));
+	}
+	ask(limiter);
+	assertEquals(3, value(limiter, "limit"));
+    }
+
+    public void testLeavesCoordinatorsOtherThanTheMasterUnwrapped() {
+	Coordinator          coordinator = new Coordinator();
+	AdaptivePendingSpout spout       = new AdaptivePendingSpout(new Spout(coordinator), 1, 8, 60000);
+	assertSame(coordinator, spout.getCoordinator("tx", new HashMap(), null));
+    }
+
+    private AdaptivePendingSpout.Limiter limiter(int min, int max, long targetLatency) {
+	AdaptivePendingSpout spout = new AdaptivePendingSpout(null, min, max, targetLatency);
+	return spout.new Limiter(new Coordinator(), WINDOW);
+    }
+
+    // Asks about every batch the master coordinator could start and
+    // returns the ones which were.
+    private List<Long> ask(AdaptivePendingSpout.Limiter limiter) {
+	List<Long> started = new ArrayList<Long>();
+	for (long txid = oldest; txid < oldest + WINDOW; txid++) {
+	    if (active.contains(txid)) { continue; }
+	    if (limiter.isReady(txid)) {
+		active.add(txid);
+		started.add(txid);
+	    }
+	}
+	return started;
+    }
+
+    // Asks until a batch starts.  The limiter only learns of commits
+    // when asked about batches far enough past them, and doesn't
+    // start any in the same round.
+    private List<Long> start(AdaptivePendingSpout.Limiter limiter) {
+	List<Long> started = ask(limiter);
+	for (int i = 0; started.isEmpty() && i < 3; i++) {
+	    started = ask(limiter);
+	}
+	return started;
+    }
+
+    // Starts and commits batches until the limit has grown as given.
+    private void grow(AdaptivePendingSpout.Limiter limiter, int limit) {
+	for (int i = 0; i < 100 && value(limiter, "limit") < limit; i++) {
+	    ask(limiter);
+	    commitAll();
+	}
+	assertEquals(limit, value(limiter, "limit"));
+    }
+
+    private void commitAll() {
+	commit(active.size());
+    }
+
+    private void commit(int batches) {
+	for (int i = 0; i < batches; i++) {
+	    active.remove(oldest);
+	    oldest += 1;
+	}
+    }
+
+    // Trident forgets the failed batch and every one after it.
+    private void failFrom(long txid) {
+	active.tailSet(txid).clear();
+    }
+
+    private int value(AdaptivePendingSpout.Limiter limiter, String key) {
+	return ((Number) ((Map) limiter.getValueAndReset()).get(key)).intValue();
+    }
+
+    private static class Coordinator implements ITridentSpout.BatchCoordinator<Object> {
+	public Object initializeTransaction(long txid, Object prevMetadata, Object currMetadata) { return null; }
+	public void success(long txid) { }
+	public boolean isReady(long txid) { return true; }
+	public void close() { }
+    }
+
+    private static class Spout implements ITridentSpout<Object> {
+	private transient Coordinator coordinator;
+	public Spout(Coordinator coordinator) { this.coordinator = coordinator; }
+	public ITridentSpout.BatchCoordinator<Object> getCoordinator(String txStateId, Map conf, TopologyContext context) { return coordinator; }
+	public ITridentSpout.Emitter<Object> getEmitter(String txStateId, Map conf, TopologyContext context) { return null; }
+	public Map getComponentConfiguration() { return null; }
+	public Fields getOutputFields() { return null; }
+    }
+
+}
@@ -0,0 +1,98 @@
+package com.infochimps.wukong.storm.spout;
+
+import java.io.File;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+import com.infochimps.wukong.storm.TempFiles;
+
+public class BlobIndexTest extends TestCase {
+
+    private File directory;
+    private int  pageSize;
+    private int  chunkSize;
+
+    // Small pages and chunks so markers and offsets span several of
+    // each.
+    protected void setUp() throws IOException {
+	directory = TempFiles.directory("blob-index");
+	pageSize  = BlobIndex.PAGE_SIZE;
+	chunkSize = BlobIndex.CHUNK_SIZE;
+	BlobIndex.PAGE_SIZE  = 7;
+	BlobIndex.CHUNK_SIZE = 20;
+    }
+
+    protected void tearDown() {
+	BlobIndex.PAGE_SIZE  = pageSize;
+	BlobIndex.CHUNK_SIZE = chunkSize;
+	TempFiles.delete(directory);
+    }
+
+    public void testIndexesEveryMarkerInOrder() throws IOException {
+	MemoryBlobStore store = new MemoryBlobStore(markers(0, 50));
+	BlobIndex       index = BlobIndex.open(directory);
+	index.update(store);
+	assertEquals(50, index.size());
+	String[] markers = markers(0, 50);
+	for (int i = 0; i < markers.length; i++) {
+	    assertEquals(markers[i], index.marker(i));
+	}
+    }
+
+    public void testReadsMultibyteMarkersAcrossChunks() throws IOException {
+	String[] markers = new String[] { "caf\u00e9-1", "caf\u00e9-2-\u6f22\u5b57", "caf\u00e9-3-a-much-longer-marker-than-a-chunk" };
+	BlobIndex index = BlobIndex.open(directory);
+	index.update(new MemoryBlobStore(markers));
+	for (int i = 0; i < markers.length; i++) {
+	    assertEquals(markers[i], index.marker(i));
+	}
+    }
+
+    public void testFindsTheMarkerAfterAGivenOne() throws IOException {
+	BlobIndex index = BlobIndex.open(directory);
+	index.update(new MemoryBlobStore(markers(0, 20)));
+	assertEquals(0,  index.after("a"));
+	assertEquals(11, index.after("blob-010"));
+	assertEquals(12, index.after("blob-011"));
+	assertEquals(11, index.after("blob-010x"));
+	assertEquals(20, index.after("blob-019"));
+    }
+
+    public void testExtendsWithMarkersAddedLater() throws IOException {
+	MemoryBlobStore store = new MemoryBlobStore(markers(0, 10));
+	BlobIndex       index = BlobIndex.open(directory);
+	index.update(store);
+	assertEquals("blob-009", index.marker(9));
+	store.add(markers(10, 25));
+	index.update(store);
+	assertEquals(25, index.size());
+	for (int i = 0; i < 25; i++) {
+	    assertEquals(markers(i, i + 1)[0], index.marker(i));
+	}
+    }
+
+    public void testRejectsMarkersOutsideTheIndex() throws IOException {
+	BlobIndex index = BlobIndex.open(directory);
+	index.update(new MemoryBlobStore(markers(0, 3)));
+	try {
+	    index.marker(3);
+	    fail("Read a marker past the end of the index");
+	} catch (IndexOutOfBoundsException e) {
+	}
+	try {
+	    index.marker(-1);
+	    fail("Read a marker before the start of the index");
+	} catch (IndexOutOfBoundsException e) {
+	}
+    }
+
+    private String[] markers(int from, int to) {
+	String[] markers = new String[to - from];
+	for (int i = from; i < to; i++) {
+	    markers[i - from] = String.format("blob-%03d", i);
+	}
+	return markers;
+    }
+
+}
@@ -0,0 +1,126 @@
+package com.infochimps.wukong.storm.spout;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import storm.trident.topology.TransactionAttempt;
+
+import com.infochimps.storm.trident.spout.StartPolicy;
+
+import com.infochimps.wukong.storm.TempFiles;
+import com.infochimps.wukong.storm.Tuples;
+
+public class BlobSpoutTest extends TestCase {
+
+    private File             directory;
+    private Tuples.Collector collector;
+
+    protected void setUp() throws IOException {
+	directory = TempFiles.directory("blob-spout");
+	for (String name : new String[] { "a", "b", "c", "d", "e", "f" }) {
+	    FileOutputStream out = new FileOutputStream(new File(directory, name));
+	    out.write((name + "\n").getBytes("UTF-8"));
+	    out.close();
+	}
+	collector = new Tuples.Collector();
+    }
+
+    protected void tearDown() {
+	TempFiles.delete(directory);
+    }
+
+    public void testStoresThePartitionCountWithEachMarker() {
+	Map meta = emit(spout(StartPolicy.EARLIEST, 2), 0, null);
+	assertEquals(2, meta.get(BlobSpout.PARTITIONS));
+	assertNotNull(meta.get(BlobSpout.MARKER));
+    }
+
+    public void testResumesFromMarkersStoredWithTheSamePartitionCount() {
+	BlobSpout spout = spout(StartPolicy.RESUME, 2);
+	Map       first = emit(spout(StartPolicy.EARLIEST, 2), 0, null);
+	Map       next  = emit(spout, 0, first);
+	assertTrue(((String) next.get(BlobSpout.MARKER)).compareTo((String) first.get(BlobSpout.MARKER)) > 0);
+    }
+
+    public void testRefusesToResumeFromMarkersStoredWithAnotherPartitionCount() {
+	Map meta = emit(spout(StartPolicy.EARLIEST, 2), 0, null);
+	try {
+	    emit(spout(StartPolicy.RESUME, 3), 0, meta);
+	    fail("Resumed from a marker stored with another partition count");
+	} catch (IllegalStateException e) {
+	    assertTrue(e.getMessage().contains("2 partitions"));
+	}
+    }
+
+    public void testStartsOverFromMarkersStoredWithAnotherPartitionCount() {
+	Map stored = new HashMap();
+	stored.put(BlobSpout.MARKER,     "f");
+	stored.put(BlobSpout.PARTITIONS, 2L);
+	Map meta = emit(spout(StartPolicy.EARLIEST, 1), 0, stored);
+	assertEquals("a", meta.get(BlobSpout.MARKER));
+	assertEquals(1, meta.get(BlobSpout.PARTITIONS));
+	assertEquals(1, collector.emitted.size());
+    }
+
+    public void testResumesFromMarkersStoredWithoutAPartitionCount() {
+	Map stored = new HashMap();
+	stored.put(BlobSpout.MARKER, "a");
+	Map meta = emit(spout(StartPolicy.RESUME, 1), 0, stored);
+	assertEquals("b", meta.get(BlobSpout.MARKER));
+    }
+
+    public void testReadsBlobsAddedToAStoreWhichWasEmptyAtStartup() {
+	MemoryBlobStore   store   = new MemoryBlobStore();
+	BlobSpout.Emitter emitter = emitter(new BlobSpout(store, new FusedRecordizer(), Compression.NONE, 1, 0, StartPolicy.RESUME, null));
+	Map               meta    = emit(emitter, 0, null);
+	assertEquals(BlobSpout.BEFORE_FIRST, meta.get(BlobSpout.MARKER));
+	store.add("a", "b");
+	meta = emit(emitter, 0, meta);
+	assertEquals("a", meta.get(BlobSpout.MARKER));
+	meta = emit(emitter, 0, meta);
+	assertEquals("b", meta.get(BlobSpout.MARKER));
+	assertEquals(2, collector.emitted.size());
+    }
+
+    public void testReadsBlobsAddedAfterTheLastBlobAtStartup() {
+	MemoryBlobStore   store   = new MemoryBlobStore("a");
+	BlobSpout.Emitter emitter = emitter(new BlobSpout(store, new FusedRecordizer(), Compression.NONE, 1, 0, StartPolicy.LATEST, null));
+	Map               meta    = emit(emitter, 0, null);
+	assertEquals("a", meta.get(BlobSpout.MARKER));
+	assertTrue(collector.emitted.isEmpty());
+	store.add("b");
+	assertEquals("b", emit(emitter, 0, meta).get(BlobSpout.MARKER));
+	assertEquals(1, collector.emitted.size());
+    }
+
+    public void testListsTheStoreOnceToStartEveryPartition() {
+	MemoryBlobStore   store   = new MemoryBlobStore("a", "b", "c");
+	BlobSpout.Emitter emitter = emitter(new BlobSpout(store, new FusedRecordizer(), Compression.NONE, 4, 0, StartPolicy.RESUME, null));
+	for (int partition = 0; partition < 4; partition++) {
+	    assertEquals("c", emit(emitter, partition, null).get(BlobSpout.MARKER));
+	}
+	assertEquals(1, store.lastMarkers);
+    }
+
+    private BlobSpout spout(StartPolicy startPolicy, int partitions) {
+	return new BlobSpout(new FileBlobStore(directory.getPath()), new FusedRecordizer(), Compression.NONE, partitions, 0, startPolicy, null);
+    }
+
+    private Map emit(BlobSpout spout, int partition, Map lastMeta) {
+	return emit(emitter(spout), partition, lastMeta);
+    }
+
+    private BlobSpout.Emitter emitter(BlobSpout spout) {
+	return (BlobSpout.Emitter) spout.getEmitter(new HashMap(), null);
+    }
+
+    private Map emit(BlobSpout.Emitter emitter, int partition, Map lastMeta) {
+	return emitter.emitPartitionBatch(new TransactionAttempt(1L, 0), collector, new BlobPartition(partition), lastMeta);
+    }
+
+}
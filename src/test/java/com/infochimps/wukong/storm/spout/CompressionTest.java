@@ -0,0 +1,116 @@
+package com.infochimps.wukong.storm.spout;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
+
+public class CompressionTest extends TestCase {
+
+    private static final String CONTENT = "hello\nworld\n";
+
+    // A zstd frame holding "hello\n" in a single raw block.
+    private static final byte[] ZSTD_HELLO = {
+	(byte) 0x28, (byte) 0xb5, (byte) 0x2f, (byte) 0xfd, 0x20, 0x06, 0x31, 0x00, 0x00,
+	'h', 'e', 'l', 'l', 'o', '\n'
+    };
+
+    private File file;
+
+    protected void setUp() throws IOException {
+	file = File.createTempFile("wukong-blob-", "");
+    }
+
+    protected void tearDown() {
+	file.delete();
+    }
+
+    public void testDetectsGzipByItsMagicBytes() throws IOException {
+	assertEquals(CONTENT, read(Compression.AUTO, "blob", gzip(CONTENT)));
+    }
+
+    public void testDetectsGzipByItsMagicBytesInAFile() throws IOException {
+	assertEquals(CONTENT, readFile(Compression.AUTO, "blob", gzip(CONTENT)));
+    }
+
+    public void testDetectsBzip2ByItsMagicBytes() throws IOException {
+	assertEquals(CONTENT, read(Compression.AUTO, "blob", bzip2(CONTENT)));
+    }
+
+    public void testDetectsZstdByItsMagicBytes() throws IOException {
+	assertEquals("hello\n", read(Compression.AUTO, "blob", ZSTD_HELLO));
+    }
+
+    public void testDetectsGzipByItsExtension() throws IOException {
+	assertEquals(CONTENT, read(Compression.AUTO, "blob.gz", gzip(CONTENT)));
+    }
+
+    public void testReadsUncompressedBlobsAsTheyAre() throws IOException {
+	assertEquals(CONTENT, read(Compression.AUTO, "blob", CONTENT.getBytes("UTF-8")));
+	assertEquals(CONTENT, readFile(Compression.AUTO, "blob", CONTENT.getBytes("UTF-8")));
+    }
+
+    public void testReadsTextWhichOnlyLooksLikeBzip2AsItIs() throws IOException {
+	assertEquals("BZhello\n", read(Compression.AUTO, "blob", "BZhello\n".getBytes("UTF-8")));
+    }
+
+    public void testReadsBlobsShorterThanAnyMagicAsTheyAre() throws IOException {
+	assertEquals("a",  read(Compression.AUTO, "blob", "a".getBytes("UTF-8")));
+	assertEquals("a",  readFile(Compression.AUTO, "blob", "a".getBytes("UTF-8")));
+	assertEquals("",   read(Compression.AUTO, "blob", new byte[0]));
+    }
+
+    public void testOnlyDetectsWhenAuto() throws IOException {
+	byte[] gzipped = gzip(CONTENT);
+	assertEquals(new String(gzipped, "ISO-8859-1"), new String(readBytes(Compression.NONE.decompress("blob", new ByteArrayInputStream(gzipped))), "ISO-8859-1"));
+    }
+
+    private String read(Compression compression, String marker, byte[] blob) throws IOException {
+	return new String(readBytes(compression.decompress(marker, new ByteArrayInputStream(blob))), "UTF-8");
+    }
+
+    private String readFile(Compression compression, String marker, byte[] blob) throws IOException {
+	FileOutputStream out = new FileOutputStream(file);
+	out.write(blob);
+	out.close();
+	return new String(readBytes(compression.decompress(marker, new FileBlob(new FileInputStream(file).getChannel(), null))), "UTF-8");
+    }
+
+    private byte[] readBytes(InputStream in) throws IOException {
+	ByteArrayOutputStream out    = new ByteArrayOutputStream();
+	byte[]                buffer = new byte[4096];
+	int                   n;
+	try {
+	    while ((n = in.read(buffer)) != -1) { out.write(buffer, 0, n); }
+	} finally {
+	    in.close();
+	}
+	return out.toByteArray();
+    }
+
+    private byte[] gzip(String content) throws IOException {
+	ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+	OutputStream          out   = new GZIPOutputStream(bytes);
+	out.write(content.getBytes("UTF-8"));
+	out.close();
+	return bytes.toByteArray();
+    }
+
+    private byte[] bzip2(String content) throws IOException {
+	ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+	OutputStream          out   = new BZip2CompressorOutputStream(bytes);
+	out.write(content.getBytes("UTF-8"));
+	out.close();
+	return bytes.toByteArray();
+    }
+
+}
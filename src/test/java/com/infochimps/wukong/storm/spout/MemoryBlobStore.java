@@ -0,0 +1,101 @@
+package com.infochimps.wukong.storm.spout;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Blobs held in memory, each holding "blob MARKER".
+ *
+ * Records every blob opened and every listing.  Opening a blob can
+ * be made to fail, or to block until released, to stand in for a
+ * slow or flaky store.
+ */
+class MemoryBlobStore implements BlobStore {
+
+    private TreeMap<String, String> blobs = new TreeMap<String, String>();
+
+    // How many times the last marker was looked up.
+    public int lastMarkers;
+
+    // The markers opened, and listed after, in order, and those
+    // whose open was interrupted while blocked.
+    public final List<String> opened      = Collections.synchronizedList(new ArrayList<String>());
+    public final List<String> listedAfter = new ArrayList<String>();
+    public final List<String> interrupted = Collections.synchronizedList(new ArrayList<String>());
+
+    private final Set<String>    failing = Collections.synchronizedSet(new HashSet<String>());
+    private final Set<String>    blocked = Collections.synchronizedSet(new HashSet<String>());
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    public MemoryBlobStore(String... markers) {
+	add(markers);
+    }
+
+    public void add(String... markers) {
+	for (String marker : markers) { blobs.put(marker, "blob " + marker); }
+    }
+
+    // The next open of each of the given blobs fails.
+    public void failOnce(String... markers) {
+	failing.addAll(Arrays.asList(markers));
+    }
+
+    // Opening any of the given blobs blocks until #release is called.
+    public void block(String... markers) {
+	blocked.addAll(Arrays.asList(markers));
+    }
+
+    public void release() {
+	release.countDown();
+    }
+
+    public void initialize() { }
+
+    public String firstMarker() { return blobs.isEmpty() ? null : blobs.firstKey(); }
+
+    public String lastMarker() {
+	lastMarkers += 1;
+	return blobs.isEmpty() ? null : blobs.lastKey();
+    }
+
+    public String nextMarker(String marker) { return blobs.higherKey(marker); }
+
+    public List<String> nextMarkers(String marker, int limit) {
+	listedAfter.add(marker);
+	List<String> markers = new ArrayList<String>();
+	for (String next : blobs.tailMap(marker, false).keySet()) {
+	    if (markers.size() >= limit) { break; }
+	    markers.add(next);
+	}
+	return markers;
+    }
+
+    public InputStream open(String marker) throws IOException {
+	opened.add(marker);
+	if (failing.remove(marker)) {
+	    throw new IOException("Could not open blob " + marker);
+	}
+	if (blocked.contains(marker)) {
+	    try {
+		release.await();
+	    } catch (InterruptedException e) {
+		interrupted.add(marker);
+		throw new InterruptedIOException("Interrupted while opening blob " + marker);
+	    }
+	}
+	return new ByteArrayInputStream(blobs.get(marker).getBytes("UTF-8"));
+    }
+
+    public void close() { }
+
+}
@@ -0,0 +1,110 @@
+package com.infochimps.wukong.storm.spout;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class PrefetchingBlobStoreTest extends TestCase {
+
+    public void testReadsEveryBlobInOrder() throws IOException {
+	PrefetchingBlobStore store = store();
+	StringBuilder read = new StringBuilder();
+	for (String marker = store.firstMarker(); marker != null; marker = store.nextMarker(marker)) {
+	    read.append(read(store.open(marker))).append(';');
+	}
+	store.close();
+	assertEquals("blob a;blob b;blob c;blob d;blob e;", read.toString());
+    }
+
+    public void testStopsItsThreadsWhenClosed() throws IOException, InterruptedException {
+	PrefetchingBlobStore store = store();
+	read(store.open(store.firstMarker()));
+	assertTrue(prefetchThreads() > 0);
+	store.close();
+	for (int i = 0; i < 100 && prefetchThreads() > 0; i++) { Thread.sleep(10); }
+	assertEquals(0, prefetchThreads());
+    }
+
+    // Replaying a batch asks for the blob after one which was already
+    // read, so is off the listing.
+    public void testStartsAgainFromAMarkerOffTheListing() throws IOException, InterruptedException {
+	MemoryBlobStore      blobs = new MemoryBlobStore("a", "b", "c", "d", "e", "f");
+	PrefetchingBlobStore store = store(blobs);
+	blobs.block("d", "e");
+	assertEquals("blob c", read(store.open("c")));
+	assertEquals(Arrays.asList("c"), blobs.listedAfter);
+	for (int i = 0; i < 100 && blobs.opened.size() < 3; i++) { Thread.sleep(10); }
+	assertEquals(Arrays.asList("c", "d", "e"), sorted(blobs.opened));
+
+	assertEquals("b", store.nextMarker("a"));
+	for (int i = 0; i < 100 && blobs.interrupted.size() < 2; i++) { Thread.sleep(10); }
+	assertEquals(Arrays.asList("d", "e"), sorted(blobs.interrupted));
+	assertEquals(Arrays.asList("c", "a"), blobs.listedAfter);
+
+	blobs.release();
+	StringBuilder read = new StringBuilder();
+	for (String marker = "b"; marker != null; marker = store.nextMarker(marker)) {
+	    read.append(read(store.open(marker))).append(';');
+	}
+	store.close();
+	assertEquals("blob b;blob c;blob d;blob e;blob f;", read.toString());
+    }
+
+    public void testReadsABlobDirectlyWhenItsDownloadFails() throws IOException {
+	MemoryBlobStore      blobs = new MemoryBlobStore("a", "b", "c");
+	PrefetchingBlobStore store = store(blobs);
+	blobs.failOnce("b");
+	assertEquals("blob a", read(store.open("a")));
+	assertEquals("b", store.nextMarker("a"));
+	assertEquals("blob b", read(store.open("b")));
+	store.close();
+	int opens = 0;
+	for (String marker : blobs.opened) {
+	    if (marker.equals("b")) { opens++; }
+	}
+	assertEquals(2, opens);
+    }
+
+    private PrefetchingBlobStore store() {
+	return store(new MemoryBlobStore("a", "b", "c", "d", "e"));
+    }
+
+    private PrefetchingBlobStore store(MemoryBlobStore blobs) {
+	PrefetchingBlobStore store = new PrefetchingBlobStore(blobs, 2);
+	store.initialize();
+	return store;
+    }
+
+    private List<String> sorted(List<String> markers) {
+	List<String> copy = new ArrayList<String>(markers);
+	Collections.sort(copy);
+	return copy;
+    }
+
+    private int prefetchThreads() {
+	int count = 0;
+	for (Thread thread : Thread.getAllStackTraces().keySet()) {
+	    if (thread.isAlive() && thread.getName().equals("blob-prefetch")) { count++; }
+	}
+	return count;
+    }
+
+    private String read(InputStream in) throws IOException {
+	ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+	try {
+	    byte[] buffer = new byte[4096];
+	    int    read;
+	    while ((read = in.read(buffer)) > 0) { bytes.write(buffer, 0, read); }
+	} finally {
+	    in.close();
+	}
+	return new String(bytes.toByteArray(), "UTF-8");
+    }
+
+}
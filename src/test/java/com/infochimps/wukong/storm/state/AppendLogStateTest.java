@@ -0,0 +1,121 @@
+package com.infochimps.wukong.storm.state;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import storm.trident.tuple.TridentTuple;
+
+import com.infochimps.wukong.storm.TempFiles;
+import com.infochimps.wukong.storm.Tuples;
+
+public class AppendLogStateTest extends TestCase {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private File directory;
+
+    protected void setUp() throws IOException {
+	directory = TempFiles.directory("append-log-state");
+    }
+
+    protected void tearDown() {
+	TempFiles.delete(directory);
+    }
+
+    public void testCommitsBatchesInOrder() throws IOException {
+	AppendLogState state = new AppendLogState(directory, 64);
+	write(state, 1L, "a", "b");
+	write(state, 2L, "c");
+	assertEquals("a\nb\nc\n", committed());
+    }
+
+    public void testRewritesTheLastTxidWhenReplayedWithDifferentRecords() throws IOException {
+	AppendLogState state = new AppendLogState(directory, 64);
+	write(state, 1L, "a", "b");
+	write(state, 2L, "c");
+	write(state, 2L, "d", "e");
+	assertEquals("a\nb\nd\ne\n", committed());
+	write(state, 3L, "f");
+	assertEquals("a\nb\nd\ne\nf\n", committed());
+    }
+
+    public void testSkipsTxidsOlderThanTheLastCommitted() throws IOException {
+	AppendLogState state = new AppendLogState(directory, 64);
+	write(state, 1L, "a");
+	write(state, 2L, "b");
+	write(state, 1L, "x");
+	assertEquals("a\nb\n", committed());
+    }
+
+    public void testRewritesTheLastTxidAfterReopening() throws IOException {
+	write(new AppendLogState(directory, 64), 1L, "a");
+	write(new AppendLogState(directory, 64), 2L, "b");
+	write(new AppendLogState(directory, 64), 2L, "c");
+	assertEquals("a\nc\n", committed());
+    }
+
+    public void testRewritesAcrossSegments() throws IOException {
+	AppendLogState state = new AppendLogState(directory, 8);
+	write(state, 1L, "aaaaaa");
+	write(state, 2L, "bbbbbb", "cccccc");
+	write(state, 2L, "dddddd");
+	assertEquals("aaaaaa\ndddddd\n", committed());
+    }
+
+    public void testDiscardsAnAttemptWhichNeverCommitted() throws IOException {
+	AppendLogState state = new AppendLogState(directory, 64);
+	write(state, 1L, "a");
+	state.beginCommit(2L);
+	state.append(tuples("lost"));
+	write(state, 2L, "b");
+	assertEquals("a\nb\n", committed());
+    }
+
+    private void write(AppendLogState state, Long txid, String... records) {
+	state.beginCommit(txid);
+	state.append(tuples(records));
+	state.commit(txid);
+    }
+
+    private List<TridentTuple> tuples(String... records) {
+	List<TridentTuple> tuples = new ArrayList<TridentTuple>();
+	for (String record : records) { tuples.add(Tuples.of(record)); }
+	return tuples;
+    }
+
+    // The log's segments, concatenated in order, up to the offset in
+    // the checkpoint.
+    private String committed() throws IOException {
+	String[] checkpoint = read(new File(directory, "checkpoint")).trim().split(" ");
+	long     end        = Long.parseLong(checkpoint[1]);
+	String[] names      = directory.list();
+	Arrays.sort(names);
+	StringBuilder log = new StringBuilder();
+	for (String name : names) {
+	    if (name.endsWith(".log")) { log.append(read(new File(directory, name))); }
+	}
+	return log.substring(0, (int) end);
+    }
+
+    private String read(File file) throws IOException {
+	ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+	FileInputStream       in    = new FileInputStream(file);
+	try {
+	    byte[] buffer = new byte[4096];
+	    int    read;
+	    while ((read = in.read(buffer)) > 0) { bytes.write(buffer, 0, read); }
+	} finally {
+	    in.close();
+	}
+	return new String(bytes.toByteArray(), UTF8);
+    }
+
+}